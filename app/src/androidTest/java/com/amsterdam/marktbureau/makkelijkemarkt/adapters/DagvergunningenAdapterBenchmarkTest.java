@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.adapters;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.widget.FrameLayout;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the dagvergunningen adapter with a 500-row dagvergunning cursor: how many times per
+ * second it reads the cursor into its items, and how many items per second it binds to a
+ * viewholder. The results are written to the log
+ * @author marcolangebeeke
+ */
+public class DagvergunningenAdapterBenchmarkTest extends AndroidTestCase {
+
+    // use this to identify this class's log statements
+    private static final String LOG_TAG = DagvergunningenAdapterBenchmarkTest.class.getSimpleName();
+
+    // the size of the cursor, and how often we repeat the measurement
+    private static final int mRowCount = 500;
+    private static final int mRounds = 20;
+
+    private static final long mTimeoutSeconds = 60;
+
+    // the columns of the dagvergunning joined uri the adapter reads
+    private static final String[] mColumns = {
+            MakkelijkeMarktProvider.Dagvergunning.COL_ID,
+            MakkelijkeMarktProvider.Koopman.COL_FOTO_URL,
+            "koopman_status",
+            MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS,
+            MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM,
+            MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER,
+            MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_DATUMTIJD,
+            MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE,
+            MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER,
+            MakkelijkeMarktProvider.Dagvergunning.COL_STATUS_SOLLICITATIE,
+            MakkelijkeMarktProvider.Dagvergunning.COL_NOTITIE,
+            MakkelijkeMarktProvider.Dagvergunning.COL_TOTALE_LENGTE,
+            MakkelijkeMarktProvider.Account.COL_NAAM
+    };
+
+    private Context mThemedContext;
+    private Throwable mMainThreadError;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThemedContext = new ContextThemeWrapper(getContext(), R.style.AppTheme);
+    }
+
+    /**
+     * Read the cursor into the adapter items, from an empty list so the items are swapped in
+     * directly instead of calculating the differences
+     */
+    public void testSwapCursor() throws Exception {
+        final MatrixCursor cursor = createDagvergunningenCursor();
+        final long[] elapsed = new long[1];
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                DagvergunningenAdapter adapter = new DagvergunningenAdapter(mThemedContext, null);
+                long start = System.nanoTime();
+                for (int round = 0; round < mRounds; round++) {
+                    adapter.swapCursor(null);
+                    adapter.swapCursor(cursor);
+                }
+                elapsed[0] = System.nanoTime() - start;
+                assertEquals(mRowCount, adapter.getItemCount());
+            }
+        });
+
+        Log.i(LOG_TAG, String.format(Locale.US, "swapCursor: %.0f rows/s",
+                perSecond(mRowCount * mRounds, elapsed[0])));
+    }
+
+    /**
+     * Bind every dagvergunning of the cursor to the same viewholder, like scrolling the list
+     */
+    public void testBindViewHolder() throws Exception {
+        final MatrixCursor cursor = createDagvergunningenCursor();
+        final long[] elapsed = new long[1];
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                DagvergunningenAdapter adapter = new DagvergunningenAdapter(mThemedContext, null);
+                adapter.swapCursor(cursor);
+                DagvergunningenAdapter.ViewHolder viewHolder = adapter.onCreateViewHolder(new FrameLayout(mThemedContext), 0);
+
+                // warm up once, then measure
+                for (int position = 0; position < mRowCount; position++) {
+                    adapter.onBindViewHolder(viewHolder, position);
+                }
+                long start = System.nanoTime();
+                for (int round = 0; round < mRounds; round++) {
+                    for (int position = 0; position < mRowCount; position++) {
+                        adapter.onBindViewHolder(viewHolder, position);
+                    }
+                }
+                elapsed[0] = System.nanoTime() - start;
+            }
+        });
+
+        Log.i(LOG_TAG, String.format(Locale.US, "onBindViewHolder: %.0f binds/s",
+                perSecond(mRowCount * mRounds, elapsed[0])));
+    }
+
+    /**
+     * Run on the main thread, where the adapter and views live, and wait until it is done
+     * @param runnable the code to run
+     */
+    private void runOnMainThread(final Runnable runnable) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainThreadError = null;
+
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    mMainThreadError = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+
+        assertTrue("Timeout running on the main thread", done.await(mTimeoutSeconds, TimeUnit.SECONDS));
+        if (mMainThreadError != null) {
+            throw new Exception(mMainThreadError);
+        }
+    }
+
+    /**
+     * Calculate the operations per second
+     * @param count the amount of operations
+     * @param elapsed the nanoseconds they took
+     * @return the operations per second
+     */
+    private double perSecond(int count, long elapsed) {
+        return count / (elapsed / 1000000000.0);
+    }
+
+    /**
+     * Create a cursor with dagvergunningen like the dagvergunning joined uri returns, without a
+     * koopman foto so the benchmark does not depend on the network
+     * @return the cursor
+     */
+    private MatrixCursor createDagvergunningenCursor() {
+        MatrixCursor cursor = new MatrixCursor(mColumns, mRowCount);
+        for (int i = 0; i < mRowCount; i++) {
+            cursor.addRow(new Object[] {
+                    i + 1,
+                    null,
+                    "Actief",
+                    "T.",
+                    "Test " + i,
+                    i % 10 == 0 ? "9999999999" : null,
+                    String.format(Locale.US, "2016-01-01 %02d:%02d:00", 8 + (i / 60) % 8, i % 60),
+                    String.valueOf(1000000000 + (i % 450)),
+                    i % 3 == 0 ? null : String.valueOf(i),
+                    i % 3 == 0 ? "lot" : "soll",
+                    i % 5 == 0 ? "Notitie " + i : null,
+                    String.valueOf(3 + i % 6),
+                    "Toezichthouder"
+            });
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Fetch the sollicitaties of a test markt from a stand-in server that answers the second request
+ * with a 304, and check that an unchanged page is only skipped when its items are still stored
+ * @author marcolangebeeke
+ */
+public class ApiPaginatedCallTest extends AndroidTestCase {
+
+    // ids that do not exist in the api, so the test rows are easy to clean up
+    private static final int mMarktId = 999001;
+    private static final int mKoopmanId = 999001;
+    private static final int mSollicitatieCount = 2;
+
+    private static final long mTimeoutSeconds = 10;
+
+    private StandInServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestRows();
+
+        mServer = new StandInServer(createSollicitatiesJson(), "sollicitaties-v1");
+        mServer.addHeader("X-Api-ListSize", String.valueOf(mSollicitatieCount));
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteTestRows();
+        super.tearDown();
+    }
+
+    /**
+     * An unchanged page whose sollicitaties are stored is not read again
+     */
+    public void testNotModifiedPageIsSkippedWhenStored() throws Exception {
+        CountingGetSollicitaties first = fetch();
+        assertEquals(mSollicitatieCount, first.mTotalListSize);
+        assertEquals(1, first.mPagesRead);
+        assertEquals(mSollicitatieCount, countTestSollicitaties());
+
+        CountingGetSollicitaties second = fetch();
+        assertEquals(mSollicitatieCount, second.mTotalListSize);
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(0, second.mPagesRead);
+    }
+
+    /**
+     * An unchanged page is read from the http cache when its sollicitaties were removed
+     */
+    public void testNotModifiedPageIsReadWhenRemoved() throws Exception {
+        fetch();
+        deleteTestRows();
+        assertEquals(0, countTestSollicitaties());
+
+        CountingGetSollicitaties second = fetch();
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(1, second.mPagesRead);
+        assertEquals(mSollicitatieCount, countTestSollicitaties());
+    }
+
+    /**
+     * Fetch the sollicitaties of the test markt from the stand-in server and wait until done
+     * @return the completed call
+     */
+    private CountingGetSollicitaties fetch() throws InterruptedException {
+        final CountingGetSollicitaties call = new CountingGetSollicitaties(getContext());
+        call.setBaseUrl(mServer.getUrl());
+        call.setMarktId(mMarktId);
+
+        // the paginated call keeps its state on the main thread
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (!call.enqueue()) {
+                    call.onCompleted(-1, "Not enqueued");
+                }
+            }
+        });
+
+        assertTrue("Timeout fetching sollicitaties", call.mCompleted.await(mTimeoutSeconds, TimeUnit.SECONDS));
+        assertNull(call.mMessage, call.mMessage);
+        return call;
+    }
+
+    /**
+     * Create a page of sollicitaties with their koopman for the test markt
+     * @return the json
+     */
+    private String createSollicitatiesJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < mSollicitatieCount; i++) {
+            if (i > 0) {
+                json.append(",");
+            }
+            json.append("{\"id\":").append(mMarktId + i)
+                    .append(",\"sollicitatieNummer\":").append(i + 1)
+                    .append(",\"status\":\"soll\"")
+                    .append(",\"markt\":{\"id\":").append(mMarktId).append("}")
+                    .append(",\"koopman\":{\"id\":").append(mKoopmanId + i)
+                    .append(",\"erkenningsnummer\":\"99900100").append(i).append("\"")
+                    .append(",\"voorletters\":\"T.\",\"achternaam\":\"Test\"}}");
+        }
+        return json.append("]").toString();
+    }
+
+    /**
+     * Count the stored sollicitaties of the test markt
+     * @return the count
+     */
+    private int countTestSollicitaties() {
+        return ApiStreamReader.count(getContext(), MakkelijkeMarktProvider.mUriSollicitatie,
+                MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
+                new String[] { String.valueOf(mMarktId) });
+    }
+
+    /**
+     * Remove the sollicitaties and koopmannen of the test
+     */
+    private void deleteTestRows() {
+        getContext().getContentResolver().delete(
+                MakkelijkeMarktProvider.mUriSollicitatie,
+                MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
+                new String[] { String.valueOf(mMarktId) });
+        getContext().getContentResolver().delete(
+                MakkelijkeMarktProvider.mUriKoopman,
+                MakkelijkeMarktProvider.Koopman.COL_ID + " >= ? AND " + MakkelijkeMarktProvider.Koopman.COL_ID + " < ? ",
+                new String[] { String.valueOf(mKoopmanId), String.valueOf(mKoopmanId + mSollicitatieCount) });
+    }
+
+    /**
+     * Get sollicitaties call that counts the pages it reads, and signals when it completed instead
+     * of informing the app
+     */
+    private static class CountingGetSollicitaties extends ApiGetSollicitaties {
+        private final CountDownLatch mCompleted = new CountDownLatch(1);
+        private volatile int mPagesRead = 0;
+        private int mTotalListSize;
+        private String mMessage;
+
+        private CountingGetSollicitaties(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected int readPage(ResponseBody body) throws IOException {
+            mPagesRead++;
+            return super.readPage(body);
+        }
+
+        @Override
+        protected void onCompleted(int totalListSize, String message) {
+            mTotalListSize = totalListSize;
+            mMessage = message;
+            mCompleted.countDown();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiSollicitatie;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark parsing a page of 1000 sollicitaties with their koopman and markt, with the reflective
+ * adapters of a plain gson instance and with the hand-written adapters of the shared gson
+ * instance. It runs on the device, because the reflection cost on art is what we want to measure.
+ * The pages per second are written to the log
+ * @author marcolangebeeke
+ */
+public class ApiTypeAdapterBenchmarkTest extends AndroidTestCase {
+
+    // use this to identify this class's log statements
+    private static final String LOG_TAG = ApiTypeAdapterBenchmarkTest.class.getSimpleName();
+
+    // the size of the page, and how often we parse it after warming up
+    private static final int mPageSize = 1000;
+    private static final int mWarmUpRounds = 3;
+    private static final int mRounds = 10;
+
+    private static final Type mPageType = new TypeToken<List<ApiSollicitatie>>(){}.getType();
+
+    /**
+     * Parse the page with both gson instances, and check they read the same values
+     */
+    public void testReflectiveVersusHandWritten() {
+        String json = createSollicitatiesJson();
+        Gson reflective = new Gson();
+        Gson handWritten = ApiTypeAdapterFactory.getGson();
+
+        List<ApiSollicitatie> reflectivePage = parse(reflective, json, mWarmUpRounds);
+        List<ApiSollicitatie> handWrittenPage = parse(handWritten, json, mWarmUpRounds);
+        assertSamePage(reflectivePage, handWrittenPage);
+
+        long start = System.nanoTime();
+        parse(reflective, json, mRounds);
+        double reflectivePerSecond = perSecond(start);
+
+        start = System.nanoTime();
+        parse(handWritten, json, mRounds);
+        double handWrittenPerSecond = perSecond(start);
+
+        Log.i(LOG_TAG, String.format(Locale.US, "%d sollicitaties, reflective: %.1f pages/s, hand-written: %.1f pages/s (%.1fx)",
+                mPageSize, reflectivePerSecond, handWrittenPerSecond, handWrittenPerSecond / reflectivePerSecond));
+    }
+
+    /**
+     * Parse the page a number of times
+     * @param gson the gson instance to parse with
+     * @param json the json of the page
+     * @param rounds how often to parse it
+     * @return the last parsed page
+     */
+    private List<ApiSollicitatie> parse(Gson gson, String json, int rounds) {
+        List<ApiSollicitatie> page = null;
+        for (int round = 0; round < rounds; round++) {
+            page = gson.fromJson(json, mPageType);
+        }
+        return page;
+    }
+
+    /**
+     * Check that both adapters read the same values
+     * @param expected the page read by the reflective adapters
+     * @param actual the page read by the hand-written adapters
+     */
+    private void assertSamePage(List<ApiSollicitatie> expected, List<ApiSollicitatie> actual) {
+        assertEquals(mPageSize, expected.size());
+        assertEquals(mPageSize, actual.size());
+        for (int i = 0; i < mPageSize; i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getSollicitatieNummer(), actual.get(i).getSollicitatieNummer());
+            assertEquals(expected.get(i).getStatus(), actual.get(i).getStatus());
+            assertEquals(expected.get(i).getVastePlaatsenAsCsv(), actual.get(i).getVastePlaatsenAsCsv());
+            assertEquals(expected.get(i).getAantal3MeterKramen(), actual.get(i).getAantal3MeterKramen());
+            assertEquals(expected.get(i).getKrachtstroom(), actual.get(i).getKrachtstroom());
+            assertEquals(expected.get(i).getMarkt().getId(), actual.get(i).getMarkt().getId());
+            assertEquals(expected.get(i).getKoopman().getErkenningsnummer(), actual.get(i).getKoopman().getErkenningsnummer());
+            assertEquals(expected.get(i).getKoopman().getAchternaam(), actual.get(i).getKoopman().getAchternaam());
+        }
+    }
+
+    /**
+     * Calculate the pages per second of the measured rounds
+     * @param start the nano time the rounds started
+     * @return the pages per second
+     */
+    private double perSecond(long start) {
+        return mRounds / ((System.nanoTime() - start) / 1000000000.0);
+    }
+
+    /**
+     * Create a page of sollicitaties like the api sends them
+     * @return the json
+     */
+    private String createSollicitatiesJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < mPageSize; i++) {
+            if (i > 0) {
+                json.append(",");
+            }
+            json.append("{\"id\":").append(i + 1)
+                    .append(",\"sollicitatieNummer\":").append(i + 1)
+                    .append(",\"status\":\"").append(i % 3 == 0 ? "vpl" : "soll").append("\"")
+                    .append(",\"vastePlaatsen\":[\"").append(i).append("\",\"").append(i + 1).append("\"]")
+                    .append(",\"doorgehaald\":false,\"doorgehaaldReden\":null")
+                    .append(",\"aantal3MeterKramen\":").append(i % 3)
+                    .append(",\"aantal4MeterKramen\":").append(i % 2)
+                    .append(",\"aantalExtraMeters\":0,\"aantalElektra\":1,\"afvaleiland\":0")
+                    .append(",\"krachtstroom\":").append(i % 4 == 0)
+                    .append(",\"reiniging\":false,\"eenmaligElektra\":false")
+                    .append(",\"markt\":{\"id\":1,\"naam\":\"Test markt\",\"afkorting\":\"TM\"}")
+                    .append(",\"koopman\":{\"id\":").append(i + 1)
+                    .append(",\"erkenningsnummer\":\"").append(1000000000 + i).append("\"")
+                    .append(",\"voorletters\":\"T.\",\"achternaam\":\"Test ").append(i).append("\"")
+                    .append(",\"telefoon\":null,\"email\":null")
+                    .append(",\"fotoUrl\":\"https://example.org/foto/").append(i).append(".jpg\"")
+                    .append(",\"fotoMediumUrl\":\"https://example.org/foto/").append(i).append("-medium.jpg\"")
+                    .append(",\"status\":\"Actief\",\"perfectViewNummer\":").append(i)
+                    .append(",\"pasUid\":\"").append(String.format(Locale.US, "%016x", i)).append("\"}}");
+        }
+        return json.append("]").toString();
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for the makkelijkemarkt api on the device, answering every request with the same
+ * json body and etag. A request with a matching If-None-Match header gets a 304, like the api does
+ * for an unchanged list, so the http cache handling can be tested without the real api
+ * @author marcolangebeeke
+ */
+public class StandInServer {
+
+    private static final Charset mCharset = Charset.forName("UTF-8");
+
+    // the response we serve
+    private final String mBody;
+    private final String mEtag;
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+    // the requests we received, and how many of them we answered with a 304
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    private ServerSocket mServerSocket;
+
+    /**
+     * Constructor
+     * @param body the json body to serve
+     * @param etag the etag of the body
+     */
+    public StandInServer(String body, String etag) {
+        mBody = body;
+        mEtag = "\"" + etag + "\"";
+    }
+
+    /**
+     * Add a header to the responses, like the X-Api-ListSize of a paginated list
+     * @param name the header name
+     * @param value the header value
+     */
+    public void addHeader(String name, String value) {
+        mHeaders.put(name, value);
+    }
+
+    /**
+     * Start listening on a free local port
+     * @throws IOException when the socket can not be opened
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        serve(mServerSocket.accept());
+                    } catch (IOException e) {
+                        // the socket was closed
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Stop listening
+     */
+    public void shutdown() {
+        try {
+            if (mServerSocket != null) {
+                mServerSocket.close();
+            }
+        } catch (IOException e) {
+            // nothing to clean up
+        }
+    }
+
+    /**
+     * Get the base url of the server, to use as the api base url
+     * @return the base url
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    /**
+     * Get the number of requests we received
+     * @return the request count
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Get the number of requests we answered with a 304
+     * @return the not modified count
+     */
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    /**
+     * Read a request and write the response, closing the connection afterwards
+     * @param socket the socket of the connection
+     */
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), mCharset));
+
+            // read the request line and the headers, a get request has no body
+            String line = reader.readLine();
+            String ifNoneMatch = null;
+            while (line != null && line.length() > 0) {
+                int separator = line.indexOf(':');
+                if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(separator + 1).trim();
+                }
+                line = reader.readLine();
+            }
+            mRequestCount.incrementAndGet();
+
+            StringBuilder head = new StringBuilder();
+            byte[] body = new byte[0];
+            if (mEtag.equals(ifNoneMatch)) {
+                mNotModifiedCount.incrementAndGet();
+                head.append("HTTP/1.1 304 Not Modified\r\n");
+            } else {
+                body = mBody.getBytes(mCharset);
+                head.append("HTTP/1.1 200 OK\r\n");
+                head.append("Content-Type: application/json; charset=utf-8\r\n");
+                for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                    head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+            }
+            head.append("ETag: ").append(mEtag).append("\r\n");
+            head.append("Cache-Control: no-cache\r\n");
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(mCharset));
+            out.write(body);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Benchmark inserting 10k koopmannen: once per row with insertWithOnConflict like bulkInsert did
+ * before, once with one compiled insert or replace statement for the whole batch like bulkInsert
+ * does now, and through the provider bulkInsert including the search index. The rows per second
+ * are written to the log
+ * @author marcolangebeeke
+ */
+public class BulkInsertBenchmarkTest extends AndroidTestCase {
+
+    // use this to identify this class's log statements
+    private static final String LOG_TAG = BulkInsertBenchmarkTest.class.getSimpleName();
+
+    // the amount of koopmannen to insert, with ids that do not exist in the api
+    private static final int mRowCount = 10000;
+    private static final long mFirstKoopmanId = 900000000;
+
+    // scratch database for the before and after comparison
+    private static final String mDatabaseName = "bulkinsert-benchmark.db";
+
+    private SQLiteDatabase mDatabase;
+    private ContentValues[] mValues;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mValues = createKoopmanValues();
+
+        getContext().deleteDatabase(mDatabaseName);
+        mDatabase = getContext().openOrCreateDatabase(mDatabaseName, Context.MODE_PRIVATE, null);
+        mDatabase.execSQL("CREATE TABLE " + MakkelijkeMarktProvider.mTableKoopman + " (" +
+                MakkelijkeMarktProvider.Koopman.COL_ID + " INTEGER PRIMARY KEY, " +
+                MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER + " TEXT, " +
+                MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS + " TEXT, " +
+                MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM + " TEXT, " +
+                MakkelijkeMarktProvider.Koopman.COL_FOTO_URL + " TEXT, " +
+                MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL + " TEXT, " +
+                MakkelijkeMarktProvider.Koopman.COL_STATUS + " TEXT, " +
+                MakkelijkeMarktProvider.Koopman.COL_PAS_UID + " TEXT)");
+        deleteTestKoopmannen();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        getContext().deleteDatabase(mDatabaseName);
+        deleteTestKoopmannen();
+        super.tearDown();
+    }
+
+    /**
+     * Insert the koopmannen twice with both ways, so the second run also replaces existing rows
+     */
+    public void testInsertWithOnConflictVersusCompiledStatement() {
+        double before = 0;
+        double after = 0;
+        for (int run = 0; run < 2; run++) {
+            before = insertWithOnConflict();
+            after = insertWithCompiledStatement();
+        }
+
+        Log.i(LOG_TAG, String.format("insertWithOnConflict: %.0f rows/s, compiled statement: %.0f rows/s (%.1fx)",
+                before, after, after / before));
+        assertEquals(mRowCount, DatabaseUtils.queryNumEntries(mDatabase, MakkelijkeMarktProvider.mTableKoopman));
+    }
+
+    /**
+     * Insert the koopmannen through the provider, which also updates the search index
+     */
+    public void testProviderBulkInsert() {
+        long start = System.nanoTime();
+        int inserted = getContext().getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriKoopman, mValues);
+        double rowsPerSecond = rowsPerSecond(start);
+
+        Log.i(LOG_TAG, String.format("provider bulkInsert: %.0f rows/s", rowsPerSecond));
+        assertEquals(mRowCount, inserted);
+    }
+
+    /**
+     * Insert the koopmannen in one transaction, compiling the sql for every row
+     * @return the rows per second
+     */
+    private double insertWithOnConflict() {
+        long start = System.nanoTime();
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues values : mValues) {
+                mDatabase.insertWithOnConflict(MakkelijkeMarktProvider.mTableKoopman, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return rowsPerSecond(start);
+    }
+
+    /**
+     * Insert the koopmannen in one transaction, binding them to one compiled statement
+     * @return the rows per second
+     */
+    private double insertWithCompiledStatement() {
+        long start = System.nanoTime();
+        Set<String> columns = mValues[0].keySet();
+        SQLiteStatement statement = mDatabase.compileStatement("INSERT OR REPLACE INTO " +
+                MakkelijkeMarktProvider.mTableKoopman + " (" + TextUtils.join(", ", columns) + ") VALUES (" +
+                TextUtils.join(", ", Collections.nCopies(columns.size(), "?")) + ")");
+
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues values : mValues) {
+                statement.clearBindings();
+                int index = 1;
+                for (String column : columns) {
+                    DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+                }
+                statement.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            statement.close();
+        }
+        return rowsPerSecond(start);
+    }
+
+    /**
+     * Calculate the rows per second of inserting all koopmannen
+     * @param start the nano time the inserts started
+     * @return the rows per second
+     */
+    private double rowsPerSecond(long start) {
+        return mRowCount / ((System.nanoTime() - start) / 1000000000.0);
+    }
+
+    /**
+     * Create the values of the koopmannen, with the columns ApiKoopman.toContentValues sets
+     * @return the values
+     */
+    private ContentValues[] createKoopmanValues() {
+        ContentValues[] koopmannen = new ContentValues[mRowCount];
+        for (int i = 0; i < mRowCount; i++) {
+            ContentValues values = new ContentValues();
+            values.put(MakkelijkeMarktProvider.Koopman.COL_ID, mFirstKoopmanId + i);
+            values.put(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER, String.valueOf(mFirstKoopmanId + i));
+            values.put(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS, "T.");
+            values.put(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM, "Test " + i);
+            values.put(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL, "https://example.org/foto/" + i + ".jpg");
+            values.put(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL, "https://example.org/foto/" + i + "-medium.jpg");
+            values.put(MakkelijkeMarktProvider.Koopman.COL_STATUS, "Actief");
+            values.put(MakkelijkeMarktProvider.Koopman.COL_PAS_UID, String.format("%016x", mFirstKoopmanId + i));
+            koopmannen[i] = values;
+        }
+        return koopmannen;
+    }
+
+    /**
+     * Remove the koopmannen of the benchmark from the provider
+     */
+    private void deleteTestKoopmannen() {
+        getContext().getContentResolver().delete(
+                MakkelijkeMarktProvider.mUriKoopman,
+                MakkelijkeMarktProvider.Koopman.COL_ID + " >= ? AND " + MakkelijkeMarktProvider.Koopman.COL_ID + " < ? ",
+                new String[] { String.valueOf(mFirstKoopmanId), String.valueOf(mFirstKoopmanId + mRowCount) });
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Explain the queries the loaders run on the joined uris, and check that sqlite searches the
+ * tables using the primary keys and the indexes from createIndexes instead of scanning them
+ * @author marcolangebeeke
+ */
+public class MakkelijkeMarktProviderIndexTest extends AndroidTestCase {
+
+    private ContentProviderClient mClient;
+    private MakkelijkeMarktProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClient = getContext().getContentResolver().acquireContentProviderClient(MakkelijkeMarktProvider.mAuthority);
+        assertNotNull(mClient);
+        mProvider = (MakkelijkeMarktProvider) mClient.getLocalContentProvider();
+        assertNotNull(mProvider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        super.tearDown();
+    }
+
+    /**
+     * The dagvergunningen of a markt for a dag, sorted on aanmaak datumtijd (DagvergunningenFragment)
+     */
+    public void testDagvergunningenOfMarktAndDag() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriDagvergunningJoined,
+                MakkelijkeMarktProvider.mTableDagvergunning + "." + MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID + " = ? AND " +
+                        MakkelijkeMarktProvider.Dagvergunning.COL_DAG + " = ?",
+                new String[] { "1", "2016-01-01" },
+                MakkelijkeMarktProvider.Dagvergunning.COL_AANMAAK_DATUMTIJD + " DESC");
+    }
+
+    /**
+     * The dagvergunningen of a koopman on a markt for a dag (DagvergunningFragmentKoopman)
+     */
+    public void testDagvergunningenOfErkenningsnummer() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriDagvergunningJoined,
+                "dagvergunning_doorgehaald != '1' AND " +
+                        MakkelijkeMarktProvider.mTableDagvergunning + "." + MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID + " = ? AND " +
+                        MakkelijkeMarktProvider.Dagvergunning.COL_DAG + " = ? AND " +
+                        MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE + " = ? ",
+                new String[] { "1", "2016-01-01", "1234567890" },
+                null);
+    }
+
+    /**
+     * A dagvergunning by id (DagvergunningFragment)
+     */
+    public void testDagvergunningById() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriDagvergunningJoined,
+                MakkelijkeMarktProvider.mTableDagvergunning + "." + MakkelijkeMarktProvider.Dagvergunning.COL_ID + " = ? ",
+                new String[] { "1" },
+                null);
+    }
+
+    /**
+     * A koopman by id with his sollicitaties (DagvergunningFragmentKoopman and Overzicht)
+     */
+    public void testKoopmanById() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriKoopmanJoined,
+                MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_ID + " = ? ",
+                new String[] { "1" },
+                null);
+    }
+
+    /**
+     * A koopman by erkenningsnummer, grouped by erkenningsnummer
+     */
+    public void testKoopmanGroupByErkenningsnummer() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriKoopmanJoinedGroupByErkenningsnummer,
+                MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER + " = ? ",
+                new String[] { "1234567890" },
+                null);
+    }
+
+    /**
+     * A koopman by pas uid, grouped by sollicitatienummer
+     */
+    public void testKoopmanGroupBySollicitatienummer() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriKoopmanJoinedGroupBySollicitatienummer,
+                MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_PAS_UID + " = ? ",
+                new String[] { "0123456789abcdef" },
+                null);
+    }
+
+    /**
+     * The koopmannen a vervanger can work for (VervangerDialogActivity)
+     */
+    public void testVervangerById() {
+        assertNoTableScan(MakkelijkeMarktProvider.mUriVervangerJoined,
+                MakkelijkeMarktProvider.mTableVervanger + "." + MakkelijkeMarktProvider.Vervanger.COL_VERVANGER_ID + " = ? ",
+                new String[] { "1" },
+                null);
+    }
+
+    /**
+     * Explain a query on a joined uri and fail if one of the tables is scanned without an index
+     * @param uri the joined uri
+     * @param selection the selection of the query
+     * @param selectionArgs the selection arguments
+     * @param sortOrder the sort order of the query
+     */
+    private void assertNoTableScan(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        List<String> plan = explain(uri, selection, selectionArgs, sortOrder);
+        assertFalse("Empty query plan for " + uri, plan.isEmpty());
+
+        for (String detail : plan) {
+            assertFalse("Full table scan for " + uri + ": " + plan, isTableScan(detail));
+        }
+    }
+
+    /**
+     * Get the detail rows of the query plan of a query on a joined uri
+     * @param uri the joined uri
+     * @param selection the selection of the query
+     * @param selectionArgs the selection arguments
+     * @param sortOrder the sort order of the query
+     * @return the detail of each query plan row
+     */
+    private List<String> explain(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        List<String> plan = new ArrayList<>();
+
+        Cursor cursor = mProvider.explainQueryPlan(uri, null, selection, selectionArgs, sortOrder);
+        assertNotNull("Unknown joined uri " + uri, cursor);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return plan;
+    }
+
+    /**
+     * Check if a query plan row scans a table without an index (older sqlite versions write
+     * 'SCAN TABLE koopman', newer versions 'SCAN koopman')
+     * @param detail the detail of the query plan row
+     * @return true if it is a full table scan
+     */
+    private boolean isTableScan(String detail) {
+        return detail.startsWith("SCAN") &&
+                !detail.contains("USING INDEX") &&
+                !detail.contains("USING COVERING INDEX") &&
+                !detail.contains("USING INTEGER PRIMARY KEY");
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Search the koopmannen by achternaam and pas uid through the koopman search index, with terms
+ * spanning the words of a name and with names containing accented letters
+ * @author marcolangebeeke
+ */
+public class MakkelijkeMarktProviderZoekTest extends AndroidTestCase {
+
+    // the koopmannen of the test, with ids that do not exist in the api
+    private static final long mFirstKoopmanId = 900100000;
+    private static final String[] mAchternamen = {
+            "van der Berg",
+            "Tuin-van der Berg",
+            "Öztürk",
+            "Çelik",
+            "Bergman"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestKoopmannen();
+
+        ContentValues[] koopmannen = new ContentValues[mAchternamen.length];
+        for (int i = 0; i < mAchternamen.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(MakkelijkeMarktProvider.Koopman.COL_ID, mFirstKoopmanId + i);
+            values.put(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER, String.valueOf(mFirstKoopmanId + i));
+            values.put(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS, "T.");
+            values.put(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM, mAchternamen[i]);
+            values.put(MakkelijkeMarktProvider.Koopman.COL_STATUS, "Actief");
+            values.put(MakkelijkeMarktProvider.Koopman.COL_PAS_UID, "04:A2:" + String.format(Locale.US, "%02X", i) + ":7F");
+            koopmannen[i] = values;
+        }
+        assertEquals(mAchternamen.length, getContext().getContentResolver().bulkInsert(
+                MakkelijkeMarktProvider.mUriKoopman, koopmannen));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestKoopmannen();
+        super.tearDown();
+    }
+
+    /**
+     * A term spanning the words of a name finds the names containing it, the names starting with
+     * it first
+     */
+    public void testMultiWordAchternaam() {
+        List<String> achternamen = searchAchternaam("van der");
+        assertEquals(2, achternamen.size());
+        assertEquals("van der Berg", achternamen.get(0));
+        assertEquals("Tuin-van der Berg", achternamen.get(1));
+
+        assertEquals(achternamen, searchAchternaam("vander"));
+        assertEquals(achternamen, searchAchternaam("VAN DER B"));
+    }
+
+    /**
+     * A term in the middle of a name finds it, after the names starting with the term
+     */
+    public void testInfixAchternaam() {
+        List<String> achternamen = searchAchternaam("berg");
+        assertEquals(3, achternamen.size());
+        assertEquals("Bergman", achternamen.get(0));
+        assertTrue(achternamen.contains("van der Berg"));
+        assertTrue(achternamen.contains("Tuin-van der Berg"));
+    }
+
+    /**
+     * Names with accented letters are found in lowercase and uppercase, composed or not
+     */
+    public void testAccentedAchternaam() {
+        assertEquals(1, searchAchternaam("öztürk").size());
+        assertEquals(1, searchAchternaam("ÖZTÜRK").size());
+        assertEquals(1, searchAchternaam("O\u0308ZTU\u0308RK").size());
+        assertEquals(1, searchAchternaam("türk").size());
+        assertEquals("Çelik", searchAchternaam("çel").get(0));
+    }
+
+    /**
+     * A pas uid is found without its separators and in lowercase
+     */
+    public void testPasUid() {
+        Cursor cursor = search(MakkelijkeMarktProvider.KoopmanZoek.COL_PAS_UID, "04a2027f");
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Öztürk", cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Search the test koopmannen by achternaam
+     * @param term the search term
+     * @return the achternamen found, in the order of the results
+     */
+    private List<String> searchAchternaam(String term) {
+        List<String> achternamen = new ArrayList<>();
+        Cursor cursor = search(MakkelijkeMarktProvider.KoopmanZoek.COL_ACHTERNAAM, term);
+        try {
+            while (cursor.moveToNext()) {
+                achternamen.add(cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return achternamen;
+    }
+
+    /**
+     * Search the test koopmannen in the koopman search index
+     * @param veld one of the KoopmanZoek.COL_ constants
+     * @param term the search term
+     * @return the cursor
+     */
+    private Cursor search(String veld, String term) {
+        Cursor cursor = getContext().getContentResolver().query(
+                MakkelijkeMarktProvider.createKoopmanZoekUri(veld, term),
+                new String[] { MakkelijkeMarktProvider.Koopman.COL_ID, MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM },
+                MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_ID + " >= ? AND " +
+                        MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_ID + " < ? ",
+                new String[] { String.valueOf(mFirstKoopmanId), String.valueOf(mFirstKoopmanId + mAchternamen.length) },
+                MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM);
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    /**
+     * Remove the koopmannen of the test from the provider
+     */
+    private void deleteTestKoopmannen() {
+        getContext().getContentResolver().delete(
+                MakkelijkeMarktProvider.mUriKoopman,
+                MakkelijkeMarktProvider.Koopman.COL_ID + " >= ? AND " + MakkelijkeMarktProvider.Koopman.COL_ID + " < ? ",
+                new String[] { String.valueOf(mFirstKoopmanId), String.valueOf(mFirstKoopmanId + mAchternamen.length) });
+    }
+}
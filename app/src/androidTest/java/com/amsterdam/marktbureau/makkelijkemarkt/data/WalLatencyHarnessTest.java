@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measure the p95 latency of a loader query on the sollicitaties of a markt while a sync writes
+ * pages of 1000 sollicitaties, with the rollback journal the database used before and with
+ * write-ahead logging like the provider uses now, and through the provider itself. The latencies
+ * are written to the log
+ * @author marcolangebeeke
+ */
+public class WalLatencyHarnessTest extends AndroidTestCase {
+
+    // use this to identify this class's log statements
+    private static final String LOG_TAG = WalLatencyHarnessTest.class.getSimpleName();
+
+    // the sync writes this many pages of sollicitaties, for a markt that does not exist in the api
+    private static final int mPageSize = 1000;
+    private static final int mPageCount = 10;
+    private static final int mMarktId = 999002;
+    private static final int mFirstSollicitatieId = 900000000;
+
+    // scratch database for the before and after comparison
+    private static final String mDatabaseName = "wal-harness.db";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(mDatabaseName);
+        deleteTestSollicitaties();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(mDatabaseName);
+        deleteTestSollicitaties();
+        super.tearDown();
+    }
+
+    /**
+     * Compare the loader latency with and without write-ahead logging on a scratch database
+     */
+    public void testRollbackJournalVersusWriteAheadLog() throws Exception {
+        double rollbackJournal = measureScratchDatabase(false);
+        getContext().deleteDatabase(mDatabaseName);
+        double writeAheadLog = measureScratchDatabase(true);
+
+        Log.i(LOG_TAG, String.format("p95 loader latency during sync, rollback journal: %.1f ms, write-ahead log: %.1f ms",
+                rollbackJournal, writeAheadLog));
+    }
+
+    /**
+     * Measure the loader latency through the provider while it bulk inserts the sollicitaties
+     */
+    public void testProviderDuringSync() throws Exception {
+        Thread sync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int page = 0; page < mPageCount; page++) {
+                    getContext().getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriSollicitatie, createPage(page));
+                }
+            }
+        });
+
+        List<Long> latencies = new ArrayList<>();
+        sync.start();
+        while (sync.isAlive()) {
+            long start = System.nanoTime();
+            Cursor cursor = getContext().getContentResolver().query(
+                    MakkelijkeMarktProvider.mUriSollicitatie,
+                    null,
+                    MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
+                    new String[] { String.valueOf(mMarktId) },
+                    MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER);
+            readAll(cursor);
+            latencies.add(System.nanoTime() - start);
+        }
+        sync.join();
+
+        Log.i(LOG_TAG, String.format("p95 provider loader latency during sync: %.1f ms (%d queries)",
+                p95(latencies), latencies.size()));
+        assertFalse(latencies.isEmpty());
+    }
+
+    /**
+     * Run the sync and the loader queries on a scratch database
+     * @param writeAheadLog true to enable write-ahead logging
+     * @return the p95 loader latency in milliseconds
+     */
+    private double measureScratchDatabase(boolean writeAheadLog) throws Exception {
+        final SQLiteDatabase database = getContext().openOrCreateDatabase(mDatabaseName, Context.MODE_PRIVATE, null);
+        try {
+            if (writeAheadLog) {
+                database.enableWriteAheadLogging();
+                database.execSQL("PRAGMA synchronous = NORMAL");
+            } else {
+                database.disableWriteAheadLogging();
+            }
+            database.execSQL("CREATE TABLE " + MakkelijkeMarktProvider.mTableSollicitatie + " (" +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_ID + " INTEGER PRIMARY KEY, " +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " INTEGER, " +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_KOOPMAN_ID + " INTEGER, " +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER + " INTEGER, " +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_STATUS + " TEXT)");
+            database.execSQL("CREATE INDEX sollicitatie_markt_id_sollicitatie_nummer_idx ON " +
+                    MakkelijkeMarktProvider.mTableSollicitatie + " (" +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + ", " +
+                    MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER + ")");
+
+            // the sync writes each page in one transaction, like the provider bulkinsert
+            Thread sync = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int page = 0; page < mPageCount; page++) {
+                        database.beginTransaction();
+                        try {
+                            for (ContentValues values : createPage(page)) {
+                                database.insertWithOnConflict(MakkelijkeMarktProvider.mTableSollicitatie, null, values,
+                                        SQLiteDatabase.CONFLICT_REPLACE);
+                            }
+                            database.setTransactionSuccessful();
+                        } finally {
+                            database.endTransaction();
+                        }
+                    }
+                }
+            });
+
+            List<Long> latencies = new ArrayList<>();
+            sync.start();
+            while (sync.isAlive()) {
+                long start = System.nanoTime();
+                readAll(database.query(MakkelijkeMarktProvider.mTableSollicitatie,
+                        null,
+                        MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
+                        new String[] { String.valueOf(mMarktId) },
+                        null,
+                        null,
+                        MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER));
+                latencies.add(System.nanoTime() - start);
+            }
+            sync.join();
+
+            assertFalse(latencies.isEmpty());
+            return p95(latencies);
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Read all rows of a cursor like a loader does, and close it
+     * @param cursor the cursor
+     */
+    private void readAll(Cursor cursor) {
+        assertNotNull(cursor);
+        try {
+            cursor.getCount();
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the 95th percentile of the latencies
+     * @param latencies the latencies in nanoseconds
+     * @return the 95th percentile in milliseconds
+     */
+    private double p95(List<Long> latencies) {
+        Collections.sort(latencies);
+        int index = (int) Math.ceil(latencies.size() * 0.95) - 1;
+        return latencies.get(Math.max(index, 0)) / 1000000.0;
+    }
+
+    /**
+     * Create a page of sollicitaties for the test markt, the pages replace each other's rows every
+     * other page so the sync both inserts and replaces
+     * @param page the page number
+     * @return the values of the page
+     */
+    private ContentValues[] createPage(int page) {
+        ContentValues[] sollicitaties = new ContentValues[mPageSize];
+        int offset = (page % 2) * mPageSize;
+        for (int i = 0; i < mPageSize; i++) {
+            ContentValues values = new ContentValues();
+            values.put(MakkelijkeMarktProvider.Sollicitatie.COL_ID, mFirstSollicitatieId + offset + i);
+            values.put(MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID, mMarktId);
+            values.put(MakkelijkeMarktProvider.Sollicitatie.COL_KOOPMAN_ID, mFirstSollicitatieId + offset + i);
+            values.put(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER, offset + i + page);
+            values.put(MakkelijkeMarktProvider.Sollicitatie.COL_STATUS, "soll");
+            sollicitaties[i] = values;
+        }
+        return sollicitaties;
+    }
+
+    /**
+     * Remove the sollicitaties of the test markt from the provider
+     */
+    private void deleteTestSollicitaties() {
+        getContext().getContentResolver().delete(
+                MakkelijkeMarktProvider.mUriSollicitatie,
+                MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
+                new String[] { String.valueOf(mMarktId) });
+    }
+}
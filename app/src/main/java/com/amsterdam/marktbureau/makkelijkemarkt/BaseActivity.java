@@ -9,6 +9,7 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt;
 
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
@@ -16,6 +17,7 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
@@ -24,6 +26,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiCall;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiOutbox;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
@@ -204,6 +208,40 @@ public class BaseActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Handle conflict event from the outbox when the api rejected a queued write, and let the user
+     * resend or discard the write. Unless discarded the write and its local row are kept
+     * @param event the received event
+     */
+    @Subscribe
+    public void onOutboxConflictEvent(final ApiOutbox.OnConflictEvent event) {
+        String message;
+        if (event.mType.equals(MakkelijkeMarktProvider.Outbox.TYPE_DAGVERGUNNING)) {
+            message = getString(R.string.notice_dagvergunning_save_failed) + ": " + event.mMessage;
+        } else {
+            message = getString(R.string.notice_notitie_save_failed) + ": " + event.mMessage;
+        }
+
+        // there is no write to resend, so only inform the user
+        if (event.mOutboxId == -1) {
+            mToast = Utility.showToast(this, mToast, message);
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+                .setIcon(R.drawable.mm_orange)
+                .setMessage(message)
+                .setPositiveButton(getString(R.string.resend), new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        ApiOutbox.resend(BaseActivity.this, event.mOutboxId);
+                    }})
+                .setNegativeButton(getString(R.string.delete), new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        ApiOutbox.discard(BaseActivity.this, event.mOutboxId);
+                    }})
+                .show();
+    }
+
     /**
      * On start of the activity log activity timestamp and register eventbus handlers
      */
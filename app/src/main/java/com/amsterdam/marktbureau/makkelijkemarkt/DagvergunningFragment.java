@@ -10,7 +10,6 @@
 package com.amsterdam.marktbureau.makkelijkemarkt;
 
 import android.app.Activity;
-import android.app.ProgressDialog;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -19,7 +18,6 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
-import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.design.widget.TabLayout;
@@ -41,16 +39,15 @@ import android.widget.TableLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiDeleteDagvergunning;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetKoopmanByErkenningsnummer;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetKoopmanByPasUid;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetKoopmannen;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetSollicitaties;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPostDagvergunning;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiOutbox;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPostDagvergunningConcept;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPutDagvergunning;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiDagvergunning;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiWarmUp;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.KoopmanIndex;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.ProductQuantities;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.TariefCalculator;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.zxing.integration.android.IntentIntegrator;
@@ -63,10 +60,8 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -90,8 +85,8 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
     private static final String CURRENT_TAB = "current_tab";
 
     // fragment state bundle keys
-    private static final String STATE_BUNDLE_KEY_PRODUCTS = "producten_hashmap";
-    private static final String STATE_BUNDLE_KEY_PRODUCTS_VAST = "producten_vast_hashmap";
+    private static final String STATE_BUNDLE_KEY_PRODUCTS = "producten";
+    private static final String STATE_BUNDLE_KEY_PRODUCTS_VAST = "producten_vast";
 
     // unique id for the dagvergunning loader
     private static final int DAGVERGUNNING_LOADER = 4;
@@ -154,17 +149,8 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
     private boolean mConceptFactuurDownloaded = false;
 
     // dagvergunning producten data
-    private HashMap<String, Integer> mProducten = new HashMap<>();
-    private HashMap<String, Integer> mProductenVast = new HashMap<>();
-
-    // progress dialog for during saving
-    private ProgressDialog mProgressDialog;
-
-    // progress dialog for during retrieving sollicitaties
-    private ProgressDialog mGetSollicitatiesProcessDialog;
-
-    // progress dialog for during retrieving vervangers
-    private ProgressDialog mGetVervangersProcessDialog;
+    private ProductQuantities mProducten = new ProductQuantities();
+    private ProductQuantities mProductenVast = new ProductQuantities();
 
 //    // payleven sdk
 //    private Payleven mPaylevenApi;
@@ -219,20 +205,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
             }
         });
 
-        // create progress dialog for loading the sollicitaties
-        mGetSollicitatiesProcessDialog = new ProgressDialog(getContext());
-        mGetSollicitatiesProcessDialog.setIndeterminate(true);
-        mGetSollicitatiesProcessDialog.setIndeterminateDrawable(ContextCompat.getDrawable(getContext(), R.drawable.progressbar_circle));
-        mGetSollicitatiesProcessDialog.setMessage(getString(R.string.notice_sollicitaties_loading) + "...");
-        mGetSollicitatiesProcessDialog.setCancelable(false);
-
-        // create progress dialog for loading the vervangers
-        mGetVervangersProcessDialog = new ProgressDialog(getContext());
-        mGetVervangersProcessDialog.setIndeterminate(true);
-        mGetVervangersProcessDialog.setIndeterminateDrawable(ContextCompat.getDrawable(getContext(), R.drawable.progressbar_circle));
-        mGetVervangersProcessDialog.setMessage(getString(R.string.notice_vervangers_loading) + "...");
-        mGetVervangersProcessDialog.setCancelable(false);
-
         // create new viewpager fragments or restore them from saved state
         if (savedInstanceState == null) {
             mKoopmanFragment = new DagvergunningFragmentKoopman();
@@ -268,13 +240,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
         mWizardPreviousButton.setTransformationMethod(null);
         mWizardNextButton.setTransformationMethod(null);
 
-        // create the save progress dialog
-        mProgressDialog = new ProgressDialog(getContext());
-        mProgressDialog.setIndeterminate(true);
-        mProgressDialog.setIndeterminateDrawable(ContextCompat.getDrawable(getContext(), R.drawable.progressbar_circle));
-        mProgressDialog.setMessage(getString(R.string.notice_dagvergunning_saving) + "...");
-        mProgressDialog.setCancelable(false);
-
         return view;
     }
 
@@ -286,13 +251,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        // initialize the producten & vaste producten values
-        String[] productParams = getResources().getStringArray(R.array.array_product_param);
-        for (String product : productParams) {
-            mProducten.put(product, -1);
-            mProductenVast.put(product, -1);
-        }
-
         // get settings from the shared preferences
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
         mMarktId = settings.getInt(getString(R.string.sharedpreferences_key_markt_id), 0);
@@ -330,22 +288,17 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                 mProgressbar.setVisibility(View.VISIBLE);
             } else {
 
-                // check time in hours since last fetched the sollicitaties for selected markt
-                long diffInHours = getResources().getInteger(R.integer.makkelijkemarkt_api_sollicitaties_fetch_interval_hours);
-                if (settings.contains(getContext().getString(R.string.sharedpreferences_key_sollicitaties_last_fetched) + mMarktId)) {
-                    long lastFetchTimestamp = settings.getLong(getContext().getString(R.string.sharedpreferences_key_sollicitaties_last_fetched) + mMarktId, 0);
-                    long differenceMs  = new Date().getTime() - lastFetchTimestamp;
-                    diffInHours = TimeUnit.MILLISECONDS.toHours(differenceMs);
+                // if last sollicitaties fetched more than 12 hours ago, warm up the markt again,
+                // unless the warm up started when selecting the markt is still running
+                if (!ApiWarmUp.isRunning(mMarktId) && Utility.isTimedOut(getContext(),
+                        getString(R.string.sharedpreferences_key_sollicitaties_last_fetched) + mMarktId,
+                        R.integer.makkelijkemarkt_api_sollicitaties_fetch_interval_hours)) {
+                    ApiWarmUp.start(getContext(), mMarktId);
                 }
 
-                // if last sollicitaties fetched more than 12 hours ago, fetch them again
-                if (diffInHours >= getResources().getInteger(R.integer.makkelijkemarkt_api_sollicitaties_fetch_interval_hours)) {
-
-                    // show progress dialog
-                    mGetSollicitatiesProcessDialog.show();
-                    ApiGetSollicitaties getSollicitaties = new ApiGetSollicitaties(getContext());
-                    getSollicitaties.setMarktId(mMarktId);
-                    getSollicitaties.enqueue();
+                // the koopmannen can be searched while they come in, so only show the progressbar
+                if (ApiWarmUp.isRunning(mMarktId)) {
+                    mProgressbar.setVisibility(View.VISIBLE);
                 }
             }
         } else {
@@ -371,8 +324,8 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
             mSollicitatieId = savedInstanceState.getInt(MakkelijkeMarktProvider.Dagvergunning.COL_SOLLICITATIE_ID);
             mSollicitatieNummer = savedInstanceState.getInt(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER);
             mNotitie = savedInstanceState.getString(MakkelijkeMarktProvider.Dagvergunning.COL_NOTITIE);
-            mProducten = (HashMap<String, Integer>) savedInstanceState.getSerializable(STATE_BUNDLE_KEY_PRODUCTS);
-            mProductenVast = (HashMap<String, Integer>) savedInstanceState.getSerializable(STATE_BUNDLE_KEY_PRODUCTS_VAST);
+            mProducten = savedInstanceState.getParcelable(STATE_BUNDLE_KEY_PRODUCTS);
+            mProductenVast = savedInstanceState.getParcelable(STATE_BUNDLE_KEY_PRODUCTS_VAST);
             mVervangerId = savedInstanceState.getInt(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ID);
             mVervangerErkenningsnummer = savedInstanceState.getString(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER);
 
@@ -464,8 +417,8 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
         outState.putInt(MakkelijkeMarktProvider.Dagvergunning.COL_SOLLICITATIE_ID, mSollicitatieId);
         outState.putInt(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER, mSollicitatieNummer);
         outState.putString(MakkelijkeMarktProvider.Dagvergunning.COL_NOTITIE, mNotitie);
-        outState.putSerializable(STATE_BUNDLE_KEY_PRODUCTS, mProducten);
-        outState.putSerializable(STATE_BUNDLE_KEY_PRODUCTS_VAST, mProductenVast);
+        outState.putParcelable(STATE_BUNDLE_KEY_PRODUCTS, mProducten);
+        outState.putParcelable(STATE_BUNDLE_KEY_PRODUCTS_VAST, mProductenVast);
         outState.putInt(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ID, mVervangerId);
         outState.putString(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER, mVervangerErkenningsnummer);
 
@@ -600,15 +553,10 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
         if (mKoopmanFragmentReady) {
 
             // get the vaste producten for selected koopman sollicitatie
-            String[] productParams = getResources().getStringArray(R.array.array_product_param);
-            for (String product : productParams) {
-                mProductenVast.put(product, mKoopmanFragment.mProducten.get(product));
+            mProductenVast.set(mKoopmanFragment.mProducten);
 
-                // if the producten have not been manually set, set them from the vaste producten
-                if (mProducten.get(product) == -1) {
-                    mProducten.put(product, mKoopmanFragment.mProducten.get(product));
-                }
-            }
+            // if the producten have not been manually set, set them from the vaste producten
+            mProducten.setUnset(mKoopmanFragment.mProducten);
 
             // get koopman aanwezig selection
             mKoopmanAanwezig = mKoopmanFragment.mAanwezigSelectedValue;
@@ -632,9 +580,7 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
 
                     // if we are not editing an existing dagvergunning, get vaste producten from koopman
                     if (mId == -1) {
-                        for (String product : productParams) {
-                            mProducten.put(product, mKoopmanFragment.mProducten.get(product));
-                        }
+                        mProducten.set(mKoopmanFragment.mProducten);
                     }
                 }
 
@@ -683,7 +629,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
 
                     String[] productKeys = getResources().getStringArray(R.array.array_product_key);
                     String[] productTypes = getResources().getStringArray(R.array.array_product_type);
-                    String[] productParams = getResources().getStringArray(R.array.array_product_param);
 
                     // get the product fragment view, find the product count views, and set their text
                     View fragmentView = mProductFragment.getView();
@@ -692,26 +637,26 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                             View productView = fragmentView.findViewById(Utility.getResId("product_" + productList.get(i), R.id.class));
                             if (productView != null) {
 
-                                // map the productkey to the productcolumn and get the value from the producten hashmap
-                                String productColumn = "";
+                                // map the productkey to the product index
+                                int productIndex = -1;
                                 String productType = "";
                                 for (int j = 0; j < productKeys.length; j++) {
                                     if (productKeys[j].equals(productList.get(i))) {
-                                        productColumn = productParams[j];
+                                        productIndex = j;
                                         productType = productTypes[j];
                                     }
                                 }
-
-                                // get the productcount from the local membervar producten hashmap
-                                Integer productCount = mProducten.get(productColumn);
-                                if (productCount == -1) {
-                                    productCount = 0;
+                                if (productIndex == -1) {
+                                    continue;
                                 }
 
+                                // get the productcount from the local membervar producten
+                                int productCount = mProducten.getCount(productIndex);
+
                                 // set value depening on product type
                                 if (productType.equals("integer")) {
                                     TextView productCountView = (TextView) productView.findViewById(R.id.product_count);
-                                    productCountView.setText(productCount.toString());
+                                    productCountView.setText(String.valueOf(productCount));
                                 } else if (productType.equals("boolean") && productCount == 1) {
                                     Switch productCountView = (Switch) productView.findViewById(R.id.product_switch);
                                     productCountView.setChecked(true);
@@ -746,7 +691,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
 
                     String[] productKeys = getResources().getStringArray(R.array.array_product_key);
                     String[] productTypes = getResources().getStringArray(R.array.array_product_type);
-                    String[] productParams = getResources().getStringArray(R.array.array_product_param);
 
                     // get the product fragment view, find the product count views, and get their values
                     View fragmentView = mProductFragment.getView();
@@ -755,13 +699,13 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                             View productView = fragmentView.findViewById(Utility.getResId("product_" + productList.get(i), R.id.class));
                             if (productView != null) {
 
-                                // get the corresponding product type and column based on the productlist item value
+                                // get the corresponding product type and index based on the productlist item value
                                 String productType = "";
-                                String productColumn = "";
+                                int productIndex = -1;
                                 for (int j = 0; j < productKeys.length; j++) {
                                     if (productKeys[j].equals(productList.get(i))) {
                                         productType = productTypes[j];
-                                        productColumn = productParams[j];
+                                        productIndex = j;
                                     }
                                 }
 
@@ -778,11 +722,11 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                                 }
 
                                 // update the local product member var
-                                if (!productColumn.equals("") && !productCount.equals("")) {
+                                if (productIndex != -1 && !productCount.equals("")) {
 
-                                    // only set the local member var if the view value not is 0, or if it is 0 and the existing member is not -1
-                                    if (!productCount.equals("0") || (productCount.equals("0") && mProducten.get(productColumn) != -1)) {
-                                        mProducten.put(productColumn, Integer.valueOf(productCount));
+                                    // only set the local member var if the view value not is 0, or if it is 0 and the existing member is set
+                                    if (!productCount.equals("0") || mProducten.isSet(productIndex)) {
+                                        mProducten.set(productIndex, Integer.parseInt(productCount));
                                     }
                                 }
                             }
@@ -888,146 +832,68 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
             // product
             if (mErkenningsnummer != null && isProductSelected()) {
 
+                // copy the quantities the concept factuur is calculated and requested for
+                final ProductQuantities producten = new ProductQuantities(mProducten);
+                final ProductQuantities productenVast = new ProductQuantities(mProductenVast);
+                final int marktId = mMarktId;
+                final Context context = getContext().getApplicationContext();
+
                 // show progress bar
                 mProgressbar.setVisibility(View.VISIBLE);
 
-                // disable save function until we have a response from the api for a concept factuur
+                // disable save function until we have a concept factuur
                 mConceptFactuurDownloaded = false;
 
-                // post the dagvergunning details to the api and retrieve a concept 'factuur'
-                ApiPostDagvergunningConcept postDagvergunningConcept = new ApiPostDagvergunningConcept(getContext());
-                postDagvergunningConcept.setPayload(dagvergunningToJson());
-                postDagvergunningConcept.enqueue(new Callback<JsonObject>() {
+                // calculate the concept factuur from the known tarieven of the markt first, so the
+                // overzicht also works offline
+                TariefCalculator.calculate(context, marktId, producten, productenVast, new TariefCalculator.OnCalculatedListener() {
                     @Override
-                    public void onResponse(Response<JsonObject> response) {
-
-                        // hide progress bar
-                        mProgressbar.setVisibility(View.GONE);
-
-                        if (response.isSuccess() && response.body() != null) {
-                            mOverzichtFragment.mProductenLinearLayout.setVisibility(View.VISIBLE);
-                            mOverzichtFragment.mProductenEmptyTextView.setVisibility(View.GONE);
-
-                            // enable save function and give wizard next button background enabled color
-                            mConceptFactuurDownloaded = true;
-                            mWizardNextButton.setBackgroundColor(ContextCompat.getColor(getContext(), R.color.accent));
-
-                            // from the response, populate the product section of the overzicht fragment
-                            View overzichtView = mOverzichtFragment.getView();
-                            if (overzichtView != null) {
-
-                                // find placeholder table layout view
-                                TableLayout placeholderLayout = (TableLayout) overzichtView.findViewById(R.id.producten_placeholder);
-                                if (placeholderLayout != null) {
-                                    placeholderLayout.removeAllViews();
-                                    LayoutInflater layoutInflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-
-                                    // get the producten array
-                                    JsonArray producten = response.body().getAsJsonArray(getString(R.string.makkelijkemarkt_api_dagvergunning_concept_producten));
-
-                                    if (producten != null) {
-                                        int rowCount = 0;
-
-                                        // table header
-                                        View headerLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
-                                        TextView btwHeaderText = (TextView) headerLayout.findViewById(R.id.btw_totaal);
-                                        btwHeaderText.setText("BTW");
-                                        TextView exclusiefHeaderText = (TextView) headerLayout.findViewById(R.id.bedrag_totaal);
-                                        exclusiefHeaderText.setText("Ex. BTW");
-                                        placeholderLayout.addView(headerLayout, rowCount++);
-
-                                        for (int i = 0; i < producten.size(); i++) {
-                                            JsonObject product = producten.get(i).getAsJsonObject();
-
-                                            // get the product item layout
-                                            View childLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
-
-                                            // aantal
-                                            if (product.get("aantal") != null && !product.get("aantal").isJsonNull()) {
-                                                TextView aantalText = (TextView) childLayout.findViewById(R.id.product_aantal);
-                                                aantalText.setText(product.get("aantal").getAsInt() + " x ");
-                                            }
-
-                                            // naam
-                                            if (product.get("naam") != null && !product.get("naam").isJsonNull()) {
-                                                TextView naamText = (TextView) childLayout.findViewById(R.id.product_naam);
-                                                naamText.setText(Utility.capitalize(product.get("naam").getAsString()));
-                                            }
-
-                                            // btw %
-                                            if (product.get("btw_percentage") != null && !product.get("btw_percentage").isJsonNull()) {
-                                                long btwPercentage = Math.round(Double.parseDouble(product.get("btw_percentage").getAsString()));
-                                                if (btwPercentage != 0) {
-                                                    TextView btwPercentageText = (TextView) childLayout.findViewById(R.id.btw_percentage);
-                                                    btwPercentageText.setText(btwPercentage + "%");
-                                                }
-                                            }
-
-                                            // btw totaal
-                                            if (product.get("btw_totaal") != null && !product.get("btw_totaal").isJsonNull()) {
-                                                double btwTotaalProduct = Double.parseDouble(product.get("btw_totaal").getAsString());
-                                                TextView btwTotaalText = (TextView) childLayout.findViewById(R.id.btw_totaal);
-                                                if (Math.round(btwTotaalProduct) != 0) {
-                                                    btwTotaalText.setText(String.format("€ %.2f", btwTotaalProduct));
-                                                } else {
-                                                    btwTotaalText.setText("-");
-                                                }
-                                            }
-
-                                            // bedrag totaal
-                                            if (product.get("totaal") != null && !product.get("totaal").isJsonNull()) {
-                                                double bedragTotaal = Double.parseDouble(product.get("totaal").getAsString());
-                                                TextView bedragTotaalText = (TextView) childLayout.findViewById(R.id.bedrag_totaal);
-                                                bedragTotaalText.setText(String.format("€ %.2f", bedragTotaal));
-                                            }
-
-                                            // add child view
-                                            placeholderLayout.addView(childLayout, rowCount++);
-                                        }
+                    public void onCalculated(final JsonObject localConceptFactuur) {
 
-                                        // exclusief
-                                        double exclusief = 0;
-                                        if (response.body().get("exclusief") != null && !response.body().get("exclusief").isJsonNull()) {
-                                            exclusief = Double.parseDouble(response.body().get("exclusief").getAsString());
-                                        }
+                        // the products changed in the meantime, and a new concept factuur is on its way
+                        if (!isAdded() || !producten.equals(mProducten) || !productenVast.equals(mProductenVast)) {
+                            return;
+                        }
 
-                                        // totaal
-                                        double totaal = 0;
-                                        if (response.body().get("totaal") != null && !response.body().get("totaal").isJsonNull()) {
-                                            totaal = response.body().get("totaal").getAsDouble();
-                                        }
+                        if (localConceptFactuur != null) {
+                            mProgressbar.setVisibility(View.GONE);
+                            showConceptFactuur(localConceptFactuur);
+                        }
 
-                                        // totaal btw en ex. btw
-                                        View totaalLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
-                                        TextView naamText = (TextView) totaalLayout.findViewById(R.id.product_naam);
-                                        naamText.setText("Totaal");
-                                        TextView btwTotaalText = (TextView) totaalLayout.findViewById(R.id.btw_totaal);
-                                        if (Math.round(totaal - exclusief) != 0) {
-                                            btwTotaalText.setText(String.format("€ %.2f", (totaal - exclusief)));
+                        // post the dagvergunning details to the api and retrieve a concept
+                        // 'factuur', which is leading, and from which we learn the tarieven of the markt
+                        ApiPostDagvergunningConcept postDagvergunningConcept = new ApiPostDagvergunningConcept(getContext());
+                        postDagvergunningConcept.setPayload(dagvergunningToJson());
+                        postDagvergunningConcept.enqueue(new Callback<JsonObject>() {
+                            @Override
+                            public void onResponse(Response<JsonObject> response) {
+
+                                // hide progress bar
+                                mProgressbar.setVisibility(View.GONE);
+
+                                if (response.isSuccess() && response.body() != null) {
+                                    boolean changed = localConceptFactuur != null && !TariefCalculator.isSameTotaal(localConceptFactuur, response.body());
+                                    if (changed) {
+                                        Utility.log(context, LOG_TAG, "Calculated concept factuur differs from the api");
+                                    }
+                                    TariefCalculator.learn(context, marktId, producten, productenVast, response.body());
+
+                                    // only update the overzicht if the products did not change in the meantime
+                                    if (isAdded() && producten.equals(mProducten) && productenVast.equals(mProductenVast)) {
+                                        showConceptFactuur(response.body());
+
+                                        // the user may already have seen the calculated price, so tell them it changed
+                                        if (changed) {
+                                            mToast = Utility.showToast(getContext(), mToast, getString(R.string.notice_conceptfactuur_changed));
                                         }
-                                        TextView exclusiefText = (TextView) totaalLayout.findViewById(R.id.bedrag_totaal);
-                                        exclusiefText.setText(String.format("€ %.2f", exclusief));
-                                        placeholderLayout.addView(totaalLayout, rowCount++);
-
-                                        // separator
-                                        View emptyLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
-                                        placeholderLayout.addView(emptyLayout, rowCount++);
-
-                                        // totaal inc. btw
-                                        View totaalIncLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
-                                        TextView totaalNaamText = (TextView) totaalIncLayout.findViewById(R.id.product_naam);
-                                        totaalNaamText.setText("Totaal inc. BTW");
-                                        TextView totaalIncText = (TextView) totaalIncLayout.findViewById(R.id.bedrag_totaal);
-                                        totaalIncText.setText(String.format("€ %.2f", totaal));
-                                        placeholderLayout.addView(totaalIncLayout, rowCount);
                                     }
                                 }
                             }
-                        }
-                    }
-                    @Override
-                    public void onFailure(Throwable t) {
-                        mProgressbar.setVisibility(View.GONE);
+                            @Override
+                            public void onFailure(Throwable t) {
+                                mProgressbar.setVisibility(View.GONE);
+                            }
+                        });
                     }
                 });
             } else {
@@ -1040,6 +906,131 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
         }
     }
 
+    /**
+     * Populate the product section of the overzicht fragment from a concept factuur
+     * @param conceptFactuur the concept factuur, from the api or calculated locally
+     */
+    private void showConceptFactuur(JsonObject conceptFactuur) {
+        mOverzichtFragment.mProductenLinearLayout.setVisibility(View.VISIBLE);
+        mOverzichtFragment.mProductenEmptyTextView.setVisibility(View.GONE);
+
+        // enable save function and give wizard next button background enabled color
+        mConceptFactuurDownloaded = true;
+        mWizardNextButton.setBackgroundColor(ContextCompat.getColor(getContext(), R.color.accent));
+
+        // from the concept factuur, populate the product section of the overzicht fragment
+        View overzichtView = mOverzichtFragment.getView();
+        if (overzichtView != null) {
+
+            // find placeholder table layout view
+            TableLayout placeholderLayout = (TableLayout) overzichtView.findViewById(R.id.producten_placeholder);
+            if (placeholderLayout != null) {
+                placeholderLayout.removeAllViews();
+                LayoutInflater layoutInflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+
+                // get the producten array
+                JsonArray producten = conceptFactuur.getAsJsonArray(getString(R.string.makkelijkemarkt_api_dagvergunning_concept_producten));
+
+                if (producten != null) {
+                    int rowCount = 0;
+
+                    // table header
+                    View headerLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
+                    TextView btwHeaderText = (TextView) headerLayout.findViewById(R.id.btw_totaal);
+                    btwHeaderText.setText("BTW");
+                    TextView exclusiefHeaderText = (TextView) headerLayout.findViewById(R.id.bedrag_totaal);
+                    exclusiefHeaderText.setText("Ex. BTW");
+                    placeholderLayout.addView(headerLayout, rowCount++);
+
+                    for (int i = 0; i < producten.size(); i++) {
+                        JsonObject product = producten.get(i).getAsJsonObject();
+
+                        // get the product item layout
+                        View childLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
+
+                        // aantal
+                        if (product.get("aantal") != null && !product.get("aantal").isJsonNull()) {
+                            TextView aantalText = (TextView) childLayout.findViewById(R.id.product_aantal);
+                            aantalText.setText(product.get("aantal").getAsInt() + " x ");
+                        }
+
+                        // naam
+                        if (product.get("naam") != null && !product.get("naam").isJsonNull()) {
+                            TextView naamText = (TextView) childLayout.findViewById(R.id.product_naam);
+                            naamText.setText(Utility.capitalize(product.get("naam").getAsString()));
+                        }
+
+                        // btw %
+                        if (product.get("btw_percentage") != null && !product.get("btw_percentage").isJsonNull()) {
+                            long btwPercentage = Math.round(Double.parseDouble(product.get("btw_percentage").getAsString()));
+                            if (btwPercentage != 0) {
+                                TextView btwPercentageText = (TextView) childLayout.findViewById(R.id.btw_percentage);
+                                btwPercentageText.setText(btwPercentage + "%");
+                            }
+                        }
+
+                        // btw totaal
+                        if (product.get("btw_totaal") != null && !product.get("btw_totaal").isJsonNull()) {
+                            double btwTotaalProduct = Double.parseDouble(product.get("btw_totaal").getAsString());
+                            TextView btwTotaalText = (TextView) childLayout.findViewById(R.id.btw_totaal);
+                            if (Math.round(btwTotaalProduct) != 0) {
+                                btwTotaalText.setText(String.format("€ %.2f", btwTotaalProduct));
+                            } else {
+                                btwTotaalText.setText("-");
+                            }
+                        }
+
+                        // bedrag totaal
+                        if (product.get("totaal") != null && !product.get("totaal").isJsonNull()) {
+                            double bedragTotaal = Double.parseDouble(product.get("totaal").getAsString());
+                            TextView bedragTotaalText = (TextView) childLayout.findViewById(R.id.bedrag_totaal);
+                            bedragTotaalText.setText(String.format("€ %.2f", bedragTotaal));
+                        }
+
+                        // add child view
+                        placeholderLayout.addView(childLayout, rowCount++);
+                    }
+
+                    // exclusief
+                    double exclusief = 0;
+                    if (conceptFactuur.get("exclusief") != null && !conceptFactuur.get("exclusief").isJsonNull()) {
+                        exclusief = Double.parseDouble(conceptFactuur.get("exclusief").getAsString());
+                    }
+
+                    // totaal
+                    double totaal = 0;
+                    if (conceptFactuur.get("totaal") != null && !conceptFactuur.get("totaal").isJsonNull()) {
+                        totaal = conceptFactuur.get("totaal").getAsDouble();
+                    }
+
+                    // totaal btw en ex. btw
+                    View totaalLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
+                    TextView naamText = (TextView) totaalLayout.findViewById(R.id.product_naam);
+                    naamText.setText("Totaal");
+                    TextView btwTotaalText = (TextView) totaalLayout.findViewById(R.id.btw_totaal);
+                    if (Math.round(totaal - exclusief) != 0) {
+                        btwTotaalText.setText(String.format("€ %.2f", (totaal - exclusief)));
+                    }
+                    TextView exclusiefText = (TextView) totaalLayout.findViewById(R.id.bedrag_totaal);
+                    exclusiefText.setText(String.format("€ %.2f", exclusief));
+                    placeholderLayout.addView(totaalLayout, rowCount++);
+
+                    // separator
+                    View emptyLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
+                    placeholderLayout.addView(emptyLayout, rowCount++);
+
+                    // totaal inc. btw
+                    View totaalIncLayout = layoutInflater.inflate(R.layout.dagvergunning_overzicht_product_item, null);
+                    TextView totaalNaamText = (TextView) totaalIncLayout.findViewById(R.id.product_naam);
+                    totaalNaamText.setText("Totaal inc. BTW");
+                    TextView totaalIncText = (TextView) totaalIncLayout.findViewById(R.id.bedrag_totaal);
+                    totaalIncText.setText(String.format("€ %.2f", totaal));
+                    placeholderLayout.addView(totaalIncLayout, rowCount);
+                }
+            }
+        }
+    }
+
     /**
      * Get overzicht fragment values and update local member vars
      */
@@ -1050,7 +1041,7 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
     }
 
     /**
-     * Post a new, or Put an existing, dagvergunning to the api, and update the db
+     * Save a new, or update an existing, dagvergunning in the db and queue the write to the api
      */
     private void saveDagvergunning() {
 
@@ -1074,102 +1065,26 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
 
         } else {
 
-            // show progress dialog
-            mProgressDialog.show();
-
             if (mId == -1) {
                 // save new dagvergunning:
 
-                // create a post request and add the dagvergunning details as json
-                ApiPostDagvergunning postDagvergunning = new ApiPostDagvergunning(getContext());
-                postDagvergunning.setPayload(dagvergunningToJson());
-                postDagvergunning.enqueue(new Callback<ApiDagvergunning>() {
-                    @Override
-                    public void onResponse(Response<ApiDagvergunning> response) {
-
-                        // hide progress dialog
-                        mProgressDialog.dismiss();
-
-                        if (response.isSuccess() && response.body() != null) {
-
-                            // get resulting dagvergunning as ApiDagvergunning object from response and save it to the database
-                            ApiDagvergunning dagvergunning = response.body();
-                            ContentValues dagvergunningValues = dagvergunning.toContentValues();
-                            Uri dagvergunningUri = getContext().getContentResolver().insert(
-                                    MakkelijkeMarktProvider.mUriDagvergunning, dagvergunningValues);
-
-                            // on success close current activity and go back to dagvergunningen activity
-                            if (dagvergunningUri != null) {
-                                getActivity().finish();
-                                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_success));
-                            } else {
-                                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_failed));
-                            }
-                        } else {
-                            Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_failed));
-                        }
-                    }
-                    @Override
-                    public void onFailure(Throwable t) {
-
-                        // hide progress dialog
-                        mProgressDialog.dismiss();
-
-                        Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_failed));
-                    }
-                });
+                // store it locally and queue a post request with the dagvergunning details as
+                // json, the outbox will send it in the background when we are online
+                ContentValues dagvergunningValues = dagvergunningToContentValues();
+                dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_AANMAAK_DATUMTIJD,
+                        dagvergunningValues.getAsString(MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_DATUMTIJD));
+                dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_DOORGEHAALD, false);
+                ApiOutbox.postDagvergunning(getContext(), dagvergunningValues, dagvergunningToJson());
             } else {
                 // update existing dagvergunning:
 
-                // create put request and add the dagvergunning id as path and details as payload
-                ApiPutDagvergunning putDagvergunning = new ApiPutDagvergunning(getContext());
-                putDagvergunning.setId(mId);
-                putDagvergunning.setPayload(dagvergunningToJson());
-                putDagvergunning.enqueue(new Callback<ApiDagvergunning>() {
-                    @Override
-                    public void onResponse(Response<ApiDagvergunning> response) {
-
-                        // hide progress dialog
-                        mProgressDialog.dismiss();
-
-                        if (response.isSuccess() && response.body() != null) {
-
-                            // get resulting dagvergunning as ApiDagvergunning object from response and update it in the database
-                            ApiDagvergunning dagvergunning = response.body();
-                            ContentValues dagvergunningValues = dagvergunning.toContentValues();
-
-                            // for some reason the api will create a dagvergunning with a new id, so
-                            // we first delete the existing from the db and then insert the new
-                            // created dagvergunning that was returned from the api
-                            int deleted = getContext().getContentResolver().delete(
-                                    MakkelijkeMarktProvider.mUriDagvergunning,
-                                    MakkelijkeMarktProvider.Dagvergunning.COL_ID + " = ? ",
-                                    new String[] { String.valueOf(mId) }
-                            );
-                            Uri dagvergunningUri = getContext().getContentResolver().insert(
-                                    MakkelijkeMarktProvider.mUriDagvergunning, dagvergunningValues);
-
-                            // on success close current activity and go back to dagvergunningen activity
-                            if (deleted == 1 && dagvergunningUri != null) {
-                                getActivity().finish();
-                                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_success));
-                            } else {
-                                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_failed));
-                            }
-                        } else {
-                            Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_failed));
-                        }
-                    }
-                    @Override
-                    public void onFailure(Throwable t) {
-
-                        // hide progress dialog
-                        mProgressDialog.dismiss();
-
-                        Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_failed));
-                    }
-                });
+                // update it locally and queue a put request with the dagvergunning details as payload
+                ApiOutbox.putDagvergunning(getContext(), mId, dagvergunningToContentValues(), dagvergunningToJson());
             }
+
+            // close current activity and go back to dagvergunningen activity
+            getActivity().finish();
+            Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_save_success));
         }
     }
 
@@ -1178,13 +1093,7 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
      * @return true if a product has been selected, false if not
      */
     private boolean isProductSelected() {
-        String[] productParams = getResources().getStringArray(R.array.array_product_param);
-        for(String product: productParams) {
-            if (mProducten.get(product) > 0) {
-                return true;
-            }
-        }
-        return false;
+        return mProducten.isAnySelected();
     }
 
     /**
@@ -1200,12 +1109,7 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
         dagvergunningPayload.addProperty(getString(R.string.makkelijkemarkt_api_dagvergunning_payload_aanwezig), mKoopmanAanwezig);
 
         // get product values
-        String[] productParams = getResources().getStringArray(R.array.array_product_param);
-        for (int i = 0; i < productParams.length; i++) {
-            if (mProducten.get(productParams[i]) > 0) {
-                dagvergunningPayload.addProperty(productParams[i], mProducten.get(productParams[i]));
-            }
-        }
+        mProducten.addTo(dagvergunningPayload);
 
         if (mErkenningsnummerInvoerMethode != null) {
             dagvergunningPayload.addProperty(getString(R.string.makkelijkemarkt_api_dagvergunning_payload_erkenningsnummer_invoer_methode), mErkenningsnummerInvoerMethode);
@@ -1236,6 +1140,59 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
         return dagvergunningPayload;
     }
 
+    /**
+     * Create contentvalues from the dagvergunning values, so we can store it locally before the
+     * api has accepted it
+     * @return contentvalues
+     */
+    private ContentValues dagvergunningToContentValues() {
+
+        ContentValues dagvergunningValues = new ContentValues();
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID, mMarktId);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_DAG, mDagToday);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE, mErkenningsnummer);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_METHODE, mErkenningsnummerInvoerMethode);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_AANWEZIG, mKoopmanAanwezig);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_NOTITIE, mNotitie);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_STATUS_SOLLICITATIE, mSollicitatieStatus);
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_ACCOUNT_ID, mActiveAccountId);
+
+        DateFormat datumtijdFormat = new SimpleDateFormat(getString(R.string.date_format_datumtijd));
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_DATUMTIJD, datumtijdFormat.format(new Date()));
+
+        // get product values, and the totale lengte the api would calculate from them
+        mProducten.putInto(dagvergunningValues, "");
+        mProductenVast.putInto(dagvergunningValues, "_vast");
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_TOTALE_LENGTE, mProducten.getMeters());
+        dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_TOTALE_LENGTE_VAST, mProductenVast.getMeters());
+
+        if (mKoopmanId > 0) {
+            dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_KOOPMAN_ID, mKoopmanId);
+        }
+
+        if (mSollicitatieId > 0) {
+            dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_SOLLICITATIE_ID, mSollicitatieId);
+        } else {
+            dagvergunningValues.putNull(MakkelijkeMarktProvider.Dagvergunning.COL_SOLLICITATIE_ID);
+        }
+
+        if (mRegistratieGeolocatieLatitude != -1 && mRegistratieGeolocatieLongitude != -1) {
+            dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_GEOLOCATIE_LAT, mRegistratieGeolocatieLatitude);
+            dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_GEOLOCATIE_LONG, mRegistratieGeolocatieLongitude);
+        }
+
+        // if set, add vervanger
+        if (mVervangerId > 0) {
+            dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ID, mVervangerId);
+            dagvergunningValues.put(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER, mVervangerErkenningsnummer);
+        } else {
+            dagvergunningValues.putNull(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ID);
+            dagvergunningValues.putNull(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER);
+        }
+
+        return dagvergunningValues;
+    }
+
     /**
      * Delete an existing dagvergunning
      */
@@ -1258,46 +1215,12 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                         .show();
             } else {
 
-                // show progress dialog
-                mProgressDialog.show();
-
-                // create and send the delete request
-                ApiDeleteDagvergunning deleteDagvergunning = new ApiDeleteDagvergunning(getContext());
-                deleteDagvergunning.setId(mId);
-                deleteDagvergunning.enqueue(new Callback<String>() {
-                    @Override
-                    public void onResponse(Response<String> response) {
-
-                        // hide progress dialog
-                        mProgressDialog.dismiss();
-
-                        if (response.isSuccess()) {
+                // delete the dagvergunning locally and queue the delete request
+                ApiOutbox.deleteDagvergunning(getContext(), mId);
 
-                            // delete the dagvergunning from the local db
-                            int deleted = getContext().getContentResolver().delete(
-                                    MakkelijkeMarktProvider.mUriDagvergunning,
-                                    MakkelijkeMarktProvider.Dagvergunning.COL_ID + " = ? ",
-                                    new String[] { String.valueOf(mId) }
-                            );
-
-                            // on success close current activity and go back to dagvergunningen activity
-                            if (deleted == 1) {
-                                getActivity().finish();
-                                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_delete_success));
-                            } else {
-                                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_delete_failed));
-                            }
-                        }
-                    }
-                    @Override
-                    public void onFailure(Throwable t) {
-
-                        // hide progress dialog
-                        mProgressDialog.dismiss();
-
-                        Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_delete_failed));
-                    }
-                });
+                // close current activity and go back to dagvergunningen activity
+                getActivity().finish();
+                Utility.showToast(getContext(), mToast, getString(R.string.notice_dagvergunning_delete_success));
             }
         }
     }
@@ -1434,18 +1357,13 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                     // get the scanned code
                     String barcode = result.getContents();
 
-                    // find the koopman by querying for scanned barcode (=erkenningsnummer)
-                    Cursor koopman = getContext().getContentResolver().query(
-                            MakkelijkeMarktProvider.mUriKoopman,
-                            new String[] { MakkelijkeMarktProvider.Koopman.COL_ID },
-                            MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER + " = ? ",
-                            new String[] { barcode },
-                            null);
+                    // find the koopman by scanned barcode (=erkenningsnummer) in the index
+                    KoopmanIndex.Match koopman = KoopmanIndex.findByErkenningsnummer(getContext(), barcode);
 
                     // set the koopman
-                    if (koopman != null && koopman.moveToFirst()) {
+                    if (koopman != null) {
                         mKoopmanFragment.selectKoopman(
-                                koopman.getInt(koopman.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ID)),
+                                koopman.mKoopmanId,
                                 DagvergunningFragmentKoopman.KOOPMAN_SELECTION_METHOD_SCAN_BARCODE
                         );
                         mKoopmanFragment.mDagvergunningId = mId;
@@ -1454,11 +1372,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                     } else {
                         mToast = Utility.showToast(getActivity(), mToast, getString(R.string.notice_koopman_not_found));
                     }
-
-                    // close the cursor
-                    if (koopman != null) {
-                        koopman.close();
-                    }
                 }
             }
         } else if (requestCode == NFC_SCAN_REQUEST_CODE) {
@@ -1472,26 +1385,20 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                     // uppercase the scanned uid
                     uid = uid.toUpperCase();
 
-                    // find the koopman by querying for scanned nfc tag uid
-                    Cursor koopman = getContext().getContentResolver().query(
-                            MakkelijkeMarktProvider.mUriKoopman,
-                            new String[] {
-                                    MakkelijkeMarktProvider.Koopman.COL_ID,
-                                    MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER
-                            },
-                            MakkelijkeMarktProvider.Koopman.COL_PAS_UID + " = ? ",
-                            new String[] { uid },
-                            null);
+                    // find the koopman, or the vervanger, by scanned nfc tag uid in the index
+                    KoopmanIndex.Match koopman = KoopmanIndex.findByPasUid(getContext(), uid);
 
-                    // set the koopman
-                    if (koopman != null && koopman.moveToFirst()) {
+                    // set the koopman, when a vervanger pas was scanned the koopman fragment will
+                    // ask for which koopman the vervanger is working
+                    if (koopman != null) {
                         mKoopmanFragment.selectKoopman(
-                                koopman.getInt(koopman.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ID)),
+                                koopman.mKoopmanId,
                                 DagvergunningFragmentKoopman.KOOPMAN_SELECTION_METHOD_SCAN_NFC
                         );
                         mKoopmanFragment.mDagvergunningId = mId;
-                        mKoopmanFragment.mErkenningsnummerEditText.setText(
-                                koopman.getString(koopman.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER)));
+                        if (koopman.mErkenningsnummer != null) {
+                            mKoopmanFragment.mErkenningsnummerEditText.setText(koopman.mErkenningsnummer);
+                        }
                         mKoopmanFragment.mErkenningsnummerEditText.dismissDropDown();
                     } else {
 
@@ -1503,11 +1410,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
                         getKoopman.setPasUid(uid);
                         getKoopman.enqueue();
                     }
-
-                    // close the cursor
-                    if (koopman != null) {
-                        koopman.close();
-                    }
                 }
             } else if (resultCode == Activity.RESULT_CANCELED) {
                 mToast = Utility.showToast(getContext(), mToast, getString(R.string.notice_scan_nfc_cancelled));
@@ -1777,11 +1679,8 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
             mVervangerId = data.getInt(data.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ID));
             mVervangerErkenningsnummer = data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER));
 
-            String[] productParams = getResources().getStringArray(R.array.array_product_param);
-            for (String product : productParams) {
-                mProducten.put(product, data.getInt(data.getColumnIndex("dagvergunning_" + product)));
-                mProductenVast.put(product, data.getInt(data.getColumnIndex(product + "_vast")));
-            }
+            mProducten.readFrom(data, "dagvergunning_", "");
+            mProductenVast.readFrom(data, "", "_vast");
 
             // update the view elements of the currently selected tab
             setFragmentValuesByPosition(mCurrentTab);
@@ -1806,36 +1705,6 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
     public void onLoaderReset(Loader<Cursor> loader) {
     }
 
-    /**
-     * Download koopmannen with status = 3 (Vervanger) from the Api and log in shared preferences
-     */
-    private void getVervangers() {
-
-        // get koopmannen with status = 3 (vervanger)
-        final int koopmanStatusVervanger = 3;
-
-        // get settings from the shared preferences
-        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
-
-        // check time in hours since last fetched the vervangers
-        long diffInHours = getResources().getInteger(R.integer.makkelijkemarkt_api_vervangers_fetch_interval_hours);
-        if (settings.contains(getContext().getString(R.string.sharedpreferences_key_koopmannen_last_fetched) + koopmanStatusVervanger)) {
-            long lastFetchTimestamp = settings.getLong(getContext().getString(R.string.sharedpreferences_key_koopmannen_last_fetched) + koopmanStatusVervanger, 0);
-            long differenceMs  = new Date().getTime() - lastFetchTimestamp;
-            diffInHours = TimeUnit.MILLISECONDS.toHours(differenceMs);
-        }
-
-        // if last vervangers fetched more than 12 hours ago, fetch them again
-        if (diffInHours >= getResources().getInteger(R.integer.makkelijkemarkt_api_vervangers_fetch_interval_hours)) {
-
-            // show progress dialog
-            mGetVervangersProcessDialog.show();
-            ApiGetKoopmannen getKoopmannen = new ApiGetKoopmannen(getContext());
-            getKoopmannen.setStatus(koopmanStatusVervanger);
-            getKoopmannen.enqueue();
-        }
-    }
-
     /**
      * Handle response event from api get koopman request onresponse method to update our ui
      * @param event the received event
@@ -1853,34 +1722,18 @@ public class DagvergunningFragment extends Fragment implements LoaderManager.Loa
     }
 
     /**
-     * Handle response event from api get sollicitaties request completed to update our ui
+     * Handle the progress of warming up the markt data to update our ui
      * @param event the received event
      */
     @Subscribe
-    public void onGetSollicitatiesCompletedEvent(ApiGetSollicitaties.OnCompletedEvent event) {
+    public void onWarmUpProgressEvent(ApiWarmUp.OnProgressEvent event) {
 
-        // hide progress dialog
-        mGetSollicitatiesProcessDialog.dismiss();
-        if (event.mSollicitatiesCount == -1) {
-            mToast = Utility.showToast(getContext(), mToast, getString(R.string.error_sollicitaties_fetch_failed) + ": " + event.mMessage);
-        } else {
-
-            // download vervangers
-            getVervangers();
+        // hide progressbar when done, and show errors
+        if (event.isCompleted()) {
+            mProgressbar.setVisibility(View.GONE);
         }
-    }
-
-    /**
-     * Handle response event from api get koopmannen request completed to update our ui
-     * @param event the received event
-     */
-    @Subscribe
-    public void onGetKoopmannenCompletedEvent(ApiGetKoopmannen.OnCompletedEvent event) {
-
-        // hide progress dialog
-        mGetVervangersProcessDialog.dismiss();
-        if (event.mKoopmannenCount == -1) {
-            mToast = Utility.showToast(getContext(), mToast, getString(R.string.error_vervangers_fetch_failed) + ": " + event.mMessage);
+        if (event.mMessage != null) {
+            mToast = Utility.showToast(getContext(), mToast, event.mMessage);
         }
     }
 
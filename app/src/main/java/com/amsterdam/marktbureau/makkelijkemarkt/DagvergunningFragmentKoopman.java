@@ -42,14 +42,13 @@ import com.amsterdam.marktbureau.makkelijkemarkt.adapters.ErkenningsnummerAdapte
 import com.amsterdam.marktbureau.makkelijkemarkt.adapters.SollicitatienummerAdapter;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetKoopmanByErkenningsnummer;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
-import com.bumptech.glide.Glide;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.ProductQuantities;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashMap;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -126,7 +125,7 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
     String mAanwezigSelectedValue;
 
     // sollicitatie default producten data
-    public HashMap<String, Integer> mProducten = new HashMap<>();
+    public ProductQuantities mProducten = new ProductQuantities();
 
     // meldingen
     boolean mMeldingMultipleDagvergunningen = false;
@@ -219,12 +218,6 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        // initialize the producten values
-        String[] productParams = getResources().getStringArray(R.array.array_product_param);
-        for (String product : productParams) {
-            mProducten.put(product, -1);
-        }
-
         // call the activity
         ((Callback) getActivity()).onKoopmanFragmentReady();
     }
@@ -312,10 +305,7 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
         mKoopmanSelectionMethod = selectionMethod;
 
         // reset the default amount of products before loading the koopman
-        String[] productParams = getResources().getStringArray(R.array.array_product_param);
-        for (String product : productParams) {
-            mProducten.put(product, -1);
-        }
+        mProducten.clear();
 
         // inform the dagvergunningfragment that the koopman has changed, get the new values,
         // and populate our layout with the new koopman
@@ -392,6 +382,7 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
                     MakkelijkeMarktProvider.mUriKoopman,
                     new String[] {
                             MakkelijkeMarktProvider.Koopman.COL_FOTO_URL,
+                            MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL,
                             MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS,
                             MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM
                     },
@@ -409,9 +400,9 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
                     mVervangerDetail.setVisibility(View.VISIBLE);
 
                     // vervanger photo
-                    Glide.with(getContext())
-                            .load(vervanger.getString(vervanger.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                            .error(R.drawable.no_koopman_image)
+                    Utility.loadKoopmanFoto(getContext(),
+                            vervanger.getString(vervanger.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL)),
+                            vervanger.getString(vervanger.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
                             .into(mVervangerFotoImage);
 
                     // vervanger naam
@@ -449,10 +440,7 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
                     mKoopmanId = koopmanId;
 
                     // reset the default amount of products before loading the koopman
-                    String[] productParams = getResources().getStringArray(R.array.array_product_param);
-                    for (String product : productParams) {
-                        mProducten.put(product, -1);
-                    }
+                    mProducten.clear();
 
                     // update aanwezig status to vervanger_met_toestemming
                     mAanwezigSelectedValue = getString(R.string.item_vervanger_met_toestemming_aanwezig);
@@ -542,9 +530,9 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
             mMeldingVerwijderd = koopmanStatus.equals(getString(R.string.koopman_status_verwijderd));
 
             // koopman photo
-            Glide.with(getContext())
-                    .load(data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                    .error(R.drawable.no_koopman_image)
+            Utility.loadKoopmanFoto(getContext(),
+                    data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL)),
+                    data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
                     .into(mKoopmanFotoImage);
 
             // koopman naam
@@ -569,10 +557,7 @@ public class DagvergunningFragmentKoopman extends Fragment implements LoaderMana
 
                     // get vaste producten for selected markt
                     if (marktId > 0 && marktId == data.getInt(data.getColumnIndex(MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID))) {
-                        String[] productParams = getResources().getStringArray(R.array.array_product_param);
-                        for (String product : productParams) {
-                            mProducten.put(product, data.getInt(data.getColumnIndex(product)));
-                        }
+                        mProducten.readFrom(data, "", "");
                     }
 
                     // inflate sollicitatie layout and populate its view items
@@ -27,7 +27,6 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
-import com.bumptech.glide.Glide;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -132,6 +131,7 @@ public class DagvergunningFragmentOverzicht extends Fragment implements LoaderMa
                     new String[] {
                             MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER,
                             MakkelijkeMarktProvider.Koopman.COL_FOTO_URL,
+                            MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL,
                             MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS,
                             MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM
                     },
@@ -149,9 +149,9 @@ public class DagvergunningFragmentOverzicht extends Fragment implements LoaderMa
                     mVervangerDetail.setVisibility(View.VISIBLE);
 
                     // vervanger photo
-                    Glide.with(getContext())
-                            .load(vervanger.getString(vervanger.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                            .error(R.drawable.no_koopman_image)
+                    Utility.loadKoopmanFoto(getContext(),
+                            vervanger.getString(vervanger.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL)),
+                            vervanger.getString(vervanger.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
                             .into(mVervangerFotoImage);
 
                     // vervanger naam
@@ -206,9 +206,9 @@ public class DagvergunningFragmentOverzicht extends Fragment implements LoaderMa
             int marktId = settings.getInt(getContext().getString(R.string.sharedpreferences_key_markt_id), 0);
 
             // koopman photo
-            Glide.with(getContext())
-                    .load(data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                    .error(R.drawable.no_koopman_image)
+            Utility.loadKoopmanFoto(getContext(),
+                    data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL)),
+                    data.getString(data.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
                     .into(mKoopmanFotoImage);
 
             // koopman naam
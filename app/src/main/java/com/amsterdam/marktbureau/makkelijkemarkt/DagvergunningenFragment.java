@@ -18,17 +18,20 @@ import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.adapters.DagvergunningenAdapter;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetDagvergunningen;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiWarmUp;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.DagvergunningenPolling;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
@@ -39,13 +42,13 @@ import java.util.Date;
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
-import butterknife.OnItemClick;
 
 /**
  *
  * @author marcolangebeeke
  */
-public class DagvergunningenFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DagvergunningenFragment extends Fragment implements
+        LoaderManager.LoaderCallbacks<Cursor>, DagvergunningenAdapter.OnItemClickListener {
 
     // use classname when logging
     private static final String LOG_TAG = DagvergunningenFragment.class.getSimpleName();
@@ -54,11 +57,12 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
     private static final int DAGVERGUNNINGEN_LOADER = 3;
 
     // bind layout elements
-    @Bind(R.id.listview_dagvergunningen) ListView mDagvergunningenListView;
+    @Bind(R.id.recyclerview_dagvergunningen) RecyclerView mDagvergunningenRecyclerView;
     @Bind(R.id.progressbar_dagvergunningen) ProgressBar mDagvergunningenProgressBar;
+    @Bind(R.id.progressbar_warmup) ProgressBar mWarmUpProgressBar;
     @Bind(R.id.listview_empty) TextView mListViewEmptyTextView;
 
-    // cursoradapter for populating the dagvergunningen litsview with dagvergunningen from the database
+    // adapter for populating the dagvergunningen recyclerview with dagvergunningen from the database
     private DagvergunningenAdapter mDagvergunningenAdapter;
 
     // common toast object
@@ -94,7 +98,8 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
         SimpleDateFormat sdf = new SimpleDateFormat(getString(R.string.date_format_dag));
         String dag = sdf.format(new Date());
 
-        if (savedInstanceState == null) {
+        // the warm up of the selected markt is already fetching the dagvergunningen
+        if (savedInstanceState == null && !ApiWarmUp.isRunning(marktId)) {
 
             // fetch dagvergunningen for selected markt
             ApiGetDagvergunningen getDagvergunningen = new ApiGetDagvergunningen(getContext());
@@ -103,9 +108,10 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
             getDagvergunningen.enqueue();
         }
 
-        // create an adapter for the dagvergunningen listview
-        mDagvergunningenAdapter = new DagvergunningenAdapter(getActivity());
-        mDagvergunningenListView.setAdapter(mDagvergunningenAdapter);
+        // create an adapter for the dagvergunningen recyclerview
+        mDagvergunningenAdapter = new DagvergunningenAdapter(getActivity(), this);
+        mDagvergunningenRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mDagvergunningenRecyclerView.setAdapter(mDagvergunningenAdapter);
 
         // pass markt id and dag as arguments bundle to the cursorloader
         Bundle args = new Bundle();
@@ -120,15 +126,10 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
 
     /**
      * Select an existing dagvergunning and open it in the dagvergunning activity
-     * @param position the position in the listview
+     * @param id the id of the selected dagvergunning
      */
-    @OnItemClick(R.id.listview_dagvergunningen)
-    public void onItemClick(int position) {
-
-        // get the dagvergunning id from the adapter based on the selected item position
-        Cursor selectedDagvergunning = (Cursor) mDagvergunningenAdapter.getItem(position);
-        int id = selectedDagvergunning.getInt(selectedDagvergunning.getColumnIndex(
-                        MakkelijkeMarktProvider.Dagvergunning.COL_ID));
+    @Override
+    public void onItemClick(int id) {
 
         // open the dagvergunning activity to edit the selected dagvergunning
         Intent intent = new Intent(getActivity(), DagvergunningActivity.class);
@@ -175,7 +176,7 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
     }
 
     /**
-     * When done loading update the adapter of the listview with the loaded dagvergunningen
+     * When done loading update the adapter of the recyclerview with the loaded dagvergunningen
      * @param loader the loader object
      * @param data a cursor containing the dagvergunningen
      */
@@ -192,7 +193,7 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
     }
 
     /**
-     * Clear the dagvergunningen from the listview adapter
+     * Clear the dagvergunningen from the recyclerview adapter
      * @param loader the loader object
      */
     @Override
@@ -216,12 +217,55 @@ public class DagvergunningenFragment extends Fragment implements LoaderManager.L
     }
 
     /**
-     * Register eventbus handlers
+     * Show the combined progress of warming up the data of the markt, or show an error
+     * @param event the received event
+     */
+    @Subscribe
+    public void onWarmUpProgressEvent(ApiWarmUp.OnProgressEvent event) {
+        if (event.isCompleted()) {
+            mWarmUpProgressBar.setVisibility(View.GONE);
+        } else {
+            mWarmUpProgressBar.setMax(event.mStepCount);
+            mWarmUpProgressBar.setProgress(event.mCompletedCount);
+            mWarmUpProgressBar.setVisibility(View.VISIBLE);
+        }
+        if (event.mMessage != null) {
+            mToast = Utility.showToast(getContext(), mToast, event.mMessage);
+        }
+    }
+
+    /**
+     * Register eventbus handlers, and show the progress of a warm up that is already running
      */
     @Override
     public void onStart() {
         super.onStart();
         EventBus.getDefault().register(this);
+
+        ApiWarmUp.OnProgressEvent progress = ApiWarmUp.getProgress();
+        if (progress != null) {
+            onWarmUpProgressEvent(progress);
+        } else {
+            mWarmUpProgressBar.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Let the dagvergunningen be polled while we are in the foreground
+     */
+    @Override
+    public void onResume() {
+        super.onResume();
+        DagvergunningenPolling.setVisible(true);
+    }
+
+    /**
+     * Pause polling the dagvergunningen
+     */
+    @Override
+    public void onPause() {
+        DagvergunningenPolling.setVisible(false);
+        super.onPause();
     }
 
     /**
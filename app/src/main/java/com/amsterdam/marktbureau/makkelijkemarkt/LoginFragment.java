@@ -30,6 +30,7 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiClient;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetAccounts;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPostLoginBasicId;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.MakkelijkeMarktApiService;
@@ -297,6 +298,9 @@ public class LoginFragment extends Fragment implements
             editor.putString(getString(R.string.sharedpreferences_key_uuid), uuid);
             editor.apply();
 
+            // send the api key with all following api requests
+            ApiClient.setApiKey(getContext(), uuid);
+
             // start the api service
             Intent apiServiceIntent = new Intent(getContext(), MakkelijkeMarktApiService.class);
             getContext().startService(apiServiceIntent);
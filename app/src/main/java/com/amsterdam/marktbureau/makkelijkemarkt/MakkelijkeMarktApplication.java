@@ -11,6 +11,9 @@ package com.amsterdam.marktbureau.makkelijkemarkt;
 
 import android.app.Application;
 
+import com.amsterdam.marktbureau.makkelijkemarkt.data.KoopmanIndex;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.ProductQuantities;
+
 import com.google.android.gms.analytics.GoogleAnalytics;
 import com.google.android.gms.analytics.Tracker;
 
@@ -40,5 +43,11 @@ public class MakkelijkeMarktApplication extends Application {
         if (mTracker == null) {
             Tracker mTracker = mAnalytics.newTracker(R.xml.analytics_tracker_config);
         }
+
+        // build the index of the koopmannen for looking up scanned barcodes and nfc tags
+        KoopmanIndex.init(this);
+
+        // load the products in the order of the product resources
+        ProductQuantities.init(this);
     }
 }
\ No newline at end of file
@@ -27,9 +27,12 @@ import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiCall;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetMarkten;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiWarmUp;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiMarkt;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+import com.google.gson.reflect.TypeToken;
 
 import java.util.Date;
 import java.util.List;
@@ -38,6 +41,7 @@ import java.util.concurrent.TimeUnit;
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import butterknife.OnItemClick;
+import okhttp3.ResponseBody;
 import retrofit2.Callback;
 import retrofit2.Response;
 
@@ -47,7 +51,7 @@ import retrofit2.Response;
  */
 public class MarktenFragment extends Fragment implements
         LoaderManager.LoaderCallbacks<Cursor>,
-        Callback<List<ApiMarkt>> {
+        Callback<ResponseBody> {
 
     // use classname when logging
     private static final String LOG_TAG = MarktenFragment.class.getSimpleName();
@@ -152,6 +156,9 @@ public class MarktenFragment extends Fragment implements
         editor.putString(getString(R.string.sharedpreferences_key_markt_producten), producten);
         editor.apply();
 
+        // start warming up the data of the markt while the toezichthouder gets ready
+        ApiWarmUp.start(getContext(), id);
+
         // open the dagvergunningen activity
         Intent dagvergunningenIntent = new Intent(getActivity(), DagvergunningenActivity.class);
         startActivity(dagvergunningenIntent);
@@ -205,33 +212,42 @@ public class MarktenFragment extends Fragment implements
      * @param response response we received from the api
      */
     @Override
-    public void onResponse(Response<List<ApiMarkt>> response) {
+    public void onResponse(Response<ResponseBody> response) {
 
         // hide progressbar
         mMarktenProgressBar.setVisibility(View.GONE);
 
-        if (response.body() != null && response.body().size() > 0) {
-
-            // copy the values to a contentvalues array that can be used in the
-            // contentprovider bulkinsert method
-            ContentValues[] contentValues = new ContentValues[response.body().size()];
-            for (int i = 0; i < response.body().size(); i++) {
-                contentValues[i] = response.body().get(i).toContentValues();
-            }
-
-            // delete existing markten and insert downloaded marken into db
-            if (contentValues.length > 0) {
+        if (response.body() != null) {
+
+            // when the server told us the markten did not change we keep the ones we have, without
+            // reading them again
+            if (ApiCall.isNotModified(response)) {
+                response.body().close();
+            } else {
+                List<ApiMarkt> markten = ApiCall.readBody(response.body(), new TypeToken<List<ApiMarkt>>(){}.getType());
+                if (markten == null || markten.size() == 0) {
+                    return;
+                }
+
+                // copy the values to a contentvalues array that can be used in the
+                // contentprovider bulkinsert method
+                ContentValues[] contentValues = new ContentValues[markten.size()];
+                for (int i = 0; i < markten.size(); i++) {
+                    contentValues[i] = markten.get(i).toContentValues();
+                }
+
+                // delete existing markten and insert downloaded marken into db
                 getContext().getContentResolver().delete(MakkelijkeMarktProvider.mUriMarkt, null, null);
                 getContext().getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriMarkt, contentValues);
-
-                // when we are done, remember when we last fetched the markten
-                SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
-                SharedPreferences.Editor editor = settings.edit();
-                editor.putLong(
-                        getContext().getString(R.string.sharedpreferences_key_markten_last_fetched),
-                        new Date().getTime());
-                editor.apply();
             }
+
+            // when we are done, remember when we last fetched the markten
+            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
+            SharedPreferences.Editor editor = settings.edit();
+            editor.putLong(
+                    getContext().getString(R.string.sharedpreferences_key_markten_last_fetched),
+                    new Date().getTime());
+            editor.apply();
         }
     }
 
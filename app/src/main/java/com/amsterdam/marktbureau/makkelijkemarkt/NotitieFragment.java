@@ -9,14 +9,11 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt;
 
-import android.app.ProgressDialog;
 import android.content.ContentValues;
 import android.content.SharedPreferences;
-import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
-import android.support.v4.content.ContextCompat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -24,8 +21,7 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPostNotitie;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiNotitie;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiOutbox;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 import com.google.gson.JsonObject;
 
@@ -35,14 +31,12 @@ import java.util.Date;
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
-import retrofit2.Callback;
-import retrofit2.Response;
 
 /**
  *
  * @author marcolangebeeke
  */
-public class NotitieFragment extends Fragment implements Callback<ApiNotitie> {
+public class NotitieFragment extends Fragment {
 
     // use classname when logging
     private static final String LOG_TAG = NotitieFragment.class.getSimpleName();
@@ -52,9 +46,6 @@ public class NotitieFragment extends Fragment implements Callback<ApiNotitie> {
     @Bind(R.id.notitie_cancel) Button mCancelButton;
     @Bind(R.id.notitie_save) Button mSaveButton;
 
-    // progress dialog for during saving
-    private ProgressDialog mProgressDialog;
-
     // common toast object
     private Toast mToast;
 
@@ -84,13 +75,6 @@ public class NotitieFragment extends Fragment implements Callback<ApiNotitie> {
         mCancelButton.setTransformationMethod(null);
         mSaveButton.setTransformationMethod(null);
 
-        // create the save progress dialog
-        mProgressDialog = new ProgressDialog(getContext());
-        mProgressDialog.setIndeterminate(true);
-        mProgressDialog.setIndeterminateDrawable(ContextCompat.getDrawable(getContext(), R.drawable.progressbar_circle));
-        mProgressDialog.setMessage(getString(R.string.notice_notitie_saving) + "...");
-        mProgressDialog.setCancelable(false);
-
         return view;
     }
 
@@ -103,80 +87,46 @@ public class NotitieFragment extends Fragment implements Callback<ApiNotitie> {
     }
 
     /**
-     * Onclick save the notitie
+     * Onclick save the notitie locally and queue the post to the api
      */
     @OnClick(R.id.notitie_save)
     public void saveNotitie() {
         if (!mBerichtEditText.getText().toString().trim().isEmpty()) {
             JsonObject notitiePayload = new JsonObject();
-
-            // show progress dialog
-            mProgressDialog.show();
+            ContentValues notitieValues = new ContentValues();
 
             // bericht
             String bericht = mBerichtEditText.getText().toString().trim();
             notitiePayload.addProperty(getString(R.string.makkelijkemarkt_api_notitie_payload_bericht), bericht);
+            notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_BERICHT, bericht);
 
             // get the markt id from the shared preferences
             SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
             int marktId = settings.getInt(getString(R.string.sharedpreferences_key_markt_id), 0);
             notitiePayload.addProperty(getString(R.string.makkelijkemarkt_api_notitie_payload_markt_id), marktId);
+            notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_MARKT_ID, marktId);
 
             // get the date of today for the dag param
             SimpleDateFormat sdf = new SimpleDateFormat(getString(R.string.date_format_dag));
             String dag = sdf.format(new Date());
             notitiePayload.addProperty(getString(R.string.makkelijkemarkt_api_notitie_payload_dag), dag);
+            notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_DAG, dag);
 
-            // send post call to the api
-            ApiPostNotitie postNotitie = new ApiPostNotitie(getContext());
-            postNotitie.setPayload(notitiePayload);
-            postNotitie.enqueue(this);
+            // the local notitie is not afgevinkt or verwijderd yet
+            SimpleDateFormat datumtijdFormat = new SimpleDateFormat(getString(R.string.date_format_datumtijd));
+            notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_AANGEMAAKT_DATUMTIJD, datumtijdFormat.format(new Date()));
+            notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_AFGEVINKT, false);
+            notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_VERWIJDERD, false);
 
-        } else {
-            Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_enter_text));
-        }
-    }
+            // save the notitie and let the outbox send the post call to the api in the background
+            ApiOutbox.postNotitie(getContext(), notitieValues, notitiePayload);
+
+            // close current activity and go back to notities activity
+            getActivity().finish();
+            Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_save_success));
 
-    /**
-     * On response from the api post call save the notitie to the database and return
-     * @param response resulting response apinotitie object
-     */
-    @Override
-    public void onResponse(Response<ApiNotitie> response) {
-
-        // hide progress dialog
-        mProgressDialog.dismiss();
-
-        if (response.isSuccess() && response.body() != null) {
-
-            // get resulting notitie as ApiNotitie object from response and save it to the database
-            ApiNotitie notitie = response.body();
-            ContentValues notitieValues = notitie.toContentValues();
-            Uri notitieUri = getContext().getContentResolver().insert(
-                    MakkelijkeMarktProvider.mUriNotitie, notitieValues);
-
-            // on success close current activity and go back to notities activity
-            if (notitieUri != null) {
-                getActivity().finish();
-                Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_save_success));
-            } else {
-                Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_save_failed));
-            }
         } else {
-            Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_save_failed));
+            Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_enter_text));
         }
     }
-
-    /**
-     * On failure show a toast
-     * @param t the error thrown
-     */
-    @Override
-    public void onFailure(Throwable t) {
-
-        // hide progress dialog
-        mProgressDialog.dismiss();
-
-        Utility.showToast(getContext(), mToast, getString(R.string.notice_notitie_save_failed));
-    }
-}
\ No newline at end of file
+}
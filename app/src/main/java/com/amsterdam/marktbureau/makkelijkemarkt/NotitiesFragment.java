@@ -28,7 +28,6 @@ import android.widget.Toast;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.adapters.NotitiesAdapter;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetNotities;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPutNotitie;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 
 import org.greenrobot.eventbus.EventBus;
@@ -198,29 +197,6 @@ public class NotitiesFragment extends Fragment implements LoaderManager.LoaderCa
         }
     }
 
-    /**
-     * Handle update event when we start to update a notitie for showing the progressbar
-     * @param event the received event
-     */
-    @Subscribe
-    public void onUpdateNotitieEvent(NotitiesAdapter.OnUpdateEvent event) {
-        mNotitiesProgressBar.setVisibility(View.VISIBLE);
-    }
-
-    /**
-     * Handle response event from api putnotitie request onresponse method to update our ui
-     * @param event the received event
-     */
-    @Subscribe
-    public void onPutNotitieResponseEvent(ApiPutNotitie.OnResponseEvent event) {
-
-        // hide progressbar or show an error
-        mNotitiesProgressBar.setVisibility(View.GONE);
-        if (event.mNotitie == null) {
-            mToast = Utility.showToast(getContext(), mToast, getString(R.string.error_notitie_update_failed) + ": " + event.mMessage);
-        }
-    }
-
     /**
      * Register eventbus handlers
      */
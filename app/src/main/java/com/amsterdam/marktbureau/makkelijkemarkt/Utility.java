@@ -27,14 +27,23 @@ import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Toast;
 
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiClient;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetLogout;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetVersion;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiOutbox;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPostDagvergunningConcept;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.MakkelijkeMarktApiService;
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.google.gson.JsonObject;
 
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -112,6 +121,38 @@ public class Utility {
         return isConnected;
     }
 
+    /**
+     * Create a glide request for the down-sampled thumbnail of a koopman photo, as shown in the
+     * lists. The size and transformation are always the same, so the thumbnails that were
+     * prefetched are found in the disk cache
+     * @param context the context
+     * @param fotoUrl the url of the koopman photo
+     * @return the glide request
+     */
+    public static DrawableRequestBuilder<String> loadKoopmanThumbnail(Context context, String fotoUrl) {
+        int size = context.getResources().getDimensionPixelSize(R.dimen.koopman_thumbnail_size);
+        return Glide.with(context.getApplicationContext())
+                .load(fotoUrl)
+                .override(size, size)
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.RESULT)
+                .error(R.drawable.no_koopman_image);
+    }
+
+    /**
+     * Create a glide request for the medium size koopman photo, as shown in the detail views, and
+     * fall back to the full size photo if there is no medium one
+     * @param context the context
+     * @param fotoMediumUrl the url of the medium size koopman photo
+     * @param fotoUrl the url of the full size koopman photo
+     * @return the glide request
+     */
+    public static DrawableRequestBuilder<String> loadKoopmanFoto(Context context, String fotoMediumUrl, String fotoUrl) {
+        return Glide.with(context)
+                .load(fotoMediumUrl != null && !fotoMediumUrl.isEmpty() ? fotoMediumUrl : fotoUrl)
+                .error(R.drawable.no_koopman_image);
+    }
+
     /**
      * Hide the softkeyboard from an activity
      * @param activity Activity
@@ -222,6 +263,20 @@ public class Utility {
         }
     }
 
+    /**
+     * Create the sha-1 hash of a string
+     * @param value the string
+     * @return the hash as hexadecimal number, or the java hashcode if sha-1 is not available
+     */
+    public static String sha1Hex(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return binToHex(digest.digest(value.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return String.valueOf(value.hashCode());
+        }
+    }
+
     /**
      * Convert a binary number to a decimal number string
      * @param value binary number
@@ -293,17 +348,25 @@ public class Utility {
         Intent apiServiceIntent = new Intent(context, MakkelijkeMarktApiService.class);
         context.stopService(apiServiceIntent);
 
-        // call api logout method (async, but without handling the response)
+        // call api logout method (async, and only stop sending the api key when it is done)
         if (callApi) {
+            final Context appContext = context.getApplicationContext();
             ApiGetLogout getLogout = new ApiGetLogout(context);
-            getLogout.enqueue(new Callback() {
+            boolean enqueued = getLogout.enqueue(new Callback() {
                 @Override
                 public void onResponse(Response response) {
+                    ApiClient.setApiKey(appContext, null);
                 }
                 @Override
                 public void onFailure(Throwable t) {
+                    ApiClient.setApiKey(appContext, null);
                 }
             });
+            if (!enqueued) {
+                ApiClient.setApiKey(context, null);
+            }
+        } else {
+            ApiClient.setApiKey(context, null);
         }
 
         // clear uuid and all selected markt details from shared preferences
@@ -315,6 +378,12 @@ public class Utility {
                 .remove(context.getString(R.string.sharedpreferences_key_markt_producten))
                 .apply();
 
+        // stop sending the outbox, the writes of this user are kept until they log in again
+        ApiOutbox.cancel();
+
+        // forget the concept facturen of this user
+        ApiPostDagvergunningConcept.clearCache();
+
         // clear activity history stack and open mainactivity home screen in new task
         Intent intent = new Intent(context, MainActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
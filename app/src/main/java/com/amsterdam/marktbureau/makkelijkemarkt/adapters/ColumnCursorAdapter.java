@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.adapters;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.widget.CursorAdapter;
+
+/**
+ * A cursoradapter that lets its subclass look up the column indices once for each new cursor,
+ * instead of on every bind, and gives it a formatter for the texts of the list items
+ * @author marcolangebeeke
+ */
+public abstract class ColumnCursorAdapter extends CursorAdapter {
+
+    // formats the texts of the list items
+    protected final ListItemFormatter mFormatter;
+
+    /**
+     * Constructor
+     * @param context the context
+     */
+    public ColumnCursorAdapter(Context context) {
+        super(context, null, 0);
+        mFormatter = new ListItemFormatter(context);
+    }
+
+    /**
+     * Look up the column indices of a new cursor before it is used for binding. Also called when
+     * the filter of an autocomplete textview changes the cursor
+     * @param newCursor the new cursor
+     * @return the old cursor
+     */
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor != null && newCursor != getCursor()) {
+            onColumnsChanged(newCursor);
+        }
+        return super.swapCursor(newCursor);
+    }
+
+    /**
+     * Look up and keep the indices of the columns used in bindView
+     * @param cursor the new cursor
+     */
+    protected abstract void onColumnsChanged(Cursor cursor);
+}
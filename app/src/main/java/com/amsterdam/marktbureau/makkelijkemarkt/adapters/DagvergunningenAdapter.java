@@ -11,11 +11,15 @@ package com.amsterdam.marktbureau.makkelijkemarkt.adapters;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
@@ -23,175 +27,348 @@ import android.widget.TextView;
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
-import com.bumptech.glide.Glide;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
 
 /**
- *
+ * Adapter for the recyclerview of dagvergunningen. A loaded cursor is read into a list of
+ * dagvergunning items, and the difference with the current list is calculated on a background
+ * thread, so after a refresh only the inserted, changed and removed dagvergunningen are rebound
  * @author marcolangebeeke
  */
-public class DagvergunningenAdapter extends CursorAdapter {
+public class DagvergunningenAdapter extends RecyclerView.Adapter<DagvergunningenAdapter.ViewHolder> {
 
     // use classname when logging
     private static final String LOG_TAG = DagvergunningenAdapter.class.getSimpleName();
 
+    // the thread calculating the differences between the lists, one at a time in order
+    private static final Executor mDiffExecutor = Executors.newSingleThreadExecutor();
+
+    // the context
+    private final Context mContext;
+
+    // listener for clicks on a dagvergunning
+    private final OnItemClickListener mOnItemClickListener;
+
+    // the dagvergunningen we are showing
+    private List<Item> mItems = Collections.emptyList();
+
+    // incremented for each new list, so the result of an outdated calculation is dropped
+    private int mGeneration = 0;
+
+    // post the calculated differences back to the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // formats the registratie tijd and the texts of the list items
+    private final ListItemFormatter mFormatter;
+
+    // the labels and texts, looked up once instead of on every bind
+    private final String mKoopmanStatusVerwijderd;
+    private final String mLabelErkenningsnummer;
+    private final String mLabelSollicitatienummer;
+    private final String mLabelNotitie;
+    private final String mLengthMeter;
+
     /**
      * Constructor
-     * @param context
+     * @param context the context
+     * @param onItemClickListener listener for clicks on a dagvergunning
      */
-    public DagvergunningenAdapter(Context context) {
-        super(context, null, 0);
+    public DagvergunningenAdapter(Context context, OnItemClickListener onItemClickListener) {
+        mContext = context;
+        mOnItemClickListener = onItemClickListener;
+        mFormatter = new ListItemFormatter(context);
+        mKoopmanStatusVerwijderd = context.getString(R.string.koopman_status_verwijderd);
+        mLabelErkenningsnummer = context.getString(R.string.label_erkenningsnummer) + ": ";
+        mLabelSollicitatienummer = context.getString(R.string.label_sollicitatienummer) + ": ";
+        mLabelNotitie = context.getString(R.string.label_notitie) + ": ";
+        mLengthMeter = " " + context.getString(R.string.length_meter);
+        setHasStableIds(true);
     }
 
     /**
-     * Inflate the dagvergunningen_list_item view and attach the viewholder for easy referencing
-     * @param context
-     * @param cursor
-     * @param parent
-     * @return
+     * Read the dagvergunningen from a loaded cursor and update the list with the differences
+     * @param cursor a cursor containing the dagvergunningen, or null to clear the list
      */
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public void swapCursor(Cursor cursor) {
+        final List<Item> newItems = readItems(cursor);
+        final List<Item> oldItems = mItems;
+        final int generation = ++mGeneration;
+
+        // nothing to compare with, so just show the new list
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            mItems = newItems;
+            notifyDataSetChanged();
+            return;
+        }
+
+        mDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldItems.size();
+                    }
 
-        // create a new view from the dagvergunningen_list_item definition
-        View view = LayoutInflater.from(context).inflate(R.layout.dagvergunningen_list_item, parent, false);
+                    @Override
+                    public int getNewListSize() {
+                        return newItems.size();
+                    }
 
-        // set a viewholder with our view layout for the view we just created
-        ViewHolder viewHolder = new ViewHolder(view);
-        view.setTag(viewHolder);
+                    @Override
+                    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                        return oldItems.get(oldItemPosition).mId == newItems.get(newItemPosition).mId;
+                    }
 
-        return view;
+                    @Override
+                    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                        return oldItems.get(oldItemPosition).equals(newItems.get(newItemPosition));
+                    }
+                }, false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            mItems = newItems;
+                            diffResult.dispatchUpdatesTo(DagvergunningenAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
     }
 
     /**
-     * Bind the cursor data to the view elements
-     * @param view listitem view containing the elements
-     * @param context the context
-     * @param cursor a cursor containing the dagvergunning data
+     * Read the dagvergunningen from a cursor into a list of items, with the registratie tijd
+     * already formatted, and mark the koopmannen that have more than one dagvergunning
+     * @param cursor a cursor containing the dagvergunningen, or null
+     * @return the list of items
      */
-    @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        boolean multipleDagvergunningen = false;
-
-        // get erkenningsnummer for checking multiple dagvergunningen for the same koopman
-        String erkenningsnummer = cursor.getString(cursor.getColumnIndex(
-                MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE));
-
-        // get current position, check for multiple dagvergunningen, and restore position again
-        int position = cursor.getPosition();
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            if (cursor.getString(cursor.getColumnIndex(
-                    MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE))
-                    .equals(erkenningsnummer) && cursor.getPosition() != position) {
-                multipleDagvergunningen = true;
-                break;
-            }
-            cursor.moveToNext();
+    private List<Item> readItems(Cursor cursor) {
+        if (cursor == null || !cursor.moveToFirst()) {
+            return Collections.emptyList();
         }
-        cursor.moveToPosition(position);
 
-        // get the viewholder layout containing the view items
-        ViewHolder viewHolder = (ViewHolder) view.getTag();
+        int idIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_ID);
+        int fotoUrlIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL);
+        int koopmanStatusIndex = cursor.getColumnIndex("koopman_status");
+        int voorlettersIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS);
+        int achternaamIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM);
+        int vervangerErkenningsnummerIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER);
+        int registratieDatumtijdIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_DATUMTIJD);
+        int erkenningsnummerIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE);
+        int sollicitatieNummerIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER);
+        int sollicitatieStatusIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_STATUS_SOLLICITATIE);
+        int notitieIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_NOTITIE);
+        int totaleLengteIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_TOTALE_LENGTE);
+        int accountNaamIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Account.COL_NAAM);
+
+        List<Item> items = new ArrayList<>(cursor.getCount());
+        HashMap<String, Integer> dagvergunningCount = new HashMap<>();
+        do {
+            Item item = new Item();
+            item.mId = cursor.getLong(idIndex);
+            item.mFotoUrl = cursor.getString(fotoUrlIndex);
+            item.mKoopmanStatus = cursor.getString(koopmanStatusIndex);
+            item.mVoorletters = cursor.getString(voorlettersIndex);
+            item.mAchternaam = cursor.getString(achternaamIndex);
+            item.mVervangerErkenningsnummer = cursor.getString(vervangerErkenningsnummerIndex);
+            item.mRegistratieTijd = mFormatter.formatTijd(cursor.getString(registratieDatumtijdIndex));
+            item.mErkenningsnummer = cursor.getString(erkenningsnummerIndex);
+            item.mSollicitatieNummer = cursor.getString(sollicitatieNummerIndex);
+            item.mSollicitatieStatus = cursor.getString(sollicitatieStatusIndex);
+            item.mNotitie = cursor.getString(notitieIndex);
+            item.mTotaleLengte = cursor.getString(totaleLengteIndex);
+            item.mAccountNaam = cursor.getString(accountNaamIndex);
+            items.add(item);
+
+            // count the dagvergunningen of each koopman
+            Integer count = dagvergunningCount.get(item.mErkenningsnummer);
+            dagvergunningCount.put(item.mErkenningsnummer, count == null ? 1 : count + 1);
+        } while (cursor.moveToNext());
+
+        for (Item item : items) {
+            item.mMultipleDagvergunningen = dagvergunningCount.get(item.mErkenningsnummer) > 1;
+        }
+
+        return items;
+    }
+
+    /**
+     * Inflate the dagvergunningen_list_item view and create a viewholder for it
+     * @param parent the recyclerview
+     * @param viewType the type of view
+     * @return the viewholder
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.dagvergunningen_list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Bind the dagvergunning data to the view elements
+     * @param viewHolder the viewholder containing the view elements
+     * @param position the position of the dagvergunning
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        Item item = mItems.get(position);
 
         // koopman foto
-        Glide.with(context.getApplicationContext()).load(
-                cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                .error(R.drawable.no_koopman_image)
-                .into(viewHolder.koopmanFoto);
+        Utility.loadKoopmanThumbnail(mContext, item.mFotoUrl).into(viewHolder.koopmanFoto);
 
         // alert !
-        String koopmanStatus = cursor.getString(cursor.getColumnIndex("koopman_status"));
-        if (multipleDagvergunningen || koopmanStatus.equals(context.getString(R.string.koopman_status_verwijderd))) {
+        if (item.mMultipleDagvergunningen || mKoopmanStatusVerwijderd.equals(item.mKoopmanStatus)) {
             viewHolder.koopmanStatusText.setVisibility(View.VISIBLE);
         } else {
             viewHolder.koopmanStatusText.setVisibility(View.GONE);
         }
 
         // koopman naam
-        String koopmanVoorletters = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS));
-        String koopmanAchternaam = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM));
-        viewHolder.koopmanVoorlettersAchternaamText.setText(koopmanVoorletters + " " + koopmanAchternaam);
+        viewHolder.koopmanVoorlettersAchternaamText.setText(mFormatter.join(item.mVoorletters, " ", item.mAchternaam));
 
         // vervanger aanwezig
-        String vervangerErkenningsnummer = cursor.getString(
-                cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER));
-        if (vervangerErkenningsnummer != null) {
-            viewHolder.vervangerAanwezigText.setVisibility(View.VISIBLE);
-        } else {
-            viewHolder.vervangerAanwezigText.setVisibility(View.GONE);
-        }
+        viewHolder.vervangerAanwezigText.setVisibility(item.mVervangerErkenningsnummer != null ? View.VISIBLE : View.GONE);
 
         // registratietijd
-        String registratieDatumtijd = cursor.getString(cursor.getColumnIndex(
-                MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_DATUMTIJD));
-        try {
-            Date registratieDate = new SimpleDateFormat(context.getString(R.string.date_format_datumtijd), Locale.getDefault()).parse(registratieDatumtijd);
-            SimpleDateFormat sdf = new SimpleDateFormat(context.getString(R.string.date_format_tijd));
-            String registratieTijd = sdf.format(registratieDate);
-            viewHolder.dagvergunningRegistratieDatumtijdText.setText(registratieTijd);
-        } catch (java.text.ParseException e) {
-            viewHolder.dagvergunningRegistratieDatumtijdText.setText("");
-        }
+        viewHolder.dagvergunningRegistratieDatumtijdText.setText(item.mRegistratieTijd);
 
         // erkennings nummer
-        viewHolder.erkenningsnummerText.setText(context.getString(R.string.label_erkenningsnummer) + ": " + erkenningsnummer);
+        viewHolder.erkenningsnummerText.setText(mFormatter.concat(mLabelErkenningsnummer, item.mErkenningsnummer));
 
         // sollicitatie nummer
-        String sollicitatieNummer = cursor.getString(cursor.getColumnIndex(
-                MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER));
-        if (sollicitatieNummer != null && !sollicitatieNummer.equals("")) {
+        if (item.mSollicitatieNummer != null && !item.mSollicitatieNummer.equals("")) {
             viewHolder.sollicitatieSollicitatieNummerText.setVisibility(View.VISIBLE);
-            viewHolder.sollicitatieSollicitatieNummerText.setText(context.getString(R.string.label_sollicitatienummer) + ": " + sollicitatieNummer);
+            viewHolder.sollicitatieSollicitatieNummerText.setText(mFormatter.concat(mLabelSollicitatienummer, item.mSollicitatieNummer));
         } else {
-            // we need to clear the textview contents because listview items are recycled and may
+            // we need to clear the textview contents because the views are recycled and may
             // therefor contain data from other dagvergunning
             viewHolder.sollicitatieSollicitatieNummerText.setVisibility(View.GONE);
             viewHolder.sollicitatieSollicitatieNummerText.setText("");
         }
 
         // sollicitatie status
-        String sollicitatieStatus = cursor.getString(cursor.getColumnIndex(
-                MakkelijkeMarktProvider.Dagvergunning.COL_STATUS_SOLLICITATIE));
+        String sollicitatieStatus = item.mSollicitatieStatus;
         if (sollicitatieStatus != null && !sollicitatieStatus.equals("?") && !sollicitatieStatus.equals("")) {
             viewHolder.sollicitatieStatusText.setVisibility(View.VISIBLE);
             viewHolder.sollicitatieStatusText.setText(sollicitatieStatus);
-            viewHolder.sollicitatieStatusText.setBackgroundColor(ContextCompat.getColor(context, Utility.getSollicitatieStatusColor(context, sollicitatieStatus)));
+            viewHolder.sollicitatieStatusText.setBackgroundColor(ContextCompat.getColor(mContext, Utility.getSollicitatieStatusColor(mContext, sollicitatieStatus)));
         } else {
             viewHolder.sollicitatieStatusText.setVisibility(View.GONE);
             viewHolder.sollicitatieStatusText.setText("");
         }
 
         // notitie
-        String notitie = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_NOTITIE));
-        if (notitie != null && !notitie.equals("")) {
-            viewHolder.notitieText.setText(context.getString(R.string.label_notitie) + ": " + notitie);
+        if (item.mNotitie != null && !item.mNotitie.equals("")) {
+            viewHolder.notitieText.setText(mFormatter.concat(mLabelNotitie, item.mNotitie));
             Utility.collapseView(viewHolder.notitieText, false);
         } else {
             Utility.collapseView(viewHolder.notitieText, true);
         }
 
         // totale lengte
-        String totaleLengte = cursor.getString(cursor.getColumnIndex(
-                MakkelijkeMarktProvider.Dagvergunning.COL_TOTALE_LENGTE));
-        viewHolder.dagvergunningTotaleLengteText.setText(totaleLengte + " " + context.getString(R.string.length_meter));
+        viewHolder.dagvergunningTotaleLengteText.setText(mFormatter.concat(item.mTotaleLengte, mLengthMeter));
 
         // account naam
-        String accountNaam = cursor.getString(cursor.getColumnIndex(
-                MakkelijkeMarktProvider.Account.COL_NAAM));
-        viewHolder.accountNaamText.setText(accountNaam);
+        viewHolder.accountNaamText.setText(item.mAccountNaam);
+    }
+
+    /**
+     * Get the number of dagvergunningen
+     * @return the number of dagvergunningen
+     */
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    /**
+     * Get the stable id of a dagvergunning
+     * @param position the position of the dagvergunning
+     * @return the dagvergunning id
+     */
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).mId;
+    }
+
+    /**
+     * Listener for clicks on a dagvergunning
+     */
+    public interface OnItemClickListener {
+        void onItemClick(int dagvergunningId);
+    }
+
+    /**
+     * The values of a dagvergunning we show in the list
+     */
+    private static class Item {
+        private long mId;
+        private String mFotoUrl;
+        private String mKoopmanStatus;
+        private String mVoorletters;
+        private String mAchternaam;
+        private String mVervangerErkenningsnummer;
+        private String mRegistratieTijd;
+        private String mErkenningsnummer;
+        private String mSollicitatieNummer;
+        private String mSollicitatieStatus;
+        private String mNotitie;
+        private String mTotaleLengte;
+        private String mAccountNaam;
+        private boolean mMultipleDagvergunningen;
+
+        /**
+         * Compare all values, to see if a dagvergunning has to be rebound
+         * @param o the other item
+         * @return true if all values are equal
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Item)) {
+                return false;
+            }
+            Item other = (Item) o;
+            return mId == other.mId &&
+                    mMultipleDagvergunningen == other.mMultipleDagvergunningen &&
+                    TextUtils.equals(mFotoUrl, other.mFotoUrl) &&
+                    TextUtils.equals(mKoopmanStatus, other.mKoopmanStatus) &&
+                    TextUtils.equals(mVoorletters, other.mVoorletters) &&
+                    TextUtils.equals(mAchternaam, other.mAchternaam) &&
+                    TextUtils.equals(mVervangerErkenningsnummer, other.mVervangerErkenningsnummer) &&
+                    TextUtils.equals(mRegistratieTijd, other.mRegistratieTijd) &&
+                    TextUtils.equals(mErkenningsnummer, other.mErkenningsnummer) &&
+                    TextUtils.equals(mSollicitatieNummer, other.mSollicitatieNummer) &&
+                    TextUtils.equals(mSollicitatieStatus, other.mSollicitatieStatus) &&
+                    TextUtils.equals(mNotitie, other.mNotitie) &&
+                    TextUtils.equals(mTotaleLengte, other.mTotaleLengte) &&
+                    TextUtils.equals(mAccountNaam, other.mAccountNaam);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mId ^ (mId >>> 32));
+        }
     }
 
     /**
      * Viewholder helper class for easy referencing the view elements
      */
-    public static class ViewHolder {
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         // bind the elements
         @Bind(R.id.koopman_foto) ImageView koopmanFoto;
@@ -210,11 +387,25 @@ public class DagvergunningenAdapter extends CursorAdapter {
         @Bind(R.id.account_naam) TextView accountNaamText;
 
         /**
-         * Bind the view elements using butterknife
+         * Bind the view elements using butterknife, and listen for clicks
          * @param view the listitem view
          */
         public ViewHolder(View view) {
+            super(view);
             ButterKnife.bind(this, view);
+            view.setOnClickListener(this);
+        }
+
+        /**
+         * Inform the listener about the clicked dagvergunning
+         * @param view the listitem view
+         */
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mOnItemClickListener != null) {
+                mOnItemClickListener.onItemClick((int) mItems.get(position).mId);
+            }
         }
     }
-}
\ No newline at end of file
+}
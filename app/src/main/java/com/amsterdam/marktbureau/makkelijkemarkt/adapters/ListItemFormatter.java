@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.adapters;
+
+import android.content.Context;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Formats the texts shown in the list items, reusing one set of date formats and one string
+ * builder, and remembering the display times it formatted before. Not thread safe, only use it
+ * on the main thread
+ * @author marcolangebeeke
+ */
+class ListItemFormatter {
+
+    // forget the formatted times when we have this many, a day has far less distinct times
+    private static final int mMaxCachedTimes = 1024;
+
+    // the date formats to parse the datumtijd from the db, and to format the display time
+    private final SimpleDateFormat mDatumtijdFormat;
+    private final SimpleDateFormat mTijdFormat;
+
+    // the display times by datumtijd
+    private final HashMap<String, String> mTijden = new HashMap<>();
+
+    // reused for concatenating the texts
+    private final StringBuilder mBuilder = new StringBuilder(64);
+
+    /**
+     * Constructor
+     * @param context the context
+     */
+    ListItemFormatter(Context context) {
+        mDatumtijdFormat = new SimpleDateFormat(context.getString(R.string.date_format_datumtijd), Locale.getDefault());
+        mTijdFormat = new SimpleDateFormat(context.getString(R.string.date_format_tijd));
+    }
+
+    /**
+     * Get the display time of a datumtijd from the db
+     * @param datumtijd the datumtijd
+     * @return the time, or an empty string if the datumtijd could not be parsed
+     */
+    String formatTijd(String datumtijd) {
+        if (datumtijd == null) {
+            return "";
+        }
+
+        String tijd = mTijden.get(datumtijd);
+        if (tijd == null) {
+            try {
+                Date date = mDatumtijdFormat.parse(datumtijd);
+                tijd = mTijdFormat.format(date);
+            } catch (ParseException e) {
+                tijd = "";
+            }
+
+            if (mTijden.size() >= mMaxCachedTimes) {
+                mTijden.clear();
+            }
+            mTijden.put(datumtijd, tijd);
+        }
+
+        return tijd;
+    }
+
+    /**
+     * Concatenate two texts, like a label and its value
+     * @param first the first text
+     * @param second the second text
+     * @return the concatenated text
+     */
+    String concat(String first, String second) {
+        mBuilder.setLength(0);
+        return mBuilder.append(first).append(second).toString();
+    }
+
+    /**
+     * Join two texts with a separator, like voorletters and achternaam
+     * @param first the first text
+     * @param separator the separator
+     * @param second the second text
+     * @return the joined text
+     */
+    String join(String first, String separator, String second) {
+        mBuilder.setLength(0);
+        return mBuilder.append(first).append(separator).append(second).toString();
+    }
+}
@@ -9,6 +9,7 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt.adapters;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.v4.content.ContextCompat;
@@ -16,20 +17,13 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiPutNotitie;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiOutbox;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 import com.google.gson.JsonObject;
 
-import org.greenrobot.eventbus.EventBus;
-
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
 import butterknife.Bind;
 import butterknife.ButterKnife;
 
@@ -37,17 +31,23 @@ import butterknife.ButterKnife;
  *
  * @author marcolangebeeke
  */
-public class NotitiesAdapter extends CursorAdapter {
+public class NotitiesAdapter extends ColumnCursorAdapter {
 
     // use classname when logging
     private static final String LOG_TAG = NotitiesAdapter.class.getSimpleName();
 
+    // the column indices of the current cursor
+    private int mIdIndex;
+    private int mBerichtIndex;
+    private int mAangemaaktIndex;
+    private int mAfgevinktIndex;
+
     /**
      * Constructor
      * @param context
      */
     public NotitiesAdapter(Context context) {
-        super(context, null, 0);
+        super(context);
     }
 
     /**
@@ -58,77 +58,78 @@ public class NotitiesAdapter extends CursorAdapter {
      * @return
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public View newView(final Context context, Cursor cursor, ViewGroup parent) {
 
         // create a new view from the notities_list_item definition
         View view = LayoutInflater.from(context).inflate(R.layout.notities_list_item, parent, false);
 
         // set a viewholder with our view layout for the view we just created
-        ViewHolder viewHolder = new ViewHolder(view);
+        final ViewHolder viewHolder = new ViewHolder(view);
         view.setTag(viewHolder);
 
+        // onclick afgevinkt, for the notitie the view is bound to
+        viewHolder.afgevinktCheck.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                boolean afgevinkt = ((CheckBox) v).isChecked();
+
+                // create json object from checked state, id, and bericht
+                JsonObject notitiePayload = new JsonObject();
+                notitiePayload.addProperty(context.getString(R.string.makkelijkemarkt_api_notitie_payload_bericht), viewHolder.bericht);
+                notitiePayload.addProperty(context.getString(R.string.makkelijkemarkt_api_notitie_payload_afgevinkt), afgevinkt);
+
+                // update the notitie in the database and let the outbox send the put call to the api
+                ContentValues notitieValues = new ContentValues();
+                notitieValues.put(MakkelijkeMarktProvider.Notitie.COL_AFGEVINKT, afgevinkt);
+                ApiOutbox.putNotitie(context, viewHolder.id, notitieValues, notitiePayload);
+            }
+        });
+
         return view;
     }
 
     /**
-     *
-     * @param view
-     * @param context
-     * @param cursor
+     * Look up the column indices of a new cursor
+     * @param cursor the new cursor
+     */
+    @Override
+    protected void onColumnsChanged(Cursor cursor) {
+        mIdIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_ID);
+        mBerichtIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_BERICHT);
+        mAangemaaktIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_AANGEMAAKT_DATUMTIJD);
+        mAfgevinktIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_AFGEVINKT);
+    }
+
+    /**
+     * Bind the cursor data to the view elements
+     * @param view listitem view containing the elements
+     * @param context the context
+     * @param cursor a cursor containing the notitie data
      */
     @Override
-    public void bindView(View view, final Context context, Cursor cursor) {
+    public void bindView(View view, Context context, Cursor cursor) {
 
         // get the viewholder layout containing the view items
         ViewHolder viewHolder = (ViewHolder) view.getTag();
 
+        // keep the id and bericht for the afgevinkt onclick listener
+        viewHolder.id = cursor.getInt(mIdIndex);
+        viewHolder.bericht = cursor.getString(mBerichtIndex);
+
         // bericht
-        final String bericht = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_BERICHT));
-        viewHolder.berichtText.setText(bericht);
+        viewHolder.berichtText.setText(viewHolder.bericht);
 
         // aangemaakt
-        String aangemaakt = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_AANGEMAAKT_DATUMTIJD));
-        try {
-            Date aangemaaktDate = new SimpleDateFormat(context.getString(R.string.date_format_datumtijd), Locale.getDefault()).parse(aangemaakt);
-            SimpleDateFormat sdf = new SimpleDateFormat(context.getString(R.string.date_format_tijd));
-            String aangemaaktTijd = sdf.format(aangemaaktDate);
-            viewHolder.aangemaaktText.setText(aangemaaktTijd);
-        } catch (java.text.ParseException e) {
-            viewHolder.aangemaaktText.setText("");
-        }
+        viewHolder.aangemaaktText.setText(mFormatter.formatTijd(cursor.getString(mAangemaaktIndex)));
 
         // afgevinkt
-        int afgevinkt = cursor.getInt(cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_AFGEVINKT));
-        if (afgevinkt > 0) {
+        if (cursor.getInt(mAfgevinktIndex) > 0) {
             viewHolder.afgevinktCheck.setChecked(true);
             viewHolder.berichtText.setTextColor(ContextCompat.getColor(context, R.color.primary));
         } else {
             viewHolder.afgevinktCheck.setChecked(false);
             viewHolder.berichtText.setTextColor(ContextCompat.getColor(context, R.color.primary_text));
         }
-
-        // onclick afgevinkt
-        final int id = cursor.getInt(cursor.getColumnIndex(MakkelijkeMarktProvider.Notitie.COL_ID));
-        viewHolder.afgevinktCheck.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                boolean afgevinkt = ((CheckBox) v).isChecked();
-
-                // event to inform subscribers that we are starting to update the notitie
-                EventBus.getDefault().post(new OnUpdateEvent(id, null));
-
-                // create json object from checked state, id, and bericht
-                JsonObject notitiePayload = new JsonObject();
-                notitiePayload.addProperty(context.getString(R.string.makkelijkemarkt_api_notitie_payload_bericht), bericht);
-                notitiePayload.addProperty(context.getString(R.string.makkelijkemarkt_api_notitie_payload_afgevinkt), afgevinkt);
-
-                // send ApiPutNotitie and let the call update the database with the resulting object from the api call
-                ApiPutNotitie apiPutNotitie = new ApiPutNotitie(context);
-                apiPutNotitie.setId(id);
-                apiPutNotitie.setPayload(notitiePayload);
-                apiPutNotitie.enqueue();
-            }
-        });
     }
 
     /**
@@ -141,6 +142,10 @@ public class NotitiesAdapter extends CursorAdapter {
         @Bind(R.id.bericht) TextView berichtText;
         @Bind(R.id.aangemaakt) TextView aangemaaktText;
 
+        // the id and bericht of the notitie the view is bound to
+        int id;
+        String bericht;
+
         /**
          * Bind the view elements using butterknife
          * @param view the listitem view
@@ -149,17 +154,4 @@ public class NotitiesAdapter extends CursorAdapter {
             ButterKnife.bind(this, view);
         }
     }
-
-    /**
-     * Event to inform subscribers that we are starting to update the notitie
-     */
-    public class OnUpdateEvent {
-        public final int mNotitieId;
-        public final String mMessage;
-
-        public OnUpdateEvent(int id, String message) {
-            mNotitieId = id;
-            mMessage = message;
-        }
-    }
 }
\ No newline at end of file
@@ -16,14 +16,13 @@ import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.Filterable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
-import com.bumptech.glide.Glide;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -32,7 +31,7 @@ import butterknife.ButterKnife;
  *
  * @author marcolangebeeke
  */
-public class SollicitatienummerAdapter extends CursorAdapter implements Filterable {
+public class SollicitatienummerAdapter extends ColumnCursorAdapter implements Filterable {
 
     // use classname when logging
     private static final String LOG_TAG = SollicitatienummerAdapter.class.getSimpleName();
@@ -43,12 +42,19 @@ public class SollicitatienummerAdapter extends CursorAdapter implements Filterab
     // id of the selected markt
     private int mMarktId;
 
+    // the column indices of the current cursor
+    private int mFotoUrlIndex;
+    private int mSollicitatienummerIndex;
+    private int mKoopmanStatusIndex;
+    private int mVoorlettersIndex;
+    private int mAchternaamIndex;
+
     /**
      *
      * @param context
      */
     public SollicitatienummerAdapter(Context context) {
-        super(context, null, 0);
+        super(context);
 
         mContext = context;
 
@@ -76,10 +82,23 @@ public class SollicitatienummerAdapter extends CursorAdapter implements Filterab
     }
 
     /**
-     *
-     * @param view
-     * @param context
-     * @param cursor
+     * Look up the column indices of a new cursor
+     * @param cursor the new cursor
+     */
+    @Override
+    protected void onColumnsChanged(Cursor cursor) {
+        mFotoUrlIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL);
+        mSollicitatienummerIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER);
+        mKoopmanStatusIndex = cursor.getColumnIndex("koopman_status");
+        mVoorlettersIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS);
+        mAchternaamIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM);
+    }
+
+    /**
+     * Bind the cursor data to the view elements
+     * @param view listitem view containing the elements
+     * @param context the context
+     * @param cursor a cursor containing the koopman data
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
@@ -88,26 +107,17 @@ public class SollicitatienummerAdapter extends CursorAdapter implements Filterab
         ViewHolder viewHolder = (ViewHolder) view.getTag();
 
         // koopman foto
-        Glide.with(context.getApplicationContext()).load(
-                cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                .error(R.drawable.no_koopman_image)
-                .into(viewHolder.foto);
+        Utility.loadKoopmanThumbnail(context, cursor.getString(mFotoUrlIndex)).into(viewHolder.foto);
 
         // sollicitatienummer
-        String sollicitatienummer = cursor.getString(
-                cursor.getColumnIndex(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER));
-        viewHolder.sollicitatienummer.setText(sollicitatienummer);
+        viewHolder.sollicitatienummer.setText(cursor.getString(mSollicitatienummerIndex));
 
         // koopman status
-        String koopmanStatus = cursor.getString(cursor.getColumnIndex("koopman_status"));
-        viewHolder.koopmanStatus.setText(koopmanStatus);
+        viewHolder.koopmanStatus.setText(cursor.getString(mKoopmanStatusIndex));
 
         // voorletters + achternaam
-        String voorletters = cursor.getString(
-                cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS));
-        String achternaam = cursor.getString(
-                cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM));
-        viewHolder.naam.setText(voorletters + " " + achternaam);
+        viewHolder.naam.setText(mFormatter.join(
+                cursor.getString(mVoorlettersIndex), " ", cursor.getString(mAchternaamIndex)));
     }
 
     /**
@@ -132,9 +142,11 @@ public class SollicitatienummerAdapter extends CursorAdapter implements Filterab
         // limit the result so we never send thousands of records to the adapter
         String limit = "10";
 
-        // select only koopmannen with actieve sollicitaties voor geselecteerde markt
+        // search by sollicitatienummer using the search index and select only koopmannen with
+        // actieve sollicitaties voor geselecteerde markt
         return mContext.getContentResolver().query(
-                MakkelijkeMarktProvider.mUriKoopmanJoinedGroupBySollicitatienummer,
+                MakkelijkeMarktProvider.createKoopmanZoekUri(
+                        MakkelijkeMarktProvider.KoopmanZoek.COL_SOLLICITATIE_NUMMER, sollicitatienummer),
                 new String[] {
                         MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_ID,
                         MakkelijkeMarktProvider.mTableSollicitatie + "." + MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER,
@@ -143,11 +155,9 @@ public class SollicitatienummerAdapter extends CursorAdapter implements Filterab
                         MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_FOTO_URL,
                         MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_STATUS
                 },
-                MakkelijkeMarktProvider.mTableSollicitatie + "." + MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? AND " +
-                MakkelijkeMarktProvider.mTableSollicitatie + "." + MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER + " LIKE ? ",
+                MakkelijkeMarktProvider.mTableSollicitatie + "." + MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
                 new String[] {
-                        String.valueOf(mMarktId),
-                        "%" + sollicitatienummer + "%"
+                        String.valueOf(mMarktId)
                 },
                 MakkelijkeMarktProvider.mTableKoopman + "." + MakkelijkeMarktProvider.Koopman.COL_STATUS + " ASC, " +
                 MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER + " ASC " +
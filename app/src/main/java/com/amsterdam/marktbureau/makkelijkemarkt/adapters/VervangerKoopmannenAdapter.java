@@ -14,13 +14,12 @@ import android.database.Cursor;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
-import com.bumptech.glide.Glide;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -29,17 +28,24 @@ import butterknife.ButterKnife;
  *
  * @author marcolangebeeke
  */
-public class VervangerKoopmannenAdapter extends CursorAdapter {
+public class VervangerKoopmannenAdapter extends ColumnCursorAdapter {
 
     // use classname when logging
     private static final String LOG_TAG = VervangerKoopmannenAdapter.class.getSimpleName();
 
+    // the column indices of the current cursor
+    private int mFotoUrlIndex;
+    private int mVoorlettersIndex;
+    private int mAchternaamIndex;
+    private int mErkenningsnummerIndex;
+    private int mStatusIndex;
+
     /**
      * Constructor
      * @param context
      */
     public VervangerKoopmannenAdapter(Context context) {
-        super(context, null, 0);
+        super(context);
     }
 
     /**
@@ -62,11 +68,24 @@ public class VervangerKoopmannenAdapter extends CursorAdapter {
         return view;
     }
 
+    /**
+     * Look up the column indices of a new cursor
+     * @param cursor the new cursor
+     */
+    @Override
+    protected void onColumnsChanged(Cursor cursor) {
+        mFotoUrlIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL);
+        mVoorlettersIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS);
+        mAchternaamIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM);
+        mErkenningsnummerIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER);
+        mStatusIndex = cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_STATUS);
+    }
+
     /**
      * Bind the cursor data to the view elements
      * @param view listitem view containing the elements
      * @param context the context
-     * @param cursor a cursor containing the dagvergunning data
+     * @param cursor a cursor containing the koopman data
      */
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
@@ -75,25 +94,17 @@ public class VervangerKoopmannenAdapter extends CursorAdapter {
         ViewHolder viewHolder = (ViewHolder) view.getTag();
 
         // foto
-        Glide.with(context.getApplicationContext()).load(
-                cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL)))
-                .error(R.drawable.no_koopman_image)
-                .into(viewHolder.koopmanFoto);
+        Utility.loadKoopmanThumbnail(context, cursor.getString(mFotoUrlIndex)).into(viewHolder.koopmanFoto);
 
         // naam
-        String koopmanVoorletters = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS));
-        String koopmanAchternaam = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM));
-        viewHolder.koopmanVoorlettersAchternaamText.setText(koopmanVoorletters + " " + koopmanAchternaam);
+        viewHolder.koopmanVoorlettersAchternaamText.setText(mFormatter.join(
+                cursor.getString(mVoorlettersIndex), " ", cursor.getString(mAchternaamIndex)));
 
         // erkenningsnummer
-        viewHolder.erkenningsnummerText.setText(
-                cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER))
-        );
+        viewHolder.erkenningsnummerText.setText(cursor.getString(mErkenningsnummerIndex));
 
         // status
-        viewHolder.koopmanStatusText.setText(
-                cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_STATUS))
-        );
+        viewHolder.koopmanStatusText.setText(cursor.getString(mStatusIndex));
     }
 
     /**
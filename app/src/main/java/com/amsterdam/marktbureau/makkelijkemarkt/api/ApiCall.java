@@ -10,28 +10,23 @@
 package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.os.Handler;
-import android.os.Looper;
-import android.preference.PreferenceManager;
 import android.support.annotation.CallSuper;
 import android.widget.Toast;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
-import org.greenrobot.eventbus.EventBus;
-
-import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
 import okhttp3.Interceptor;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
+import okhttp3.ResponseBody;
 import retrofit2.Callback;
-import retrofit2.GsonConverterFactory;
-import retrofit2.Retrofit;
+import retrofit2.Response;
 
 /**
  * Base class for makkelijkemarkt api calls using retrofit and gson converter
@@ -51,8 +46,8 @@ public class ApiCall {
     // retrofit api interface
     protected MakkelijkeMarktApi mMakkelijkeMarktApi;
 
-    // a client builder for creating our client to be used by retrofit
-    protected OkHttpClient.Builder mClientBuilder;
+    // optional extra interceptors for the client of this call
+    protected List<Interceptor> mInterceptors = new ArrayList<>();
 
     // an optional gson payload to send with the request
     protected JsonObject mPayload;
@@ -66,7 +61,6 @@ public class ApiCall {
      */
     public ApiCall(Context context) {
         mContext = context;
-        mClientBuilder = new OkHttpClient.Builder();
         setBaseUrl(mContext.getString(R.string.makkelijkemarkt_api_base_url));
     }
 
@@ -77,7 +71,6 @@ public class ApiCall {
      */
     public ApiCall(Context context, String baseUrl) {
         mContext = context;
-        mClientBuilder = new OkHttpClient.Builder();
         setBaseUrl(baseUrl);
     }
 
@@ -98,141 +91,15 @@ public class ApiCall {
     }
 
     /**
-     * Build the retrofit object, optionally with a custom client
+     * Get the shared retrofit api instance, or when extra interceptors were added for this call an
+     * instance with a client derived from the shared client
      */
     public MakkelijkeMarktApi build() {
-
-        // create the retrofit builder with a gson converter
-        Retrofit.Builder builder = new Retrofit.Builder();
-        builder.baseUrl(mBaseUrl);
-        builder.addConverterFactory(GsonConverterFactory.create());
-
-        // get api-key from shared preferences
-        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
-        final String apiKey = settings.getString(mContext.getString(R.string.sharedpreferences_key_uuid), null);
-
-        // if we have an api-key
-        if (apiKey != null) {
-
-            // add header interceptor to add the api-key to the authorisation header
-            final String authHeaderValue = mContext.getString(R.string.makkelijkemarkt_api_authorization_header_prefix) +" "+ apiKey;
-            Interceptor addAuthorizationHeaderInterceptor = new Interceptor() {
-                @Override
-                public okhttp3.Response intercept(Chain chain) throws IOException {
-                    Request.Builder requestBuilder = chain.request().newBuilder();
-
-                    // add Authorisation header
-                    requestBuilder.addHeader(
-                            mContext.getString(R.string.makkelijkemarkt_api_authorization_header_name),
-                            authHeaderValue);
-
-                    // build the request
-                    Request request = requestBuilder.build();
-
-                    return chain.proceed(request);
-                }};
-            mClientBuilder.addInterceptor(addAuthorizationHeaderInterceptor);
+        if (mInterceptors.size() > 0) {
+            return ApiClient.getApi(mContext, mBaseUrl, mInterceptors);
         }
 
-        // add header interceptor to add the app key header
-        Interceptor addAppKeyHeaderInterceptor = new Interceptor() {
-            @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request.Builder requestBuilder = chain.request().newBuilder();
-
-                // add appkey header
-                requestBuilder.addHeader(
-                        mContext.getString(R.string.makkelijkemarkt_api_app_key_header_name),
-                        mContext.getString(R.string.makkelijkemarkt_api_app_key));
-
-                // build the request
-                Request request = requestBuilder.build();
-
-                return chain.proceed(request);
-            }};
-        mClientBuilder.addInterceptor(addAppKeyHeaderInterceptor);
-
-        // add header interceptor to create our custom user-agent header
-        Interceptor addUserAgentHeaderInterceptor = new Interceptor() {
-            @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request.Builder requestBuilder = chain.request().newBuilder();
-
-                String appName = Utility.getAppName(mContext);
-                String appVersion = Utility.getAppVersion(mContext);
-                String httpUserAgent = okhttp3.internal.Version.userAgent();
-                String deviceSerialNumber = Utility.getSerialNumber();
-
-                // replace User-Agent header
-                if (appName != null && appVersion != null) {
-                    requestBuilder.removeHeader(
-                            mContext.getString(R.string.makkelijkemarkt_api_user_agent_header_name));
-                    requestBuilder.addHeader(
-                            mContext.getString(R.string.makkelijkemarkt_api_user_agent_header_name),
-                            appName + " - Version " + appVersion + " - " + httpUserAgent + " - " + " Serialnumber " + deviceSerialNumber);
-                }
-
-                // build the request
-                Request request = requestBuilder.build();
-
-                return chain.proceed(request);
-            }};
-        mClientBuilder.addInterceptor(addUserAgentHeaderInterceptor);
-
-        // add an interceptor that will detect for an unauthorised responses and send an event
-        // to be handled in the base activity
-        Interceptor handleUnauthorizedInterceptor = new Interceptor() {
-            @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request request = chain.request();
-                Response response = chain.proceed(request);
-
-                // detect un-successful http response
-                if (!response.isSuccessful()) {
-                    final int responseCode = response.code();
-
-                    // 403 Forbidden (invalid/missing app key)
-                    if (responseCode == 403) {
-
-                        // get a reference to the main thread and post a runnable that will post our event
-                        Handler handler = new Handler(Looper.getMainLooper());
-                        handler.postAtFrontOfQueue(new Runnable() {
-                            @Override
-                            public void run() {
-                                EventBus.getDefault().post(new OnUnauthorizedEvent(
-                                        responseCode, mContext.getString(R.string.notice_api_forbidden)));
-                            }
-                        });
-                    }
-
-                    // 412 Precondition failed (invalid/missing authorisation token)
-                    else if (responseCode == 412) {
-//                    else if (responseCode == 412 || (responseCode == 401 && apiKey != null)) {
-
-                        // get a reference to the main thread and post a runnable that will post our event
-                        Handler handler = new Handler(Looper.getMainLooper());
-                        handler.postAtFrontOfQueue(new Runnable() {
-                            @Override
-                            public void run() {
-                                EventBus.getDefault().post(new OnUnauthorizedEvent(
-                                        responseCode, mContext.getString(R.string.notice_api_unauthorised)));
-                            }
-                        });
-                    }
-                }
-
-                return response;
-            }};
-        mClientBuilder.addInterceptor(handleUnauthorizedInterceptor);
-
-        // build and attach okhttpclient to retrofit
-        builder.client(mClientBuilder.build());
-
-        // build retrofit
-        Retrofit retrofit = builder.build();
-
-        // apply the makkelijkemarkt api interface
-        return retrofit.create(MakkelijkeMarktApi.class);
+        return ApiClient.getApi(mContext, mBaseUrl);
     }
 
     /**
@@ -270,11 +137,54 @@ public class ApiCall {
         return enqueue();
     }
 
+    /**
+     * Check if the response was served from the http cache because the server told us, with a 304
+     * on our conditional request, that nothing changed since we last fetched it
+     * @param response the response
+     * @return true if the cached response is still current
+     */
+    public static boolean isNotModified(Response<?> response) {
+        return isNotModified(response.raw());
+    }
+
+    /**
+     * Check if the raw okhttp response was served from the http cache because nothing changed
+     * since we last fetched it, for checking before the body is read
+     * @param rawResponse the okhttp response
+     * @return true if the cached response is still current
+     */
+    public static boolean isNotModified(okhttp3.Response rawResponse) {
+        if (rawResponse != null && rawResponse.cacheResponse() != null) {
+            okhttp3.Response networkResponse = rawResponse.networkResponse();
+            return networkResponse == null || networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        return false;
+    }
+
+    /**
+     * Read the models from a json response body, for calls that check if the response was
+     * modified before reading it
+     * @param body the response body, closed when done
+     * @param type the type of the models
+     * @param <T> the type of the models
+     * @return the models, or null if the body could not be read
+     */
+    public static <T> T readBody(ResponseBody body, Type type) {
+        try {
+            return ApiTypeAdapterFactory.getGson().fromJson(body.charStream(), type);
+        } catch (JsonParseException e) {
+            return null;
+        } finally {
+            body.close();
+        }
+    }
+
     /**
      * Event to inform the base activity that we are not authorized to use the api and need to
      * logout the user from the app
      */
-    public class OnUnauthorizedEvent {
+    public static class OnUnauthorizedEvent {
         public final int mCode;
         public final String mMessage;
 
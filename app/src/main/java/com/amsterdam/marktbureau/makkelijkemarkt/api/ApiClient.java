@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import retrofit2.GsonConverterFactory;
+import retrofit2.Retrofit;
+
+/**
+ * Application-scoped registry of the http client and retrofit api instances shared by all api
+ * calls, so they all use the same connection pool, dispatcher and http cache and reuse warm
+ * connections
+ * @author marcolangebeeke
+ */
+public class ApiClient {
+
+    // use classname when logging
+    private static final String LOG_TAG = ApiClient.class.getSimpleName();
+
+    // keep idle connections alive between the polling intervals of the api service
+    private static final int mMaxIdleConnections = 5;
+    private static final int mKeepAliveMinutes = 5;
+
+    // on-disk http cache, so unchanged responses can be validated with a conditional request
+    private static final String mCacheDirectory = "http";
+    private static final long mCacheSizeBytes = 10 * 1024 * 1024;
+
+    // the shared http client
+    private static OkHttpClient mClient;
+
+    // the swappable interceptor adding the authorization header to all requests
+    private static AuthorizationInterceptor mAuthorizationInterceptor;
+
+    // the retrofit api instances by base url
+    private static HashMap<String, MakkelijkeMarktApi> mApis = new HashMap<>();
+
+    /**
+     * Get the shared http client, and create it on first use
+     * @param context the context
+     * @return the shared okhttpclient
+     */
+    public static synchronized OkHttpClient getClient(Context context) {
+        if (mClient == null) {
+            final Context appContext = context.getApplicationContext();
+
+            // get api-key from shared preferences
+            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(appContext);
+            mAuthorizationInterceptor = new AuthorizationInterceptor(appContext);
+            mAuthorizationInterceptor.setApiKey(
+                    settings.getString(appContext.getString(R.string.sharedpreferences_key_uuid), null));
+
+            // add header interceptor to add the app key header
+            Interceptor addAppKeyHeaderInterceptor = new Interceptor() {
+                @Override
+                public okhttp3.Response intercept(Chain chain) throws IOException {
+                    Request.Builder requestBuilder = chain.request().newBuilder();
+
+                    // add appkey header
+                    requestBuilder.addHeader(
+                            appContext.getString(R.string.makkelijkemarkt_api_app_key_header_name),
+                            appContext.getString(R.string.makkelijkemarkt_api_app_key));
+
+                    // build the request
+                    Request request = requestBuilder.build();
+
+                    return chain.proceed(request);
+                }};
+
+            // add header interceptor to create our custom user-agent header
+            Interceptor addUserAgentHeaderInterceptor = new Interceptor() {
+                @Override
+                public okhttp3.Response intercept(Chain chain) throws IOException {
+                    Request.Builder requestBuilder = chain.request().newBuilder();
+
+                    String appName = Utility.getAppName(appContext);
+                    String appVersion = Utility.getAppVersion(appContext);
+                    String httpUserAgent = okhttp3.internal.Version.userAgent();
+                    String deviceSerialNumber = Utility.getSerialNumber();
+
+                    // replace User-Agent header
+                    if (appName != null && appVersion != null) {
+                        requestBuilder.removeHeader(
+                                appContext.getString(R.string.makkelijkemarkt_api_user_agent_header_name));
+                        requestBuilder.addHeader(
+                                appContext.getString(R.string.makkelijkemarkt_api_user_agent_header_name),
+                                appName + " - Version " + appVersion + " - " + httpUserAgent + " - " + " Serialnumber " + deviceSerialNumber);
+                    }
+
+                    // build the request
+                    Request request = requestBuilder.build();
+
+                    return chain.proceed(request);
+                }};
+
+            // add an interceptor that will detect for an unauthorised responses and send an event
+            // to be handled in the base activity
+            Interceptor handleUnauthorizedInterceptor = new Interceptor() {
+                @Override
+                public okhttp3.Response intercept(Chain chain) throws IOException {
+                    Request request = chain.request();
+                    Response response = chain.proceed(request);
+
+                    // detect un-successful http response
+                    if (!response.isSuccessful()) {
+                        final int responseCode = response.code();
+
+                        // 403 Forbidden (invalid/missing app key)
+                        if (responseCode == 403) {
+
+                            // get a reference to the main thread and post a runnable that will post our event
+                            Handler handler = new Handler(Looper.getMainLooper());
+                            handler.postAtFrontOfQueue(new Runnable() {
+                                @Override
+                                public void run() {
+                                    EventBus.getDefault().post(new ApiCall.OnUnauthorizedEvent(
+                                            responseCode, appContext.getString(R.string.notice_api_forbidden)));
+                                }
+                            });
+                        }
+
+                        // 412 Precondition failed (invalid/missing authorisation token)
+                        else if (responseCode == 412) {
+
+                            // get a reference to the main thread and post a runnable that will post our event
+                            Handler handler = new Handler(Looper.getMainLooper());
+                            handler.postAtFrontOfQueue(new Runnable() {
+                                @Override
+                                public void run() {
+                                    EventBus.getDefault().post(new ApiCall.OnUnauthorizedEvent(
+                                            responseCode, appContext.getString(R.string.notice_api_unauthorised)));
+                                }
+                            });
+                        }
+                    }
+
+                    return response;
+                }};
+
+            // build the client with one connection pool, http/2 support and an http cache
+            mClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(mMaxIdleConnections, mKeepAliveMinutes, TimeUnit.MINUTES))
+                    .cache(new Cache(new File(appContext.getCacheDir(), mCacheDirectory), mCacheSizeBytes))
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .addInterceptor(mAuthorizationInterceptor)
+                    .addInterceptor(addAppKeyHeaderInterceptor)
+                    .addInterceptor(addUserAgentHeaderInterceptor)
+                    .addInterceptor(handleUnauthorizedInterceptor)
+                    .build();
+        }
+
+        return mClient;
+    }
+
+    /**
+     * Get the shared retrofit api instance for the given base url, and create it on first use
+     * @param context the context
+     * @param baseUrl the api base url
+     * @return the makkelijkemarkt api interface
+     */
+    public static synchronized MakkelijkeMarktApi getApi(Context context, String baseUrl) {
+        MakkelijkeMarktApi api = mApis.get(baseUrl);
+        if (api == null) {
+            api = createApi(getClient(context), baseUrl);
+            mApis.put(baseUrl, api);
+        }
+
+        return api;
+    }
+
+    /**
+     * Create a retrofit api instance with extra interceptors for a single api call. The client is
+     * derived from the shared client, so it still uses the shared connection pool and dispatcher
+     * @param context the context
+     * @param baseUrl the api base url
+     * @param interceptors the extra interceptors
+     * @return the makkelijkemarkt api interface
+     */
+    public static MakkelijkeMarktApi getApi(Context context, String baseUrl, List<Interceptor> interceptors) {
+        OkHttpClient.Builder clientBuilder = getClient(context).newBuilder();
+        for (Interceptor interceptor : interceptors) {
+            clientBuilder.addInterceptor(interceptor);
+        }
+
+        return createApi(clientBuilder.build(), baseUrl);
+    }
+
+    /**
+     * Swap the api-key that is sent in the authorization header of all following requests
+     * @param context the context
+     * @param apiKey the api-key, or null to stop sending the authorization header
+     */
+    public static void setApiKey(Context context, String apiKey) {
+        getClient(context);
+        mAuthorizationInterceptor.setApiKey(apiKey);
+    }
+
+    /**
+     * Create the retrofit api instance using the given client and a gson converter with the
+     * hand-written type adapters of the api models
+     * @param client the http client
+     * @param baseUrl the api base url
+     * @return the makkelijkemarkt api interface
+     */
+    private static MakkelijkeMarktApi createApi(OkHttpClient client, String baseUrl) {
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .addConverterFactory(GsonConverterFactory.create(ApiTypeAdapterFactory.getGson()))
+                .client(client)
+                .build();
+
+        return retrofit.create(MakkelijkeMarktApi.class);
+    }
+
+    /**
+     * Interceptor adding the authorization header containing the current api-key
+     */
+    private static class AuthorizationInterceptor implements Interceptor {
+
+        // the context for getting the header name and prefix
+        private final Context mContext;
+
+        // the current api-key
+        private volatile String mApiKey;
+
+        /**
+         * Constructor
+         * @param context the application context
+         */
+        public AuthorizationInterceptor(Context context) {
+            mContext = context;
+        }
+
+        /**
+         * Set the api-key to send in the authorization header
+         * @param apiKey the api-key, or null
+         */
+        public void setApiKey(String apiKey) {
+            mApiKey = apiKey;
+        }
+
+        /**
+         * Add the authorization header if we have an api-key
+         * @param chain the interceptor chain
+         * @return the response
+         * @throws IOException when the request fails
+         */
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            String apiKey = mApiKey;
+            if (apiKey == null) {
+                return chain.proceed(chain.request());
+            }
+
+            // add Authorisation header
+            Request request = chain.request().newBuilder()
+                    .addHeader(
+                            mContext.getString(R.string.makkelijkemarkt_api_authorization_header_name),
+                            mContext.getString(R.string.makkelijkemarkt_api_authorization_header_prefix) + " " + apiKey)
+                    .build();
+
+            return chain.proceed(request);
+        }
+    }
+}
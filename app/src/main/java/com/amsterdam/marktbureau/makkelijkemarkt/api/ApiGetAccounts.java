@@ -17,12 +17,14 @@ import android.preference.PreferenceManager;
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiAccount;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+import com.google.gson.reflect.TypeToken;
 
 import org.greenrobot.eventbus.EventBus;
 
 import java.util.Date;
 import java.util.List;
 
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -31,7 +33,7 @@ import retrofit2.Response;
  * Load accounts from the makkelijkemarkt api and store them in the database
  * @author marcolangebeeke
  */
-public class ApiGetAccounts extends ApiCall implements Callback<List<ApiAccount>> {
+public class ApiGetAccounts extends ApiCall implements Callback<ResponseBody> {
 
     // use classname when logging
     private static final String LOG_TAG = ApiGetAccounts.class.getSimpleName();
@@ -52,7 +54,7 @@ public class ApiGetAccounts extends ApiCall implements Callback<List<ApiAccount>
         if (super.enqueue()) {
 
             // set the api function to call for loading the accounts
-            Call<List<ApiAccount>> call = mMakkelijkeMarktApi.getAccounts();
+            Call<ResponseBody> call = mMakkelijkeMarktApi.getAccounts();
 
             // call the api asynchronously
             call.enqueue(this);
@@ -68,37 +70,51 @@ public class ApiGetAccounts extends ApiCall implements Callback<List<ApiAccount>
      * @param response response we received from the api
      */
     @Override
-    public void onResponse(Response<List<ApiAccount>> response) {
-        if (response.body() != null && response.body().size() > 0) {
+    public void onResponse(Response<ResponseBody> response) {
+        if (response.body() == null) {
+
+            // on empty body send an error message
+            EventBus.getDefault().post(new OnResponseEvent(-1, "Empty response body"));
+            return;
+        }
+
+        // when the server told us the accounts did not change we keep the ones we have, without
+        // reading them again
+        int accountCount = 0;
+        if (isNotModified(response)) {
+            response.body().close();
+        } else {
+            List<ApiAccount> accounts = readBody(response.body(), new TypeToken<List<ApiAccount>>(){}.getType());
+            if (accounts == null || accounts.size() == 0) {
+
+                // on empty body send an error message
+                EventBus.getDefault().post(new OnResponseEvent(-1, "Empty response body"));
+                return;
+            }
+            accountCount = accounts.size();
 
             // copy the values to a contentvalues array that can be used in the
             // contentprovider bulkinsert method
-            ContentValues[] contentValues = new ContentValues[response.body().size()];
-            for (int i = 0; i < response.body().size(); i++) {
-                contentValues[i] = response.body().get(i).toContentValues();
+            ContentValues[] contentValues = new ContentValues[accounts.size()];
+            for (int i = 0; i < accounts.size(); i++) {
+                contentValues[i] = accounts.get(i).toContentValues();
             }
 
             // delete existing accounts and insert downloaded accounts into db
-            if (contentValues.length > 0) {
-                mContext.getContentResolver().delete(MakkelijkeMarktProvider.mUriAccount, null, null);
-                mContext.getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriAccount, contentValues);
-
-                // when we are done, remember when we last fetched the accounts
-                SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
-                SharedPreferences.Editor editor = settings.edit();
-                editor.putLong(
-                        mContext.getString(R.string.sharedpreferences_key_accounts_last_fetched),
-                        new Date().getTime());
-                editor.apply();
-
-                // send event to subscribers that we retrieved a response
-                EventBus.getDefault().post(new OnResponseEvent(response.body().size(), null));
-            }
-        } else {
-
-            // on empty body send an error message
-            EventBus.getDefault().post(new OnResponseEvent(-1, "Empty response body"));
+            mContext.getContentResolver().delete(MakkelijkeMarktProvider.mUriAccount, null, null);
+            mContext.getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriAccount, contentValues);
         }
+
+        // when we are done, remember when we last fetched the accounts
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putLong(
+                mContext.getString(R.string.sharedpreferences_key_accounts_last_fetched),
+                new Date().getTime());
+        editor.apply();
+
+        // send event to subscribers that we retrieved a response
+        EventBus.getDefault().post(new OnResponseEvent(accountCount, null));
     }
 
     /**
@@ -111,7 +127,8 @@ public class ApiGetAccounts extends ApiCall implements Callback<List<ApiAccount>
     }
 
     /**
-     * Event to inform subscribers that we received a response from the api
+     * Event to inform subscribers that we received a response from the api, with the number of
+     * accounts received, 0 if they did not change, or -1 on failure
      */
     public class OnResponseEvent {
         public final int mAccountCount;
@@ -9,9 +9,15 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.text.TextUtils;
 
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiDagvergunning;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiKoopman;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiSollicitatie;
@@ -20,6 +26,8 @@ import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 import org.greenrobot.eventbus.EventBus;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import retrofit2.Call;
@@ -92,90 +100,144 @@ public class ApiGetDagvergunningen extends ApiCall implements Callback<List<ApiD
     @Override
     public void onResponse(Response<List<ApiDagvergunning>> response) {
         if (response.body() != null) {
-            if (response.body().size() > 0) {
+            int changedCount = 0;
 
-                List<ContentValues> dagvergunningValues = new ArrayList<>();
-                List<ContentValues> koopmanValues = new ArrayList<>();
-                List<ContentValues> sollicitatieValues = new ArrayList<>();
+            // get the hashes of the dagvergunningen we already have for the markt and dag
+            HashMap<String, String> storedHashes = getStoredHashes();
 
-                // copy the values to a contentvalues list that can be used in the contentprovider bulkinsert method
-                for (int i = 0; i < response.body().size(); i++) {
-                    ApiDagvergunning dagvergunning = response.body().get(i);
+            // the dagvergunningen with writes waiting in the outbox keep their local changes
+            HashSet<String> pendingIds = ApiOutbox.getPendingIds(mContext, MakkelijkeMarktProvider.Outbox.TYPE_DAGVERGUNNING);
 
-                    if (dagvergunning != null) {
+            // only write the new and changed dagvergunningen (including the ones that were
+            // doorgehaald since the last sync) with their koopman and sollicitatie
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (int i = 0; i < response.body().size(); i++) {
+                ApiDagvergunning dagvergunning = response.body().get(i);
 
-                        // add dagvergunning values to list for bulkinsert later
-                        dagvergunningValues.add(dagvergunning.toContentValues());
+                if (dagvergunning != null) {
+                    String id = String.valueOf(dagvergunning.getId());
+                    ContentValues dagvergunningValues = dagvergunning.toContentValues();
 
-                        // add koopman values to list for bulkinsert later
-                        ApiKoopman koopman = dagvergunning.getKoopman();
-                        if (koopman != null) {
-                            koopmanValues.add(koopman.toContentValues());
-
-                            // add sollicitatie values to list for bulkinsert later
-                            ApiSollicitatie sollicitatie = dagvergunning.getSollicitatie();
-                            if (sollicitatie != null) {
-                                sollicitatie.setKoopmanId(koopman.getId());
-                                sollicitatieValues.add(sollicitatie.toContentValues());
-                            }
+                    // remove it from the stored hashes so what is left are the removed ones
+                    String storedHash = storedHashes.remove(id);
+                    if (pendingIds.contains(id) ||
+                            MakkelijkeMarktProvider.createHash(dagvergunningValues).equals(storedHash)) {
+                        continue;
+                    }
+                    changedCount++;
+
+                    ApiKoopman koopman = dagvergunning.getKoopman();
+                    if (koopman != null) {
+                        operations.add(ContentProviderOperation.newInsert(
+                                MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriKoopman))
+                                .withValues(koopman.toContentValues())
+                                .build());
+
+                        ApiSollicitatie sollicitatie = dagvergunning.getSollicitatie();
+                        if (sollicitatie != null) {
+                            sollicitatie.setKoopmanId(koopman.getId());
+                            operations.add(ContentProviderOperation.newInsert(
+                                    MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriSollicitatie))
+                                    .withValues(sollicitatie.toContentValues())
+                                    .build());
                         }
                     }
-                }
 
-                // update downloaded koopmannen into db using our custom bulkinsert
-                if (koopmanValues.size() > 0) {
-                    mContext.getContentResolver().bulkInsert(
-                            MakkelijkeMarktProvider.mUriKoopman,
-                            koopmanValues.toArray(new ContentValues[koopmanValues.size()]));
+                    operations.add(ContentProviderOperation.newInsert(
+                            MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriDagvergunning))
+                            .withValues(dagvergunningValues)
+                            .build());
                 }
+            }
 
-                // update downloaded sollicitaties into db using our custom bulkinsert
-                if (sollicitatieValues.size() > 0) {
-                    mContext.getContentResolver().bulkInsert(
-                            MakkelijkeMarktProvider.mUriSollicitatie,
-                            sollicitatieValues.toArray(new ContentValues[sollicitatieValues.size()]));
-                }
+            // remove the dagvergunningen of the markt and dag that are no longer in the response,
+            // also when the response is empty because the last one was removed
+            if (storedHashes.size() > 0) {
+                changedCount += storedHashes.size();
+                operations.add(ContentProviderOperation.newDelete(MakkelijkeMarktProvider.mUriDagvergunning)
+                        .withSelection(
+                                MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID + " = ? AND " +
+                                        MakkelijkeMarktProvider.Dagvergunning.COL_DAG + " = ? AND " +
+                                        MakkelijkeMarktProvider.Dagvergunning.COL_ID + " IN (" +
+                                        TextUtils.join(",", storedHashes.keySet()) + ")",
+                                new String[]{mMarktId, mDag})
+                        .build());
+            }
 
-                // replace downloaded dagvergunningen into db using our custom bulkinsert
-                if (dagvergunningValues.size() > 0) {
-                    mContext.getContentResolver().delete(
-                            MakkelijkeMarktProvider.mUriDagvergunning,
-                            MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID + " = ? ",
-                            new String[]{mMarktId});
-                    mContext.getContentResolver().bulkInsert(
-                            MakkelijkeMarktProvider.mUriDagvergunning,
-                            dagvergunningValues.toArray(new ContentValues[dagvergunningValues.size()]));
+            // write the changes in one batch, or skip writing when nothing changed
+            if (operations.size() > 0) {
+                try {
+                    mContext.getContentResolver().applyBatch(MakkelijkeMarktProvider.mAuthority, operations);
+                } catch (RemoteException | OperationApplicationException e) {
+                    Utility.log(mContext, LOG_TAG, "Failed to store dagvergunningen: " + e.getMessage());
                 }
             }
 
             // send event to subscribers that we retrieved a response
-            EventBus.getDefault().post(new OnResponseEvent(response.body().size(), null));
+            EventBus.getDefault().post(new OnResponseEvent(response.body().size(), changedCount, null));
 
         } else {
 
             // on empty body send an error message
-            EventBus.getDefault().post(new OnResponseEvent(-1, "Empty response body"));
+            EventBus.getDefault().post(new OnResponseEvent(-1, 0, "Empty response body"));
         }
     }
 
+    /**
+     * Get the hashes of the dagvergunningen in the database for the markt and dag of this call,
+     * except the ones that were created locally and are not posted yet
+     * @return hashmap containing the stored hash by dagvergunning id
+     */
+    private HashMap<String, String> getStoredHashes() {
+        HashMap<String, String> storedHashes = new HashMap<>();
+
+        Cursor dagvergunningen = mContext.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriDagvergunning,
+                new String[] {
+                        MakkelijkeMarktProvider.Dagvergunning.COL_ID,
+                        MakkelijkeMarktProvider.Dagvergunning.COL_HASH
+                },
+                MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID + " = ? AND " +
+                        MakkelijkeMarktProvider.Dagvergunning.COL_DAG + " = ? AND " +
+                        MakkelijkeMarktProvider.Dagvergunning.COL_ID + " > 0 ",
+                new String[] { mMarktId, mDag },
+                null);
+
+        if (dagvergunningen != null) {
+            while (dagvergunningen.moveToNext()) {
+                storedHashes.put(dagvergunningen.getString(0), dagvergunningen.getString(1));
+            }
+            dagvergunningen.close();
+        }
+
+        return storedHashes;
+    }
+
     /**
      * On failure of the getDagvergunningen method send an error message
      * @param t the thrown exception
      */
     @Override
     public void onFailure(Throwable t) {
-        EventBus.getDefault().post(new OnResponseEvent(-1, t.getMessage()));
+        EventBus.getDefault().post(new OnResponseEvent(-1, 0, t.getMessage()));
     }
 
     /**
-     * Event to inform subscribers that we received a response from the api
+     * Event to inform subscribers that we received a response from the api, for the markt and dag
+     * of the call
      */
     public class OnResponseEvent {
+        public final String mMarktId;
+        public final String mDag;
         public final int mDagvergunningCount;
+        public final int mChangedCount;
         public final String mMessage;
 
-        public OnResponseEvent(int dagvergunningCount, String message) {
+        public OnResponseEvent(int dagvergunningCount, int changedCount, String message) {
+            mMarktId = ApiGetDagvergunningen.this.mMarktId;
+            mDag = ApiGetDagvergunningen.this.mDag;
             mDagvergunningCount = dagvergunningCount;
+            mChangedCount = changedCount;
             mMessage = message;
         }
     }
@@ -9,39 +9,32 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiKoopman;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.IOException;
 import java.util.Date;
-import java.util.List;
 
-import okhttp3.Headers;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
 
 /**
- * Get a list of koopmannen from the api, select by status and optionally call multiple times
- * with an offset
+ * Get a list of koopmannen from the api, select by status and fetch the pages concurrently
  * @author marcolangebeeke
  */
-public class ApiGetKoopmannen extends ApiCall implements Callback<List<ApiKoopman>> {
+public class ApiGetKoopmannen extends ApiPaginatedCall {
 
     // use classname when logging
     private static final String LOG_TAG = ApiGetKoopmannen.class.getSimpleName();
 
     // call parameters
     private int mStatus = -1;
-    private int mListOffset = 0;
-    private int mListLength = 500;
 
     /**
      * Call the superclass constructor to set the context
@@ -49,6 +42,7 @@ public class ApiGetKoopmannen extends ApiCall implements Callback<List<ApiKoopma
      */
     public ApiGetKoopmannen(Context context) {
         super(context);
+        mListLength = 500;
     }
 
     /**
@@ -60,116 +54,87 @@ public class ApiGetKoopmannen extends ApiCall implements Callback<List<ApiKoopma
     }
 
     /**
-     * Enqueue an async call to load the koopmannen
+     * Create the api call for a page of koopmannen with the selected status
+     * @param listOffset offset of the page
+     * @param listLength length of the page
+     * @return the retrofit call
      */
     @Override
-    public boolean enqueue() {
-        if (super.enqueue()) {
-
-            // set the api function to call for loading the koopmannen
-            Call<List<ApiKoopman>> call = mMakkelijkeMarktApi.getKoopmannen(
-                    String.valueOf(mStatus),
-                    String.valueOf(mListOffset),
-                    String.valueOf(mListLength));
-
-            // call the api asynchronously
-            call.enqueue(this);
-
-            return true;
-        }
-
-        return false;
+    protected Call<ResponseBody> createPageCall(int listOffset, int listLength) {
+        return mMakkelijkeMarktApi.getKoopmannen(
+                String.valueOf(mStatus),
+                String.valueOf(listOffset),
+                String.valueOf(listLength));
     }
 
     /**
-     * When we receive the response from the api we store the koopmannen in the database and
-     * optionally we call again for more
-     * @param response api response containing a list of ApiKoopman objects
+     * Read the koopmannen of a page into the database while streaming
+     * @param body the response body of the page
+     * @return the number of koopmannen read
+     * @throws IOException when reading the response fails
      */
     @Override
-    public void onResponse(Response<List<ApiKoopman>> response) {
-        if (response.body() != null) {
-            if (response.body().size() > 0) {
-
-                // get http headers from response
-                Headers headers = response.headers();
-
-                // get listsize header
-                if (headers.get(mContext.getString(R.string.makkelijkemarkt_api_x_listsize_header_name)) != null) {
-                    try {
-
-                        // if there is still more to fetch, increase the offset and enqueue again
-                        int totalListSize = Integer.valueOf(headers.get(mContext.getString(R.string.makkelijkemarkt_api_x_listsize_header_name)));
-                        if (totalListSize > mListOffset + mListLength) {
-                            mListOffset += mListLength;
-
-                            // enqueue again
-                            enqueue();
-
-                        } else {
-
-                            // when we are done, remember when we last fetched the koopmannen for
-                            // selected status in shared prefs
-                            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
-                            SharedPreferences.Editor editor = settings.edit();
-                            editor.putLong(
-                                    mContext.getString(R.string.sharedpreferences_key_koopmannen_last_fetched) + mStatus,
-                                    new Date().getTime());
-                            editor.apply();
-
-                            // inform subscribers that we completed loading all koopmannen for selected status
-                            EventBus.getDefault().post(new OnCompletedEvent(totalListSize, null));
-                        }
-                    } catch (NumberFormatException e) {
-
-                        // on missing listsize field send an error message
-                        EventBus.getDefault().post(new OnCompletedEvent(-1, "Failed to get X-Api-ListSize"));
-                    }
-                }
-
-                // copy the values to a contentvalues array that can be used in the
-                // contentprovider bulkinsert method
-                ContentValues[] koopmanValues = new ContentValues[response.body().size()];
-                for (int i = 0; i < response.body().size(); i++) {
-                    ApiKoopman koopman = response.body().get(i);
-                    koopmanValues[i] = koopman.toContentValues();
-                }
-
-                // insert downloaded koopmannen into db
-                if (koopmanValues.length > 0) {
-                    mContext.getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriKoopman, koopmanValues);
-                }
-            } else {
-
-                // on empty list send an error message
-                EventBus.getDefault().post(new OnCompletedEvent(-1, mContext.getString(R.string.notice_koopmannen_empty)));
-            }
-        } else {
+    protected int readPage(ResponseBody body) throws IOException {
+        return ApiStreamReader.readKoopmannen(mContext, body);
+    }
 
-            // on empty body send an error message
-            EventBus.getDefault().post(new OnCompletedEvent(-1, "Empty response body"));
-        }
+    /**
+     * Check if the database has at least the given number of koopmannen. The stored status is
+     * not the status number we select by, so this counts the koopmannen of all statuses, which
+     * still tells us if the table was cleared since we fetched the page
+     * @param itemCount the number of koopmannen up to and including the page
+     * @return true if the koopmannen are in the database
+     */
+    @Override
+    protected boolean hasLocalItems(int itemCount) {
+        return ApiStreamReader.count(mContext, MakkelijkeMarktProvider.mUriKoopman, null, null) >= itemCount;
     }
 
     /**
-     * On failure of the getSollicitaties method log the error message
-     * @param t the thrown exception
+     * When all pages are read, remember when we last fetched the koopmannen and inform the
+     * subscribers
+     * @param totalListSize the total number of koopmannen, or -1 on failure
+     * @param message an error message, or null on success
      */
     @Override
-    public void onFailure(Throwable t) {
-        EventBus.getDefault().post(new OnCompletedEvent(-1, t.getMessage()));
+    protected void onCompleted(int totalListSize, String message) {
+        if (totalListSize == 0) {
+
+            // on empty list send an error message
+            EventBus.getDefault().post(new OnCompletedEvent(-1, mContext.getString(R.string.notice_koopmannen_empty)));
+
+        } else if (totalListSize > 0) {
+
+            // when we are done, remember when we last fetched the koopmannen for
+            // selected status in shared prefs
+            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+            SharedPreferences.Editor editor = settings.edit();
+            editor.putLong(
+                    mContext.getString(R.string.sharedpreferences_key_koopmannen_last_fetched) + mStatus,
+                    new Date().getTime());
+            editor.apply();
+
+            // inform subscribers that we completed loading all koopmannen for selected status
+            EventBus.getDefault().post(new OnCompletedEvent(totalListSize, null));
+
+        } else {
+            EventBus.getDefault().post(new OnCompletedEvent(-1, message));
+        }
     }
 
     /**
-     * Event to inform subscribers that we completed receiving koopmannen from the api
+     * Event to inform subscribers that we completed receiving the koopmannen with the status of
+     * the call from the api
      */
     public class OnCompletedEvent {
+        public final int mStatus;
         public final int mKoopmannenCount;
         public final String mMessage;
 
         public OnCompletedEvent(int koopmannenCount, String message) {
+            mStatus = ApiGetKoopmannen.this.mStatus;
             mKoopmannenCount = koopmannenCount;
             mMessage = message;
         }
     }
-}
\ No newline at end of file
+}
@@ -12,7 +12,6 @@ package com.amsterdam.marktbureau.makkelijkemarkt.api;
 import android.content.Context;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiMarkt;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -20,7 +19,6 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.List;
 
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
@@ -53,7 +51,7 @@ public class ApiGetMarkten extends ApiCall {
         if (super.enqueue(callback)) {
 
             // set the api function to call for loading the markten
-            Call<List<ApiMarkt>> call = mMakkelijkeMarktApi.getMarkten();
+            Call<ResponseBody> call = mMakkelijkeMarktApi.getMarkten();
 
             // call the api asynchronously
             call.enqueue(callback);
@@ -77,8 +75,9 @@ public class ApiGetMarkten extends ApiCall {
             public okhttp3.Response intercept(Chain chain) throws IOException {
                 okhttp3.Response response = chain.proceed(chain.request());
 
-                // if we have a successful response modify it
-                if (response.isSuccessful()) {
+                // if we have a successful response modify it, unless it did not change and will
+                // not be read
+                if (response.isSuccessful() && !isNotModified(response)) {
                     final String aanwezigeOptiesObjectName = "aanwezigeOpties";
                     try {
 
@@ -123,7 +122,7 @@ public class ApiGetMarkten extends ApiCall {
             }
         };
 
-        // add the interceptor to the http client builder
-        mClientBuilder.addInterceptor(convertAanwezigeOpties);
+        // add the interceptor to the interceptors of this call
+        mInterceptors.add(convertAanwezigeOpties);
     }
 }
\ No newline at end of file
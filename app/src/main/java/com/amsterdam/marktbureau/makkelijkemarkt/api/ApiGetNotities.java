@@ -11,6 +11,7 @@ package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.text.TextUtils;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiNotitie;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
@@ -18,6 +19,7 @@ import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 import org.greenrobot.eventbus.EventBus;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import retrofit2.Call;
@@ -93,25 +95,35 @@ public class ApiGetNotities extends ApiCall implements Callback<List<ApiNotitie>
         if (response.body() != null) {
             if (response.body().size() > 0) {
                 List<ContentValues> notitieValues = new ArrayList<>();
+                List<String> notitieIds = new ArrayList<>();
+
+                // the notities with writes waiting in the outbox keep their local changes
+                HashSet<String> pendingIds = ApiOutbox.getPendingIds(mContext, MakkelijkeMarktProvider.Outbox.TYPE_NOTITIE);
+                notitieIds.addAll(pendingIds);
 
                 // copy the values to a contentvalues list that can be used in the contentprovider bulkinsert method
                 for (int i = 0; i < response.body().size(); i++) {
                     ApiNotitie notitie = response.body().get(i);
 
                     // add notitie values to list for bulkinsert later
-                    if (notitie != null) {
+                    if (notitie != null && !pendingIds.contains(String.valueOf(notitie.getId()))) {
                         notitieValues.add(notitie.toContentValues());
+                        notitieIds.add(String.valueOf(notitie.getId()));
                     }
                 }
 
-                // replace downloaded notities into db using our custom bulkinsert
+                // remove the notities of the markt that are no longer in the response, and merge
+                // the downloaded notities into db so only changed rows are written
                 if (notitieValues.size() > 0) {
                     mContext.getContentResolver().delete(
                             MakkelijkeMarktProvider.mUriNotitie,
-                            MakkelijkeMarktProvider.Notitie.COL_MARKT_ID + " = ? ",
+                            MakkelijkeMarktProvider.Notitie.COL_MARKT_ID + " = ? AND " +
+                                    MakkelijkeMarktProvider.Notitie.COL_ID + " > 0 AND " +
+                                    MakkelijkeMarktProvider.Notitie.COL_ID + " NOT IN (" +
+                                    TextUtils.join(",", notitieIds) + ")",
                             new String[]{mMarktId});
                     mContext.getContentResolver().bulkInsert(
-                            MakkelijkeMarktProvider.mUriNotitie,
+                            MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriNotitie),
                             notitieValues.toArray(new ContentValues[notitieValues.size()]));
                 }
             }
@@ -136,13 +148,18 @@ public class ApiGetNotities extends ApiCall implements Callback<List<ApiNotitie>
     }
 
     /**
-     * Event to inform subscribers that we received a response from the api
+     * Event to inform subscribers that we received a response from the api, for the markt and dag
+     * of the call
      */
     public class OnResponseEvent {
+        public final String mMarktId;
+        public final String mDag;
         public final int mNotitieCount;
         public final String mMessage;
 
         public OnResponseEvent(int notitieCount, String message) {
+            mMarktId = ApiGetNotities.this.mMarktId;
+            mDag = ApiGetNotities.this.mDag;
             mNotitieCount = notitieCount;
             mMessage = message;
         }
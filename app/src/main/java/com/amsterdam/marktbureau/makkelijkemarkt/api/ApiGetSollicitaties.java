@@ -9,42 +9,33 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiKoopman;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiSollicitatie;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiVervanger;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
 
 import org.greenrobot.eventbus.EventBus;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Date;
-import java.util.List;
 
-import okhttp3.Headers;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
 
 /**
  *
  * @author marcolangebeeke
  */
-public class ApiGetSollicitaties extends ApiCall implements Callback<List<ApiSollicitatie>> {
+public class ApiGetSollicitaties extends ApiPaginatedCall {
 
     // use classname when logging
     private static final String LOG_TAG = ApiGetSollicitaties.class.getSimpleName();
 
     // call parameters
     private int mMarktId = -1;
-    private int mListOffset = 0;
-    private int mListLength = 1000;
 
     /**
      * Call the superclass constructor to set the context
@@ -52,6 +43,7 @@ public class ApiGetSollicitaties extends ApiCall implements Callback<List<ApiSol
      */
     public ApiGetSollicitaties(Context context) {
         super(context);
+        mListLength = 1000;
     }
 
     /**
@@ -63,153 +55,99 @@ public class ApiGetSollicitaties extends ApiCall implements Callback<List<ApiSol
     }
 
     /**
-     * Enqueue an async call to load the accounts
+     * Enqueue async calls to load the pages of sollicitaties
      */
     @Override
     public boolean enqueue() {
-        if (super.enqueue()) {
-            if (mMarktId != -1) {
-
-                // set the api function to call for loading the sollicitaties
-                Call<List<ApiSollicitatie>> call = mMakkelijkeMarktApi.getSollicitaties(
-                        String.valueOf(mMarktId),
-                        String.valueOf(mListOffset),
-                        String.valueOf(mListLength));
-
-                // call the api asynchronously
-                call.enqueue(this);
-
-            } else {
-                Utility.log(mContext, LOG_TAG, "Call failed, markt id not set!");
-            }
-
-            return true;
+        if (mMarktId == -1) {
+            Utility.log(mContext, LOG_TAG, "Call failed, markt id not set!");
+            return false;
         }
 
-        return false;
+        return super.enqueue();
     }
 
     /**
-     * When we receive the response from the api we store the sollicitaties in the database and
-     * optionally we call again for more
-     * @param response api response containing a list of ApiSollicitatie objects
+     * Create the api call for a page of sollicitaties of the selected markt
+     * @param listOffset offset of the page
+     * @param listLength length of the page
+     * @return the retrofit call
      */
     @Override
-    public void onResponse(Response<List<ApiSollicitatie>> response) {
-        if (response.body() != null) {
-            if (response.body().size() > 0) {
-
-                // get http headers from response
-                Headers headers = response.headers();
-
-                // get listsize header
-                if (headers.get(mContext.getString(R.string.makkelijkemarkt_api_x_listsize_header_name)) != null) {
-                    try {
-
-                        // if there is still more to fetch, increase the offset and enqueue again
-                        int totalListSize = Integer.valueOf(headers.get(mContext.getString(R.string.makkelijkemarkt_api_x_listsize_header_name)));
-                        if (totalListSize > mListOffset + mListLength) {
-                            mListOffset += mListLength;
-
-                            // enqueue again
-                            enqueue();
-
-                        } else {
-
-                            // when we are done, remember when we last fetched the sollicitaties for
-                            // selected markt in shared prefs
-                            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
-                            SharedPreferences.Editor editor = settings.edit();
-                            editor.putLong(
-                                    mContext.getString(R.string.sharedpreferences_key_sollicitaties_last_fetched) + mMarktId,
-                                    new Date().getTime());
-                            editor.apply();
-
-                            // inform subscribers that we completed loading all sollicitaties for selected markt
-                            EventBus.getDefault().post(new OnCompletedEvent(totalListSize, null));
-                        }
-                    } catch (NumberFormatException e) {
-
-                        // on missing listsize field send an error message
-                        EventBus.getDefault().post(new OnCompletedEvent(-1, "Failed to get X-Api-ListSize"));
-                    }
-                }
-
-                // copy the values to a contentvalues array that can be used in the
-                // contentprovider bulkinsert method
-                ContentValues[] sollicitatieValues = new ContentValues[response.body().size()];
-                ContentValues[] koopmanValues = new ContentValues[response.body().size()];
-                ArrayList<ContentValues> vervangerList = new ArrayList<>();
-                for (int i = 0; i < response.body().size(); i++) {
-                    ApiSollicitatie sollicitatie = response.body().get(i);
-
-                    // get koopman
-                    ApiKoopman koopman = sollicitatie.getKoopman();
-                    koopmanValues[i] = koopman.toContentValues();
-
-                    // get sollicitatie
-                    sollicitatie.setKoopmanId(koopman.getId());
-                    sollicitatieValues[i] = sollicitatie.toContentValues();
-
-                    // get vervangers
-                    if (koopman.getVervangers() != null && koopman.getVervangers().size() > 0) {
-                        for (int j = 0; j < koopman.getVervangers().size(); j++) {
-                            ApiVervanger vervanger = koopman.getVervangers().get(j);
-                            vervanger.setId(koopman.getId() + "-" + vervanger.getVervangerId());
-                            vervanger.setKoopmanId(koopman.getId());
-                            vervangerList.add(vervanger.toContentValues());
-                        }
-                    }
-                }
-
-                // insert downloaded sollicitaties into db
-                if (sollicitatieValues.length > 0) {
-                    mContext.getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriSollicitatie,
-                            sollicitatieValues);
-                }
-
-                // insert downloaded koopmannen into db
-                if (koopmanValues.length > 0) {
-                    mContext.getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriKoopman,
-                            koopmanValues);
-                }
-
-                // insert downloaded vervangers into db
-                if (vervangerList.size() > 0) {
-                    mContext.getContentResolver().bulkInsert(MakkelijkeMarktProvider.mUriVervanger,
-                            vervangerList.toArray(new ContentValues[vervangerList.size()]));
-                }
-            } else {
-
-                // on empty list send an error message
-                EventBus.getDefault().post(new OnCompletedEvent(-1, mContext.getString(R.string.notice_sollicitaties_empty)));
-            }
-        } else {
+    protected Call<ResponseBody> createPageCall(int listOffset, int listLength) {
+        return mMakkelijkeMarktApi.getSollicitaties(
+                String.valueOf(mMarktId),
+                String.valueOf(listOffset),
+                String.valueOf(listLength));
+    }
 
-            // on empty body send an error message
-            EventBus.getDefault().post(new OnCompletedEvent(-1, "Empty response body"));
-        }
+    /**
+     * Read the sollicitaties, koopmannen and vervangers of a page into the database while streaming
+     * @param body the response body of the page
+     * @return the number of sollicitaties read
+     * @throws IOException when reading the response fails
+     */
+    @Override
+    protected int readPage(ResponseBody body) throws IOException {
+        return ApiStreamReader.readSollicitaties(mContext, body);
+    }
+
+    /**
+     * Check if the database has at least the given number of sollicitaties of the selected markt
+     * @param itemCount the number of sollicitaties up to and including the page
+     * @return true if the sollicitaties are in the database
+     */
+    @Override
+    protected boolean hasLocalItems(int itemCount) {
+        return ApiStreamReader.count(mContext, MakkelijkeMarktProvider.mUriSollicitatie,
+                MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ? ",
+                new String[] { String.valueOf(mMarktId) }) >= itemCount;
     }
 
     /**
-     * On failure of the getSollicitaties method log the error message
-     * @param t the thrown exception
+     * When all pages are read, remember when we last fetched the sollicitaties and inform the
+     * subscribers
+     * @param totalListSize the total number of sollicitaties, or -1 on failure
+     * @param message an error message, or null on success
      */
     @Override
-    public void onFailure(Throwable t) {
-        EventBus.getDefault().post(new OnCompletedEvent(-1, t.getMessage()));
+    protected void onCompleted(int totalListSize, String message) {
+        if (totalListSize == 0) {
+
+            // on empty list send an error message
+            EventBus.getDefault().post(new OnCompletedEvent(mMarktId, -1, mContext.getString(R.string.notice_sollicitaties_empty)));
+
+        } else if (totalListSize > 0) {
+
+            // when we are done, remember when we last fetched the sollicitaties for
+            // selected markt in shared prefs
+            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+            SharedPreferences.Editor editor = settings.edit();
+            editor.putLong(
+                    mContext.getString(R.string.sharedpreferences_key_sollicitaties_last_fetched) + mMarktId,
+                    new Date().getTime());
+            editor.apply();
+
+            // inform subscribers that we completed loading all sollicitaties for selected markt
+            EventBus.getDefault().post(new OnCompletedEvent(mMarktId, totalListSize, null));
+
+        } else {
+            EventBus.getDefault().post(new OnCompletedEvent(mMarktId, -1, message));
+        }
     }
 
     /**
      * Event to inform subscribers that we completed receiving sollicitaties from the api
      */
     public class OnCompletedEvent {
+        public final int mMarktId;
         public final int mSollicitatiesCount;
         public final String mMessage;
 
-        public OnCompletedEvent(int sollicitatiesCount, String message) {
+        public OnCompletedEvent(int marktId, int sollicitatiesCount, String message) {
+            mMarktId = marktId;
             mSollicitatiesCount = sollicitatiesCount;
             mMessage = message;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,961 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiDagvergunning;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiNotitie;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider.Outbox;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.greenrobot.eventbus.EventBus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Apply the dagvergunning and notitie writes to the local database right away, and keep them in
+ * the outbox table until they are sent to the api. The outbox is flushed in the order of the
+ * writes on a background thread, and only with the api-key of the account that made them. Writes
+ * that fail because of the network or the server are retried with a growing delay for as long as
+ * it takes, writes that fail on the authorisation wait until the account logs in again, and writes
+ * the api does not accept are kept as a conflict until they are resent or discarded
+ * @author marcolangebeeke
+ */
+public class ApiOutbox {
+
+    // use classname when logging
+    private static final String LOG_TAG = ApiOutbox.class.getSimpleName();
+
+    // max number of writes we send in one flush
+    private static final int mFlushBatchSize = 20;
+
+    // one background thread, so the writes are sent one at a time and in order
+    private static final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // if a flush is queued on the outbox thread and did not start yet
+    private static final AtomicBoolean mFlushQueued = new AtomicBoolean(false);
+
+    // the time until which the flush waits after a write failed and will be retried
+    private static volatile long mRetryAt = 0;
+
+    // the flush scheduled to retry a failed write, cancelled on logout
+    private static volatile ScheduledFuture<?> mScheduledFlush;
+
+    // guards the local writes against the outbox thread changing the ids of the rows they write
+    private static final Object mLock = new Object();
+
+    // the ids the api gave the rows, by type and the id they had before, so a write from a screen
+    // that still has the old id ends up at the right row
+    private static final HashMap<String, Integer> mApiIds = new HashMap<>();
+
+    // handler for posting the conflict events on the main thread
+    private static final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Create a new dagvergunning locally with a temporary negative id, and queue the post
+     * @param context the context
+     * @param values the local dagvergunning values
+     * @param payload the json payload for the api
+     * @return the temporary id of the dagvergunning
+     */
+    public static int postDagvergunning(Context context, ContentValues values, JsonObject payload) {
+        synchronized (mLock) {
+            int localId = createLocalId(context, MakkelijkeMarktProvider.mUriDagvergunning);
+            values.put(MakkelijkeMarktProvider.Dagvergunning.COL_ID, localId);
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newInsert(MakkelijkeMarktProvider.mUriDagvergunning)
+                    .withValues(values)
+                    .build());
+            operations.add(createOutboxInsert(context, Outbox.TYPE_DAGVERGUNNING, Outbox.METHOD_POST, localId, payload));
+            apply(context, operations);
+
+            return localId;
+        }
+    }
+
+    /**
+     * Update a dagvergunning locally and queue the put. When the dagvergunning was not posted yet
+     * we replace the payload of the queued post instead
+     * @param context the context
+     * @param id the id of the dagvergunning
+     * @param values the changed local dagvergunning values
+     * @param payload the json payload for the api
+     */
+    public static void putDagvergunning(Context context, int id, ContentValues values, JsonObject payload) {
+
+        // clear the hash so the next sync restores the row if the api does not accept the put
+        values.putNull(MakkelijkeMarktProvider.Dagvergunning.COL_HASH);
+
+        put(context, Outbox.TYPE_DAGVERGUNNING, id, values, payload);
+    }
+
+    /**
+     * Delete a dagvergunning locally and queue the delete, replacing the queued and conflicted
+     * writes of the dagvergunning. When it was not posted yet nothing needs to be sent
+     * @param context the context
+     * @param id the id of the dagvergunning
+     */
+    public static void deleteDagvergunning(Context context, int id) {
+        synchronized (mLock) {
+            id = getApiId(Outbox.TYPE_DAGVERGUNNING, id);
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newDelete(MakkelijkeMarktProvider.mUriDagvergunning)
+                    .withSelection(MakkelijkeMarktProvider.Dagvergunning.COL_ID + " = ? ", new String[] { String.valueOf(id) })
+                    .build());
+            operations.add(ContentProviderOperation.newDelete(MakkelijkeMarktProvider.mUriOutbox)
+                    .withSelection(
+                            Outbox.COL_TYPE + " = ? AND " + Outbox.COL_ENTITY_ID + " = ? AND " +
+                                    Outbox.COL_STATUS + " IN (?, ?) ",
+                            new String[] { Outbox.TYPE_DAGVERGUNNING, String.valueOf(id), Outbox.STATUS_PENDING, Outbox.STATUS_CONFLICT })
+                    .build());
+            if (id > 0) {
+                operations.add(createOutboxInsert(context, Outbox.TYPE_DAGVERGUNNING, Outbox.METHOD_DELETE, id, null));
+            }
+            apply(context, operations);
+        }
+    }
+
+    /**
+     * Create a new notitie locally with a temporary negative id, and queue the post
+     * @param context the context
+     * @param values the local notitie values
+     * @param payload the json payload for the api
+     */
+    public static void postNotitie(Context context, ContentValues values, JsonObject payload) {
+        synchronized (mLock) {
+            int localId = createLocalId(context, MakkelijkeMarktProvider.mUriNotitie);
+            values.put(MakkelijkeMarktProvider.Notitie.COL_ID, localId);
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newInsert(MakkelijkeMarktProvider.mUriNotitie)
+                    .withValues(values)
+                    .build());
+            operations.add(createOutboxInsert(context, Outbox.TYPE_NOTITIE, Outbox.METHOD_POST, localId, payload));
+            apply(context, operations);
+        }
+    }
+
+    /**
+     * Update a notitie locally and queue the put. When the notitie was not posted yet we replace
+     * the payload of the queued post instead
+     * @param context the context
+     * @param id the id of the notitie
+     * @param values the changed local notitie values
+     * @param payload the json payload for the api
+     */
+    public static void putNotitie(Context context, int id, ContentValues values, JsonObject payload) {
+
+        // clear the hash so the next sync restores the row if the api does not accept the put
+        values.putNull(MakkelijkeMarktProvider.Notitie.COL_HASH);
+
+        put(context, Outbox.TYPE_NOTITIE, id, values, payload);
+    }
+
+    /**
+     * Send a write the api did not accept again, for example after the problem was solved on the
+     * server
+     * @param context the context
+     * @param outboxId the id of the conflicted write in the outbox
+     */
+    public static void resend(Context context, long outboxId) {
+        ContentValues values = new ContentValues();
+        values.put(Outbox.COL_STATUS, Outbox.STATUS_PENDING);
+        values.put(Outbox.COL_ATTEMPTS, 0);
+        values.putNull(Outbox.COL_ERROR);
+        context.getContentResolver().update(
+                MakkelijkeMarktProvider.mUriOutbox,
+                values,
+                Outbox.COL_ID + " = ? AND " + Outbox.COL_STATUS + " = ? ",
+                new String[] { String.valueOf(outboxId), Outbox.STATUS_CONFLICT });
+
+        mRetryAt = 0;
+        flush(context);
+    }
+
+    /**
+     * Give up on a write the api did not accept. The local row of a post is removed, the rows of
+     * other writes are restored by the next sync
+     * @param context the context
+     * @param outboxId the id of the conflicted write in the outbox
+     */
+    public static void discard(Context context, long outboxId) {
+        synchronized (mLock) {
+            Cursor outbox = context.getContentResolver().query(
+                    MakkelijkeMarktProvider.mUriOutbox,
+                    null,
+                    Outbox.COL_ID + " = ? AND " + Outbox.COL_STATUS + " = ? ",
+                    new String[] { String.valueOf(outboxId), Outbox.STATUS_CONFLICT },
+                    null);
+
+            if (outbox == null) {
+                return;
+            }
+
+            OutboxEntry entry = null;
+            if (outbox.moveToFirst()) {
+                entry = new OutboxEntry(outbox);
+            }
+            outbox.close();
+
+            if (entry == null) {
+                return;
+            }
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            if (entry.mMethod.equals(Outbox.METHOD_POST) && getUri(entry.mType) != null) {
+                operations.add(ContentProviderOperation.newDelete(getUri(entry.mType))
+                        .withSelection(BaseColumns._ID + " = ? ", new String[] { String.valueOf(entry.mEntityId) })
+                        .build());
+            }
+            operations.add(ContentProviderOperation.newDelete(MakkelijkeMarktProvider.mUriOutbox)
+                    .withSelection(Outbox.COL_ID + " = ? ", new String[] { String.valueOf(entry.mId) })
+                    .build());
+            applyBatch(context, operations);
+        }
+    }
+
+    /**
+     * Get the ids of the rows of given type that have writes waiting or conflicted in the outbox.
+     * The sync calls leave these rows alone, so they do not overwrite or remove the local changes
+     * @param context the context
+     * @param type one of the Outbox.TYPE_ constants
+     * @return set of the ids as strings
+     */
+    public static HashSet<String> getPendingIds(Context context, String type) {
+        HashSet<String> pendingIds = new HashSet<>();
+
+        Cursor outbox = context.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriOutbox,
+                new String[] { Outbox.COL_ENTITY_ID },
+                Outbox.COL_TYPE + " = ? AND " + Outbox.COL_STATUS + " IN (?, ?) ",
+                new String[] { type, Outbox.STATUS_PENDING, Outbox.STATUS_CONFLICT },
+                null);
+
+        if (outbox != null) {
+            while (outbox.moveToNext()) {
+                pendingIds.add(outbox.getString(0));
+            }
+            outbox.close();
+        }
+
+        return pendingIds;
+    }
+
+    /**
+     * Send the pending writes to the api on the outbox thread, unless a flush is already waiting to
+     * start, because that one will also send the writes queued until then
+     * @param context the context
+     */
+    public static void flush(Context context) {
+        if (mFlushQueued.compareAndSet(false, true)) {
+            final Context appContext = context.getApplicationContext();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mFlushQueued.set(false);
+                    flushPending(appContext);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop sending the writes when the user logs out. The writes stay in the outbox with the
+     * account that made them, and are sent when that account logs in again
+     */
+    public static void cancel() {
+        ScheduledFuture<?> scheduledFlush = mScheduledFlush;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        mScheduledFlush = null;
+        mRetryAt = 0;
+    }
+
+    /**
+     * Send the pending writes of the logged in account in order, one at a time, and stop at the
+     * first write that needs to be retried so the writes after it are not sent before it
+     * @param context the application context
+     */
+    private static void flushPending(Context context) {
+        if (System.currentTimeMillis() < mRetryAt || !Utility.isNetworkAvailable(context)) {
+            return;
+        }
+
+        // without an api-key there is nobody to send the writes for
+        final String apiKey = getApiKey(context);
+        int accountId = getAccountId(context);
+        if (apiKey == null) {
+            return;
+        }
+
+        MakkelijkeMarktApi api = createApi(context, apiKey);
+        for (int i = 0; i < mFlushBatchSize; i++) {
+
+            // stop when the user logged out or another account logged in during the flush
+            if (!apiKey.equals(getApiKey(context))) {
+                return;
+            }
+
+            // get the oldest pending write of the account, each time again because sending a write
+            // can change the entity id of the writes after it
+            Cursor outbox = context.getContentResolver().query(
+                    MakkelijkeMarktProvider.mUriOutbox,
+                    null,
+                    Outbox.COL_STATUS + " = ? AND " + Outbox.COL_ACCOUNT_ID + " = ? ",
+                    new String[] { Outbox.STATUS_PENDING, String.valueOf(accountId) },
+                    Outbox.COL_ID + " ASC LIMIT 1");
+
+            if (outbox == null) {
+                return;
+            }
+
+            OutboxEntry entry = null;
+            if (outbox.moveToFirst()) {
+                entry = new OutboxEntry(outbox);
+            }
+            outbox.close();
+
+            if (entry == null || !send(context, api, entry)) {
+                return;
+            }
+        }
+
+        // there is more to send, so continue after the writes queued in the meantime
+        flush(context);
+    }
+
+    /**
+     * Create the api for a flush, sending the given api-key instead of the current one, so a write
+     * is never sent with the api-key of an account that logged in while it was being sent
+     * @param context the application context
+     * @param apiKey the api-key of the account that made the writes
+     * @return the api
+     */
+    private static MakkelijkeMarktApi createApi(final Context context, final String apiKey) {
+        Interceptor accountInterceptor = new Interceptor() {
+            @Override
+            public okhttp3.Response intercept(Chain chain) throws IOException {
+                Request request = chain.request().newBuilder()
+                        .header(
+                                context.getString(R.string.makkelijkemarkt_api_authorization_header_name),
+                                context.getString(R.string.makkelijkemarkt_api_authorization_header_prefix) + " " + apiKey)
+                        .build();
+
+                return chain.proceed(request);
+            }
+        };
+
+        List<Interceptor> interceptors = Collections.singletonList(accountInterceptor);
+        return ApiClient.getApi(context, context.getString(R.string.makkelijkemarkt_api_base_url), interceptors);
+    }
+
+    /**
+     * Send a write to the api and process the result
+     * @param context the application context
+     * @param api the api
+     * @param entry the write
+     * @return true if we can continue with the next write, false if this one needs to be retried
+     */
+    private static boolean send(Context context, MakkelijkeMarktApi api, OutboxEntry entry) {
+        Response<?> response;
+        try {
+            Call<?> call = createCall(api, entry);
+            if (call == null) {
+                onConflict(context, entry, "Unknown outbox entry");
+                return true;
+            }
+
+            response = call.execute();
+        } catch (IOException e) {
+            return onRetry(context, entry, e.getMessage());
+        } catch (RuntimeException e) {
+
+            // the write itself is broken, so sending it again will not help
+            onConflict(context, entry, e.getMessage());
+            return true;
+        }
+
+        if (response.isSuccess()) {
+            onSuccess(context, entry, response.body());
+            return true;
+        }
+
+        // server errors are retried until they are solved, authorisation problems wait for the
+        // account to log in again, other errors are conflicts
+        int code = response.code();
+        if (code >= 500) {
+            return onRetry(context, entry, "Http " + code);
+        }
+        if (code == 401 || code == 403 || code == 412) {
+            return onUnauthorized(context, entry, "Http " + code);
+        }
+
+        onConflict(context, entry, "Http " + code);
+        return true;
+    }
+
+    /**
+     * Create the api call for a write
+     * @param api the api
+     * @param entry the write
+     * @return the call, or null if the write is not supported
+     */
+    private static Call<?> createCall(MakkelijkeMarktApi api, OutboxEntry entry) {
+        String id = String.valueOf(entry.mEntityId);
+
+        if (entry.mType.equals(Outbox.TYPE_DAGVERGUNNING)) {
+            switch (entry.mMethod) {
+                case Outbox.METHOD_POST:
+                    return api.postDagvergunning(entry.mIdempotencyKey, entry.getPayload());
+                case Outbox.METHOD_PUT:
+                    return api.putDagvergunning(entry.mIdempotencyKey, id, entry.getPayload());
+                case Outbox.METHOD_DELETE:
+                    return api.deleteDagvergunning(entry.mIdempotencyKey, id);
+            }
+        } else if (entry.mType.equals(Outbox.TYPE_NOTITIE)) {
+            switch (entry.mMethod) {
+                case Outbox.METHOD_POST:
+                    return api.postNotitie(entry.mIdempotencyKey, entry.getPayload());
+                case Outbox.METHOD_PUT:
+                    return api.putNotitie(entry.mIdempotencyKey, id, entry.getPayload());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Replace the local row with the row returned by the api, point the writes after it to the id
+     * the api gave the row, and remove the write from the outbox. When the write was changed or
+     * removed from the outbox while it was being sent, the local changes made in the meantime are
+     * kept and sent too
+     * @param context the application context
+     * @param entry the write
+     * @param body the response body
+     */
+    private static void onSuccess(Context context, OutboxEntry entry, Object body) {
+        ContentValues values = null;
+        int id = -1;
+        if (body instanceof ApiDagvergunning) {
+            values = ((ApiDagvergunning) body).toContentValues();
+            id = ((ApiDagvergunning) body).getId();
+        } else if (body instanceof ApiNotitie) {
+            values = ((ApiNotitie) body).toContentValues();
+            id = ((ApiNotitie) body).getId();
+        }
+
+        synchronized (mLock) {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            String entityId = String.valueOf(entry.mEntityId);
+            String outboxId = String.valueOf(entry.mId);
+
+            if (values != null && !entry.mMethod.equals(Outbox.METHOD_DELETE)) {
+                Uri uri = getUri(entry.mType);
+
+                // check if the write is still in the outbox as it was sent
+                boolean queued = false;
+                String payload = null;
+                Cursor outbox = context.getContentResolver().query(
+                        MakkelijkeMarktProvider.mUriOutbox,
+                        new String[] { Outbox.COL_PAYLOAD },
+                        Outbox.COL_ID + " = ? ",
+                        new String[] { outboxId },
+                        null);
+                if (outbox != null) {
+                    if (outbox.moveToFirst()) {
+                        queued = true;
+                        payload = outbox.getString(0);
+                    }
+                    outbox.close();
+                }
+
+                // the api creates a new id on post, and for some reason also on put
+                if (id != entry.mEntityId) {
+                    mApiIds.put(getKey(entry.mType, entry.mEntityId), id);
+                    operations.add(ContentProviderOperation.newUpdate(MakkelijkeMarktProvider.mUriOutbox)
+                            .withSelection(
+                                    Outbox.COL_TYPE + " = ? AND " + Outbox.COL_ENTITY_ID + " = ? ",
+                                    new String[] { entry.mType, entityId })
+                            .withValue(Outbox.COL_ENTITY_ID, id)
+                            .build());
+                }
+
+                if (!queued) {
+
+                    // the row was deleted while the post was being sent, so delete it from the api too
+                    if (entry.mMethod.equals(Outbox.METHOD_POST) && entry.mType.equals(Outbox.TYPE_DAGVERGUNNING)) {
+                        operations.add(createOutboxInsert(entry.mType, Outbox.METHOD_DELETE, id, null, entry.mAccountId));
+                    }
+                } else if (entry.mMethod.equals(Outbox.METHOD_POST) && !TextUtils.equals(payload, entry.mPayload)) {
+
+                    // the row was changed while the post was being sent, so keep the local values
+                    // and send the changed payload again as a put
+                    if (id != entry.mEntityId) {
+                        operations.add(ContentProviderOperation.newUpdate(uri)
+                                .withSelection(BaseColumns._ID + " = ? ", new String[] { entityId })
+                                .withValue(BaseColumns._ID, id)
+                                .build());
+                    }
+                    operations.add(ContentProviderOperation.newUpdate(MakkelijkeMarktProvider.mUriOutbox)
+                            .withSelection(Outbox.COL_ID + " = ? ", new String[] { outboxId })
+                            .withValue(Outbox.COL_IDEMPOTENCY_KEY, UUID.randomUUID().toString())
+                            .withValue(Outbox.COL_METHOD, Outbox.METHOD_PUT)
+                            .withValue(Outbox.COL_ATTEMPTS, 0)
+                            .build());
+                    applyBatch(context, operations);
+                    return;
+                } else {
+                    if (id != entry.mEntityId) {
+                        operations.add(ContentProviderOperation.newDelete(uri)
+                                .withSelection(BaseColumns._ID + " = ? ", new String[] { entityId })
+                                .build());
+                    }
+                    operations.add(ContentProviderOperation.newInsert(uri)
+                            .withValues(values)
+                            .build());
+                }
+            }
+
+            operations.add(ContentProviderOperation.newDelete(MakkelijkeMarktProvider.mUriOutbox)
+                    .withSelection(Outbox.COL_ID + " = ? ", new String[] { outboxId })
+                    .build());
+
+            applyBatch(context, operations);
+        }
+    }
+
+    /**
+     * Count a failed attempt of a write, and schedule a retry, twice as long after each failed
+     * attempt up to the max delay. There is no max number of attempts, because the network and
+     * the server problems are solved eventually
+     * @param context the application context
+     * @param entry the write
+     * @param error the error message
+     * @return false, so the flush stops and the write is retried first on the next flush
+     */
+    private static boolean onRetry(final Context context, OutboxEntry entry, String error) {
+        long delay = countAttempt(context, entry, error);
+
+        mScheduledFlush = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(context);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+
+        return false;
+    }
+
+    /**
+     * Count a failed attempt of a write the api did not authorise, without scheduling a retry. The
+     * api call already logs the user out when the api-key is not valid anymore, and the write is
+     * sent again by the next flush of the account, with the same growing delay
+     * @param context the application context
+     * @param entry the write
+     * @param error the error message
+     * @return false, so the flush stops and the write is retried first on the next flush
+     */
+    private static boolean onUnauthorized(Context context, OutboxEntry entry, String error) {
+        countAttempt(context, entry, error);
+        return false;
+    }
+
+    /**
+     * Store the failed attempt and the error of a write, and wait before the next flush, twice as
+     * long after each failed attempt up to the max delay
+     * @param context the application context
+     * @param entry the write
+     * @param error the error message
+     * @return the delay in milliseconds
+     */
+    private static long countAttempt(Context context, OutboxEntry entry, String error) {
+        int attempts = entry.mAttempts + 1;
+
+        ContentValues values = new ContentValues();
+        values.put(Outbox.COL_ATTEMPTS, attempts);
+        values.put(Outbox.COL_ERROR, error);
+        context.getContentResolver().update(
+                MakkelijkeMarktProvider.mUriOutbox,
+                values,
+                Outbox.COL_ID + " = ? ",
+                new String[] { String.valueOf(entry.mId) });
+
+        long minDelay = context.getResources().getInteger(R.integer.makkelijkemarkt_api_outbox_retry_min_delay_seconds) * 1000L;
+        long maxDelay = context.getResources().getInteger(R.integer.makkelijkemarkt_api_outbox_retry_max_delay_seconds) * 1000L;
+        long delay = Math.min(minDelay << Math.min(attempts - 1, 16), maxDelay);
+
+        mRetryAt = System.currentTimeMillis() + delay;
+        return delay;
+    }
+
+    /**
+     * Keep a write the api did not accept in the outbox as a conflict, together with the local
+     * row, and inform the subscribers so the write can be resent or discarded
+     * @param context the application context
+     * @param entry the write
+     * @param error the error message
+     */
+    private static void onConflict(Context context, final OutboxEntry entry, final String error) {
+        Utility.log(context, LOG_TAG, "Conflict sending " + entry.mMethod + " " + entry.mType + ": " + error);
+
+        ContentValues values = new ContentValues();
+        values.put(Outbox.COL_STATUS, Outbox.STATUS_CONFLICT);
+        values.put(Outbox.COL_ERROR, error);
+        context.getContentResolver().update(
+                MakkelijkeMarktProvider.mUriOutbox,
+                values,
+                Outbox.COL_ID + " = ? ",
+                new String[] { String.valueOf(entry.mId) });
+
+        postConflictEvent(new OnConflictEvent(entry.mId, entry.mType, entry.mMethod, error));
+    }
+
+    /**
+     * Report a write for a row that was created locally and that we can not find anymore, for
+     * example when the app was restarted after the row was posted, instead of dropping it silently
+     * @param context the context
+     * @param type one of the Outbox.TYPE_ constants
+     * @param id the temporary id of the row
+     */
+    private static void onUnknownRow(Context context, String type, int id) {
+        String error = "Unknown local id " + id;
+        Utility.log(context, LOG_TAG, "Conflict queueing " + Outbox.METHOD_PUT + " " + type + ": " + error);
+        postConflictEvent(new OnConflictEvent(-1, type, Outbox.METHOD_PUT, error));
+    }
+
+    /**
+     * Post a conflict event on the main thread
+     * @param event the event
+     */
+    private static void postConflictEvent(final OnConflictEvent event) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                EventBus.getDefault().post(event);
+            }
+        });
+    }
+
+    /**
+     * Update a row locally and queue the put, using the id the api gave the row if it changed
+     * @param context the context
+     * @param type one of the Outbox.TYPE_ constants
+     * @param id the id of the row
+     * @param values the changed local values
+     * @param payload the json payload for the api
+     */
+    private static void put(Context context, String type, int id, ContentValues values, JsonObject payload) {
+        synchronized (mLock) {
+            id = getApiId(type, id);
+
+            ContentProviderOperation put = createPutOperation(context, type, id, payload);
+            if (put == null) {
+                onUnknownRow(context, type, id);
+                return;
+            }
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newUpdate(getUri(type))
+                    .withSelection(BaseColumns._ID + " = ? ", new String[] { String.valueOf(id) })
+                    .withValues(values)
+                    .build());
+            operations.add(put);
+            apply(context, operations);
+        }
+    }
+
+    /**
+     * Get the id the api gave a row
+     * @param type one of the Outbox.TYPE_ constants
+     * @param id the id of the row as known by the caller
+     * @return the current id of the row
+     */
+    private static int getApiId(String type, int id) {
+        Integer apiId = mApiIds.get(getKey(type, id));
+        while (apiId != null) {
+            id = apiId;
+            apiId = mApiIds.get(getKey(type, id));
+        }
+        return id;
+    }
+
+    /**
+     * Get the key of a row in the api ids
+     * @param type one of the Outbox.TYPE_ constants
+     * @param id the id of the row
+     * @return the key
+     */
+    private static String getKey(String type, int id) {
+        return type + id;
+    }
+
+    /**
+     * Apply the local changes and the outbox writes in one batch, and start sending them
+     * @param context the context
+     * @param operations the operations
+     */
+    private static void apply(Context context, ArrayList<ContentProviderOperation> operations) {
+        applyBatch(context, operations);
+        flush(context);
+    }
+
+    /**
+     * Apply the operations in one batch
+     * @param context the context
+     * @param operations the operations
+     */
+    private static void applyBatch(Context context, ArrayList<ContentProviderOperation> operations) {
+        try {
+            context.getContentResolver().applyBatch(MakkelijkeMarktProvider.mAuthority, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Utility.log(context, LOG_TAG, "Failed to update outbox: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create the operation for a put: a new put write, or for a row that was not posted yet an
+     * update of the payload of the queued or conflicted post with the values of the put
+     * @param context the context
+     * @param type one of the Outbox.TYPE_ constants
+     * @param id the id of the row
+     * @param payload the json payload
+     * @return the operation, or null if the row was not posted yet and its post is not in the outbox
+     */
+    private static ContentProviderOperation createPutOperation(Context context, String type, int id, JsonObject payload) {
+        if (id < 0) {
+            String selection = Outbox.COL_TYPE + " = ? AND " + Outbox.COL_ENTITY_ID + " = ? AND " +
+                    Outbox.COL_METHOD + " = ? AND " + Outbox.COL_STATUS + " IN (?, ?) ";
+            String[] selectionArgs = new String[] {
+                    type, String.valueOf(id), Outbox.METHOD_POST, Outbox.STATUS_PENDING, Outbox.STATUS_CONFLICT };
+
+            // merge the values of the put into the payload of the post
+            JsonObject postPayload = null;
+            Cursor outbox = context.getContentResolver().query(
+                    MakkelijkeMarktProvider.mUriOutbox,
+                    new String[] { Outbox.COL_PAYLOAD },
+                    selection,
+                    selectionArgs,
+                    null);
+            if (outbox != null) {
+                if (outbox.moveToFirst()) {
+                    postPayload = new JsonParser().parse(outbox.getString(0)).getAsJsonObject();
+                }
+                outbox.close();
+            }
+            if (postPayload == null) {
+                return null;
+            }
+            for (Map.Entry<String, JsonElement> value : payload.entrySet()) {
+                postPayload.add(value.getKey(), value.getValue());
+            }
+
+            return ContentProviderOperation.newUpdate(MakkelijkeMarktProvider.mUriOutbox)
+                    .withSelection(selection, selectionArgs)
+                    .withValue(Outbox.COL_PAYLOAD, postPayload.toString())
+                    .build();
+        }
+
+        return createOutboxInsert(context, type, Outbox.METHOD_PUT, id, payload);
+    }
+
+    /**
+     * Create the operation inserting a write of the logged in account into the outbox
+     * @param context the context
+     * @param type one of the Outbox.TYPE_ constants
+     * @param method one of the Outbox.METHOD_ constants
+     * @param id the id of the row
+     * @param payload the json payload, or null
+     * @return the operation
+     */
+    private static ContentProviderOperation createOutboxInsert(Context context, String type, String method, int id, JsonObject payload) {
+        return createOutboxInsert(type, method, id, payload, getAccountId(context));
+    }
+
+    /**
+     * Create the operation inserting a write into the outbox
+     * @param type one of the Outbox.TYPE_ constants
+     * @param method one of the Outbox.METHOD_ constants
+     * @param id the id of the row
+     * @param payload the json payload, or null
+     * @param accountId the id of the account that made the write
+     * @return the operation
+     */
+    private static ContentProviderOperation createOutboxInsert(String type, String method, int id, JsonObject payload, int accountId) {
+        return ContentProviderOperation.newInsert(MakkelijkeMarktProvider.mUriOutbox)
+                .withValue(Outbox.COL_IDEMPOTENCY_KEY, UUID.randomUUID().toString())
+                .withValue(Outbox.COL_TYPE, type)
+                .withValue(Outbox.COL_METHOD, method)
+                .withValue(Outbox.COL_ENTITY_ID, id)
+                .withValue(Outbox.COL_PAYLOAD, payload != null ? payload.toString() : null)
+                .withValue(Outbox.COL_ATTEMPTS, 0)
+                .withValue(Outbox.COL_STATUS, Outbox.STATUS_PENDING)
+                .withValue(Outbox.COL_ACCOUNT_ID, accountId)
+                .build();
+    }
+
+    /**
+     * Get the id of the logged in account
+     * @param context the context
+     * @return the account id, or -1
+     */
+    private static int getAccountId(Context context) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        return settings.getInt(context.getString(R.string.sharedpreferences_key_account_id), -1);
+    }
+
+    /**
+     * Get the api-key of the logged in account
+     * @param context the context
+     * @return the api-key, or null when nobody is logged in
+     */
+    private static String getApiKey(Context context) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        return settings.getString(context.getString(R.string.sharedpreferences_key_uuid), null);
+    }
+
+    /**
+     * Create a temporary id for a new row, below the lowest id in the table and below zero so it
+     * never collides with the ids of the api, and below the temporary ids handed out before so a
+     * screen that still has the id of a posted row never ends up at a new row
+     * @param context the context
+     * @param uri the table uri
+     * @return the temporary id
+     */
+    private static int createLocalId(Context context, Uri uri) {
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        String key = context.getString(R.string.sharedpreferences_key_outbox_local_id);
+        int minId = settings.getInt(key, 0);
+
+        Cursor cursor = context.getContentResolver().query(
+                uri,
+                new String[] { "MIN(" + BaseColumns._ID + ")" },
+                null,
+                null,
+                null);
+
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                minId = Math.min(cursor.getInt(0), minId);
+            }
+            cursor.close();
+        }
+
+        settings.edit().putInt(key, minId - 1).apply();
+
+        return minId - 1;
+    }
+
+    /**
+     * Get the table uri for an outbox type
+     * @param type one of the Outbox.TYPE_ constants
+     * @return the table uri, or null
+     */
+    private static Uri getUri(String type) {
+        if (type.equals(Outbox.TYPE_DAGVERGUNNING)) {
+            return MakkelijkeMarktProvider.mUriDagvergunning;
+        } else if (type.equals(Outbox.TYPE_NOTITIE)) {
+            return MakkelijkeMarktProvider.mUriNotitie;
+        }
+        return null;
+    }
+
+    /**
+     * A write read from the outbox
+     */
+    private static class OutboxEntry {
+        private final long mId;
+        private final String mIdempotencyKey;
+        private final String mType;
+        private final String mMethod;
+        private final int mEntityId;
+        private final String mPayload;
+        private final int mAttempts;
+        private final int mAccountId;
+
+        /**
+         * Read the write from the current row of the cursor
+         * @param cursor the outbox cursor
+         */
+        private OutboxEntry(Cursor cursor) {
+            mId = cursor.getLong(cursor.getColumnIndex(Outbox.COL_ID));
+            mIdempotencyKey = cursor.getString(cursor.getColumnIndex(Outbox.COL_IDEMPOTENCY_KEY));
+            mType = cursor.getString(cursor.getColumnIndex(Outbox.COL_TYPE));
+            mMethod = cursor.getString(cursor.getColumnIndex(Outbox.COL_METHOD));
+            mEntityId = cursor.getInt(cursor.getColumnIndex(Outbox.COL_ENTITY_ID));
+            mPayload = cursor.getString(cursor.getColumnIndex(Outbox.COL_PAYLOAD));
+            mAttempts = cursor.getInt(cursor.getColumnIndex(Outbox.COL_ATTEMPTS));
+            mAccountId = cursor.getInt(cursor.getColumnIndex(Outbox.COL_ACCOUNT_ID));
+        }
+
+        /**
+         * Parse the stored json payload
+         * @return the payload as gson object
+         */
+        private JsonObject getPayload() {
+            return new JsonParser().parse(mPayload).getAsJsonObject();
+        }
+    }
+
+    /**
+     * Event to inform subscribers that the api did not accept a write from the outbox. The outbox
+     * id can be used to resend or discard the write, it is -1 when there is no write to resend
+     */
+    public static class OnConflictEvent {
+        public final long mOutboxId;
+        public final String mType;
+        public final String mMethod;
+        public final String mMessage;
+
+        public OnConflictEvent(long outboxId, String type, String method, String message) {
+            mOutboxId = outboxId;
+            mType = type;
+            mMethod = method;
+            mMessage = message;
+        }
+    }
+}
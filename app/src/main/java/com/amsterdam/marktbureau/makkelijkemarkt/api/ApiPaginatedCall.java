@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.content.Context;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Base class for api calls that fetch a list in pages using the listOffset and listLength params.
+ * The first page tells us the total list size in the X-Api-ListSize header, after which the
+ * remaining pages are fetched concurrently and read into the database in the order they arrive.
+ * When all pages are read onCompleted is called once on the main thread
+ * @author marcolangebeeke
+ */
+public abstract class ApiPaginatedCall extends ApiCall {
+
+    // use classname when logging
+    private static final String LOG_TAG = ApiPaginatedCall.class.getSimpleName();
+
+    // maximum number of pages we fetch and read at the same time
+    public static final int mMaxConcurrentPages = 3;
+
+    // number of items per page
+    protected int mListLength = 1000;
+
+    // offsets of the pages that still need to be fetched
+    private LinkedList<Integer> mPendingOffsets = new LinkedList<>();
+
+    // pages that are being fetched or read, and the pages that are not done yet
+    private int mPagesInProgress = 0;
+    private int mPagesRemaining = 0;
+
+    // total list size from the first page, or -1 if unknown
+    private int mTotalListSize = -1;
+
+    // the first error message, if any page failed
+    private String mErrorMessage;
+
+    /**
+     * Call the superclass constructor to set the context
+     * @param context the context
+     */
+    public ApiPaginatedCall(Context context) {
+        super(context);
+    }
+
+    /**
+     * Create the api call for the page at given offset
+     * @param listOffset offset of the page
+     * @param listLength length of the page
+     * @return the retrofit call returning a streaming response body
+     */
+    protected abstract Call<ResponseBody> createPageCall(int listOffset, int listLength);
+
+    /**
+     * Read a page from the streaming response body into the database. This runs on one of the
+     * reader threads, possibly at the same time as other pages
+     * @param body the response body of the page
+     * @return the number of items read
+     * @throws IOException when reading the response fails
+     */
+    protected abstract int readPage(ResponseBody body) throws IOException;
+
+    /**
+     * Called once on the main thread when all pages have been read, or when fetching failed
+     * @param totalListSize the total number of items (0 for an empty list), or -1 on failure
+     * @param message an error message, or null on success
+     */
+    protected abstract void onCompleted(int totalListSize, String message);
+
+    /**
+     * Check if the database has the items of the pages up to the given number of items, so a page
+     * that did not change since we last fetched it does not need to be read again. By default the
+     * page is always read. This runs on one of the reader threads
+     * @param itemCount the number of items up to and including the page
+     * @return true if the items are in the database
+     */
+    protected boolean hasLocalItems(int itemCount) {
+        return false;
+    }
+
+    /**
+     * Enqueue the call for the first page
+     */
+    @Override
+    public boolean enqueue() {
+        if (super.enqueue()) {
+            if (mPagesRemaining == 0) {
+                mPendingOffsets.clear();
+                mPagesInProgress = 0;
+                mTotalListSize = -1;
+                mErrorMessage = null;
+
+                // the first page is remaining until we know how many there are
+                mPagesRemaining = 1;
+                enqueuePage(0);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Enqueue the call for the page at given offset
+     * @param listOffset offset of the page
+     */
+    private void enqueuePage(final int listOffset) {
+        mPagesInProgress++;
+
+        createPageCall(listOffset, mListLength).enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(Response<ResponseBody> response) {
+                onPageResponse(listOffset, response);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                onPageDone(-1, t.getMessage());
+            }
+        });
+    }
+
+    /**
+     * When the first page arrives, queue the remaining pages. Then read the page on a reader thread,
+     * unless it did not change since we last fetched it and its items are still in the database
+     * @param listOffset offset of the page
+     * @param response the response of the page
+     */
+    private void onPageResponse(int listOffset, Response<ResponseBody> response) {
+        final ResponseBody body = response.body();
+        if (body == null) {
+
+            // on empty body send an error message
+            onPageDone(-1, "Empty response body");
+            return;
+        }
+
+        if (listOffset == 0) {
+            String listSize = response.headers().get(
+                    mContext.getString(R.string.makkelijkemarkt_api_x_listsize_header_name));
+            try {
+                mTotalListSize = Integer.valueOf(listSize);
+            } catch (NumberFormatException e) {
+                mErrorMessage = "Failed to get X-Api-ListSize";
+            }
+
+            // queue the offsets of the remaining pages and start fetching them
+            for (int offset = mListLength; offset < mTotalListSize; offset += mListLength) {
+                mPendingOffsets.add(offset);
+                mPagesRemaining++;
+            }
+            enqueuePendingPages();
+        }
+
+        // when the server told us the page did not change, we only read it again from the http
+        // cache if its items are not in the database anymore
+        final boolean notModified = isNotModified(response);
+        final int itemCount = Math.min(listOffset + mListLength, mTotalListSize);
+
+        ApiStreamReader.execute(new Runnable() {
+            @Override
+            public void run() {
+                int count = -1;
+                String message = null;
+                try {
+                    count = notModified && hasLocalItems(itemCount) ? 0 : readPage(body);
+                } catch (IOException | IllegalStateException | NumberFormatException e) {
+                    message = e.getMessage();
+                    Utility.log(mContext, LOG_TAG, "Failed to read page: " + message);
+                } finally {
+                    body.close();
+                }
+
+                final int pageCount = count;
+                final String pageMessage = message;
+                ApiStreamReader.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageDone(pageCount, pageMessage);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Enqueue pending pages as long as we are below the maximum number of concurrent pages
+     */
+    private void enqueuePendingPages() {
+        while (mPagesInProgress < mMaxConcurrentPages && !mPendingOffsets.isEmpty()) {
+            enqueuePage(mPendingOffsets.removeFirst());
+        }
+    }
+
+    /**
+     * When a page is done start the next one, and when all pages are done call onCompleted
+     * @param count the number of items read, or -1 on failure
+     * @param message error message on failure
+     */
+    private void onPageDone(int count, String message) {
+        mPagesInProgress--;
+        mPagesRemaining--;
+
+        if (count == -1 && mErrorMessage == null) {
+            mErrorMessage = message != null ? message : "Failed to read page";
+        }
+
+        // stop fetching more pages after a failure
+        if (mErrorMessage != null) {
+            mPagesRemaining -= mPendingOffsets.size();
+            mPendingOffsets.clear();
+        } else {
+            enqueuePendingPages();
+        }
+
+        if (mPagesRemaining == 0) {
+            if (mErrorMessage != null) {
+                onCompleted(-1, mErrorMessage);
+            } else {
+                onCompleted(mTotalListSize, null);
+            }
+        }
+    }
+}
@@ -10,14 +10,31 @@
 package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LruCache;
 
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 import retrofit2.Call;
 import retrofit2.Callback;
+import retrofit2.Response;
 
 /**
- *
+ * Post a dagvergunning to the api to get a concept factuur. The concept facturen are kept in a
+ * small memory cache for a short time, keyed by markt, dag and a hash of the payload, so switching
+ * between the tabs of the dagvergunning wizard without changes does not post it again. When the
+ * same payload is already being posted, the callback waits for that response
  * @author marcolangebeeke
  */
 public class ApiPostDagvergunningConcept extends ApiCall {
@@ -25,6 +42,18 @@ public class ApiPostDagvergunningConcept extends ApiCall {
     // use classname when logging
     private static final String LOG_TAG = ApiPostDagvergunningConcept.class.getSimpleName();
 
+    // number of concept facturen we keep in memory
+    private static final int mCacheSize = 20;
+
+    // cached concept factuur responses by key
+    private static final LruCache<String, CacheEntry> mCache = new LruCache<>(mCacheSize);
+
+    // callbacks waiting for the response of a post that is in progress, by key
+    private static final HashMap<String, List<Callback<JsonObject>>> mInFlight = new HashMap<>();
+
+    // post the cached responses to the main thread, like the responses of the network calls
+    private static final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     /**
      * Call the superclass constructor to set the context
      * @param context the context
@@ -34,24 +63,118 @@ public class ApiPostDagvergunningConcept extends ApiCall {
     }
 
     /**
-     * Enqueue the async post
+     * Serve the concept factuur from the cache, or wait for the same post in progress, or enqueue
+     * the async post. The callback is called on the main thread
      * @param callback the object that will process the api response
      */
     @Override
+    @SuppressWarnings("unchecked")
     public boolean enqueue(Callback callback) {
-        if (super.enqueue(callback)) {
+        if (callback == null || mPayload == null) {
+            return super.enqueue(callback);
+        }
 
-            // if we have a payload we set the function to call and enqueue the async request
-            if (callback != null && mPayload != null) {
-                Call<JsonObject> call = mMakkelijkeMarktApi.postDagvergunningConcept(mPayload);
+        final String key = createKey(mPayload);
 
-                // call the api asynchronously
-                call.enqueue(callback);
+        // serve a cached concept factuur that is still fresh, without using the network
+        final CacheEntry cacheEntry = mCache.get(key);
+        long ttl = mContext.getResources().getInteger(R.integer.makkelijkemarkt_api_dagvergunning_concept_cache_ttl_seconds) * 1000L;
+        if (cacheEntry != null) {
+            if (SystemClock.elapsedRealtime() - cacheEntry.mCreated < ttl) {
+                final Callback<JsonObject> cachedCallback = callback;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        cachedCallback.onResponse(cacheEntry.mResponse);
+                    }
+                });
+                return true;
             }
+            mCache.remove(key);
+        }
+
+        // the same concept is already being posted, so wait for its response
+        List<Callback<JsonObject>> waiting = mInFlight.get(key);
+        if (waiting != null) {
+            waiting.add(callback);
+            return true;
+        }
+
+        if (super.enqueue(callback)) {
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            mInFlight.put(key, waiting);
+
+            // call the api asynchronously
+            Call<JsonObject> call = mMakkelijkeMarktApi.postDagvergunningConcept(mPayload);
+            call.enqueue(new Callback<JsonObject>() {
+                @Override
+                public void onResponse(Response<JsonObject> response) {
+                    if (response.isSuccess() && response.body() != null) {
+                        mCache.put(key, new CacheEntry(response));
+                    }
+                    for (Callback<JsonObject> callback : mInFlight.remove(key)) {
+                        callback.onResponse(response);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    for (Callback<JsonObject> callback : mInFlight.remove(key)) {
+                        callback.onFailure(t);
+                    }
+                }
+            });
 
             return true;
         }
 
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Forget the cached concept facturen, when the user logs out
+     */
+    public static void clearCache() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Create the cache key of a payload from the markt, the dag, and a hash of the other values.
+     * The registratie datumtijd and geolocatie change on every post but do not change the factuur,
+     * so they are left out
+     * @param payload the dagvergunning payload
+     * @return the cache key
+     */
+    private String createKey(JsonObject payload) {
+        String marktId = mContext.getString(R.string.makkelijkemarkt_api_dagvergunning_payload_markt_id);
+        String dag = mContext.getString(R.string.makkelijkemarkt_api_dagvergunning_payload_dag);
+
+        TreeMap<String, JsonElement> values = new TreeMap<>();
+        for (Map.Entry<String, JsonElement> value : payload.entrySet()) {
+            values.put(value.getKey(), value.getValue());
+        }
+        values.remove(mContext.getString(R.string.makkelijkemarkt_api_dagvergunning_payload_registratie_datumtijd));
+        values.remove(mContext.getString(R.string.makkelijkemarkt_api_dagvergunning_payload_registratie_geolocatie));
+
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, JsonElement> value : values.entrySet()) {
+            content.append(value.getKey()).append('=').append(value.getValue()).append('\n');
+        }
+
+        return payload.get(marktId) + "/" + payload.get(dag) + "/" + Utility.sha1Hex(content.toString());
+    }
+
+    /**
+     * A cached concept factuur response, and when we received it
+     */
+    private static class CacheEntry {
+        private final Response<JsonObject> mResponse;
+        private final long mCreated;
+
+        private CacheEntry(Response<JsonObject> response) {
+            mResponse = response;
+            mCreated = SystemClock.elapsedRealtime();
+        }
+    }
+}
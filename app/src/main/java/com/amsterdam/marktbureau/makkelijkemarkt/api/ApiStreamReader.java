@@ -0,0 +1,521 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Read the paginated sollicitaties and koopmannen responses from the api as a stream into content
+ * values, instead of first building the complete list of model objects of a page in memory, and
+ * write the rows of each page to the database in one batch, so a page is one transaction and one
+ * round of change notifications
+ * @author marcolangebeeke
+ */
+public class ApiStreamReader {
+
+    // use classname when logging
+    private static final String LOG_TAG = ApiStreamReader.class.getSimpleName();
+
+    // a reader thread for each page that can be fetched at the same time
+    private static final ExecutorService mExecutor = Executors.newFixedThreadPool(ApiPaginatedCall.mMaxConcurrentPages);
+
+    // handler for posting the results back to the main thread
+    private static final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Run a task on one of the reader threads
+     * @param task the task to run
+     */
+    public static void execute(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Run a task on the main thread
+     * @param task the task to run
+     */
+    public static void postToMainThread(Runnable task) {
+        mMainHandler.post(task);
+    }
+
+    /**
+     * Count the rows of a table in the database
+     * @param context the context
+     * @param uri the table uri
+     * @param selection the selection, or null for all rows
+     * @param selectionArgs the selection arguments
+     * @return the number of rows
+     */
+    static int count(Context context, Uri uri, String selection, String[] selectionArgs) {
+        int count = 0;
+
+        Cursor cursor = context.getContentResolver().query(
+                uri,
+                new String[] { "COUNT(*)" },
+                selection,
+                selectionArgs,
+                null);
+
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+            cursor.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a json array of sollicitaties, and write the sollicitaties with their koopman and the
+     * vervangers of the koopman to the database in merge mode
+     * @param context the context
+     * @param body the streaming response body
+     * @return the number of sollicitaties read
+     * @throws IOException when reading the response fails
+     */
+    public static int readSollicitaties(Context context, ResponseBody body) throws IOException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        ArrayList<ContentValues> vervangers = new ArrayList<>();
+        int count = 0;
+
+        JsonReader reader = new JsonReader(body.charStream());
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                ContentValues sollicitatieValues = createSollicitatieValues();
+                ContentValues koopmanValues = null;
+                vervangers.clear();
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_ID, nextInt(reader));
+                            break;
+                        case "sollicitatieNummer":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER, nextInt(reader));
+                            break;
+                        case "status":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_STATUS, nextString(reader));
+                            break;
+                        case "doorgehaald":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_DOORGEHAALD, nextBoolean(reader));
+                            break;
+                        case "doorgehaaldReden":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_DOORGEHAALD_REDEN, nextString(reader));
+                            break;
+                        case "vastePlaatsen":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_VASTE_PLAATSEN, nextCsv(reader));
+                            break;
+                        case "aantal3MeterKramen":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AANTAL_3METER_KRAMEN, nextInt(reader));
+                            break;
+                        case "aantal4MeterKramen":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AANTAL_4METER_KRAMEN, nextInt(reader));
+                            break;
+                        case "aantalExtraMeters":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_EXTRA_METERS, nextInt(reader));
+                            break;
+                        case "aantalElektra":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AANTAL_ELEKTRA, nextInt(reader));
+                            break;
+                        case "afvaleiland":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AFVALEILAND, nextInt(reader));
+                            break;
+                        case "krachtstroom":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_KRACHTSTROOM, nextBoolean(reader));
+                            break;
+                        case "reiniging":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_REINIGING, nextBoolean(reader));
+                            break;
+                        case "eenmaligElektra":
+                            sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_EENMALIG_ELEKTRA, nextBoolean(reader));
+                            break;
+                        case "markt":
+                            if (reader.peek() == JsonToken.NULL) {
+                                reader.nextNull();
+                            } else {
+                                sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID, readId(reader));
+                            }
+                            break;
+                        case "koopman":
+                            if (reader.peek() == JsonToken.NULL) {
+                                reader.nextNull();
+                            } else {
+                                koopmanValues = readKoopman(reader, vervangers);
+                            }
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                // like the list based sync, we only store sollicitaties that come with a koopman
+                if (koopmanValues != null) {
+                    int koopmanId = koopmanValues.getAsInteger(MakkelijkeMarktProvider.Koopman.COL_ID);
+
+                    operations.add(ContentProviderOperation.newInsert(
+                            MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriKoopman))
+                            .withValues(koopmanValues)
+                            .build());
+
+                    sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_KOOPMAN_ID, koopmanId);
+                    operations.add(ContentProviderOperation.newInsert(
+                            MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriSollicitatie))
+                            .withValues(sollicitatieValues)
+                            .build());
+
+                    for (ContentValues vervangerValues : vervangers) {
+                        vervangerValues.put(MakkelijkeMarktProvider.Vervanger.COL_ID,
+                                koopmanId + "-" + vervangerValues.getAsInteger(MakkelijkeMarktProvider.Vervanger.COL_VERVANGER_ID));
+                        vervangerValues.put(MakkelijkeMarktProvider.Vervanger.COL_KOOPMAN_ID, koopmanId);
+                        operations.add(ContentProviderOperation.newInsert(
+                                MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriVervanger))
+                                .withValues(vervangerValues)
+                                .build());
+                    }
+                }
+                count++;
+            }
+            reader.endArray();
+
+            // write the page in one batch
+            applyBatch(context, operations);
+        } finally {
+            reader.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a json array of koopmannen, and write them to the database in merge mode
+     * @param context the context
+     * @param body the streaming response body
+     * @return the number of koopmannen read
+     * @throws IOException when reading the response fails
+     */
+    public static int readKoopmannen(Context context, ResponseBody body) throws IOException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int count = 0;
+
+        JsonReader reader = new JsonReader(body.charStream());
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+
+                // the vervangers of the koopmannen are not stored by the list based sync either
+                operations.add(ContentProviderOperation.newInsert(
+                        MakkelijkeMarktProvider.createMergeUri(MakkelijkeMarktProvider.mUriKoopman))
+                        .withValues(readKoopman(reader, null))
+                        .build());
+                count++;
+            }
+            reader.endArray();
+
+            // write the page in one batch
+            applyBatch(context, operations);
+        } finally {
+            reader.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Create the sollicitatie values with the same defaults as the ApiSollicitatie model, so the
+     * merge hashes match the rows written from the model objects
+     * @return the sollicitatie values
+     */
+    private static ContentValues createSollicitatieValues() {
+        ContentValues sollicitatieValues = new ContentValues();
+
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_ID, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_SOLLICITATIE_NUMMER, 0);
+        sollicitatieValues.putNull(MakkelijkeMarktProvider.Sollicitatie.COL_STATUS);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_DOORGEHAALD, false);
+        sollicitatieValues.putNull(MakkelijkeMarktProvider.Sollicitatie.COL_DOORGEHAALD_REDEN);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_VASTE_PLAATSEN, "");
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_KOOPMAN_ID, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AANTAL_3METER_KRAMEN, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AANTAL_4METER_KRAMEN, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_EXTRA_METERS, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AANTAL_ELEKTRA, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_AFVALEILAND, 0);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_KRACHTSTROOM, false);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_REINIGING, false);
+        sollicitatieValues.put(MakkelijkeMarktProvider.Sollicitatie.COL_EENMALIG_ELEKTRA, false);
+
+        return sollicitatieValues;
+    }
+
+    /**
+     * Read a koopman object into contentvalues, with the same defaults as the ApiKoopman model
+     * @param reader the reader positioned at the koopman object
+     * @param vervangers optional list to add the vervangers of the koopman to
+     * @return the koopman values
+     * @throws IOException when reading the response fails
+     */
+    private static ContentValues readKoopman(JsonReader reader, ArrayList<ContentValues> vervangers) throws IOException {
+        ContentValues koopmanValues = new ContentValues();
+
+        koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_ID, 0);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_TELEFOON);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_EMAIL);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL);
+        koopmanValues.putNull(MakkelijkeMarktProvider.Koopman.COL_STATUS);
+        koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_PERFECTVIEWNUMMER, 0);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_ID, nextInt(reader));
+                    break;
+                case "erkenningsnummer":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER, nextString(reader));
+                    break;
+                case "voorletters":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_VOORLETTERS, nextString(reader));
+                    break;
+                case "achternaam":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_ACHTERNAAM, nextString(reader));
+                    break;
+                case "telefoon":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_TELEFOON, nextString(reader));
+                    break;
+                case "email":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_EMAIL, nextString(reader));
+                    break;
+                case "fotoUrl":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL, nextString(reader));
+                    break;
+                case "fotoMediumUrl":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_FOTO_MEDIUM_URL, nextString(reader));
+                    break;
+                case "status":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_STATUS, nextString(reader));
+                    break;
+                case "perfectViewNummer":
+                    koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_PERFECTVIEWNUMMER, nextInt(reader));
+                    break;
+                case "pasUid":
+
+                    // uppercase the nfc uid if we have one
+                    String pasUid = nextString(reader);
+                    if (pasUid != null) {
+                        koopmanValues.put(MakkelijkeMarktProvider.Koopman.COL_PAS_UID, pasUid.toUpperCase());
+                    }
+                    break;
+                case "vervangers":
+                    if (vervangers != null && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            if (reader.peek() == JsonToken.NULL) {
+                                reader.nextNull();
+                            } else {
+                                vervangers.add(readVervanger(reader));
+                            }
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return koopmanValues;
+    }
+
+    /**
+     * Read a vervanger object into contentvalues. The id and koopman id are set by the caller
+     * once the koopman has been read completely
+     * @param reader the reader positioned at the vervanger object
+     * @return the vervanger values
+     * @throws IOException when reading the response fails
+     */
+    private static ContentValues readVervanger(JsonReader reader) throws IOException {
+        ContentValues vervangerValues = new ContentValues();
+        vervangerValues.put(MakkelijkeMarktProvider.Vervanger.COL_VERVANGER_ID, 0);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "vervanger_id":
+                    vervangerValues.put(MakkelijkeMarktProvider.Vervanger.COL_VERVANGER_ID, nextInt(reader));
+                    break;
+                case "pas_uid":
+
+                    // uppercase the nfc uid if we have one
+                    String pasUid = nextString(reader);
+                    if (pasUid != null) {
+                        vervangerValues.put(MakkelijkeMarktProvider.Vervanger.COL_PAS_UID, pasUid.toUpperCase());
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return vervangerValues;
+    }
+
+    /**
+     * Read only the id of a nested object and skip the rest of it
+     * @param reader the reader positioned at the object
+     * @return the id, or 0 if the object has no id
+     * @throws IOException when reading the response fails
+     */
+    private static int readId(JsonReader reader) throws IOException {
+        int id = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("id")) {
+                id = nextInt(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return id;
+    }
+
+    /**
+     * Read a string value, or null for a json null
+     * @param reader the reader
+     * @return the string value or null
+     * @throws IOException when reading the response fails
+     */
+    static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Read an int value, or 0 for a json null
+     * @param reader the reader
+     * @return the int value
+     * @throws IOException when reading the response fails
+     */
+    static int nextInt(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt();
+    }
+
+    /**
+     * Read a boolean value, or false for a json null
+     * @param reader the reader
+     * @return the boolean value
+     * @throws IOException when reading the response fails
+     */
+    static boolean nextBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        } else if (reader.peek() == JsonToken.STRING) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Read an array of strings as a comma separated string, or an empty string for a json null
+     * @param reader the reader
+     * @return the comma separated string
+     * @throws IOException when reading the response fails
+     */
+    private static String nextCsv(JsonReader reader) throws IOException {
+        StringBuilder csv = new StringBuilder();
+
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+        } else {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String value = nextString(reader);
+                if (csv.length() > 0) {
+                    csv.append(",");
+                }
+                csv.append(value);
+            }
+            reader.endArray();
+        }
+
+        return csv.toString();
+    }
+
+    /**
+     * Write the operations of a page in one batch and clear the list
+     * @param context the context
+     * @param operations the operations to apply
+     * @throws IOException when the batch could not be written, so the page fails instead of
+     * counting rows that were not stored
+     */
+    private static void applyBatch(Context context, ArrayList<ContentProviderOperation> operations) throws IOException {
+        if (operations.size() > 0) {
+            try {
+                context.getContentResolver().applyBatch(MakkelijkeMarktProvider.mAuthority, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Utility.log(context, LOG_TAG, "Failed to store page: " + e.getMessage());
+                throw new IOException("Failed to store page: " + e.getMessage(), e);
+            } finally {
+                operations.clear();
+            }
+        }
+    }
+}
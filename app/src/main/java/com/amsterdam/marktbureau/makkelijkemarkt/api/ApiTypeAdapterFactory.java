@@ -0,0 +1,644 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiAccount;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiDagvergunning;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiKoopman;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiMarkt;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiNotitie;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiSollicitatie;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiVervanger;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates hand-written gson type adapters for the api model classes, which read the json straight
+ * into the model using its setters, instead of through reflection. Unknown names are skipped. A
+ * json null value is skipped too, so the field keeps the value the model initializes it with. This
+ * differs from the reflective adapters, which set a non-primitive field to null: a null list like
+ * vastePlaatsen is now read as an empty list instead of null. The models are only received from
+ * the api, so writing them is left to the reflective adapters
+ * @author marcolangebeeke
+ */
+public class ApiTypeAdapterFactory implements TypeAdapterFactory {
+
+    // the shared gson instance with the api model type adapters registered
+    private static Gson mGson = null;
+
+    // the readers of the nested models
+    private final MarktReader mMarktReader = new MarktReader();
+    private final AccountReader mAccountReader = new AccountReader();
+    private final VervangerReader mVervangerReader = new VervangerReader();
+    private final SollicitatieReader mSollicitatieReader = new SollicitatieReader();
+    private final KoopmanReader mKoopmanReader = new KoopmanReader();
+    private final DagvergunningReader mDagvergunningReader = new DagvergunningReader();
+    private final NotitieReader mNotitieReader = new NotitieReader();
+
+    /**
+     * Get the shared gson instance, and create it on first use
+     * @return the gson instance
+     */
+    public static synchronized Gson getGson() {
+        if (mGson == null) {
+            mGson = new GsonBuilder()
+                    .registerTypeAdapterFactory(new ApiTypeAdapterFactory())
+                    .create();
+        }
+
+        return mGson;
+    }
+
+    /**
+     * Create a type adapter for an api model class
+     * @param gson the gson instance
+     * @param type the type
+     * @return the type adapter, or null if the type is not an api model
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+
+        ModelReader<?> reader;
+        if (rawType == ApiMarkt.class) {
+            reader = mMarktReader;
+        } else if (rawType == ApiAccount.class) {
+            reader = mAccountReader;
+        } else if (rawType == ApiVervanger.class) {
+            reader = mVervangerReader;
+        } else if (rawType == ApiSollicitatie.class) {
+            reader = mSollicitatieReader;
+        } else if (rawType == ApiKoopman.class) {
+            reader = mKoopmanReader;
+        } else if (rawType == ApiDagvergunning.class) {
+            reader = mDagvergunningReader;
+        } else if (rawType == ApiNotitie.class) {
+            reader = mNotitieReader;
+        } else {
+            return null;
+        }
+
+        return new ModelAdapter<>((ModelReader<T>) reader, gson.getDelegateAdapter(this, type));
+    }
+
+    /**
+     * Type adapter reading a model with its hand-written reader, and writing it with the
+     * reflective adapter
+     */
+    private static class ModelAdapter<T> extends TypeAdapter<T> {
+        private final ModelReader<T> mReader;
+        private final TypeAdapter<T> mDelegate;
+
+        private ModelAdapter(ModelReader<T> reader, TypeAdapter<T> delegate) {
+            mReader = reader;
+            mDelegate = delegate;
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            return mReader.read(in);
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            mDelegate.write(out, value);
+        }
+    }
+
+    /**
+     * Reads a json object into a new model, one name at a time
+     */
+    private static abstract class ModelReader<T> {
+
+        /**
+         * Read a model, or null for a json null
+         * @param in the reader
+         * @return the model or null
+         * @throws IOException when reading the json fails
+         */
+        T read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            T model = create();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+
+                // a null value keeps the initial value of the field
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (!readValue(in, name, model)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return model;
+        }
+
+        /**
+         * Read an array of models
+         * @param in the reader
+         * @return the list of models
+         * @throws IOException when reading the json fails
+         */
+        List<T> readList(JsonReader in) throws IOException {
+            List<T> models = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                models.add(read(in));
+            }
+            in.endArray();
+
+            return models;
+        }
+
+        /**
+         * Create a new model
+         * @return the model
+         */
+        abstract T create();
+
+        /**
+         * Read the value of a name into the model
+         * @param in the reader, positioned on a value that is not null
+         * @param name the name of the value
+         * @param model the model
+         * @return false if the name is unknown, and the value was not read
+         * @throws IOException when reading the json fails
+         */
+        abstract boolean readValue(JsonReader in, String name, T model) throws IOException;
+    }
+
+    /**
+     * Read an array of strings
+     * @param in the reader
+     * @return the list of strings
+     * @throws IOException when reading the json fails
+     */
+    private static List<String> readStringList(JsonReader in) throws IOException {
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(ApiStreamReader.nextString(in));
+        }
+        in.endArray();
+
+        return values;
+    }
+
+    /**
+     * Read an array of floats, like a geolocation
+     * @param in the reader
+     * @return the list of floats
+     * @throws IOException when reading the json fails
+     */
+    private static List<Float> readFloatList(JsonReader in) throws IOException {
+        List<Float> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                values.add(null);
+            } else {
+                values.add((float) in.nextDouble());
+            }
+        }
+        in.endArray();
+
+        return values;
+    }
+
+    /**
+     * Reader for the markt model
+     */
+    private static class MarktReader extends ModelReader<ApiMarkt> {
+
+        @Override
+        ApiMarkt create() {
+            return new ApiMarkt();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiMarkt markt) throws IOException {
+            switch (name) {
+                case "id":
+                    markt.setId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "afkorting":
+                    markt.setAfkorting(ApiStreamReader.nextString(in));
+                    return true;
+                case "naam":
+                    markt.setNaam(ApiStreamReader.nextString(in));
+                    return true;
+                case "geoArea":
+                    markt.setGeoArea(ApiStreamReader.nextString(in));
+                    return true;
+                case "soort":
+                    markt.setSoort(ApiStreamReader.nextString(in));
+                    return true;
+                case "marktDagen":
+                    markt.setMarktDagen(readStringList(in));
+                    return true;
+                case "standaardKraamAfmeting":
+                    markt.setStandaardKraamAfmeting(ApiStreamReader.nextInt(in));
+                    return true;
+                case "extraMetersMogelijk":
+                    markt.setExtraMetersMogelijk(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "aanwezigeOpties":
+                    markt.setAanwezigeOpties(readStringList(in));
+                    return true;
+                case "perfectViewNummer":
+                    markt.setPerfectViewNummer(ApiStreamReader.nextInt(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reader for the account model
+     */
+    private static class AccountReader extends ModelReader<ApiAccount> {
+
+        @Override
+        ApiAccount create() {
+            return new ApiAccount();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiAccount account) throws IOException {
+            switch (name) {
+                case "id":
+                    account.setId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "email":
+                    account.setEmail(ApiStreamReader.nextString(in));
+                    return true;
+                case "naam":
+                    account.setNaam(ApiStreamReader.nextString(in));
+                    return true;
+                case "username":
+                    account.setUsername(ApiStreamReader.nextString(in));
+                    return true;
+                case "roles":
+                    account.setRoles(readStringList(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reader for the vervanger model
+     */
+    private static class VervangerReader extends ModelReader<ApiVervanger> {
+
+        @Override
+        ApiVervanger create() {
+            return new ApiVervanger();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiVervanger vervanger) throws IOException {
+            switch (name) {
+                case "id":
+                    vervanger.setId(ApiStreamReader.nextString(in));
+                    return true;
+                case "koopman_id":
+                    vervanger.setKoopmanId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "vervanger_id":
+                    vervanger.setVervangerId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "pas_uid":
+                    vervanger.setPasUid(ApiStreamReader.nextString(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reader for the sollicitatie model
+     */
+    private class SollicitatieReader extends ModelReader<ApiSollicitatie> {
+
+        @Override
+        ApiSollicitatie create() {
+            return new ApiSollicitatie();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiSollicitatie sollicitatie) throws IOException {
+            switch (name) {
+                case "id":
+                    sollicitatie.setId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "sollicitatieNummer":
+                    sollicitatie.setSollicitatieNummer(ApiStreamReader.nextInt(in));
+                    return true;
+                case "status":
+                    sollicitatie.setStatus(ApiStreamReader.nextString(in));
+                    return true;
+                case "vastePlaatsen":
+                    sollicitatie.setVastePlaatsen(readStringList(in));
+                    return true;
+                case "doorgehaald":
+                    sollicitatie.setDoorgehaald(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "doorgehaaldReden":
+                    sollicitatie.setDoorgehaaldReden(ApiStreamReader.nextString(in));
+                    return true;
+                case "koopmanId":
+                    sollicitatie.setKoopmanId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantal3MeterKramen":
+                    sollicitatie.setAantal3MeterKramen(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantal4MeterKramen":
+                    sollicitatie.setAantal4MeterKramen(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantalExtraMeters":
+                    sollicitatie.setAantalExtraMeters(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantalElektra":
+                    sollicitatie.setAantalElektra(ApiStreamReader.nextInt(in));
+                    return true;
+                case "afvaleiland":
+                    sollicitatie.setAfvaleiland(ApiStreamReader.nextInt(in));
+                    return true;
+                case "krachtstroom":
+                    sollicitatie.setKrachtstroom(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "reiniging":
+                    sollicitatie.setReiniging(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "eenmaligElektra":
+                    sollicitatie.setEenmaligElektra(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "markt":
+                    sollicitatie.setMarkt(mMarktReader.read(in));
+                    return true;
+                case "koopman":
+                    sollicitatie.setKoopman(mKoopmanReader.read(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reader for the koopman model
+     */
+    private class KoopmanReader extends ModelReader<ApiKoopman> {
+
+        @Override
+        ApiKoopman create() {
+            return new ApiKoopman();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiKoopman koopman) throws IOException {
+            switch (name) {
+                case "id":
+                    koopman.setId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "erkenningsnummer":
+                    koopman.setErkenningsnummer(ApiStreamReader.nextString(in));
+                    return true;
+                case "voorletters":
+                    koopman.setVoorletters(ApiStreamReader.nextString(in));
+                    return true;
+                case "achternaam":
+                    koopman.setAchternaam(ApiStreamReader.nextString(in));
+                    return true;
+                case "telefoon":
+                    koopman.setTelefoon(ApiStreamReader.nextString(in));
+                    return true;
+                case "email":
+                    koopman.setEmail(ApiStreamReader.nextString(in));
+                    return true;
+                case "fotoUrl":
+                    koopman.setFotoUrl(ApiStreamReader.nextString(in));
+                    return true;
+                case "fotoMediumUrl":
+                    koopman.setFotoMediumUrl(ApiStreamReader.nextString(in));
+                    return true;
+                case "status":
+                    koopman.setStatus(ApiStreamReader.nextString(in));
+                    return true;
+                case "perfectViewNummer":
+                    koopman.setPerfectViewNummer(ApiStreamReader.nextInt(in));
+                    return true;
+                case "pasUid":
+                    koopman.setPasUid(ApiStreamReader.nextString(in));
+                    return true;
+                case "sollicitaties":
+                    koopman.setSollicitaties(mSollicitatieReader.readList(in));
+                    return true;
+                case "vervangers":
+                    koopman.setVervangers(mVervangerReader.readList(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reader for the dagvergunning model
+     */
+    private class DagvergunningReader extends ModelReader<ApiDagvergunning> {
+
+        @Override
+        ApiDagvergunning create() {
+            return new ApiDagvergunning();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiDagvergunning dagvergunning) throws IOException {
+            switch (name) {
+                case "id":
+                    dagvergunning.setId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "dag":
+                    dagvergunning.setDag(ApiStreamReader.nextString(in));
+                    return true;
+                case "totaleLengte":
+                    dagvergunning.setTotaleLengte(ApiStreamReader.nextInt(in));
+                    return true;
+                case "totaleLengteVast":
+                    dagvergunning.setTotaleLengteVast(ApiStreamReader.nextInt(in));
+                    return true;
+                case "erkenningsnummer":
+                    dagvergunning.setErkenningsnummer(ApiStreamReader.nextString(in));
+                    return true;
+                case "erkenningsnummerInvoerMethode":
+                    dagvergunning.setErkenningsnummerInvoerMethode(ApiStreamReader.nextString(in));
+                    return true;
+                case "aanwezig":
+                    dagvergunning.setAanwezig(ApiStreamReader.nextString(in));
+                    return true;
+                case "notitie":
+                    dagvergunning.setNotitie(ApiStreamReader.nextString(in));
+                    return true;
+                case "status":
+                    dagvergunning.setStatus(ApiStreamReader.nextString(in));
+                    return true;
+                case "registratieDatumtijd":
+                    dagvergunning.setRegistratieDatumtijd(ApiStreamReader.nextString(in));
+                    return true;
+                case "registratieGeolocatie":
+                    dagvergunning.setRegistratieGeolocatie(readFloatList(in));
+                    return true;
+                case "aanmaakDatumtijd":
+                    dagvergunning.setAanmaakDatumtijd(ApiStreamReader.nextString(in));
+                    return true;
+                case "doorgehaald":
+                    dagvergunning.setDoorgehaald(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "aantal3MeterKramen":
+                    dagvergunning.setAantal3MeterKramen(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantal4MeterKramen":
+                    dagvergunning.setAantal4MeterKramen(ApiStreamReader.nextInt(in));
+                    return true;
+                case "extraMeters":
+                    dagvergunning.setExtraMeters(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantalElektra":
+                    dagvergunning.setAantalElektra(ApiStreamReader.nextInt(in));
+                    return true;
+                case "afvaleiland":
+                    dagvergunning.setAfvaleiland(ApiStreamReader.nextInt(in));
+                    return true;
+                case "krachtstroom":
+                    dagvergunning.setKrachtstroom(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "reiniging":
+                    dagvergunning.setReiniging(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "eenmaligElektra":
+                    dagvergunning.setEenmaligElektra(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "aantal3meterKramenVast":
+                    dagvergunning.setAantal3meterKramenVast(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantal4meterKramenVast":
+                    dagvergunning.setAantal4meterKramenVast(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantalExtraMetersVast":
+                    dagvergunning.setAantalExtraMetersVast(ApiStreamReader.nextInt(in));
+                    return true;
+                case "aantalElektraVast":
+                    dagvergunning.setAantalElektraVast(ApiStreamReader.nextInt(in));
+                    return true;
+                case "afvaleilandVast":
+                    dagvergunning.setAfvaleilandVast(ApiStreamReader.nextInt(in));
+                    return true;
+                case "krachtstroomVast":
+                    dagvergunning.setKrachtstroomVast(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "reinigingVast":
+                    dagvergunning.setReinigingVast(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "eenmaligElektraVast":
+                    dagvergunning.setEenmaligElektraVast(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "registratieAccount":
+                    dagvergunning.setRegistratieAccount(mAccountReader.read(in));
+                    return true;
+                case "markt":
+                    dagvergunning.setMarkt(mMarktReader.read(in));
+                    return true;
+                case "koopman":
+                    dagvergunning.setKoopman(mKoopmanReader.read(in));
+                    return true;
+                case "vervanger":
+                    dagvergunning.setVervanger(mKoopmanReader.read(in));
+                    return true;
+                case "sollicitatie":
+                    dagvergunning.setSollicitatie(mSollicitatieReader.read(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reader for the notitie model
+     */
+    private class NotitieReader extends ModelReader<ApiNotitie> {
+
+        @Override
+        ApiNotitie create() {
+            return new ApiNotitie();
+        }
+
+        @Override
+        boolean readValue(JsonReader in, String name, ApiNotitie notitie) throws IOException {
+            switch (name) {
+                case "id":
+                    notitie.setId(ApiStreamReader.nextInt(in));
+                    return true;
+                case "markt":
+                    notitie.setMarkt(mMarktReader.read(in));
+                    return true;
+                case "dag":
+                    notitie.setDag(ApiStreamReader.nextString(in));
+                    return true;
+                case "bericht":
+                    notitie.setBericht(ApiStreamReader.nextString(in));
+                    return true;
+                case "afgevinktStatus":
+                    notitie.setAfgevinkt(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "verwijderdStatus":
+                    notitie.setVerwijderd(ApiStreamReader.nextBoolean(in));
+                    return true;
+                case "aangemaaktDatumtijd":
+                    notitie.setAangemaaktDatumtijd(ApiStreamReader.nextString(in));
+                    return true;
+                case "afgevinktDatumtijd":
+                    notitie.setAfgevinktDatumtijd(ApiStreamReader.nextString(in));
+                    return true;
+                case "verwijderdDatumtijd":
+                    notitie.setVerwijderdDatumtijd(ApiStreamReader.nextString(in));
+                    return true;
+                case "aangemaaktGeolocatie":
+                    notitie.setAangemaaktGeolocatie(readFloatList(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+}
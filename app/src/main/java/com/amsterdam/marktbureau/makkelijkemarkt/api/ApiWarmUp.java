@@ -0,0 +1,397 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.api;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Warm up the local data of a markt as soon as it is selected, so the toezichthouder does not have
+ * to wait for it when making the first dagvergunning of the day. The accounts, the sollicitaties of
+ * the markt, the vervangers, and the dagvergunningen and notities of today are fetched
+ * concurrently, and when the koopmannen are in the database their photo thumbnails are
+ * preloaded. The combined progress is posted as an event after each completed step
+ * @author marcolangebeeke
+ */
+public class ApiWarmUp {
+
+    // use classname when logging
+    private static final String LOG_TAG = ApiWarmUp.class.getSimpleName();
+
+    // the steps of the warm up
+    private static final int STEP_ACCOUNTS = 1;
+    private static final int STEP_SOLLICITATIES = 2;
+    private static final int STEP_VERVANGERS = 4;
+    private static final int STEP_DAGVERGUNNINGEN = 8;
+    private static final int STEP_NOTITIES = 16;
+    private static final int STEP_FOTOS = 32;
+
+    // koopman status of the vervangers
+    private static final int mKoopmanStatusVervanger = 3;
+
+    // the thread querying the koopman fotos, so the main thread does not wait for the database
+    private static final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    // the warm up in progress
+    private static ApiWarmUp mCurrent = null;
+
+    // the context we are started from
+    private final Context mContext;
+
+    // the markt we are warming up, and the dag of today
+    private final int mMarktId;
+    private String mDag;
+
+    // the steps that are not completed yet
+    private int mPendingSteps = 0;
+
+    // number of steps, and the completed steps
+    private int mStepCount = 0;
+    private int mCompletedCount = 0;
+
+    /**
+     * Start warming up the data of a markt, unless it is already being warmed up
+     * @param context the context
+     * @param marktId the id of the selected markt
+     */
+    public static void start(Context context, int marktId) {
+        ApiWarmUp warmUp;
+        synchronized (ApiWarmUp.class) {
+            if (mCurrent != null && mCurrent.mMarktId == marktId) {
+                return;
+            }
+            if (mCurrent != null) {
+                EventBus.getDefault().unregister(mCurrent);
+            }
+            warmUp = new ApiWarmUp(context.getApplicationContext(), marktId);
+            mCurrent = warmUp;
+        }
+        warmUp.enqueue();
+    }
+
+    /**
+     * Check if the data of a markt is being warmed up
+     * @param marktId the id of the markt
+     * @return true if in progress
+     */
+    public static synchronized boolean isRunning(int marktId) {
+        return mCurrent != null && mCurrent.mMarktId == marktId;
+    }
+
+    /**
+     * Get the progress of the warm up in progress
+     * @return the progress, or null if no warm up is in progress
+     */
+    public static synchronized OnProgressEvent getProgress() {
+        if (mCurrent == null) {
+            return null;
+        }
+        return new OnProgressEvent(mCurrent.mMarktId, mCurrent.mCompletedCount, mCurrent.mStepCount, null);
+    }
+
+    /**
+     * Constructor
+     * @param context the application context
+     * @param marktId the id of the selected markt
+     */
+    private ApiWarmUp(Context context, int marktId) {
+        mContext = context;
+        mMarktId = marktId;
+    }
+
+    /**
+     * Decide which data is stale and enqueue the api calls to fetch it concurrently
+     */
+    private void enqueue() {
+
+        // the accounts, sollicitaties and vervangers are refreshed after 12 hours, the
+        // dagvergunningen and notities of today always, and the fotos once the koopmannen are in
+        synchronized (ApiWarmUp.class) {
+            if (Utility.isTimedOut(mContext,
+                    mContext.getString(R.string.sharedpreferences_key_accounts_last_fetched),
+                    R.integer.makkelijkemarkt_api_accounts_fetch_interval_hours)) {
+                mPendingSteps |= STEP_ACCOUNTS;
+            }
+            if (Utility.isTimedOut(mContext,
+                    mContext.getString(R.string.sharedpreferences_key_sollicitaties_last_fetched) + mMarktId,
+                    R.integer.makkelijkemarkt_api_sollicitaties_fetch_interval_hours)) {
+                mPendingSteps |= STEP_SOLLICITATIES;
+            }
+            if (Utility.isTimedOut(mContext,
+                    mContext.getString(R.string.sharedpreferences_key_koopmannen_last_fetched) + mKoopmanStatusVervanger,
+                    R.integer.makkelijkemarkt_api_vervangers_fetch_interval_hours)) {
+                mPendingSteps |= STEP_VERVANGERS;
+            }
+            mPendingSteps |= STEP_DAGVERGUNNINGEN | STEP_NOTITIES | STEP_FOTOS;
+            mStepCount = Integer.bitCount(mPendingSteps);
+        }
+
+        // listen for the completion of the api calls before we enqueue them
+        EventBus.getDefault().register(this);
+        EventBus.getDefault().post(new OnProgressEvent(mMarktId, 0, mStepCount, null));
+
+        if (isPending(STEP_ACCOUNTS) && !new ApiGetAccounts(mContext).enqueue()) {
+            completeStep(STEP_ACCOUNTS, null);
+        }
+
+        if (isPending(STEP_SOLLICITATIES)) {
+            ApiGetSollicitaties getSollicitaties = new ApiGetSollicitaties(mContext);
+            getSollicitaties.setMarktId(mMarktId);
+            if (!getSollicitaties.enqueue()) {
+                completeStep(STEP_SOLLICITATIES, null);
+            }
+        }
+
+        if (isPending(STEP_VERVANGERS)) {
+            ApiGetKoopmannen getKoopmannen = new ApiGetKoopmannen(mContext);
+            getKoopmannen.setStatus(mKoopmanStatusVervanger);
+            if (!getKoopmannen.enqueue()) {
+                completeStep(STEP_VERVANGERS, null);
+            }
+        }
+
+        // get the date of today for the dag param
+        SimpleDateFormat sdf = new SimpleDateFormat(mContext.getString(R.string.date_format_dag));
+        mDag = sdf.format(new Date());
+
+        ApiGetDagvergunningen getDagvergunningen = new ApiGetDagvergunningen(mContext);
+        getDagvergunningen.setMarktId(String.valueOf(mMarktId));
+        getDagvergunningen.setDag(mDag);
+        if (!getDagvergunningen.enqueue()) {
+            completeStep(STEP_DAGVERGUNNINGEN, null);
+        }
+
+        ApiGetNotities getNotities = new ApiGetNotities(mContext);
+        getNotities.setMarktId(String.valueOf(mMarktId));
+        getNotities.setDag(mDag);
+        if (!getNotities.enqueue()) {
+            completeStep(STEP_NOTITIES, null);
+        }
+    }
+
+    /**
+     * Check if a step is not completed yet
+     * @param step one of the STEP_ constants
+     * @return true if pending
+     */
+    private boolean isPending(int step) {
+        synchronized (ApiWarmUp.class) {
+            return (mPendingSteps & step) != 0;
+        }
+    }
+
+    /**
+     * Mark a step as completed, post the progress, and start preloading the fotos when the
+     * koopmannen of the markt are in the database
+     * @param step one of the STEP_ constants
+     * @param message an error message, or null on success
+     */
+    private void completeStep(int step, String message) {
+        OnProgressEvent progress;
+        boolean preloadFotos;
+        synchronized (ApiWarmUp.class) {
+            if (mCurrent != this || (mPendingSteps & step) == 0) {
+                return;
+            }
+            mPendingSteps &= ~step;
+            mCompletedCount++;
+            if (message != null) {
+                Utility.log(mContext, LOG_TAG, message);
+            }
+            progress = new OnProgressEvent(mMarktId, mCompletedCount, mStepCount, message);
+
+            preloadFotos = (mPendingSteps & (STEP_SOLLICITATIES | STEP_DAGVERGUNNINGEN)) == 0 &&
+                    (mPendingSteps & STEP_FOTOS) != 0;
+
+            if (mPendingSteps == 0) {
+                mCurrent = null;
+            }
+        }
+
+        if (progress.isCompleted()) {
+            EventBus.getDefault().unregister(this);
+        }
+        EventBus.getDefault().post(progress);
+
+        if (preloadFotos) {
+            preloadFotos();
+        }
+    }
+
+    /**
+     * Preload the photo thumbnails of the koopmannen with a sollicitatie on the markt into the glide
+     * cache, querying their foto urls on a background thread
+     */
+    private void preloadFotos() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                preloadFotos(queryFotoUrls());
+            }
+        });
+    }
+
+    /**
+     * Get the foto urls of the koopmannen with a sollicitatie on the markt
+     * @return the foto urls
+     */
+    private List<String> queryFotoUrls() {
+        List<String> fotoUrls = new ArrayList<>();
+
+        Cursor koopmannen = mContext.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriKoopmanJoined,
+                new String[] { MakkelijkeMarktProvider.Koopman.COL_FOTO_URL },
+                MakkelijkeMarktProvider.mTableSollicitatie + "." + MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ?",
+                new String[] { String.valueOf(mMarktId) },
+                null);
+        if (koopmannen != null) {
+            int fotoUrlIndex = koopmannen.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL);
+            while (koopmannen.moveToNext()) {
+                String fotoUrl = koopmannen.getString(fotoUrlIndex);
+                if (fotoUrl != null && !fotoUrl.isEmpty()) {
+                    fotoUrls.add(fotoUrl);
+                }
+            }
+            koopmannen.close();
+        }
+
+        return fotoUrls;
+    }
+
+    /**
+     * Preload the photo thumbnails into the glide cache, and complete the fotos step
+     * @param fotoUrls the foto urls
+     */
+    private void preloadFotos(final List<String> fotoUrls) {
+
+        // glide requests have to be started on the main thread
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                for (String fotoUrl : fotoUrls) {
+                    Utility.loadKoopmanThumbnail(mContext, fotoUrl).preload();
+                }
+                completeStep(STEP_FOTOS, null);
+            }
+        });
+    }
+
+    /**
+     * Check if a response is for the markt and dag we are warming up
+     * @param marktId the markt id of the response
+     * @param dag the dag of the response
+     * @return true if it is ours
+     */
+    private boolean isOurMarktAndDag(String marktId, String dag) {
+        return String.valueOf(mMarktId).equals(marktId) && dag != null && dag.equals(mDag);
+    }
+
+    /**
+     * Complete the accounts step
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetAccountsResponseEvent(ApiGetAccounts.OnResponseEvent event) {
+        completeStep(STEP_ACCOUNTS, event.mAccountCount == -1 ?
+                mContext.getString(R.string.error_accounts_fetch_failed) + ": " + event.mMessage : null);
+    }
+
+    /**
+     * Complete the sollicitaties step when the sollicitaties of our markt are loaded
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetSollicitatiesCompletedEvent(ApiGetSollicitaties.OnCompletedEvent event) {
+        if (event.mMarktId == mMarktId) {
+            completeStep(STEP_SOLLICITATIES, event.mSollicitatiesCount == -1 ?
+                    mContext.getString(R.string.error_sollicitaties_fetch_failed) + ": " + event.mMessage : null);
+        }
+    }
+
+    /**
+     * Complete the vervangers step when the koopmannen with the vervanger status are loaded
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetKoopmannenCompletedEvent(ApiGetKoopmannen.OnCompletedEvent event) {
+        if (event.mStatus != mKoopmanStatusVervanger) {
+            return;
+        }
+        completeStep(STEP_VERVANGERS, event.mKoopmannenCount == -1 ?
+                mContext.getString(R.string.error_vervangers_fetch_failed) + ": " + event.mMessage : null);
+    }
+
+    /**
+     * Complete the dagvergunningen step when the dagvergunningen of our markt are loaded
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetDagvergunningenResponseEvent(ApiGetDagvergunningen.OnResponseEvent event) {
+        if (!isOurMarktAndDag(event.mMarktId, event.mDag)) {
+            return;
+        }
+        completeStep(STEP_DAGVERGUNNINGEN, event.mDagvergunningCount == -1 ?
+                mContext.getString(R.string.error_dagvergunningen_fetch_failed) + ": " + event.mMessage : null);
+    }
+
+    /**
+     * Complete the notities step when the notities of our markt are loaded
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetNotitiesResponseEvent(ApiGetNotities.OnResponseEvent event) {
+        if (!isOurMarktAndDag(event.mMarktId, event.mDag)) {
+            return;
+        }
+        completeStep(STEP_NOTITIES, event.mNotitieCount == -1 ?
+                mContext.getString(R.string.error_notities_fetch_failed) + ": " + event.mMessage : null);
+    }
+
+    /**
+     * Event to inform subscribers about the progress of the warm up
+     */
+    public static class OnProgressEvent {
+        public final int mMarktId;
+        public final int mCompletedCount;
+        public final int mStepCount;
+        public final String mMessage;
+
+        public OnProgressEvent(int marktId, int completedCount, int stepCount, String message) {
+            mMarktId = marktId;
+            mCompletedCount = completedCount;
+            mStepCount = stepCount;
+            mMessage = message;
+        }
+
+        /**
+         * Check if all steps of the warm up are completed
+         * @return true if completed
+         */
+        public boolean isCompleted() {
+            return mCompletedCount >= mStepCount;
+        }
+    }
+}
@@ -9,24 +9,24 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt.api;
 
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiAccount;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiDagvergunning;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiKoopman;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiMarkt;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiNotitie;
-import com.amsterdam.marktbureau.makkelijkemarkt.api.model.ApiSollicitatie;
 import com.google.gson.JsonObject;
 
 import java.util.List;
 
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.DELETE;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 /**
  * Makkelijke Markt Api interface defining the retrofit api calls
@@ -34,6 +34,9 @@ import retrofit2.http.Query;
  */
 public interface MakkelijkeMarktApi {
 
+    // header containing the unique key of a write, so the api can recognise a retried write
+    String mIdempotencyKeyHeader = "X-Idempotency-Key";
+
     /**
      * Get version details of the Api and Android app
      * @return a gson object containing the version info
@@ -43,17 +46,19 @@ public interface MakkelijkeMarktApi {
 
     /**
      * Get a list of accounts from the Api
-     * @return a list of ApiAccount objects
+     * @return the response body with a list of ApiAccount objects, read by the caller unless the
+     * response was not modified
      */
     @GET("account/")
-    Call<List<ApiAccount>> getAccounts();
+    Call<ResponseBody> getAccounts();
 
     /**
      * Get a list of markten from the Api
-     * @return a list of ApiMarkt objects
+     * @return the response body with a list of ApiMarkt objects, read by the caller unless the
+     * response was not modified
      */
     @GET("markt/")
-    Call<List<ApiMarkt>> getMarkten();
+    Call<ResponseBody> getMarkten();
 
     /**
      * Post an Account authentication request to the Api
@@ -81,27 +86,30 @@ public interface MakkelijkeMarktApi {
 
     /**
      * Post a new dagvergunning
+     * @param idempotencyKey unique key of the write
      * @param dagvergunning a gson object containing the dagvergunning values
      * @return a apidagvergunning object containing the result
      */
     @POST("dagvergunning/")
-    Call<ApiDagvergunning> postDagvergunning(@Body JsonObject dagvergunning);
+    Call<ApiDagvergunning> postDagvergunning(@Header(mIdempotencyKeyHeader) String idempotencyKey, @Body JsonObject dagvergunning);
 
     /**
      * Put an existing dagvergunning
+     * @param idempotencyKey unique key of the write
      * @param id the id of the existing dagvergunning
      * @param dagvergunning a gson object containing the dagvergunning values
      * @return a apidagvergunning object containing the result
      */
     @PUT("dagvergunning/{id}")
-    Call<ApiDagvergunning> putDagvergunning(@Path("id") String id, @Body JsonObject dagvergunning);
+    Call<ApiDagvergunning> putDagvergunning(@Header(mIdempotencyKeyHeader) String idempotencyKey, @Path("id") String id, @Body JsonObject dagvergunning);
 
     /**
      * Delete a dagvergunning
+     * @param idempotencyKey unique key of the write
      * @param id the id of the dagvergunning
      */
     @DELETE("dagvergunning/{id}")
-    Call<String> deleteDagvergunning(@Path("id") String id);
+    Call<String> deleteDagvergunning(@Header(mIdempotencyKeyHeader) String idempotencyKey, @Path("id") String id);
 
     /**
      * Post a new dagvergunning concept to get a factuur with pricing
@@ -116,10 +124,11 @@ public interface MakkelijkeMarktApi {
      * @param status the status of the koopman
      * @param listOffset the offset of from which position we want to query the total list
      * @param listLength the length of the response list
-     * @return a list of ApiKoopman objects
+     * @return the streaming response body containing a json list of koopmannen
      */
+    @Streaming
     @GET("koopman/")
-    Call<List<ApiKoopman>> getKoopmannen(@Query("status") String status, @Query("listOffset") String listOffset, @Query("listLength") String listLength);
+    Call<ResponseBody> getKoopmannen(@Query("status") String status, @Query("listOffset") String listOffset, @Query("listLength") String listLength);
 
     /**
      * Get a koopman object, including sollicitaties, from the api
@@ -142,10 +151,11 @@ public interface MakkelijkeMarktApi {
      * @param marktId the id of the marktet we want the sollicitaties for
      * @param listOffset the offset of from which position we want to query the total list
      * @param listLength the length of the response list
-     * @return a list of ApiSollicitatie objects
+     * @return the streaming response body containing a json list of sollicitaties
      */
+    @Streaming
     @GET("sollicitaties/markt/{marktId}")
-    Call<List<ApiSollicitatie>> getSollicitaties(@Path("marktId") String marktId, @Query("listOffset") String listOffset, @Query("listLength") String listLength);
+    Call<ResponseBody> getSollicitaties(@Path("marktId") String marktId, @Query("listOffset") String listOffset, @Query("listLength") String listLength);
 
     /**
      * Get a list of notities for a given markt and date
@@ -159,18 +169,20 @@ public interface MakkelijkeMarktApi {
 
     /**
      * Put an existing notitie
+     * @param idempotencyKey unique key of the write
      * @param id the id of the existing notitie
      * @param notitie a gson object containing the notitie values
      * @return a apinotitie object containing the result
      */
     @PUT("notitie/{id}")
-    Call<ApiNotitie> putNotitie(@Path("id") String id, @Body JsonObject notitie);
+    Call<ApiNotitie> putNotitie(@Header(mIdempotencyKeyHeader) String idempotencyKey, @Path("id") String id, @Body JsonObject notitie);
 
     /**
      * Post a new notitie
+     * @param idempotencyKey unique key of the write
      * @param notitie a gson object containing the notitie values
      * @return a apinotitie object containing the result
      */
     @POST("notitie/")
-    Call<ApiNotitie> postNotitie(@Body JsonObject notitie);
+    Call<ApiNotitie> postNotitie(@Header(mIdempotencyKeyHeader) String idempotencyKey, @Body JsonObject notitie);
 }
\ No newline at end of file
@@ -17,14 +17,17 @@ import android.util.Log;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
-import com.amsterdam.marktbureau.makkelijkemarkt.tasks.TimerTaskCheckUserActivity;
-import com.amsterdam.marktbureau.makkelijkemarkt.tasks.TimerTaskGetDagvergunningen;
-import com.amsterdam.marktbureau.makkelijkemarkt.tasks.TimerTaskGetNotities;
-import com.amsterdam.marktbureau.makkelijkemarkt.tasks.TimerTaskGetSollicitaties;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncScheduler;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskCheckUserActivity;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskCheckpointDatabase;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskFlushOutbox;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskGetDagvergunningen;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskGetNotities;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskGetSollicitaties;
+import com.amsterdam.marktbureau.makkelijkemarkt.tasks.SyncTaskPrefetchKoopmanFotos;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Timer;
 
 /**
  * Service that will call the Makkelijke Markt Api on certain intervals
@@ -38,51 +41,15 @@ public class MakkelijkeMarktApiService extends Service {
     // keep a state indicating the service is started
     private boolean mIsStarted = false;
 
-    // timer object for loading the dagvergunningen
-    private Timer mGetDagvergunningenTimer;
-    private int mGetDagvergunningenInterval;
-
-    // timer object for loading the notities
-    private Timer mGetNotitiesTimer;
-    private int mGetNotitiesInterval;
-
-    // timer object for loading the sollicitaties
-    private Timer mGetSollicitatiesTimer;
-    private int mGetSollicitatiesStartDelay;
-    private int mGetSollicitatiesInterval;
-
-    // timer object for checking app activity
-    private Timer mCheckUserActivityTimer;
-    private int mCheckUserActivityInterval;
+    // one scheduler running all sync tasks on a single background thread
+    private SyncScheduler mSyncScheduler;
 
     /**
      * Called only once, upon initial creation
      */
     @Override
     public void onCreate() {
-
-        // create a timer instance for loading the dagvergunningen on interval
-        mGetDagvergunningenTimer = new Timer();
-        mGetDagvergunningenInterval = getResources().getInteger(
-                R.integer.makkelijkemarkt_api_service_getdagvergunningen_interval_seconds) * 1000;
-
-        // create a timer instance for loading the notities on interval
-        mGetNotitiesTimer = new Timer();
-        mGetNotitiesInterval = getResources().getInteger(
-                R.integer.makkelijkemarkt_api_service_getnotities_interval_seconds) * 1000;
-
-        // create a timer instance for loading the sollicitaties on interval
-        mGetSollicitatiesTimer = new Timer();
-        mGetSollicitatiesStartDelay = getResources().getInteger(
-                R.integer.makkelijkemarkt_api_service_getsollicitaties_startdelay_seconds) * 1000;
-        mGetSollicitatiesInterval = getResources().getInteger(
-                R.integer.makkelijkemarkt_api_service_getsollicitaties_interval_seconds) * 1000;
-
-        // create a timer instance for checking user activity
-        mCheckUserActivityTimer = new Timer();
-        mCheckUserActivityInterval = getResources().getInteger(
-                R.integer.makkelijkemarkt_api_service_appactivitycheck_interval_seconds) * 1000;
-
+        mSyncScheduler = new SyncScheduler();
         super.onCreate();
     }
 
@@ -121,30 +88,58 @@ public class MakkelijkeMarktApiService extends Service {
                     MakkelijkeMarktProvider.Notitie.COL_DAG + " <> ? ",
                     new String[] { mDagToday });
 
-            // create a timer task that will retrieve the notities on given interval
-            mGetDagvergunningenTimer.scheduleAtFixedRate(
-                    new TimerTaskGetDagvergunningen(context),
-                    mGetDagvergunningenInterval,
-                    mGetDagvergunningenInterval);
-
-            // create a timer task that will retrieve the notities on given interval
-            mGetNotitiesTimer.scheduleAtFixedRate(
-                    new TimerTaskGetNotities(context),
-                    mGetNotitiesInterval,
-                    mGetNotitiesInterval);
-
-            // add a tasktimer that will download the sollicitaties that have been downloaded before,
-            // but have not been downloaded in the last 12 hours
-            mGetSollicitatiesTimer.scheduleAtFixedRate(
-                    new TimerTaskGetSollicitaties(context),
-                    mGetSollicitatiesStartDelay,
-                    mGetSollicitatiesInterval);
-
-            // create a timertask that will check the app activity and logout the user after a timeout
-            mCheckUserActivityTimer.scheduleAtFixedRate(
-                    new TimerTaskCheckUserActivity(context),
-                    mCheckUserActivityInterval,
-                    mCheckUserActivityInterval);
+            // the writes in the outbox and the user activity check go first, then the data of
+            // the selected markt, and then the background work
+            mSyncScheduler.schedule(
+                    new SyncTaskFlushOutbox(context),
+                    SyncScheduler.PRIORITY_HIGH,
+                    0,
+                    getInterval(R.integer.makkelijkemarkt_api_service_flushoutbox_interval_seconds));
+
+            // check the app activity and logout the user after a timeout
+            mSyncScheduler.schedule(
+                    new SyncTaskCheckUserActivity(context),
+                    SyncScheduler.PRIORITY_HIGH,
+                    getInterval(R.integer.makkelijkemarkt_api_service_appactivitycheck_interval_seconds),
+                    getInterval(R.integer.makkelijkemarkt_api_service_appactivitycheck_interval_seconds));
+
+            // retrieve the dagvergunningen of the selected markt
+            mSyncScheduler.schedule(
+                    new SyncTaskGetDagvergunningen(context),
+                    SyncScheduler.PRIORITY_NORMAL,
+                    getInterval(R.integer.makkelijkemarkt_api_service_getdagvergunningen_interval_seconds),
+                    getInterval(R.integer.makkelijkemarkt_api_service_getdagvergunningen_interval_seconds));
+
+            // retrieve the notities of the selected markt
+            mSyncScheduler.schedule(
+                    new SyncTaskGetNotities(context),
+                    SyncScheduler.PRIORITY_NORMAL,
+                    getInterval(R.integer.makkelijkemarkt_api_service_getnotities_interval_seconds),
+                    getInterval(R.integer.makkelijkemarkt_api_service_getnotities_interval_seconds));
+
+            // download the sollicitaties that have been downloaded before, but have not been
+            // downloaded in the last 12 hours
+            mSyncScheduler.schedule(
+                    new SyncTaskGetSollicitaties(context),
+                    SyncScheduler.PRIORITY_LOW,
+                    getInterval(R.integer.makkelijkemarkt_api_service_getsollicitaties_startdelay_seconds),
+                    getInterval(R.integer.makkelijkemarkt_api_service_getsollicitaties_interval_seconds));
+
+            // checkpoint the write-ahead log of the database
+            mSyncScheduler.schedule(
+                    new SyncTaskCheckpointDatabase(context),
+                    SyncScheduler.PRIORITY_LOW,
+                    getInterval(R.integer.makkelijkemarkt_api_service_checkpoint_interval_seconds),
+                    getInterval(R.integer.makkelijkemarkt_api_service_checkpoint_interval_seconds));
+
+            // prefetch the photo thumbnails of the koopmannen of the selected markt
+            mSyncScheduler.schedule(
+                    new SyncTaskPrefetchKoopmanFotos(context),
+                    SyncScheduler.PRIORITY_LOW,
+                    getInterval(R.integer.makkelijkemarkt_api_service_prefetchfotos_interval_seconds),
+                    getInterval(R.integer.makkelijkemarkt_api_service_prefetchfotos_interval_seconds));
+
+            mSyncScheduler.start();
         }
 
         // return sticky so in case the service is shutdown by the system it will be restarted with
@@ -153,7 +148,7 @@ public class MakkelijkeMarktApiService extends Service {
     }
 
     /**
-     * On destroy cancel the timers to stop calling the api and set the started indicator to false
+     * On destroy stop the scheduler to stop calling the api and set the started indicator to false
      */
     @Override
     public void onDestroy() {
@@ -161,15 +156,21 @@ public class MakkelijkeMarktApiService extends Service {
         // reset the started indicator
         mIsStarted = false;
 
-        // cancel the timers
-        mGetDagvergunningenTimer.cancel();
-        mGetNotitiesTimer.cancel();
-        mGetSollicitatiesTimer.cancel();
-        mCheckUserActivityTimer.cancel();
+        // stop the sync tasks
+        mSyncScheduler.stop();
 
         super.onDestroy();
     }
 
+    /**
+     * Get an interval from the resources
+     * @param resource the integer resource containing the interval in seconds
+     * @return the interval in milliseconds
+     */
+    private long getInterval(int resource) {
+        return getResources().getInteger(resource) * 1000L;
+    }
+
     /**
      * Called every time the service is started with bindService (not used in our case)
      */
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * An in-memory index of the koopmannen by erkenningsnummer and by pas uid, so a scanned barcode or
+ * nfc tag is resolved to a koopman without querying the database on the main thread. The pas uids
+ * of the vervangers are in the index too. The index is rebuilt on a background thread when the
+ * koopman or vervanger tables change, and replaced in one go, so lookups always see a consistent
+ * index
+ * @author marcolangebeeke
+ */
+public class KoopmanIndex {
+
+    // use classname when logging
+    private static final String LOG_TAG = KoopmanIndex.class.getSimpleName();
+
+    // the kind of pas a pas uid belongs to
+    public static final int FLAG_KOOPMAN_PAS = 1;
+    public static final int FLAG_VERVANGER_PAS = 2;
+
+    // wait this long after a change before rebuilding, so a sync causes only one rebuild
+    private static final long mRebuildDelayMs = 500;
+
+    // the current index, or null before it was built for the first time
+    private static volatile KoopmanIndex mIndex = null;
+
+    // the thread the index is built on
+    private static Handler mHandler = null;
+
+    // koopmannen by erkenningsnummer, and koopmannen and vervangers by pas uid
+    private final Table mErkenningsnummers;
+    private final Table mPasUids;
+
+    /**
+     * Start building the index, and rebuild it whenever the koopman or vervanger tables change
+     * @param context the context
+     */
+    public static synchronized void init(Context context) {
+        if (mHandler != null) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        final Runnable rebuild = new Runnable() {
+            @Override
+            public void run() {
+                mIndex = build(appContext);
+            }
+        };
+
+        // the provider notifies the table uris, also after a batch or a merge
+        ContentObserver observer = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mHandler.removeCallbacks(rebuild);
+                mHandler.postDelayed(rebuild, mRebuildDelayMs);
+            }
+        };
+        appContext.getContentResolver().registerContentObserver(MakkelijkeMarktProvider.mUriKoopman, true, observer);
+        appContext.getContentResolver().registerContentObserver(MakkelijkeMarktProvider.mUriVervanger, true, observer);
+
+        mHandler.post(rebuild);
+    }
+
+    /**
+     * Find a koopman by erkenningsnummer
+     * @param context the context, used only when the index was not built yet
+     * @param erkenningsnummer the scanned erkenningsnummer
+     * @return the match, or null if not found
+     */
+    public static Match findByErkenningsnummer(Context context, String erkenningsnummer) {
+        KoopmanIndex index = mIndex;
+        if (index == null) {
+
+            // right after the app started the index may not be ready yet, so query the database
+            index = build(context, MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER + " = ? ", null, erkenningsnummer);
+        }
+
+        return index.mErkenningsnummers.find(erkenningsnummer);
+    }
+
+    /**
+     * Find a koopman or vervanger by pas uid
+     * @param context the context, used only when the index was not built yet
+     * @param pasUid the scanned pas uid
+     * @return the match, or null if not found
+     */
+    public static Match findByPasUid(Context context, String pasUid) {
+        KoopmanIndex index = mIndex;
+        if (index == null) {
+
+            // right after the app started the index may not be ready yet, so query the database
+            index = build(context,
+                    MakkelijkeMarktProvider.Koopman.COL_PAS_UID + " = ? ",
+                    MakkelijkeMarktProvider.Vervanger.COL_PAS_UID + " = ? ",
+                    pasUid);
+        }
+
+        return index.mPasUids.find(pasUid);
+    }
+
+    /**
+     * Build the index of all koopmannen and vervangers
+     * @param context the context
+     * @return the index
+     */
+    private static KoopmanIndex build(Context context) {
+        long start = System.currentTimeMillis();
+        KoopmanIndex index = build(context, null, null, null);
+        Log.i(LOG_TAG, "Built index of " + index.mErkenningsnummers.mSize + " erkenningsnummers and " +
+                index.mPasUids.mSize + " pas uids in " + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    /**
+     * Build an index of the selected koopmannen and vervangers
+     * @param context the context
+     * @param koopmanSelection the selection on the koopman table, or null for all koopmannen
+     * @param vervangerSelection the selection on the vervanger table, or null for all vervangers
+     *                           when all koopmannen are selected, and no vervangers otherwise
+     * @param value the value of the selection argument
+     * @return the index
+     */
+    private static KoopmanIndex build(Context context, String koopmanSelection, String vervangerSelection, String value) {
+        Cursor koopmannen = context.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriKoopman,
+                new String[] {
+                        MakkelijkeMarktProvider.Koopman.COL_ID,
+                        MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER,
+                        MakkelijkeMarktProvider.Koopman.COL_PAS_UID
+                },
+                koopmanSelection,
+                koopmanSelection != null ? new String[] { value } : null,
+                null);
+
+        Cursor vervangers = null;
+        if (koopmanSelection == null || vervangerSelection != null) {
+            vervangers = context.getContentResolver().query(
+                    MakkelijkeMarktProvider.mUriVervanger,
+                    new String[] {
+                            MakkelijkeMarktProvider.Vervanger.COL_VERVANGER_ID,
+                            MakkelijkeMarktProvider.Vervanger.COL_PAS_UID
+                    },
+                    vervangerSelection,
+                    vervangerSelection != null ? new String[] { value } : null,
+                    null);
+        }
+
+        int koopmanCount = koopmannen != null ? koopmannen.getCount() : 0;
+        int vervangerCount = vervangers != null ? vervangers.getCount() : 0;
+
+        Table erkenningsnummers = new Table(koopmanCount);
+        Table pasUids = new Table(koopmanCount + vervangerCount);
+        HashMap<Integer, String> erkenningsnummerById = new HashMap<>(koopmanCount);
+
+        if (koopmannen != null) {
+            int idIndex = koopmannen.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ID);
+            int erkenningsnummerIndex = koopmannen.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_ERKENNINGSNUMMER);
+            int pasUidIndex = koopmannen.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_PAS_UID);
+            while (koopmannen.moveToNext()) {
+                int id = koopmannen.getInt(idIndex);
+                String erkenningsnummer = koopmannen.getString(erkenningsnummerIndex);
+                String pasUid = koopmannen.getString(pasUidIndex);
+
+                erkenningsnummerById.put(id, erkenningsnummer);
+                erkenningsnummers.put(erkenningsnummer, id, erkenningsnummer, 0, true);
+                pasUids.put(pasUid, id, erkenningsnummer, FLAG_KOOPMAN_PAS, true);
+            }
+            koopmannen.close();
+        }
+
+        // the pas of a koopman goes before the pas of a vervanger with the same uid
+        if (vervangers != null) {
+            int vervangerIdIndex = vervangers.getColumnIndex(MakkelijkeMarktProvider.Vervanger.COL_VERVANGER_ID);
+            int pasUidIndex = vervangers.getColumnIndex(MakkelijkeMarktProvider.Vervanger.COL_PAS_UID);
+            while (vervangers.moveToNext()) {
+                int vervangerId = vervangers.getInt(vervangerIdIndex);
+                pasUids.put(vervangers.getString(pasUidIndex), vervangerId,
+                        erkenningsnummerById.get(vervangerId), FLAG_VERVANGER_PAS, false);
+            }
+            vervangers.close();
+        }
+
+        return new KoopmanIndex(erkenningsnummers, pasUids);
+    }
+
+    /**
+     * Constructor
+     * @param erkenningsnummers koopmannen by erkenningsnummer
+     * @param pasUids koopmannen and vervangers by pas uid
+     */
+    private KoopmanIndex(Table erkenningsnummers, Table pasUids) {
+        mErkenningsnummers = erkenningsnummers;
+        mPasUids = pasUids;
+    }
+
+    /**
+     * A koopman found in the index
+     */
+    public static class Match {
+        public final int mKoopmanId;
+        public final String mErkenningsnummer;
+        public final int mFlags;
+
+        public Match(int koopmanId, String erkenningsnummer, int flags) {
+            mKoopmanId = koopmanId;
+            mErkenningsnummer = erkenningsnummer;
+            mFlags = flags;
+        }
+    }
+
+    /**
+     * An open addressing hash table from a string key to a koopman id, erkenningsnummer and flags,
+     * in parallel arrays with linear probing. The capacity is at least twice the number of keys,
+     * so a lookup takes only a few probes
+     */
+    private static class Table {
+        private final String[] mKeys;
+        private final int[] mIds;
+        private final String[] mErkenningsnummers;
+        private final int[] mFlags;
+        private final int mMask;
+        private int mSize = 0;
+
+        private Table(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+            mKeys = new String[capacity];
+            mIds = new int[capacity];
+            mErkenningsnummers = new String[capacity];
+            mFlags = new int[capacity];
+            mMask = capacity - 1;
+        }
+
+        /**
+         * Add a key, or replace the values of an existing key
+         * @param key the key, ignored if empty
+         * @param id the koopman id
+         * @param erkenningsnummer the erkenningsnummer of the koopman
+         * @param flags the flags
+         * @param replace replace the values if the key exists
+         */
+        private void put(String key, int id, String erkenningsnummer, int flags, boolean replace) {
+            if (key == null || key.isEmpty()) {
+                return;
+            }
+
+            int slot = slot(key);
+            if (mKeys[slot] == null) {
+
+                // keep the load factor at most a half
+                if ((mSize + 1) * 2 > mKeys.length) {
+                    return;
+                }
+                mKeys[slot] = key;
+                mSize++;
+            } else if (!replace) {
+                return;
+            }
+            mIds[slot] = id;
+            mErkenningsnummers[slot] = erkenningsnummer;
+            mFlags[slot] = flags;
+        }
+
+        /**
+         * Find a key
+         * @param key the key
+         * @return the match, or null if not found
+         */
+        private Match find(String key) {
+            if (key == null) {
+                return null;
+            }
+
+            int slot = slot(key);
+            if (mKeys[slot] == null) {
+                return null;
+            }
+            return new Match(mIds[slot], mErkenningsnummers[slot], mFlags[slot]);
+        }
+
+        /**
+         * Get the slot of a key, or the empty slot where it should go
+         * @param key the key
+         * @return the slot
+         */
+        private int slot(String key) {
+            int hash = key.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mMask;
+            while (mKeys[slot] != null && !mKeys[slot].equals(key)) {
+                slot = (slot + 1) & mMask;
+            }
+            return slot;
+        }
+    }
+}
@@ -9,20 +9,42 @@
  */
 package com.amsterdam.marktbureau.makkelijkemarkt.data;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import de.triplet.simpleprovider.AbstractProvider;
 import de.triplet.simpleprovider.Column;
@@ -43,6 +65,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
     // create a base uri from the package name
     private static final Uri mBaseUri = Uri.parse("content://" + mPackageName);
 
+    // the authority of the provider, to use in applybatch
+    public static final String mAuthority = mPackageName;
+
     // table names
     public static final String mTableAccount = "account";
     public static final String mTableMarkt = "markt";
@@ -51,6 +76,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
     public static final String mTableDagvergunning = "dagvergunning";
     public static final String mTableNotitie = "notitie";
     public static final String mTableSollicitatie = "sollicitatie";
+    public static final String mTableKoopmanZoek = "koopmanzoek";
+    public static final String mTableOutbox = "outbox";
+    public static final String mTableTarief = "tarief";
 
     // uris for the tables
     public static Uri mUriAccount = mBaseUri.buildUpon().appendPath(mTableAccount).build();
@@ -60,6 +88,8 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
     public static Uri mUriDagvergunning = mBaseUri.buildUpon().appendPath(mTableDagvergunning).build();
     public static Uri mUriNotitie = mBaseUri.buildUpon().appendPath(mTableNotitie).build();
     public static Uri mUriSollicitatie = mBaseUri.buildUpon().appendPath(mTableSollicitatie).build();
+    public static Uri mUriOutbox = mBaseUri.buildUpon().appendPath(mTableOutbox).build();
+    public static Uri mUriTarief = mBaseUri.buildUpon().appendPath(mTableTarief).build();
 
     // other uris
     public static Uri mUriDagvergunningJoined =
@@ -72,6 +102,71 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
             mBaseUri.buildUpon().appendPath(mTableKoopman + "joinedgroupbysollicitatienummer").build();
     public static Uri mUriVervangerJoined =
             mBaseUri.buildUpon().appendPath(mTableKoopman + "joinedvervanger").build();
+    public static Uri mUriKoopmanZoek =
+            mBaseUri.buildUpon().appendPath(mTableKoopmanZoek).build();
+
+    // codes of the non-standard uris, matched in the query method
+    private static final int URI_DAGVERGUNNING_JOINED = 1;
+    private static final int URI_KOOPMAN_JOINED = 2;
+    private static final int URI_KOOPMAN_JOINED_GROUPBY_ERKENNINGSNUMMER = 3;
+    private static final int URI_KOOPMAN_JOINED_GROUPBY_SOLLICITATIENUMMER = 4;
+    private static final int URI_VERVANGER_JOINED = 5;
+    private static final int URI_KOOPMAN_ZOEK = 6;
+    private static final UriMatcher mUriMatcher = createUriMatcher();
+
+    // joins of the koopman table with the sollicitatie and markt tables
+    private static final String mKoopmanJoins =
+            " LEFT JOIN " + mTableSollicitatie + " ON (" +
+            mTableKoopman + "." + Koopman.COL_ID + " = " +
+            mTableSollicitatie + "." + Sollicitatie.COL_KOOPMAN_ID + ")" +
+            " LEFT JOIN " + mTableMarkt + " ON (" +
+            mTableSollicitatie + "." + Sollicitatie.COL_MARKT_ID + " = " +
+            mTableMarkt + "." + Markt.COL_ID + ")";
+
+    // query builders and projection map of the joined uris, configured once on first use
+    private SQLiteQueryBuilder mDagvergunningJoinedQueryBuilder;
+    private SQLiteQueryBuilder mKoopmanJoinedQueryBuilder;
+    private SQLiteQueryBuilder mVervangerJoinedQueryBuilder;
+    private Map<String, String> mKoopmanJoinedProjectionMap;
+
+    // query parameters of the koopman search uri
+    public static final String mQueryParamZoekVeld = "veld";
+    public static final String mQueryParamZoekTerm = "term";
+
+    // query parameter to bulkinsert in merge mode, only writing the rows that changed
+    public static final String mQueryParamMerge = "merge";
+
+    // provider call method to checkpoint the write-ahead log
+    public static final String mMethodCheckpoint = "checkpoint";
+
+    // page cache size of the database connection in kibibytes
+    private static final int mCacheSizeKb = 2048;
+
+    // state of the applybatch running on the current thread
+    private final ThreadLocal<SyncBatch> mSyncBatch = new ThreadLocal<>();
+
+    // max amount of koopman ids we put in one IN clause when updating the search index (sqlite
+    // allows a limited number of host parameters and sql length)
+    private static final int mKoopmanZoekChunkSize = 500;
+
+    // the separators that occur in the erkenningsnummers and sollicitatie nummers, which the
+    // normalized search index leaves out
+    private static final String[] mZoekSeparators = { " ", ".", "-", "'", "/", "," };
+
+    /**
+     * Create the uri matcher for the non-standard uris
+     * @return the uri matcher
+     */
+    private static UriMatcher createUriMatcher() {
+        UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+        uriMatcher.addURI(mAuthority, mUriDagvergunningJoined.getLastPathSegment(), URI_DAGVERGUNNING_JOINED);
+        uriMatcher.addURI(mAuthority, mUriKoopmanJoined.getLastPathSegment(), URI_KOOPMAN_JOINED);
+        uriMatcher.addURI(mAuthority, mUriKoopmanJoinedGroupByErkenningsnummer.getLastPathSegment(), URI_KOOPMAN_JOINED_GROUPBY_ERKENNINGSNUMMER);
+        uriMatcher.addURI(mAuthority, mUriKoopmanJoinedGroupBySollicitatienummer.getLastPathSegment(), URI_KOOPMAN_JOINED_GROUPBY_SOLLICITATIENUMMER);
+        uriMatcher.addURI(mAuthority, mUriVervangerJoined.getLastPathSegment(), URI_VERVANGER_JOINED);
+        uriMatcher.addURI(mAuthority, mUriKoopmanZoek.getLastPathSegment(), URI_KOOPMAN_ZOEK);
+        return uriMatcher;
+    }
 
     /**
      * Get the content provider authority name
@@ -82,13 +177,119 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
         return MakkelijkeMarktProvider.class.getPackage().toString();
     }
 
+    /**
+     * Configure the database after it was opened by the super class: use write-ahead logging so
+     * the loaders can read while the sync timers are writing, only sync to disk at checkpoints,
+     * and use a larger page cache for the joined queries
+     * @return true if the provider was successfully loaded
+     */
+    @Override
+    public boolean onCreate() {
+        boolean created = super.onCreate();
+
+        if (mDatabase != null) {
+            try {
+                mDatabase.enableWriteAheadLogging();
+                mDatabase.execSQL("PRAGMA synchronous = NORMAL");
+                mDatabase.execSQL("PRAGMA cache_size = -" + mCacheSizeKb);
+            } catch (SQLiteException e) {
+                Utility.log(getContext(), LOG_TAG, "Failed to configure database: " + e.getMessage());
+            }
+        }
+
+        return created;
+    }
+
+    /**
+     * Handle the provider call methods
+     * @param method the method to call
+     * @param arg optional argument (not used)
+     * @param extras optional extras (not used)
+     * @return result bundle, or null
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+
+        // copy the write-ahead log into the database without blocking the readers and writers
+        if (method.equals(mMethodCheckpoint)) {
+            Cursor checkpoint = null;
+            try {
+                checkpoint = mDatabase.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+                checkpoint.moveToFirst();
+            } catch (SQLiteException e) {
+                Utility.log(getContext(), LOG_TAG, "Failed to checkpoint database: " + e.getMessage());
+            } finally {
+                if (checkpoint != null) {
+                    checkpoint.close();
+                }
+            }
+            return null;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
     /**
      * Get the version number of the table model definition
      * @return int containing the schema version
      */
     @Override
     protected int getSchemaVersion() {
-        return 2;
+        return 9;
+    }
+
+    /**
+     * Create the tables that can not be defined using the simpleprovider annotations
+     * @param db the database that was just created
+     */
+    @Override
+    protected void onCreate(SQLiteDatabase db) {
+        createKoopmanZoekTable(db);
+        createIndexes(db);
+        createOutboxTable(db);
+    }
+
+    /**
+     * Migrate the tables that can not be defined using the simpleprovider annotations
+     * @param db the database being upgraded
+     * @param oldVersion the schema version we are upgrading from
+     * @param newVersion the schema version we are upgrading to
+     */
+    @Override
+    protected void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+        // version 3: full-text search index on the koopmannen, filled from the already cached data
+        if (oldVersion < 3) {
+            createKoopmanZoekTable(db);
+            rebuildKoopmanZoekIndex(db);
+        }
+
+        // version 4: indexes on the join and filter columns
+        if (oldVersion < 4) {
+            createIndexes(db);
+        }
+
+        // version 6: outbox of the writes that still need to be sent to the api
+        if (oldVersion < 6) {
+            createOutboxTable(db);
+        }
+
+        // version 8: the account that made each outbox write, the writes made before belong to the
+        // account that is logged in now
+        if (oldVersion < 8 && oldVersion >= 6) {
+            db.execSQL("ALTER TABLE " + mTableOutbox + " ADD COLUMN " + Outbox.COL_ACCOUNT_ID + " INTEGER");
+            SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
+            int accountId = settings.getInt(getContext().getString(R.string.sharedpreferences_key_account_id), -1);
+            db.execSQL("UPDATE " + mTableOutbox + " SET " + Outbox.COL_ACCOUNT_ID + " = " + accountId);
+        }
+
+        // version 9: the achternaam and pas uid are normalized in the search index, and have a
+        // column to rank the values starting with the term
+        if (oldVersion < 9 && oldVersion >= 3) {
+            db.execSQL("DROP TABLE IF EXISTS " + mTableKoopmanZoek);
+            createKoopmanZoekTable(db);
+            rebuildKoopmanZoekIndex(db);
+        }
     }
 
     /**
@@ -185,6 +386,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
 
         @Column(Column.FieldType.TEXT)
         public static final String COL_PAS_UID = "pas_uid";
+
+        @Column(value = Column.FieldType.TEXT, since = 5)
+        public static final String COL_HASH = "hash";
     }
 
     /**
@@ -206,6 +410,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
 
         @Column(Column.FieldType.TEXT)
         public static final String COL_PAS_UID = "pas_uid";
+
+        @Column(value = Column.FieldType.TEXT, since = 5)
+        public static final String COL_HASH = "hash";
     }
 
     /**
@@ -269,6 +476,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
 
         @Column(Column.FieldType.INTEGER)
         public static final String COL_EENMALIG_ELEKTRA = "eenmaligElektra";
+
+        @Column(value = Column.FieldType.TEXT, since = 5)
+        public static final String COL_HASH = "hash";
     }
 
     /**
@@ -388,6 +598,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
 
         @Column(Column.FieldType.INTEGER)
         public static final String COL_EENMALIG_ELEKTRA_VAST = "eenmaligElektra_vast";
+
+        @Column(value = Column.FieldType.TEXT, since = 5)
+        public static final String COL_HASH = "hash";
     }
 
     /**
@@ -428,6 +641,182 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
 
         @Column(Column.FieldType.TEXT)
         public static final String COL_VERWIJDERD_DATUMTIJD = "verwijderd_datumtijd";
+
+        @Column(value = Column.FieldType.TEXT, since = 5)
+        public static final String COL_HASH = "hash";
+    }
+
+    /**
+     * /tarief - Tarief table columns definition. The tarieven of a markt are learned from the concept
+     * facturen we get from the api, so we can calculate a concept factuur locally
+     */
+    @Table(value = mTableTarief, since = 7)
+    public class Tarief {
+
+        // combined unique id column made from: markt_id + "-" + naam (eg. "12-Promotiegelden per meter")
+        @Column(value = Column.FieldType.TEXT, primaryKey = true)
+        public static final String COL_ID = "_id";
+
+        @Column(Column.FieldType.INTEGER)
+        public static final String COL_MARKT_ID = "markt_id";
+
+        // product name as it appears on the factuur
+        @Column(Column.FieldType.TEXT)
+        public static final String COL_NAAM = "naam";
+
+        // position of the product on the factuur
+        @Column(Column.FieldType.INTEGER)
+        public static final String COL_VOLGORDE = "volgorde";
+
+        // what the aantal is based on: a product param, or one of the GRONDSLAG_ constants
+        @Column(Column.FieldType.TEXT)
+        public static final String COL_GRONDSLAG = "grondslag";
+
+        // if the vaste plaats quantity of the product is subtracted from the aantal
+        @Column(Column.FieldType.INTEGER)
+        public static final String COL_MIN_VAST = "min_vast";
+
+        // price per unit excluding btw
+        @Column(Column.FieldType.REAL)
+        public static final String COL_BEDRAG = "bedrag";
+
+        @Column(Column.FieldType.REAL)
+        public static final String COL_BTW_PERCENTAGE = "btw_percentage";
+
+        public static final String GRONDSLAG_METERS = "meters";
+        public static final String GRONDSLAG_DAGVERGUNNING = "dagvergunning";
+    }
+
+    /**
+     * /outbox - Outbox columns definition. This table is not created by simpleprovider, because it
+     * has an autoincrement id to keep the writes in the order they were made. Each row is a write
+     * that was already applied to the local tables, and still needs to be sent to the api
+     */
+    public class Outbox {
+
+        public static final String COL_ID = "_id";
+
+        // unique key sent with the request, so the api can recognise a retried write
+        public static final String COL_IDEMPOTENCY_KEY = "idempotency_key";
+
+        // one of the TYPE_ constants
+        public static final String COL_TYPE = "type";
+
+        // one of the METHOD_ constants
+        public static final String COL_METHOD = "method";
+
+        // id of the local row, negative for rows that were created locally and not yet posted
+        public static final String COL_ENTITY_ID = "entity_id";
+
+        public static final String COL_PAYLOAD = "payload";
+
+        public static final String COL_ATTEMPTS = "attempts";
+
+        // one of the STATUS_ constants
+        public static final String COL_STATUS = "status";
+
+        public static final String COL_ERROR = "error";
+
+        // id of the account that made the write, it is only sent with the api-key of this account
+        public static final String COL_ACCOUNT_ID = "account_id";
+
+        public static final String TYPE_DAGVERGUNNING = mTableDagvergunning;
+        public static final String TYPE_NOTITIE = mTableNotitie;
+
+        public static final String METHOD_POST = "POST";
+        public static final String METHOD_PUT = "PUT";
+        public static final String METHOD_DELETE = "DELETE";
+
+        public static final String STATUS_PENDING = "pending";
+        public static final String STATUS_CONFLICT = "conflict";
+    }
+
+    /**
+     * Uris to notify and koopmannen to update in the search index, collected while running an
+     * applybatch, and the statements compiled for the batch
+     */
+    private class SyncBatch {
+        private Set<Uri> mNotifyUris = new HashSet<>();
+        private Set<Long> mKoopmanIds = new HashSet<>();
+        private HashMap<String, SQLiteStatement> mInsertStatements = new HashMap<>();
+        private HashMap<String, SQLiteStatement> mHashStatements = new HashMap<>();
+
+        /**
+         * Get the compiled statement selecting the stored hash of a row of the given table
+         * @param table the table name
+         * @return the compiled statement
+         */
+        private SQLiteStatement getHashStatement(String table) {
+            SQLiteStatement hashStatement = mHashStatements.get(table);
+            if (hashStatement == null) {
+                hashStatement = compileHashStatement(table);
+                mHashStatements.put(table, hashStatement);
+            }
+            return hashStatement;
+        }
+
+        /**
+         * Close the statements compiled for the batch
+         */
+        private void close() {
+            for (SQLiteStatement statement : mInsertStatements.values()) {
+                statement.close();
+            }
+            for (SQLiteStatement statement : mHashStatements.values()) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * /koopmanzoek - Koopman full-text search index columns definition. This is an fts4 virtual
+     * table that is not created by simpleprovider, but created and kept up-to-date by the provider
+     * itself on every write to the koopman and sollicitatie tables. The docid is the koopman id.
+     * All values are normalized to lowercase letters and digits. The columns also contain all
+     * suffixes of the values, so a prefix match on them works as an infix match. The begin columns
+     * only contain the whole achternaam and pas uid, to rank the values starting with the term
+     */
+    public class KoopmanZoek {
+
+        public static final String COL_DOCID = "docid";
+
+        public static final String COL_ERKENNINGSNUMMER = "zoek_erkenningsnummer";
+
+        public static final String COL_SOLLICITATIE_NUMMER = "zoek_sollicitatie_nummer";
+
+        public static final String COL_ACHTERNAAM = "zoek_achternaam";
+
+        public static final String COL_PAS_UID = "zoek_pas_uid";
+
+        public static final String COL_ACHTERNAAM_BEGIN = "zoek_achternaam_begin";
+
+        public static final String COL_PAS_UID_BEGIN = "zoek_pas_uid_begin";
+    }
+
+    /**
+     * Create a uri for a ranked prefix/infix lookup in the koopman search index
+     * @param veld the search index column to search in (one of the KoopmanZoek.COL_ constants)
+     * @param term the (partial) value we are looking for
+     * @return uri that can be queried like the mUriKoopmanJoined uri
+     */
+    public static Uri createKoopmanZoekUri(String veld, CharSequence term) {
+        return mUriKoopmanZoek.buildUpon()
+                .appendQueryParameter(mQueryParamZoekVeld, veld)
+                .appendQueryParameter(mQueryParamZoekTerm, term != null ? term.toString() : "")
+                .build();
+    }
+
+    /**
+     * Create a uri to bulkinsert into the given table in merge mode. In merge mode a hash of the
+     * values of each row is compared with the hash stored with the existing row, and only new or
+     * changed rows are written. The loaders are only notified when at least one row changed
+     * @param uri the table uri
+     * @return uri that can be used in bulkinsert
+     */
+    public static Uri createMergeUri(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(mQueryParamMerge, "true")
+                .build();
     }
 
     /**
@@ -447,14 +836,48 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
             return null;
         }
 
+        // when running an applybatch we reuse the compiled statements of the batch
+        SyncBatch syncBatch = mSyncBatch.get();
+
+        // in merge mode an unchanged row is not written, and we return the uri of the existing row
+        if (uri.getBooleanQueryParameter(mQueryParamMerge, false)) {
+            SQLiteStatement hashStatement = syncBatch != null ?
+                    syncBatch.getHashStatement(segments.get(0)) :
+                    compileHashStatement(segments.get(0));
+            try {
+                if (isUnchanged(hashStatement, values)) {
+                    return uri.buildUpon().clearQuery()
+                            .appendPath(values.getAsString(BaseColumns._ID))
+                            .build();
+                }
+            } finally {
+                if (syncBatch == null) {
+                    hashStatement.close();
+                }
+            }
+        }
+
         // try to insert or replace record
         mDatabase.beginTransaction();
         try {
-            long rowId = mDatabase.insertWithOnConflict(
-                    segments.get(0),
-                    null,
-                    values,
-                    SQLiteDatabase.CONFLICT_REPLACE);
+            long rowId;
+            if (syncBatch != null) {
+                rowId = bindInsertStatement(syncBatch.mInsertStatements, segments.get(0), values).executeInsert();
+            } else {
+                rowId = mDatabase.insertWithOnConflict(
+                        segments.get(0),
+                        null,
+                        values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            // keep the koopman search index up-to-date
+            Long koopmanId = getKoopmanZoekId(segments.get(0), values);
+            if (rowId > -1 && koopmanId != null) {
+                HashSet<Long> koopmanIds = new HashSet<>();
+                koopmanIds.add(koopmanId);
+                koopmanZoekIndexChanged(koopmanIds);
+            }
 
             // commit the transaction
             mDatabase.setTransactionSuccessful();
@@ -463,12 +886,10 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
             if (rowId > -1) {
 
                 // send notification to loader
-                if (getContext() != null) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
+                notifyChange(uri);
 
                 // return the uri where the inserted row can be found
-                return ContentUris.withAppendedId(uri, rowId);
+                return ContentUris.withAppendedId(uri.buildUpon().clearQuery().build(), rowId);
             }
 
         } catch (SQLiteException e) {
@@ -497,36 +918,288 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
             return 0;
         }
 
+        // koopman ids of which the search index needs to be updated
+        Set<Long> koopmanIds = new HashSet<>();
+
+        // compiled insert statements of this batch by column set
+        HashMap<String, SQLiteStatement> statements = new HashMap<>();
+
+        // in merge mode we compare the hash of the values with the stored hash
+        SQLiteStatement hashStatement = null;
+        if (uri.getBooleanQueryParameter(mQueryParamMerge, false)) {
+            hashStatement = compileHashStatement(segments.get(0));
+        }
+
         // start the transaction
         mDatabase.beginTransaction();
         try {
             // insert values and replace them if they already exist
             for(ContentValues value : values) {
-                long _id = mDatabase.insertWithOnConflict(
-                        segments.get(0),
-                        null,
-                        value,
-                        SQLiteDatabase.CONFLICT_REPLACE);
+
+                // skip the row if it is unchanged
+                if (hashStatement != null && isUnchanged(hashStatement, value)) {
+                    continue;
+                }
+
+                long _id = -1;
+                try {
+                    _id = bindInsertStatement(statements, segments.get(0), value).executeInsert();
+                } catch (SQLiteConstraintException e) {
+                    Utility.log(getContext(), LOG_TAG, e.getMessage());
+                }
 
                 if (_id != -1) {
                     insertCount++;
+
+                    Long koopmanId = getKoopmanZoekId(segments.get(0), value);
+                    if (koopmanId != null) {
+                        koopmanIds.add(koopmanId);
+                    }
                 }
             }
+
+            // update the koopman search index in the same transaction
+            if (koopmanIds.size() > 0) {
+                koopmanZoekIndexChanged(koopmanIds);
+            }
+
             mDatabase.setTransactionSuccessful();
         } catch (SQLiteException e) {
             Utility.log(getContext(), LOG_TAG, e.getMessage());
         } finally {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            if (hashStatement != null) {
+                hashStatement.close();
+            }
             mDatabase.endTransaction();
         }
 
         // if records were inserted we notify the loaders bound to the given uri
-        if (insertCount > 0 && getContext() != null) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (insertCount > 0) {
+            notifyChange(uri);
         }
 
         return insertCount;
     }
 
+    /**
+     * Override the super class delete method for deleting from a table so we only notify the bound
+     * cursor loaders when records were actually deleted
+     * @param uri the uri (table) to delete from
+     * @param selection the where clause
+     * @param selectionArgs the arguments of the where clause
+     * @return amount of records deleted
+     */
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+
+        // let the super class handle deleting a single record by id
+        List<String> segments = uri.getPathSegments();
+        if (segments == null || segments.size() != 1) {
+            return super.delete(uri, selection, selectionArgs);
+        }
+
+        int deleteCount;
+        mDatabase.beginTransaction();
+        try {
+
+            // remember the koopmannen whose search index rows change, before their rows are gone
+            Set<Long> koopmanIds = getKoopmanZoekIds(segments.get(0), selection, selectionArgs);
+
+            deleteCount = mDatabase.delete(segments.get(0), selection, selectionArgs);
+
+            // remove the deleted koopmannen, and the deleted sollicitatie nummers, from the index
+            if (deleteCount > 0 && koopmanIds.size() > 0) {
+                koopmanZoekIndexChanged(koopmanIds);
+            }
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        // if records were deleted we notify the loaders bound to the given uri
+        if (deleteCount > 0) {
+            notifyChange(uri);
+        }
+
+        return deleteCount;
+    }
+
+    /**
+     * Override the super class applybatch method so all operations of a sync (eg. the koopmannen,
+     * sollicitaties and dagvergunningen of one api response) are written in a single transaction.
+     * The loaders are notified once per changed uri after the transaction is committed, so they
+     * never see a half-written state
+     * @param operations the insert, update and delete operations
+     * @return the results of the operations
+     * @throws OperationApplicationException when an operation fails
+     */
+    @Override
+    public @NonNull ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProviderResult[] results;
+
+        // collect the notifications and search index updates while running the operations
+        SyncBatch syncBatch = new SyncBatch();
+        mSyncBatch.set(syncBatch);
+
+        mDatabase.beginTransaction();
+        try {
+            results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+
+            // update the koopman search index in the same transaction
+            if (syncBatch.mKoopmanIds.size() > 0) {
+                updateKoopmanZoekIndex(mDatabase, syncBatch.mKoopmanIds);
+            }
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            syncBatch.close();
+            mDatabase.endTransaction();
+            mSyncBatch.remove();
+        }
+
+        // notify the loaders once for each changed uri
+        if (getContext() != null) {
+            for (Uri uri : syncBatch.mNotifyUris) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Notify the loaders bound to the given uri of a change, or remember the uri when we are running
+     * an applybatch so we can notify after the batch was committed
+     * @param uri the changed uri
+     */
+    private void notifyChange(Uri uri) {
+        uri = uri.buildUpon().clearQuery().build();
+
+        SyncBatch syncBatch = mSyncBatch.get();
+        if (syncBatch != null) {
+            syncBatch.mNotifyUris.add(uri);
+        } else if (getContext() != null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Update the koopman search index for the given koopmannen, or remember them when we are
+     * running an applybatch so we update the index once at the end of the batch
+     * @param koopmanIds ids of the koopmannen that were inserted or updated
+     */
+    private void koopmanZoekIndexChanged(Collection<Long> koopmanIds) {
+        SyncBatch syncBatch = mSyncBatch.get();
+        if (syncBatch != null) {
+            syncBatch.mKoopmanIds.addAll(koopmanIds);
+        } else {
+            updateKoopmanZoekIndex(mDatabase, koopmanIds);
+        }
+    }
+
+    /**
+     * Compile the statement that selects the stored hash of a row by id
+     * @param table the table name
+     * @return the compiled statement, to be closed by the caller
+     */
+    private SQLiteStatement compileHashStatement(String table) {
+        return mDatabase.compileStatement("SELECT " + Koopman.COL_HASH + " FROM " + table +
+                " WHERE " + BaseColumns._ID + " = ?");
+    }
+
+    /**
+     * Check if the given values are the same as the stored row by comparing the hash of the values
+     * with the stored hash. If they differ the new hash is added to the values so it will be
+     * stored with the row
+     * @param hashStatement the compiled statement selecting the stored hash
+     * @param values the values of a row
+     * @return true if the row exists and is unchanged
+     */
+    private boolean isUnchanged(SQLiteStatement hashStatement, ContentValues values) {
+        if (!values.containsKey(BaseColumns._ID)) {
+            return false;
+        }
+
+        String hash = createHash(values);
+        DatabaseUtils.bindObjectToProgram(hashStatement, 1, values.get(BaseColumns._ID));
+        try {
+            if (hash.equals(hashStatement.simpleQueryForString())) {
+                return true;
+            }
+        } catch (SQLiteDoneException e) {
+            // the row does not exist yet
+        }
+
+        values.put(Koopman.COL_HASH, hash);
+        return false;
+    }
+
+    /**
+     * Create a hash of the given values, independent of the order of the columns and excluding the
+     * hash column itself (which has the same name in all tables). This is the hash that is stored
+     * with the rows written in merge mode
+     * @param values the values of a row
+     * @return hexadecimal sha-1 hash string
+     */
+    public static String createHash(ContentValues values) {
+        StringBuilder content = new StringBuilder();
+        for (String column : new TreeSet<>(values.keySet())) {
+            if (!column.equals(Koopman.COL_HASH)) {
+                content.append(column).append('=').append(values.get(column)).append('\n');
+            }
+        }
+
+        return Utility.sha1Hex(content.toString());
+    }
+
+    /**
+     * Get the compiled insert or replace statement for the table and the column set of the given
+     * values, and bind the values to it. The statements are compiled once per table and column set
+     * and reused for the following rows with the same columns, which saves compiling the sql for
+     * every row
+     * @param statements the statements compiled so far, by table and column set
+     * @param table the table name
+     * @param values the values of the row to insert
+     * @return the statement with the values bound to it
+     */
+    private SQLiteStatement bindInsertStatement(HashMap<String, SQLiteStatement> statements, String table, ContentValues values) {
+        Set<String> columns = values.keySet();
+        String columnList = TextUtils.join(", ", columns);
+
+        // tables can share a column set, so the table is part of the key
+        String key = table + " (" + columnList + ")";
+
+        SQLiteStatement statement = statements.get(key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ");
+            sql.append(table).append(" (").append(columnList).append(") VALUES (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(")");
+
+            statement = mDatabase.compileStatement(sql.toString());
+            statements.put(key, statement);
+        }
+
+        // bind the values in the same order as the columns in the statement
+        statement.clearBindings();
+        int index = 1;
+        for (String column : columns) {
+            DatabaseUtils.bindObjectToProgram(statement, index++, values.get(column));
+        }
+
+        return statement;
+    }
+
     /**
      * Catch non-standard table queries
      */
@@ -535,44 +1208,56 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
         Cursor cursor;
         Uri notificationUri = uri;
 
-        // @todo refactor this to use a uri matcher?
+        switch (mUriMatcher.match(uri)) {
 
-        if (uri.getPath().equals(mUriDagvergunningJoined.getPath())) {
+            case URI_DAGVERGUNNING_JOINED:
 
-            // query the dagvergunningen table joined with it's linked tables with the given arguments
-            cursor = queryDagvergunningenJoined(uri, projection, selection, selectionArgs, sortOrder, null);
+                // query the dagvergunningen table joined with it's linked tables with the given arguments
+                cursor = queryDagvergunningenJoined(uri, projection, selection, selectionArgs, sortOrder, null);
 
-            // subscribe the cursor to a different notification uri
-            notificationUri = MakkelijkeMarktProvider.mUriDagvergunning;
+                // subscribe the cursor to a different notification uri
+                notificationUri = MakkelijkeMarktProvider.mUriDagvergunning;
+                break;
 
-        } else if (uri.getPath().equals(mUriKoopmanJoined.getPath())) {
+            case URI_KOOPMAN_JOINED:
 
-            // query the koopman table joined with the sollicitatie table
-            cursor = queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, null);
-            notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                // query the koopman table joined with the sollicitatie table
+                cursor = queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, null);
+                notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                break;
 
-        } else if (uri.getPath().equals(mUriKoopmanJoinedGroupByErkenningsnummer.getPath())) {
+            case URI_KOOPMAN_JOINED_GROUPBY_ERKENNINGSNUMMER:
 
-            // query the koopman table joined with the sollicitatie table and grouped by erkennings nummer
-            cursor = queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, Koopman.COL_ERKENNINGSNUMMER);
-            notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                // query the koopman table joined with the sollicitatie table and grouped by erkennings nummer
+                cursor = queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, Koopman.COL_ERKENNINGSNUMMER);
+                notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                break;
 
-        } else if (uri.getPath().equals(mUriKoopmanJoinedGroupBySollicitatienummer.getPath())) {
+            case URI_KOOPMAN_JOINED_GROUPBY_SOLLICITATIENUMMER:
 
-            // query the koopman table joined with the sollicitatie table and grouped by sollicitatie nummer
-            cursor = queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, Sollicitatie.COL_SOLLICITATIE_NUMMER);
-            notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                // query the koopman table joined with the sollicitatie table and grouped by sollicitatie nummer
+                cursor = queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, Sollicitatie.COL_SOLLICITATIE_NUMMER);
+                notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                break;
 
-        } else if (uri.getPath().equals(mUriVervangerJoined.getPath())) {
+            case URI_VERVANGER_JOINED:
 
-            // query the vervanger table joined with the koopman table
-            cursor = queryVervangerJoined(uri, projection, selection, selectionArgs, sortOrder, null);
-            notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                // query the vervanger table joined with the koopman table
+                cursor = queryVervangerJoined(uri, projection, selection, selectionArgs, sortOrder, null);
+                notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                break;
 
-        } else {
+            case URI_KOOPMAN_ZOEK:
 
-            // call the default query method of the super class
-            cursor = super.query(uri, projection, selection, selectionArgs, sortOrder);
+                // ranked lookup of koopmannen using the full-text search index
+                cursor = queryKoopmanZoek(uri, projection, selection, selectionArgs, sortOrder);
+                notificationUri = MakkelijkeMarktProvider.mUriKoopman;
+                break;
+
+            default:
+
+                // call the default query method of the super class
+                cursor = super.query(uri, projection, selection, selectionArgs, sortOrder);
         }
 
         // set the uri that must be notified of any changes
@@ -583,67 +1268,138 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
         return cursor;
     }
 
+    /**
+     * Get the query plan sqlite picks for a query on one of the joined uris, so a test can check
+     * that the joins and selections use the indexes instead of scanning the tables
+     * @return a cursor containing the explain query plan rows, or null for an unknown uri
+     */
+    Cursor explainQueryPlan(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder queryBuilder;
+        String groupBy = null;
+
+        switch (mUriMatcher.match(uri)) {
+            case URI_DAGVERGUNNING_JOINED:
+                queryBuilder = getDagvergunningJoinedQueryBuilder();
+                break;
+            case URI_KOOPMAN_JOINED:
+                queryBuilder = getKoopmanJoinedQueryBuilder();
+                break;
+            case URI_KOOPMAN_JOINED_GROUPBY_ERKENNINGSNUMMER:
+                queryBuilder = getKoopmanJoinedQueryBuilder();
+                groupBy = Koopman.COL_ERKENNINGSNUMMER;
+                break;
+            case URI_KOOPMAN_JOINED_GROUPBY_SOLLICITATIENUMMER:
+                queryBuilder = getKoopmanJoinedQueryBuilder();
+                groupBy = Sollicitatie.COL_SOLLICITATIE_NUMMER;
+                break;
+            case URI_VERVANGER_JOINED:
+                queryBuilder = getVervangerJoinedQueryBuilder();
+                break;
+            default:
+                return null;
+        }
+
+        String sql = queryBuilder.buildQuery(projection, selection, groupBy, null, sortOrder, null);
+        return mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+    }
+
     /**
      * Query the dagvergunningen table joined with it's linked tables with the given arguments
      * @return a cursor containing the dagvergunning resultset
      */
     private Cursor queryDagvergunningenJoined(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, String groupBy) {
-        SQLiteQueryBuilder dagvergunningJoinedQueryBuilder = new SQLiteQueryBuilder();
-
-        // left join the dagvergunning table with the linked koopman, account, and sollicitatie tables
-        String tables = mTableDagvergunning +
-                        " LEFT JOIN " + mTableKoopman + " ON (" +
-                        mTableDagvergunning + "." + Dagvergunning.COL_KOOPMAN_ID + " = " +
-                        mTableKoopman + "." + Koopman.COL_ID + ")" +
-                        " LEFT JOIN " + mTableAccount + " ON (" +
-                        mTableDagvergunning + "." + Dagvergunning.COL_REGISTRATIE_ACCOUNT_ID + " = " +
-                        mTableAccount + "." + MakkelijkeMarktProvider.Account.COL_ID + ")" +
-                        " LEFT JOIN " + mTableSollicitatie + " ON (" +
-                        mTableDagvergunning + "." + Dagvergunning.COL_SOLLICITATIE_ID + " = " +
-                        mTableSollicitatie + "." + Sollicitatie.COL_ID + ")";
-        dagvergunningJoinedQueryBuilder.setTables(tables);
-
-        // create a projection map that will rename the ambiguous columns, and just copy the
-        // others with their original name (when using a projection map you have to specify all
-        // columns that you need in the resultset)
+
+        // run the query with the given arguments using the configured query builder
+        return getDagvergunningJoinedQueryBuilder().query(mDatabase,
+                projection,
+                selection,
+                selectionArgs,
+                groupBy,
+                null,
+                sortOrder);
+    }
+
+    /**
+     * Get the query builder for the dagvergunningen table joined with it's linked tables, which is
+     * configured once and reused for all queries
+     * @return the configured query builder
+     */
+    private synchronized SQLiteQueryBuilder getDagvergunningJoinedQueryBuilder() {
+        if (mDagvergunningJoinedQueryBuilder == null) {
+            SQLiteQueryBuilder dagvergunningJoinedQueryBuilder = new SQLiteQueryBuilder();
+
+            // left join the dagvergunning table with the linked koopman, account, and sollicitatie tables
+            dagvergunningJoinedQueryBuilder.setTables(mTableDagvergunning +
+                    " LEFT JOIN " + mTableKoopman + " ON (" +
+                    mTableDagvergunning + "." + Dagvergunning.COL_KOOPMAN_ID + " = " +
+                    mTableKoopman + "." + Koopman.COL_ID + ")" +
+                    " LEFT JOIN " + mTableAccount + " ON (" +
+                    mTableDagvergunning + "." + Dagvergunning.COL_REGISTRATIE_ACCOUNT_ID + " = " +
+                    mTableAccount + "." + MakkelijkeMarktProvider.Account.COL_ID + ")" +
+                    " LEFT JOIN " + mTableSollicitatie + " ON (" +
+                    mTableDagvergunning + "." + Dagvergunning.COL_SOLLICITATIE_ID + " = " +
+                    mTableSollicitatie + "." + Sollicitatie.COL_ID + ")");
+            dagvergunningJoinedQueryBuilder.setProjectionMap(createDagvergunningJoinedProjectionMap());
+
+            mDagvergunningJoinedQueryBuilder = dagvergunningJoinedQueryBuilder;
+        }
+
+        return mDagvergunningJoinedQueryBuilder;
+    }
+
+    /**
+     * Create a projection map for the dagvergunningen table joined with it's linked tables that
+     * will rename the ambiguous columns, and just copy the others with their original name (when
+     * using a projection map you have to specify all columns that you need in the resultset)
+     * @return unmodifiable map containing the projection map
+     */
+    private Map<String, String> createDagvergunningJoinedProjectionMap() {
         HashMap<String, String> columnMap = new HashMap<>();
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_ID, "_id"));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_METHODE, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_REGISTRATIE_DATUMTIJD, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_REGISTRATIE_GEOLOCATIE_LAT, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_REGISTRATIE_GEOLOCATIE_LONG, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_TOTALE_LENGTE, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_STATUS_SOLLICITATIE, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_DOORGEHAALD, "dagvergunning_doorgehaald"));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_AANWEZIG, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_NOTITIE, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_VERVANGER_ID, null));
-        columnMap.putAll(createProjectionMap(mTableDagvergunning, Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER, null));
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_ID, "_id");
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_WAARDE, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_ERKENNINGSNUMMER_INVOER_METHODE, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_REGISTRATIE_DATUMTIJD, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_REGISTRATIE_GEOLOCATIE_LAT, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_REGISTRATIE_GEOLOCATIE_LONG, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_TOTALE_LENGTE, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_STATUS_SOLLICITATIE, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_DOORGEHAALD, "dagvergunning_doorgehaald");
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_AANWEZIG, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_NOTITIE, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_VERVANGER_ID, null);
+        putProjection(columnMap, mTableDagvergunning, Dagvergunning.COL_VERVANGER_ERKENNINGSNUMMER, null);
 
         // producten en producten vast
         if (getContext() != null) {
             String[] productParams = getContext().getResources().getStringArray(R.array.array_product_param);
             for (String product : productParams) {
-                columnMap.putAll(createProjectionMap(mTableDagvergunning, product, "dagvergunning_" + product));
-                columnMap.putAll(createProjectionMap(mTableDagvergunning, product + "_vast", null));
+                putProjection(columnMap, mTableDagvergunning, product, "dagvergunning_" + product);
+                putProjection(columnMap, mTableDagvergunning, product + "_vast", null);
             }
         }
 
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ID, "koopman_koopman_id"));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_STATUS, "koopman_status"));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_VOORLETTERS, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ACHTERNAAM, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_FOTO_URL, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_FOTO_MEDIUM_URL, null));
-        columnMap.putAll(createProjectionMap(mTableAccount, Account.COL_ID, "account_account_id"));
-        columnMap.putAll(createProjectionMap(mTableAccount, Account.COL_NAAM, null));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_ID, "sollicitatie_sollicitatie_id"));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_SOLLICITATIE_NUMMER, null));
-        dagvergunningJoinedQueryBuilder.setProjectionMap(columnMap);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_ID, "koopman_koopman_id");
+        putProjection(columnMap, mTableKoopman, Koopman.COL_STATUS, "koopman_status");
+        putProjection(columnMap, mTableKoopman, Koopman.COL_VOORLETTERS, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_ACHTERNAAM, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_FOTO_URL, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_FOTO_MEDIUM_URL, null);
+        putProjection(columnMap, mTableAccount, Account.COL_ID, "account_account_id");
+        putProjection(columnMap, mTableAccount, Account.COL_NAAM, null);
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_ID, "sollicitatie_sollicitatie_id");
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_SOLLICITATIE_NUMMER, null);
+
+        return Collections.unmodifiableMap(columnMap);
+    }
 
-        // and run the query with the given arguments
-        return dagvergunningJoinedQueryBuilder.query(mDatabase,
+    /**
+     * Query the koopman table joined with the sollicitatie and markt tables
+     * @return a cursor containing the koopman resultset
+     */
+    private Cursor queryKoopmanJoined(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, String groupBy) {
+
+        // run the query with the given arguments using the configured query builder
+        return getKoopmanJoinedQueryBuilder().query(mDatabase,
                 projection,
                 selection,
                 selectionArgs,
@@ -653,57 +1409,146 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
     }
 
     /**
-     * Query the koopman table joined with the sollicitatie and markt tables
+     * Get the query builder for the koopman table joined with the sollicitatie and markt tables,
+     * which is configured once and reused for all queries
+     * @return the configured query builder
+     */
+    private synchronized SQLiteQueryBuilder getKoopmanJoinedQueryBuilder() {
+        if (mKoopmanJoinedQueryBuilder == null) {
+            SQLiteQueryBuilder koopmanJoinedQueryBuilder = new SQLiteQueryBuilder();
+            koopmanJoinedQueryBuilder.setTables(mTableKoopman + mKoopmanJoins);
+            koopmanJoinedQueryBuilder.setProjectionMap(getKoopmanJoinedProjectionMap());
+
+            mKoopmanJoinedQueryBuilder = koopmanJoinedQueryBuilder;
+        }
+
+        return mKoopmanJoinedQueryBuilder;
+    }
+
+    /**
+     * Query the koopman search index joined with the koopman, sollicitatie and markt tables. The
+     * search column and term are taken from the uri query parameters. Results starting with the
+     * term are ranked above results that only contain the term, followed by the given sort order
      * @return a cursor containing the koopman resultset
      */
-    private Cursor queryKoopmanJoined(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, String groupBy) {
-        SQLiteQueryBuilder koopmanJoinedQueryBuilder = new SQLiteQueryBuilder();
+    private Cursor queryKoopmanZoek(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        String veld = uri.getQueryParameter(mQueryParamZoekVeld);
+        String term = normalizeZoekTerm(uri.getQueryParameter(mQueryParamZoekTerm));
+
+        // map the search index column to the column containing the original value or to the
+        // search index column containing the whole value, and the column we group the results by
+        String column = null;
+        String beginVeld = null;
+        String groupBy;
+        if (KoopmanZoek.COL_ERKENNINGSNUMMER.equals(veld)) {
+            column = mTableKoopman + "." + Koopman.COL_ERKENNINGSNUMMER;
+            groupBy = Koopman.COL_ERKENNINGSNUMMER;
+        } else if (KoopmanZoek.COL_SOLLICITATIE_NUMMER.equals(veld)) {
+            column = mTableSollicitatie + "." + Sollicitatie.COL_SOLLICITATIE_NUMMER;
+            groupBy = Sollicitatie.COL_SOLLICITATIE_NUMMER;
+        } else if (KoopmanZoek.COL_ACHTERNAAM.equals(veld)) {
+            beginVeld = KoopmanZoek.COL_ACHTERNAAM_BEGIN;
+            groupBy = mTableKoopman + "." + Koopman.COL_ID;
+        } else if (KoopmanZoek.COL_PAS_UID.equals(veld)) {
+            beginVeld = KoopmanZoek.COL_PAS_UID_BEGIN;
+            groupBy = mTableKoopman + "." + Koopman.COL_ID;
+        } else {
+            Utility.log(getContext(), LOG_TAG, "Unknown koopman search column: " + veld);
+            return null;
+        }
 
-        String tables = mTableKoopman +
-                " LEFT JOIN " + mTableSollicitatie + " ON (" +
-                mTableKoopman + "." + Koopman.COL_ID + " = " +
-                mTableSollicitatie + "." + Sollicitatie.COL_KOOPMAN_ID + ")" +
-                " LEFT JOIN " + mTableMarkt + " ON (" +
-                mTableSollicitatie + "." + Sollicitatie.COL_MARKT_ID + " = " +
-                mTableMarkt + "." + Markt.COL_ID + ")";
-        koopmanJoinedQueryBuilder.setTables(tables);
+        // without a search term there is nothing to match, so return the unfiltered joined result
+        if (term.equals("")) {
+            return queryKoopmanJoined(uri, projection, selection, selectionArgs, sortOrder, groupBy);
+        }
+
+        SQLiteQueryBuilder koopmanZoekQueryBuilder = new SQLiteQueryBuilder();
+        koopmanZoekQueryBuilder.setTables(mTableKoopmanZoek +
+                " JOIN " + mTableKoopman + " ON (" +
+                mTableKoopmanZoek + "." + KoopmanZoek.COL_DOCID + " = " +
+                mTableKoopman + "." + Koopman.COL_ID + ")" +
+                mKoopmanJoins);
+        koopmanZoekQueryBuilder.setProjectionMap(getKoopmanJoinedProjectionMap());
+
+        // prefix match the term on the search index column
+        koopmanZoekQueryBuilder.appendWhere(mTableKoopmanZoek + " MATCH ");
+        koopmanZoekQueryBuilder.appendWhereEscapeString(veld + ":" + term + "*");
+
+        // rank the values starting with the term first
+        String rankOrder;
+        if (beginVeld != null) {
+
+            // the achternaam and pas uid belong to the koopman of the search index row, so the
+            // match is enough. we also rank them with the search index, because the sql lower()
+            // only folds ascii and would not find the names with other letters
+            rankOrder = "CASE WHEN " + mTableKoopmanZoek + "." + KoopmanZoek.COL_DOCID + " IN (" +
+                    "SELECT " + KoopmanZoek.COL_DOCID + " FROM " + mTableKoopmanZoek +
+                    " WHERE " + mTableKoopmanZoek + " MATCH " + DatabaseUtils.sqlEscapeString(beginVeld + ":" + term + "*") +
+                    ") THEN 0 ELSE 1 END";
+        } else {
+
+            // make sure the joined row (the sollicitatie at the selected markt for example)
+            // actually contains the term, comparing the normalized value like the search index
+            // does, these values only contain ascii letters and digits
+            koopmanZoekQueryBuilder.appendWhere(" AND " + normalizeZoekColumn(column) + " LIKE ");
+            koopmanZoekQueryBuilder.appendWhereEscapeString("%" + term + "%");
+            rankOrder = "CASE WHEN " + normalizeZoekColumn(column) + " LIKE " +
+                    DatabaseUtils.sqlEscapeString(term + "%") + " THEN 0 ELSE 1 END";
+        }
+        if (sortOrder != null && !sortOrder.trim().equals("")) {
+            rankOrder += ", " + sortOrder;
+        }
+
+        // and run the query with the given arguments
+        return koopmanZoekQueryBuilder.query(mDatabase,
+                projection,
+                selection,
+                selectionArgs,
+                groupBy,
+                null,
+                rankOrder);
+    }
+
+    /**
+     * Get the projection map for the koopman table joined with the sollicitatie and markt tables
+     * that will rename the ambiguous columns, which is created once and shared by the koopman
+     * joined and koopman search queries
+     * @return unmodifiable map containing the projection map
+     */
+    private synchronized Map<String, String> getKoopmanJoinedProjectionMap() {
+        if (mKoopmanJoinedProjectionMap != null) {
+            return mKoopmanJoinedProjectionMap;
+        }
 
-        // create a projection map that will rename the ambiguous columns
         HashMap<String, String> columnMap = new HashMap<>();
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ID, "_id"));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ERKENNINGSNUMMER, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_STATUS, "koopman_status"));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_VOORLETTERS, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ACHTERNAAM, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_FOTO_URL, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_FOTO_MEDIUM_URL, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_PAS_UID, null));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_ID, "sollicitatie_id"));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_SOLLICITATIE_NUMMER, null));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_DOORGEHAALD, null));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_STATUS, "sollicitatie_status"));
-        columnMap.putAll(createProjectionMap(mTableSollicitatie, Sollicitatie.COL_MARKT_ID, null));
+        putProjection(columnMap, mTableKoopman, Koopman.COL_ID, "_id");
+        putProjection(columnMap, mTableKoopman, Koopman.COL_ERKENNINGSNUMMER, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_STATUS, "koopman_status");
+        putProjection(columnMap, mTableKoopman, Koopman.COL_VOORLETTERS, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_ACHTERNAAM, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_FOTO_URL, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_FOTO_MEDIUM_URL, null);
+        putProjection(columnMap, mTableKoopman, Koopman.COL_PAS_UID, null);
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_ID, "sollicitatie_id");
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_SOLLICITATIE_NUMMER, null);
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_DOORGEHAALD, null);
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_STATUS, "sollicitatie_status");
+        putProjection(columnMap, mTableSollicitatie, Sollicitatie.COL_MARKT_ID, null);
 
         // producten
         if (getContext() != null) {
             String[] productParams = getContext().getResources().getStringArray(R.array.array_product_param);
             for (String product : productParams) {
-                columnMap.putAll(createProjectionMap(mTableSollicitatie, product, null));
+                putProjection(columnMap, mTableSollicitatie, product, null);
             }
         }
 
-        columnMap.putAll(createProjectionMap(mTableMarkt, Markt.COL_ID, "markt_markt_id"));
-        columnMap.putAll(createProjectionMap(mTableMarkt, Markt.COL_AFKORTING, null));
-        koopmanJoinedQueryBuilder.setProjectionMap(columnMap);
+        putProjection(columnMap, mTableMarkt, Markt.COL_ID, "markt_markt_id");
+        putProjection(columnMap, mTableMarkt, Markt.COL_AFKORTING, null);
 
-        // and run the query with the given arguments
-        return koopmanJoinedQueryBuilder.query(mDatabase,
-                projection,
-                selection,
-                selectionArgs,
-                groupBy,
-                null,
-                sortOrder);
+        mKoopmanJoinedProjectionMap = Collections.unmodifiableMap(columnMap);
+
+        return mKoopmanJoinedProjectionMap;
     }
 
     /**
@@ -711,29 +1556,9 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
      * @return a cursor containing the koopman resultset
      */
     private Cursor queryVervangerJoined(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, String groupBy) {
-        SQLiteQueryBuilder vervangerJoinedQueryBuilder = new SQLiteQueryBuilder();
 
-        String tables = mTableKoopman +
-                " LEFT JOIN " + mTableVervanger + " ON (" +
-                mTableKoopman + "." + Koopman.COL_ID + " = " +
-                mTableVervanger + "." + Vervanger.COL_KOOPMAN_ID + ")";
-        vervangerJoinedQueryBuilder.setTables(tables);
-
-        // create a projection map that will rename the ambiguous columns
-        HashMap<String, String> columnMap = new HashMap<>();
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ID, "_id"));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ERKENNINGSNUMMER, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_STATUS, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_VOORLETTERS, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_ACHTERNAAM, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_FOTO_URL, null));
-        columnMap.putAll(createProjectionMap(mTableKoopman, Koopman.COL_FOTO_MEDIUM_URL, null));
-        columnMap.putAll(createProjectionMap(mTableVervanger, Vervanger.COL_VERVANGER_ID, null));
-        columnMap.putAll(createProjectionMap(mTableVervanger, Vervanger.COL_PAS_UID, "vervanger_pas_uid"));
-        vervangerJoinedQueryBuilder.setProjectionMap(columnMap);
-
-        // and run the query with the given arguments
-        return vervangerJoinedQueryBuilder.query(mDatabase,
+        // run the query with the given arguments using the configured query builder
+        return getVervangerJoinedQueryBuilder().query(mDatabase,
                 projection,
                 selection,
                 selectionArgs,
@@ -743,14 +1568,45 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
     }
 
     /**
-     * Helper function to create the sql to rename columns using the AS keyword
+     * Get the query builder for the vervanger table joined with the koopman table, which is
+     * configured once and reused for all queries
+     * @return the configured query builder
+     */
+    private synchronized SQLiteQueryBuilder getVervangerJoinedQueryBuilder() {
+        if (mVervangerJoinedQueryBuilder == null) {
+            SQLiteQueryBuilder vervangerJoinedQueryBuilder = new SQLiteQueryBuilder();
+            vervangerJoinedQueryBuilder.setTables(mTableKoopman +
+                    " LEFT JOIN " + mTableVervanger + " ON (" +
+                    mTableKoopman + "." + Koopman.COL_ID + " = " +
+                    mTableVervanger + "." + Vervanger.COL_KOOPMAN_ID + ")");
+
+            // create a projection map that will rename the ambiguous columns
+            HashMap<String, String> columnMap = new HashMap<>();
+            putProjection(columnMap, mTableKoopman, Koopman.COL_ID, "_id");
+            putProjection(columnMap, mTableKoopman, Koopman.COL_ERKENNINGSNUMMER, null);
+            putProjection(columnMap, mTableKoopman, Koopman.COL_STATUS, null);
+            putProjection(columnMap, mTableKoopman, Koopman.COL_VOORLETTERS, null);
+            putProjection(columnMap, mTableKoopman, Koopman.COL_ACHTERNAAM, null);
+            putProjection(columnMap, mTableKoopman, Koopman.COL_FOTO_URL, null);
+            putProjection(columnMap, mTableKoopman, Koopman.COL_FOTO_MEDIUM_URL, null);
+            putProjection(columnMap, mTableVervanger, Vervanger.COL_VERVANGER_ID, null);
+            putProjection(columnMap, mTableVervanger, Vervanger.COL_PAS_UID, "vervanger_pas_uid");
+            vervangerJoinedQueryBuilder.setProjectionMap(Collections.unmodifiableMap(columnMap));
+
+            mVervangerJoinedQueryBuilder = vervangerJoinedQueryBuilder;
+        }
+
+        return mVervangerJoinedQueryBuilder;
+    }
+
+    /**
+     * Helper function to add the sql to rename a column using the AS keyword to a projection map
+     * @param map the projection map to add the column to
      * @param tableName the table name for the fully qualified column name
      * @param columnName the original column name
      * @param asColumnName the name to rename the column
-     * @return a hashmap containing only one item with two strings containing the sql to rename
      */
-    private HashMap<String, String> createProjectionMap(String tableName, String columnName, String asColumnName) {
-        HashMap<String, String> map = new HashMap<>();
+    private void putProjection(Map<String, String> map, String tableName, String columnName, String asColumnName) {
 
         // rename the column if we received a asColumnName
         if (asColumnName != null) {
@@ -759,7 +1615,257 @@ public class MakkelijkeMarktProvider extends AbstractProvider {
             // else just use the original column name
             map.put(tableName + "." + columnName, columnName);
         }
+    }
+
+    /**
+     * Create the indexes on the columns that are used in the joins of the joined uris and in the
+     * selections of the loaders and adapters (simpleprovider only creates the primary keys)
+     * @param db the database
+     */
+    private void createIndexes(SQLiteDatabase db) {
+
+        // koopman lookup by erkenningsnummer (manual input and barcode scan) and by pas uid (nfc scan)
+        createIndex(db, mTableKoopman, Koopman.COL_ERKENNINGSNUMMER);
+        createIndex(db, mTableKoopman, Koopman.COL_PAS_UID);
+
+        // koopman joined with his sollicitaties for the selected markt, and the sollicitaties of a markt
+        createIndex(db, mTableSollicitatie, Sollicitatie.COL_KOOPMAN_ID, Sollicitatie.COL_MARKT_ID);
+        createIndex(db, mTableSollicitatie, Sollicitatie.COL_MARKT_ID, Sollicitatie.COL_SOLLICITATIE_NUMMER);
+
+        // dagvergunningen of a markt for a dag sorted on aanmaak datumtijd, and joined with koopman
+        createIndex(db, mTableDagvergunning, Dagvergunning.COL_MARKT_ID, Dagvergunning.COL_DAG, Dagvergunning.COL_AANMAAK_DATUMTIJD);
+        createIndex(db, mTableDagvergunning, Dagvergunning.COL_KOOPMAN_ID);
+
+        // vervangers joined with koopman, and selected by vervanger id
+        createIndex(db, mTableVervanger, Vervanger.COL_KOOPMAN_ID);
+        createIndex(db, mTableVervanger, Vervanger.COL_VERVANGER_ID);
+
+        // notities of a markt for a dag
+        createIndex(db, mTableNotitie, Notitie.COL_MARKT_ID, Notitie.COL_DAG);
+    }
+
+    /**
+     * Create an index on the given columns of a table, named after the table and columns
+     * @param db the database
+     * @param table the table name
+     * @param columns the columns to index, in order
+     */
+    private void createIndex(SQLiteDatabase db, String table, String... columns) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " +
+                table + "_" + TextUtils.join("_", columns) + "_idx" +
+                " ON " + table + " (" + TextUtils.join(", ", columns) + ")");
+    }
+
+    /**
+     * Create the fts4 virtual table for the koopman search index
+     * @param db the database
+     */
+    private void createKoopmanZoekTable(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + mTableKoopmanZoek + " USING fts4(" +
+                KoopmanZoek.COL_ERKENNINGSNUMMER + ", " +
+                KoopmanZoek.COL_SOLLICITATIE_NUMMER + ", " +
+                KoopmanZoek.COL_ACHTERNAAM + ", " +
+                KoopmanZoek.COL_PAS_UID + ", " +
+                KoopmanZoek.COL_ACHTERNAAM_BEGIN + ", " +
+                KoopmanZoek.COL_PAS_UID_BEGIN + ")");
+    }
+
+    /**
+     * Create the outbox table
+     * @param db the database
+     */
+    private void createOutboxTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + mTableOutbox + " (" +
+                Outbox.COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                Outbox.COL_IDEMPOTENCY_KEY + " TEXT UNIQUE, " +
+                Outbox.COL_TYPE + " TEXT, " +
+                Outbox.COL_METHOD + " TEXT, " +
+                Outbox.COL_ENTITY_ID + " INTEGER, " +
+                Outbox.COL_PAYLOAD + " TEXT, " +
+                Outbox.COL_ATTEMPTS + " INTEGER DEFAULT 0, " +
+                Outbox.COL_STATUS + " TEXT, " +
+                Outbox.COL_ERROR + " TEXT, " +
+                Outbox.COL_ACCOUNT_ID + " INTEGER)");
+    }
+
+    /**
+     * Empty the koopman search index and fill it again from the koopman and sollicitatie tables
+     * @param db the database
+     */
+    private void rebuildKoopmanZoekIndex(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + mTableKoopmanZoek);
+        insertKoopmanZoekRows(db, null);
+    }
+
+    /**
+     * Replace the koopman search index rows of the given koopmannen with their current values from
+     * the koopman and sollicitatie tables. Must be called inside the transaction of the write
+     * @param db the database
+     * @param koopmanIds ids of the koopmannen that were inserted or updated
+     */
+    private void updateKoopmanZoekIndex(SQLiteDatabase db, Collection<Long> koopmanIds) {
+        List<Long> ids = new ArrayList<>(koopmanIds);
+        for (int start = 0; start < ids.size(); start += mKoopmanZoekChunkSize) {
+            String idList = TextUtils.join(",", ids.subList(start, Math.min(ids.size(), start + mKoopmanZoekChunkSize)));
+
+            db.execSQL("DELETE FROM " + mTableKoopmanZoek + " WHERE " + KoopmanZoek.COL_DOCID + " IN (" + idList + ")");
+            insertKoopmanZoekRows(db, mTableKoopman + "." + Koopman.COL_ID + " IN (" + idList + ")");
+        }
+    }
+
+    /**
+     * Insert koopman search index rows for the koopmannen matching the given where clause
+     * @param db the database
+     * @param where sql where clause on the koopman table, or null for all koopmannen
+     */
+    private void insertKoopmanZoekRows(SQLiteDatabase db, String where) {
+
+        // get the koopman values and all his sollicitatie nummers in one row per koopman
+        Cursor koopmannen = db.rawQuery("SELECT " +
+                mTableKoopman + "." + Koopman.COL_ID + ", " +
+                mTableKoopman + "." + Koopman.COL_ERKENNINGSNUMMER + ", " +
+                mTableKoopman + "." + Koopman.COL_ACHTERNAAM + ", " +
+                mTableKoopman + "." + Koopman.COL_PAS_UID + ", " +
+                "group_concat(" + mTableSollicitatie + "." + Sollicitatie.COL_SOLLICITATIE_NUMMER + ", ' ')" +
+                " FROM " + mTableKoopman +
+                " LEFT JOIN " + mTableSollicitatie + " ON (" +
+                mTableKoopman + "." + Koopman.COL_ID + " = " +
+                mTableSollicitatie + "." + Sollicitatie.COL_KOOPMAN_ID + ")" +
+                (where != null ? " WHERE " + where : "") +
+                " GROUP BY " + mTableKoopman + "." + Koopman.COL_ID, null);
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + mTableKoopmanZoek + " (" +
+                KoopmanZoek.COL_DOCID + ", " +
+                KoopmanZoek.COL_ERKENNINGSNUMMER + ", " +
+                KoopmanZoek.COL_SOLLICITATIE_NUMMER + ", " +
+                KoopmanZoek.COL_ACHTERNAAM + ", " +
+                KoopmanZoek.COL_PAS_UID + ", " +
+                KoopmanZoek.COL_ACHTERNAAM_BEGIN + ", " +
+                KoopmanZoek.COL_PAS_UID_BEGIN + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        try {
+            while (koopmannen.moveToNext()) {
+
+                // the achternaam and pas uid are normalized as a whole, so a term spanning the
+                // words of a name like "van der" is found
+                String achternaam = normalizeZoekTerm(koopmannen.getString(2));
+                String pasUid = normalizeZoekTerm(koopmannen.getString(3));
+
+                insert.clearBindings();
+                insert.bindLong(1, koopmannen.getLong(0));
+                insert.bindString(2, createInfixTokens(koopmannen.getString(1)));
+                insert.bindString(3, createInfixTokens(koopmannen.getString(4)));
+                insert.bindString(4, createInfixTokens(achternaam));
+                insert.bindString(5, createInfixTokens(pasUid));
+                insert.bindString(6, achternaam);
+                insert.bindString(7, pasUid);
+                insert.executeInsert();
+            }
+        } finally {
+            koopmannen.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Get the id of the koopman whose search index row is affected by a write to the given table
+     * @param table the table name
+     * @param values the values written to the table
+     * @return the koopman id, or null if the search index is not affected
+     */
+    private Long getKoopmanZoekId(String table, ContentValues values) {
+        if (table.equals(mTableKoopman)) {
+            return values.getAsLong(Koopman.COL_ID);
+        } else if (table.equals(mTableSollicitatie)) {
+            return values.getAsLong(Sollicitatie.COL_KOOPMAN_ID);
+        }
+        return null;
+    }
+
+    /**
+     * Get the ids of the koopmannen whose search index rows are affected by deleting the rows
+     * matching the selection from the given table
+     * @param table the table name
+     * @param selection the where clause of the delete
+     * @param selectionArgs the arguments of the where clause
+     * @return the koopman ids, empty if the search index is not affected
+     */
+    private Set<Long> getKoopmanZoekIds(String table, String selection, String[] selectionArgs) {
+        Set<Long> koopmanIds = new HashSet<>();
+
+        String column;
+        if (table.equals(mTableKoopman)) {
+            column = Koopman.COL_ID;
+        } else if (table.equals(mTableSollicitatie)) {
+            column = Sollicitatie.COL_KOOPMAN_ID;
+        } else {
+            return koopmanIds;
+        }
 
-        return map;
+        Cursor koopmannen = mDatabase.query(true, table, new String[] { column }, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (koopmannen.moveToNext()) {
+                if (!koopmannen.isNull(0)) {
+                    koopmanIds.add(koopmannen.getLong(0));
+                }
+            }
+        } finally {
+            koopmannen.close();
+        }
+
+        return koopmanIds;
+    }
+
+    /**
+     * Create a space-separated string containing all suffixes of the given space-separated values,
+     * so a prefix search on the tokens will find the values containing the search term
+     * @param values space-separated values (eg. "1234 567" will give "1234 234 34 4 567 67 7")
+     * @return string containing the suffix tokens
+     */
+    private static String createInfixTokens(String values) {
+        StringBuilder tokens = new StringBuilder();
+        if (values != null) {
+            for (String value : values.split(" ")) {
+                value = normalizeZoekTerm(value);
+                for (int i = 0; i < value.length(); i++) {
+                    if (tokens.length() > 0) {
+                        tokens.append(' ');
+                    }
+                    tokens.append(value, i, value.length());
+                }
+            }
+        }
+        return tokens.toString();
+    }
+
+    /**
+     * Create the sql expression that normalizes a column like normalizeZoekTerm does, by leaving
+     * out the separators that occur in the searchable koopman values and lowercasing it, so it
+     * can be compared with a normalized term
+     * @param column the fully qualified column name
+     * @return the sql expression
+     */
+    private static String normalizeZoekColumn(String column) {
+        String expression = column;
+        for (String separator : mZoekSeparators) {
+            expression = "replace(" + expression + ", " + DatabaseUtils.sqlEscapeString(separator) + ", '')";
+        }
+        return "lower(" + expression + ")";
+    }
+
+    /**
+     * Normalize a search term the same way the search index tokens are normalized: lowercase and
+     * only letters and digits, so it can never break the fts match syntax. The case is folded here
+     * for all letters, because the fts simple tokenizer only folds ascii, and the accented letters
+     * are composed so they compare the same however they were typed
+     * @param term the search term
+     * @return the normalized term, or an empty string
+     */
+    private static String normalizeZoekTerm(String term) {
+        if (term == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(term, Normalizer.Form.NFC);
+        return normalized.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]", "");
     }
 }
\ No newline at end of file
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+
+/**
+ * The quantities of the products of a dagvergunning or sollicitatie, kept in an int array indexed
+ * by the position of the product in R.array.array_product_param, so reading and changing them does
+ * not box any values, and the state is saved as a parcel instead of a serialized hashmap. The
+ * products are loaded from the resource once in init, when the application is created
+ * @author marcolangebeeke
+ */
+public class ProductQuantities implements Parcelable {
+
+    // the quantity of a product that was not set yet
+    public static final int UNSET = -1;
+
+    // the meters of the kramen
+    private static final int mMeters3MeterKraam = 3;
+    private static final int mMeters4MeterKraam = 4;
+
+    // the product params, in the order of R.array.array_product_param
+    private static String[] mProducts = new String[0];
+
+    // the index of the products that make up the meters of a dagvergunning
+    private static int mIndexAantal3MeterKramen = -1;
+    private static int mIndexAantal4MeterKramen = -1;
+    private static int mIndexExtraMeters = -1;
+
+    // the quantities by product index
+    private final int[] mQuantities = new int[mProducts.length];
+
+    /**
+     * Load the product params from R.array.array_product_param, so the product index is the
+     * position in the resource the fragments use. Call this before creating product quantities
+     * @param context the context
+     */
+    public static synchronized void init(Context context) {
+        mProducts = context.getResources().getStringArray(R.array.array_product_param);
+        mIndexAantal3MeterKramen = indexOf(MakkelijkeMarktProvider.Dagvergunning.COL_AANTAL_3METER_KRAMEN);
+        mIndexAantal4MeterKramen = indexOf(MakkelijkeMarktProvider.Dagvergunning.COL_AANTAL_4METER_KRAMEN);
+        mIndexExtraMeters = indexOf(MakkelijkeMarktProvider.Dagvergunning.COL_EXTRA_METERS);
+    }
+
+    /**
+     * Get the number of products
+     * @return the number of products
+     */
+    public static int getProductCount() {
+        return mProducts.length;
+    }
+
+    /**
+     * Get the param of a product
+     * @param index the product index
+     * @return the product param
+     */
+    public static String getProduct(int index) {
+        return mProducts[index];
+    }
+
+    /**
+     * Constructor, with all quantities unset
+     */
+    public ProductQuantities() {
+        clear();
+    }
+
+    /**
+     * Constructor, copying the quantities of other product quantities
+     * @param other the product quantities to copy
+     */
+    public ProductQuantities(ProductQuantities other) {
+        set(other);
+    }
+
+    /**
+     * Get the index of a product param
+     * @param product the product param
+     * @return the index, or -1 if it is not a product
+     */
+    public static int indexOf(String product) {
+        for (int i = 0; i < mProducts.length; i++) {
+            if (mProducts[i].equals(product)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the quantity of a product
+     * @param index the product index
+     * @return the quantity, or UNSET
+     */
+    public int get(int index) {
+        return mQuantities[index];
+    }
+
+    /**
+     * Get the quantity of a product, counting an unset quantity as 0
+     * @param index the product index
+     * @return the quantity
+     */
+    public int getCount(int index) {
+        return Math.max(mQuantities[index], 0);
+    }
+
+    /**
+     * Get the quantity of a product above the quantity of the vaste plaats
+     * @param index the product index
+     * @param vast the vaste plaats product quantities
+     * @return the quantity minus the vaste plaats quantity, or 0 if it is not more
+     */
+    public int getCountMinusVast(int index, ProductQuantities vast) {
+        return Math.max(getCount(index) - vast.getCount(index), 0);
+    }
+
+    /**
+     * Get the total meters of the kramen and the extra meters, like the totale lengte of the api
+     * @return the meters
+     */
+    public int getMeters() {
+        return getCount(mIndexAantal3MeterKramen) * mMeters3MeterKraam +
+                getCount(mIndexAantal4MeterKramen) * mMeters4MeterKraam +
+                getCount(mIndexExtraMeters);
+    }
+
+    /**
+     * Check if the quantity of a product was set
+     * @param index the product index
+     * @return true if it was set
+     */
+    public boolean isSet(int index) {
+        return mQuantities[index] != UNSET;
+    }
+
+    /**
+     * Check if at least one product has been selected
+     * @return true if a quantity is more than 0
+     */
+    public boolean isAnySelected() {
+        for (int quantity : mQuantities) {
+            if (quantity > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the quantity of a product
+     * @param index the product index
+     * @param quantity the quantity, or UNSET
+     */
+    public void set(int index, int quantity) {
+        mQuantities[index] = quantity;
+    }
+
+    /**
+     * Set all quantities from other product quantities
+     * @param other the product quantities to copy
+     */
+    public void set(ProductQuantities other) {
+        System.arraycopy(other.mQuantities, 0, mQuantities, 0, mQuantities.length);
+    }
+
+    /**
+     * Set the quantities that were not set yet from other product quantities
+     * @param other the product quantities to copy from
+     */
+    public void setUnset(ProductQuantities other) {
+        for (int i = 0; i < mQuantities.length; i++) {
+            if (mQuantities[i] == UNSET) {
+                mQuantities[i] = other.mQuantities[i];
+            }
+        }
+    }
+
+    /**
+     * Unset all quantities
+     */
+    public void clear() {
+        Arrays.fill(mQuantities, UNSET);
+    }
+
+    /**
+     * Read the quantities from the product columns of a cursor
+     * @param cursor the cursor, on the row to read
+     * @param prefix the prefix of the product column names
+     * @param suffix the suffix of the product column names
+     */
+    public void readFrom(Cursor cursor, String prefix, String suffix) {
+        for (int i = 0; i < mProducts.length; i++) {
+            mQuantities[i] = cursor.getInt(cursor.getColumnIndex(prefix + mProducts[i] + suffix));
+        }
+    }
+
+    /**
+     * Put the quantities in the product columns of contentvalues, with 0 for the products that
+     * were not set like the rows of the api
+     * @param values the contentvalues
+     * @param suffix the suffix of the product column names
+     */
+    public void putInto(ContentValues values, String suffix) {
+        for (int i = 0; i < mProducts.length; i++) {
+            values.put(mProducts[i] + suffix, getCount(i));
+        }
+    }
+
+    /**
+     * Add the selected products to a json payload for the api
+     * @param payload the json payload
+     */
+    public void addTo(JsonObject payload) {
+        for (int i = 0; i < mProducts.length; i++) {
+            if (mQuantities[i] > 0) {
+                payload.addProperty(mProducts[i], mQuantities[i]);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof ProductQuantities &&
+                Arrays.equals(mQuantities, ((ProductQuantities) o).mQuantities));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mQuantities);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeIntArray(mQuantities);
+    }
+
+    public static final Creator<ProductQuantities> CREATOR = new Creator<ProductQuantities>() {
+        @Override
+        public ProductQuantities createFromParcel(Parcel source) {
+            ProductQuantities quantities = new ProductQuantities();
+            source.readIntArray(quantities.mQuantities);
+            return quantities;
+        }
+
+        @Override
+        public ProductQuantities[] newArray(int size) {
+            return new ProductQuantities[size];
+        }
+    };
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Calculate a concept factuur on the device from the tarieven of the markt, so the overzicht can
+ * be shown without waiting for the api. The api has no endpoint for the tarieven, so they are
+ * learned from the concept facturen the api returns: the price per unit of each product on the
+ * factuur, and which product quantity its aantal is based on. The tarieven are read and stored on
+ * a background thread, one at a time, so a calculation always sees the tarieven learned before it
+ * @author marcolangebeeke
+ */
+public class TariefCalculator {
+
+    // use classname when logging
+    private static final String LOG_TAG = TariefCalculator.class.getSimpleName();
+
+    // one background thread for reading and storing the tarieven
+    private static final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    // handler for returning the calculated concept factuur on the main thread
+    private static final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Calculate a concept factuur from the stored tarieven of the markt on the background thread,
+     * and return it to the listener on the main thread
+     * @param context the context
+     * @param marktId id of the markt
+     * @param producten the product quantities, not changed until the listener is called
+     * @param productenVast the vaste plaats product quantities, not changed until the listener is called
+     * @param listener the listener receiving the concept factuur
+     */
+    public static void calculate(Context context, final int marktId, final ProductQuantities producten,
+                                 final ProductQuantities productenVast, final OnCalculatedListener listener) {
+        final Context appContext = context.getApplicationContext();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final JsonObject conceptFactuur = calculate(appContext, marktId, producten, productenVast);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCalculated(conceptFactuur);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Learn the tarieven of the markt from a concept factuur we received from the api, and store
+     * them on the background thread
+     * @param context the context
+     * @param marktId id of the markt
+     * @param producten the product quantities the concept factuur was calculated for, not changed afterwards
+     * @param productenVast the vaste plaats product quantities the concept factuur was calculated for, not changed afterwards
+     * @param conceptFactuur the concept factuur from the api
+     */
+    public static void learn(Context context, final int marktId, final ProductQuantities producten,
+                             final ProductQuantities productenVast, final JsonObject conceptFactuur) {
+        final Context appContext = context.getApplicationContext();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                learnTarieven(appContext, marktId, producten, productenVast, conceptFactuur);
+            }
+        });
+    }
+
+    /**
+     * Calculate a concept factuur from the stored tarieven of the markt, in the same format as the
+     * concept factuur from the api
+     * @param context the context
+     * @param marktId id of the markt
+     * @param producten the product quantities
+     * @param productenVast the vaste plaats product quantities
+     * @return the concept factuur, or null if we do not know the tarieven of all selected products,
+     * or do not know what the aantal of one of the products on the factuur of the markt is based on
+     */
+    static JsonObject calculate(Context context, int marktId, ProductQuantities producten, ProductQuantities productenVast) {
+        Cursor cursor = context.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriTarief,
+                null,
+                MakkelijkeMarktProvider.Tarief.COL_MARKT_ID + " = ? ",
+                new String[] { String.valueOf(marktId) },
+                MakkelijkeMarktProvider.Tarief.COL_VOLGORDE);
+        if (cursor == null) {
+            return null;
+        }
+
+        JsonArray productLines = new JsonArray();
+        HashSet<String> pricedProducten = new HashSet<>();
+        double exclusief = 0;
+        double btw = 0;
+
+        try {
+            while (cursor.moveToNext()) {
+                String grondslag = cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Tarief.COL_GRONDSLAG));
+
+                // without the grondslag we can not tell the aantal of this product, so we can not
+                // calculate a complete factuur
+                if (grondslag == null) {
+                    return null;
+                }
+                pricedProducten.add(grondslag);
+
+                boolean minVast = cursor.getInt(cursor.getColumnIndex(MakkelijkeMarktProvider.Tarief.COL_MIN_VAST)) > 0;
+                int aantal = getAantal(grondslag, minVast, producten, productenVast);
+                if (aantal <= 0) {
+                    continue;
+                }
+
+                double bedrag = cursor.getDouble(cursor.getColumnIndex(MakkelijkeMarktProvider.Tarief.COL_BEDRAG));
+                double btwPercentage = cursor.getDouble(cursor.getColumnIndex(MakkelijkeMarktProvider.Tarief.COL_BTW_PERCENTAGE));
+                double totaal = round(bedrag * aantal);
+                double btwTotaal = round(totaal * btwPercentage / 100);
+
+                JsonObject productLine = new JsonObject();
+                productLine.addProperty("naam", cursor.getString(cursor.getColumnIndex(MakkelijkeMarktProvider.Tarief.COL_NAAM)));
+                productLine.addProperty("aantal", aantal);
+                productLine.addProperty("btw_percentage", btwPercentage);
+                productLine.addProperty("btw_totaal", btwTotaal);
+                productLine.addProperty("totaal", totaal);
+                productLines.add(productLine);
+
+                exclusief += totaal;
+                btw += btwTotaal;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // we can only calculate the factuur if we know the tarief of each selected product
+        for (int i = 0; i < ProductQuantities.getProductCount(); i++) {
+            if (producten.get(i) > 0 && !pricedProducten.contains(ProductQuantities.getProduct(i))) {
+                return null;
+            }
+        }
+        if (productLines.size() == 0) {
+            return null;
+        }
+
+        JsonObject conceptFactuur = new JsonObject();
+        conceptFactuur.add(context.getString(R.string.makkelijkemarkt_api_dagvergunning_concept_producten), productLines);
+        conceptFactuur.addProperty("exclusief", round(exclusief));
+        conceptFactuur.addProperty("totaal", round(exclusief + btw));
+
+        return conceptFactuur;
+    }
+
+    /**
+     * Learn the tarieven of the markt from a concept factuur we received from the api, and store
+     * them in the database
+     * @param context the context
+     * @param marktId id of the markt
+     * @param producten the product quantities the concept factuur was calculated for
+     * @param productenVast the vaste plaats product quantities the concept factuur was calculated for
+     * @param conceptFactuur the concept factuur from the api
+     */
+    static void learnTarieven(Context context, int marktId, ProductQuantities producten, ProductQuantities productenVast, JsonObject conceptFactuur) {
+        JsonArray productLines = conceptFactuur.getAsJsonArray(
+                context.getString(R.string.makkelijkemarkt_api_dagvergunning_concept_producten));
+        if (productLines == null) {
+            return;
+        }
+
+        HashMap<String, Grondslag> storedGrondslagen = getStoredGrondslagen(context, marktId);
+        List<ContentValues> tariefValues = new ArrayList<>();
+
+        for (int i = 0; i < productLines.size(); i++) {
+            if (!productLines.get(i).isJsonObject()) {
+                continue;
+            }
+            JsonObject productLine = productLines.get(i).getAsJsonObject();
+            String naam = getString(productLine, "naam");
+            String aantal = getString(productLine, "aantal");
+            String totaal = getString(productLine, "totaal");
+            if (naam == null || aantal == null || totaal == null) {
+                continue;
+            }
+
+            try {
+                int aantalValue = Integer.parseInt(aantal);
+                if (aantalValue <= 0) {
+                    continue;
+                }
+
+                // keep what we learned earlier if it still matches, otherwise only store the
+                // grondslag if there is one product quantity that matches the aantal
+                List<Grondslag> candidates = getCandidates(aantalValue, producten, productenVast);
+                Grondslag grondslag = storedGrondslagen.get(naam);
+                if (grondslag == null || !candidates.contains(grondslag)) {
+                    grondslag = candidates.size() == 1 ? candidates.get(0) : null;
+                }
+
+                String btwPercentage = getString(productLine, "btw_percentage");
+
+                ContentValues values = new ContentValues();
+                values.put(MakkelijkeMarktProvider.Tarief.COL_ID, marktId + "-" + naam);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_MARKT_ID, marktId);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_NAAM, naam);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_VOLGORDE, i);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_GRONDSLAG, grondslag != null ? grondslag.mNaam : null);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_MIN_VAST, grondslag != null && grondslag.mMinVast);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_BEDRAG, Double.parseDouble(totaal) / aantalValue);
+                values.put(MakkelijkeMarktProvider.Tarief.COL_BTW_PERCENTAGE,
+                        btwPercentage != null ? Double.parseDouble(btwPercentage) : 0);
+                tariefValues.add(values);
+
+            } catch (NumberFormatException e) {
+                Utility.log(context, LOG_TAG, "Failed to read tarief " + naam + ": " + e.getMessage());
+            }
+        }
+
+        if (tariefValues.size() > 0) {
+            context.getContentResolver().bulkInsert(
+                    MakkelijkeMarktProvider.mUriTarief,
+                    tariefValues.toArray(new ContentValues[tariefValues.size()]));
+        }
+    }
+
+    /**
+     * Check if two concept facturen have the same totaal
+     * @param conceptFactuur a concept factuur
+     * @param otherConceptFactuur another concept factuur
+     * @return true if the totaal is the same
+     */
+    public static boolean isSameTotaal(JsonObject conceptFactuur, JsonObject otherConceptFactuur) {
+        String totaal = getString(conceptFactuur, "totaal");
+        String otherTotaal = getString(otherConceptFactuur, "totaal");
+        try {
+            return totaal != null && otherTotaal != null &&
+                    Math.abs(Double.parseDouble(totaal) - Double.parseDouble(otherTotaal)) < 0.005;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the grondslagen we learned earlier for the products on the factuur of the markt
+     * @param context the context
+     * @param marktId id of the markt
+     * @return hashmap containing the grondslag by product name
+     */
+    private static HashMap<String, Grondslag> getStoredGrondslagen(Context context, int marktId) {
+        HashMap<String, Grondslag> grondslagen = new HashMap<>();
+
+        Cursor cursor = context.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriTarief,
+                new String[] {
+                        MakkelijkeMarktProvider.Tarief.COL_NAAM,
+                        MakkelijkeMarktProvider.Tarief.COL_GRONDSLAG,
+                        MakkelijkeMarktProvider.Tarief.COL_MIN_VAST
+                },
+                MakkelijkeMarktProvider.Tarief.COL_MARKT_ID + " = ? AND " +
+                        MakkelijkeMarktProvider.Tarief.COL_GRONDSLAG + " IS NOT NULL ",
+                new String[] { String.valueOf(marktId) },
+                null);
+
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    grondslagen.put(cursor.getString(0), new Grondslag(cursor.getString(1), cursor.getInt(2) > 0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return grondslagen;
+    }
+
+    /**
+     * Get the grondslagen that would result in the given aantal for the product quantities
+     * @param aantal the aantal on the factuur
+     * @param producten the product quantities
+     * @param productenVast the vaste plaats product quantities
+     * @return list of matching grondslagen
+     */
+    private static List<Grondslag> getCandidates(int aantal, ProductQuantities producten, ProductQuantities productenVast) {
+        List<Grondslag> candidates = new ArrayList<>();
+
+        for (int i = 0; i < ProductQuantities.getProductCount(); i++) {
+            if (producten.getCount(i) == aantal) {
+                candidates.add(new Grondslag(ProductQuantities.getProduct(i), false));
+            }
+            if (productenVast.get(i) > 0 && producten.getCountMinusVast(i, productenVast) == aantal) {
+                candidates.add(new Grondslag(ProductQuantities.getProduct(i), true));
+            }
+        }
+
+        if (getAantal(MakkelijkeMarktProvider.Tarief.GRONDSLAG_METERS, false, producten, productenVast) == aantal) {
+            candidates.add(new Grondslag(MakkelijkeMarktProvider.Tarief.GRONDSLAG_METERS, false));
+        }
+
+        if (aantal == 1) {
+            candidates.add(new Grondslag(MakkelijkeMarktProvider.Tarief.GRONDSLAG_DAGVERGUNNING, false));
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Get the aantal of a product on the factuur based on its grondslag
+     * @param grondslag a product param, or one of the Tarief.GRONDSLAG_ constants
+     * @param minVast if the vaste plaats quantity is subtracted
+     * @param producten the product quantities
+     * @param productenVast the vaste plaats product quantities
+     * @return the aantal
+     */
+    private static int getAantal(String grondslag, boolean minVast, ProductQuantities producten, ProductQuantities productenVast) {
+        if (grondslag.equals(MakkelijkeMarktProvider.Tarief.GRONDSLAG_DAGVERGUNNING)) {
+            return 1;
+        }
+        if (grondslag.equals(MakkelijkeMarktProvider.Tarief.GRONDSLAG_METERS)) {
+            return producten.getMeters();
+        }
+
+        int index = ProductQuantities.indexOf(grondslag);
+        if (index == -1) {
+            return 0;
+        }
+        return minVast ? producten.getCountMinusVast(index, productenVast) : producten.getCount(index);
+    }
+
+    /**
+     * Get a value from a json object as string, or null if it is not set
+     * @param object the json object
+     * @param name the name of the value
+     * @return the value as string
+     */
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+
+    /**
+     * Round an amount to cents
+     * @param amount the amount
+     * @return the rounded amount
+     */
+    private static double round(double amount) {
+        return Math.round(amount * 100) / 100.0;
+    }
+
+    /**
+     * Listener receiving a concept factuur calculated on the background thread
+     */
+    public interface OnCalculatedListener {
+
+        /**
+         * Called on the main thread with the calculated concept factuur
+         * @param conceptFactuur the concept factuur, or null if it could not be calculated
+         */
+        void onCalculated(JsonObject conceptFactuur);
+    }
+
+    /**
+     * What the aantal of a product on the factuur is based on
+     */
+    private static class Grondslag {
+        private final String mNaam;
+        private final boolean mMinVast;
+
+        private Grondslag(String naam, boolean minVast) {
+            mNaam = naam;
+            mMinVast = minVast;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Grondslag)) {
+                return false;
+            }
+            Grondslag grondslag = (Grondslag) other;
+            return mNaam.equals(grondslag.mNaam) && mMinVast == grondslag.mMinVast;
+        }
+
+        @Override
+        public int hashCode() {
+            return mNaam.hashCode() * 2 + (mMinVast ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+
+import java.util.Calendar;
+
+/**
+ * Decide how often we poll the api for the dagvergunningen. We poll faster in the busy morning
+ * hours while new dagvergunningen keep coming in, back off exponentially while the polls return no
+ * changes, and do not poll at all while the dagvergunningen list is not in the foreground
+ * @author marcolangebeeke
+ */
+public class DagvergunningenPolling {
+
+    // number of dagvergunningen lists in the foreground
+    private static int mVisibleCount = 0;
+
+    // number of polls in a row that returned no changes
+    private static int mConsecutiveMisses = 0;
+
+    // total number of polls, and the polls that returned changes
+    private static int mPollCount = 0;
+    private static int mHitCount = 0;
+
+    // the interval we used last, in milliseconds
+    private static long mCurrentInterval = 0;
+
+    // the task polling the dagvergunningen
+    private static SyncTask mTask;
+
+    /**
+     * Called by the task polling the dagvergunningen when it is created
+     * @param task the task
+     */
+    static synchronized void setTask(SyncTask task) {
+        mTask = task;
+    }
+
+    /**
+     * Called by the dagvergunningen list when it comes in or goes out of the foreground
+     * @param visible true if the list is in the foreground
+     */
+    public static synchronized void setVisible(boolean visible) {
+        mVisibleCount = Math.max(0, mVisibleCount + (visible ? 1 : -1));
+
+        // the user is looking at the list, so poll now instead of after the backed off interval,
+        // and continue at the normal pace again
+        if (visible) {
+            mConsecutiveMisses = 0;
+            if (mTask != null) {
+                mTask.runNow();
+            }
+        }
+    }
+
+    /**
+     * Check if polling is paused because no dagvergunningen list is in the foreground
+     * @return true if paused
+     */
+    public static synchronized boolean isPaused() {
+        return mVisibleCount == 0;
+    }
+
+    /**
+     * Register the result of a poll
+     * @param changedCount the number of dagvergunningen that were added, changed or removed
+     */
+    public static synchronized void onPollResult(int changedCount) {
+        mPollCount++;
+        if (changedCount > 0) {
+            mHitCount++;
+            mConsecutiveMisses = 0;
+        } else {
+            mConsecutiveMisses++;
+        }
+    }
+
+    /**
+     * Get the interval until the next poll
+     * @param context the context
+     * @param intervalMs the normal interval in milliseconds
+     * @return the interval in milliseconds
+     */
+    public static synchronized long getInterval(Context context, long intervalMs) {
+        long interval = intervalMs;
+
+        if (!isPaused()) {
+            int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+            boolean busy = hour >= context.getResources().getInteger(R.integer.makkelijkemarkt_api_service_getdagvergunningen_busy_start_hour) &&
+                    hour < context.getResources().getInteger(R.integer.makkelijkemarkt_api_service_getdagvergunningen_busy_end_hour);
+
+            if (busy && mPollCount > 0 && mConsecutiveMisses == 0) {
+
+                // new dagvergunningen are coming in during the busy hours
+                interval = context.getResources().getInteger(
+                        R.integer.makkelijkemarkt_api_service_getdagvergunningen_busy_interval_seconds) * 1000L;
+            } else if (mConsecutiveMisses > 0) {
+
+                // double the interval for each poll without changes, up to the maximum
+                long maxInterval = context.getResources().getInteger(
+                        R.integer.makkelijkemarkt_api_service_getdagvergunningen_max_interval_seconds) * 1000L;
+                interval = intervalMs << Math.min(mConsecutiveMisses, 16);
+                interval = Math.min(interval, Math.max(maxInterval, intervalMs));
+            }
+        }
+
+        mCurrentInterval = interval;
+        return interval;
+    }
+
+    /**
+     * Get the interval we used last, for diagnostics
+     * @return the interval in milliseconds
+     */
+    public static synchronized long getCurrentInterval() {
+        return mCurrentInterval;
+    }
+
+    /**
+     * Get the part of the polls that returned changes, for diagnostics
+     * @return the hit ratio between 0 and 1
+     */
+    public static synchronized float getHitRatio() {
+        return mPollCount > 0 ? (float) mHitCount / mPollCount : 0;
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Run the sync tasks on their intervals from one background thread. Tasks that are due at about the
+ * same time run together in order of priority, so the device wakes up less often. The intervals
+ * get some jitter so the tasks drift apart instead of always firing together, and a task that is
+ * still running is skipped until it is done
+ * @author marcolangebeeke
+ */
+public class SyncScheduler {
+
+    // use classname when logging
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // task priorities, lower runs first
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    // random part of the interval, as a fraction of the interval, added or subtracted
+    private static final float mJitter = 0.1f;
+
+    // tasks due within this window after the first due task run in the same wakeup
+    private static final long mCoalesceWindowMs = 2000;
+
+    // after this time we stop waiting for a running task to call done, in case it never does
+    private static final long mMaxRunningMs = 5 * 60 * 1000;
+
+    // the thread and handler the tasks run on
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // the scheduled jobs
+    private final List<Job> mJobs = new ArrayList<>();
+
+    private final Random mRandom = new Random();
+
+    // run the due jobs, and schedule the next run
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * Add a task to the scheduler, before it is started
+     * @param task the task
+     * @param priority one of the PRIORITY_ constants
+     * @param delayMs delay before the first run in milliseconds
+     * @param intervalMs interval between the runs in milliseconds
+     */
+    public void schedule(SyncTask task, int priority, long delayMs, long intervalMs) {
+        task.setScheduler(this);
+        mJobs.add(new Job(task, priority, SystemClock.uptimeMillis() + delayMs, intervalMs));
+    }
+
+    /**
+     * Start the scheduler thread and run the tasks
+     */
+    public void start() {
+        if (mThread == null) {
+            mThread = new HandlerThread(LOG_TAG);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+            mHandler.post(mDispatch);
+        }
+    }
+
+    /**
+     * Stop running the tasks and quit the scheduler thread
+     */
+    public void stop() {
+        if (mThread != null) {
+            mHandler.removeCallbacksAndMessages(null);
+            mThread.quit();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Run a task as soon as possible instead of waiting for its next run, unless it is still
+     * running. The runs after it follow its interval again
+     * @param task the task
+     */
+    void runNow(final SyncTask task) {
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Job job : mJobs) {
+                        if (job.mTask == task) {
+                            job.mNextRun = SystemClock.uptimeMillis();
+                        }
+                    }
+                    mHandler.removeCallbacks(mDispatch);
+                    dispatch();
+                }
+            });
+        }
+    }
+
+    /**
+     * Called by a task when its asynchronous part completed
+     * @param task the task
+     */
+    void onTaskDone(final SyncTask task) {
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Job job : mJobs) {
+                        if (job.mTask == task) {
+                            job.mRunningSince = 0;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Run the jobs that are due, in order of priority, and schedule the next dispatch at the time
+     * the first job is due again
+     */
+    private void dispatch() {
+        long now = SystemClock.uptimeMillis();
+
+        List<Job> dueJobs = new ArrayList<>();
+        for (Job job : mJobs) {
+            if (job.mNextRun <= now + mCoalesceWindowMs) {
+                dueJobs.add(job);
+            }
+        }
+        Collections.sort(dueJobs, new Comparator<Job>() {
+            @Override
+            public int compare(Job job, Job other) {
+                return job.mPriority - other.mPriority;
+            }
+        });
+
+        for (Job job : dueJobs) {
+            if (job.mRunningSince > 0 && now - job.mRunningSince < mMaxRunningMs) {
+
+                // the previous run is still busy, so skip this one
+                Log.i(LOG_TAG, "=========> Skip " + job.mTask.getClass().getSimpleName() + ", still running");
+            } else {
+                try {
+                    job.mRunningSince = job.mTask.run() ? now : 0;
+                } catch (RuntimeException e) {
+                    job.mRunningSince = 0;
+                    Log.e(LOG_TAG, "Task " + job.mTask.getClass().getSimpleName() + " failed: " + e.getMessage());
+                }
+            }
+            job.mNextRun = now + jitter(job.mTask.getInterval(job.mInterval));
+        }
+
+        long nextRun = Long.MAX_VALUE;
+        for (Job job : mJobs) {
+            nextRun = Math.min(nextRun, job.mNextRun);
+        }
+        if (nextRun != Long.MAX_VALUE && mHandler != null) {
+            mHandler.postAtTime(mDispatch, nextRun);
+        }
+    }
+
+    /**
+     * Add a random jitter to an interval
+     * @param intervalMs the interval in milliseconds
+     * @return the interval with jitter
+     */
+    private long jitter(long intervalMs) {
+        return intervalMs + (long) (intervalMs * mJitter * (mRandom.nextFloat() * 2 - 1));
+    }
+
+    /**
+     * A scheduled task with its priority, interval and state
+     */
+    private static class Job {
+        private final SyncTask mTask;
+        private final int mPriority;
+        private final long mInterval;
+        private long mNextRun;
+        private long mRunningSince = 0;
+
+        private Job(SyncTask task, int priority, long nextRun, long interval) {
+            mTask = task;
+            mPriority = priority;
+            mNextRun = nextRun;
+            mInterval = interval;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+
+/**
+ * Base class for the tasks run by the sync scheduler. A task that starts an asynchronous api call
+ * returns true from run, and calls done when the call completed, so the scheduler will not start
+ * the same task again while it is still running
+ * @author marcolangebeeke
+ */
+public abstract class SyncTask {
+
+    // the context we are constructed from
+    protected Context mContext;
+
+    // the scheduler running this task
+    private SyncScheduler mScheduler;
+
+    /**
+     * Constructor
+     * @param context from where we're called
+     */
+    public SyncTask(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Set the scheduler that runs this task
+     * @param scheduler the scheduler
+     */
+    void setScheduler(SyncScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Run the task on the scheduler thread
+     * @return true if the task is still running when this method returns, and will call done
+     */
+    public abstract boolean run();
+
+    /**
+     * Get the interval until the next run, override to adapt it to the circumstances
+     * @param intervalMs the interval the task was scheduled with, in milliseconds
+     * @return the interval in milliseconds
+     */
+    public long getInterval(long intervalMs) {
+        return intervalMs;
+    }
+
+    /**
+     * Ask the scheduler to run this task now instead of waiting for its next run
+     */
+    protected void runNow() {
+        if (mScheduler != null) {
+            mScheduler.runNow(this);
+        }
+    }
+
+    /**
+     * Inform the scheduler that the asynchronous part of the task completed
+     */
+    protected void done() {
+        if (mScheduler != null) {
+            mScheduler.onTaskDone(this);
+        }
+    }
+}
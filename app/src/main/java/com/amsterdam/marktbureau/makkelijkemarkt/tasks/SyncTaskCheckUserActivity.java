@@ -18,34 +18,31 @@ import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 
 import java.util.Date;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Check if the user has been active in a given timeout, and if not logout the user from the app
  * @author marcolangebeeke
  */
-public class TimerTaskCheckUserActivity extends TimerTask {
+public class SyncTaskCheckUserActivity extends SyncTask {
 
     // use classname when logging
-    private static final String LOG_TAG = TimerTaskCheckUserActivity.class.getSimpleName();
-
-    // the context we are constructed from
-    private Context mContext;
+    private static final String LOG_TAG = SyncTaskCheckUserActivity.class.getSimpleName();
 
     /**
      * Constructor
      * @param context from where we're called
      */
-    public TimerTaskCheckUserActivity(Context context) {
-        mContext = context;
+    public SyncTaskCheckUserActivity(Context context) {
+        super(context);
     }
 
     /**
-     * Runnable
+     * Run the task
+     * @return false, the task is done when it returns
      */
     @Override
-    public void run() {
+    public boolean run() {
 
         Log.i(LOG_TAG, "=========> Checking app activity");
 
@@ -61,5 +58,7 @@ public class TimerTaskCheckUserActivity extends TimerTask {
             // logout
             Utility.logout(mContext, false);
         }
+
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+
+
+/**
+ * A sync task that will checkpoint the write-ahead log of the local database, so the log
+ * written by the sync timers is regularly copied into the database and does not keep growing
+ * @author marcolangebeeke
+ */
+public class SyncTaskCheckpointDatabase extends SyncTask {
+
+    // use classname when logging
+    private static final String LOG_TAG = SyncTaskCheckpointDatabase.class.getSimpleName();
+
+    /**
+     * Constructor
+     * @param context from where we're called
+     */
+    public SyncTaskCheckpointDatabase(Context context) {
+        super(context);
+    }
+
+    /**
+     * Run the task
+     * @return false, the task is done when it returns
+     */
+    @Override
+    public boolean run() {
+
+        Log.i(LOG_TAG, "=========> Checkpoint database!");
+
+        // ask the provider to checkpoint the database
+        mContext.getContentResolver().call(
+                MakkelijkeMarktProvider.mUriKoopman,
+                MakkelijkeMarktProvider.mMethodCheckpoint,
+                null,
+                null);
+
+        return false;
+    }
+}
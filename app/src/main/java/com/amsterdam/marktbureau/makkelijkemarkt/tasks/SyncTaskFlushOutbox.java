@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiOutbox;
+
+
+/**
+ * A sync task that will send the dagvergunning and notitie writes that are still waiting
+ * in the outbox to the api, for example after the network was unavailable
+ * @author marcolangebeeke
+ */
+public class SyncTaskFlushOutbox extends SyncTask {
+
+    // use classname when logging
+    private static final String LOG_TAG = SyncTaskFlushOutbox.class.getSimpleName();
+
+    /**
+     * Constructor
+     * @param context from where we're called
+     */
+    public SyncTaskFlushOutbox(Context context) {
+        super(context);
+    }
+
+    /**
+     * Run the task
+     * @return false, the outbox flushes on its own thread and skips a flush when one is already waiting
+     */
+    @Override
+    public boolean run() {
+
+        Log.i(LOG_TAG, "=========> Flush outbox!");
+
+        // send the pending writes
+        ApiOutbox.flush(mContext);
+
+        return false;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetDagvergunningen;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A sync task that will fetch the dagvergunningen for selected markt from the api, if we
+ * have a network, and if a markt is selected
+ * @author marcolangebeeke
+ */
+public class SyncTaskGetDagvergunningen extends SyncTask {
+
+    // use classname when logging
+    private static final String LOG_TAG = SyncTaskGetDagvergunningen.class.getSimpleName();
+
+    // the markt and dag of the call we are waiting for
+    private String mMarktId;
+    private String mDag;
+
+    /**
+     * Constructor
+     * @param context from where we're called
+     */
+    public SyncTaskGetDagvergunningen(Context context) {
+        super(context);
+        DagvergunningenPolling.setTask(this);
+    }
+
+    /**
+     * Run the task
+     * @return true if we are waiting for the response of the api
+     */
+    @Override
+    public boolean run() {
+
+        Log.i(LOG_TAG, "=========> Get dagvergunningen! (interval " +
+                DagvergunningenPolling.getCurrentInterval() / 1000 + "s, hit ratio " +
+                DagvergunningenPolling.getHitRatio() + ")");
+
+        // no need to poll while nobody is looking at the dagvergunningen
+        if (DagvergunningenPolling.isPaused()) {
+            return false;
+        }
+
+        // get the markt id from the shared preferences
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        int marktId = settings.getInt(mContext.getString(R.string.sharedpreferences_key_markt_id), 0);
+
+        if (marktId > 0 && Utility.isNetworkAvailable(mContext)) {
+
+            // get the date of today for the dag param
+            SimpleDateFormat sdf = new SimpleDateFormat(mContext.getString(R.string.date_format_dag));
+            String dag = sdf.format(new Date());
+
+            // fetch dagvergunningen for selected markt
+            ApiGetDagvergunningen getDagvergunningen = new ApiGetDagvergunningen(mContext);
+            mMarktId = String.valueOf(marktId);
+            mDag = dag;
+            getDagvergunningen.setMarktId(mMarktId);
+            getDagvergunningen.setDag(mDag);
+
+            // listen for the response, so we do not fetch them again before it arrived
+            if (!EventBus.getDefault().isRegistered(this)) {
+                EventBus.getDefault().register(this);
+            }
+            if (getDagvergunningen.enqueue()) {
+                return true;
+            }
+            EventBus.getDefault().unregister(this);
+        }
+
+        return false;
+    }
+
+    /**
+     * Poll faster or slower depending on the changes and the time of day
+     * @param intervalMs the normal interval in milliseconds
+     * @return the interval in milliseconds
+     */
+    @Override
+    public long getInterval(long intervalMs) {
+        return DagvergunningenPolling.getInterval(mContext, intervalMs);
+    }
+
+    /**
+     * When our api call completed, register if anything changed and inform the scheduler that we
+     * are done
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetDagvergunningenResponseEvent(ApiGetDagvergunningen.OnResponseEvent event) {
+
+        // a response for another markt or dag comes from another call, like a refresh of the list
+        if (!TextUtils.equals(event.mMarktId, mMarktId) || !TextUtils.equals(event.mDag, mDag)) {
+            return;
+        }
+
+        EventBus.getDefault().unregister(this);
+        if (event.mDagvergunningCount != -1) {
+            DagvergunningenPolling.onPollResult(event.mChangedCount);
+        }
+        done();
+    }
+}
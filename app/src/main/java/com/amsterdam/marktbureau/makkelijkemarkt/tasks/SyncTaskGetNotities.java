@@ -12,42 +12,47 @@ package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.amsterdam.marktbureau.makkelijkemarkt.R;
 import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
 import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetNotities;
 
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimerTask;
 
 /**
- * A tasktimer object that will fetch the notities for selected markt from the api, if we have a
+ * A sync task that will fetch the notities for selected markt from the api, if we have a
  * network, and if a markt is selected
  * @author marcolangebeeke
  */
-public class TimerTaskGetNotities extends TimerTask {
+public class SyncTaskGetNotities extends SyncTask {
 
     // use classname when logging
-    private static final String LOG_TAG = TimerTaskGetNotities.class.getSimpleName();
+    private static final String LOG_TAG = SyncTaskGetNotities.class.getSimpleName();
 
-    // the context we are constructed from
-    private Context mContext;
+    // the markt and dag of the call we are waiting for
+    private String mMarktId;
+    private String mDag;
 
     /**
      * Constructor
      * @param context from where we're called
      */
-    public TimerTaskGetNotities(Context context) {
-        mContext = context;
+    public SyncTaskGetNotities(Context context) {
+        super(context);
     }
 
     /**
-     * Runnable
+     * Run the task
+     * @return true if we are waiting for the response of the api
      */
     @Override
-    public void run() {
+    public boolean run() {
 
         Log.i(LOG_TAG, "=========> Get notities!");
 
@@ -63,9 +68,37 @@ public class TimerTaskGetNotities extends TimerTask {
 
             // fetch notities for selected markt
             ApiGetNotities getNotities = new ApiGetNotities(mContext);
-            getNotities.setMarktId(String.valueOf(marktId));
-            getNotities.setDag(dag);
-            getNotities.enqueue();
+            mMarktId = String.valueOf(marktId);
+            mDag = dag;
+            getNotities.setMarktId(mMarktId);
+            getNotities.setDag(mDag);
+
+            // listen for the response, so we do not fetch them again before it arrived
+            if (!EventBus.getDefault().isRegistered(this)) {
+                EventBus.getDefault().register(this);
+            }
+            if (getNotities.enqueue()) {
+                return true;
+            }
+            EventBus.getDefault().unregister(this);
+        }
+
+        return false;
+    }
+
+    /**
+     * When our api call completed, inform the scheduler that we are done
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetNotitiesResponseEvent(ApiGetNotities.OnResponseEvent event) {
+
+        // a response for another markt or dag comes from another call, like a refresh of the list
+        if (!TextUtils.equals(event.mMarktId, mMarktId) || !TextUtils.equals(event.mDag, mDag)) {
+            return;
         }
+
+        EventBus.getDefault().unregister(this);
+        done();
     }
-}
\ No newline at end of file
+}
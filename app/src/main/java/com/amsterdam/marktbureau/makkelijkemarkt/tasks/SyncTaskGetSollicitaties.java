@@ -0,0 +1,313 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.amsterdam.marktbureau.makkelijkemarkt.api.ApiGetSollicitaties;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A sync task that will download the sollicitaties that have been downloaded before, but
+ * have not been downloaded in the last 12 hours. The markten are kept in a queue ordered by when
+ * their sollicitaties were last fetched, which is kept up to date by listening to the shared
+ * preferences, so a run only has to look at the head of the queue. All stale markten are refreshed
+ * in one run, one after the other, the markten most relevant to the logged in user first
+ * @author marcolangebeeke
+ */
+public class SyncTaskGetSollicitaties extends SyncTask implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    // use classname when logging
+    private static final String LOG_TAG = SyncTaskGetSollicitaties.class.getSimpleName();
+
+    // relevance of a markt to the logged in user
+    private static final int RELEVANCE_NONE = 0;
+    private static final int RELEVANCE_REGISTERED = 1;
+    private static final int RELEVANCE_SELECTED = 2;
+
+    // the markten that have been downloaded before, ordered by last fetched time
+    private final TreeSet<MarktEntry> mQueue = new TreeSet<>(new Comparator<MarktEntry>() {
+        @Override
+        public int compare(MarktEntry entry, MarktEntry other) {
+            if (entry.mLastFetched != other.mLastFetched) {
+                return entry.mLastFetched < other.mLastFetched ? -1 : 1;
+            }
+            return entry.mMarktId - other.mMarktId;
+        }
+    });
+
+    // the queue entries by markt id
+    private final HashMap<Integer, MarktEntry> mEntries = new HashMap<>();
+
+    // the markten where the logged in user registered dagvergunningen
+    private final Set<Integer> mRegisteredMarktIds = new HashSet<>();
+
+    // the markt selected by the logged in user
+    private int mSelectedMarktId = -1;
+
+    // the stale markten we are downloading in this run, and the one in progress
+    private final List<MarktEntry> mBatch = new ArrayList<>();
+    private MarktEntry mCurrent = null;
+
+    // the shared preferences key prefix of the last fetched time of a markt
+    private final String mLastFetchedKey;
+
+    /**
+     * Constructor
+     * @param context from where we're called
+     */
+    public SyncTaskGetSollicitaties(Context context) {
+
+        // set the context
+        super(context);
+
+        mLastFetchedKey = mContext.getString(R.string.sharedpreferences_key_sollicitaties_last_fetched);
+
+        // fill the queue with the markten that have been downloaded before, in one pass
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        for (Map.Entry<String, ?> setting : settings.getAll().entrySet()) {
+            updateLastFetched(setting.getKey(), setting.getValue());
+        }
+        mSelectedMarktId = settings.getInt(mContext.getString(R.string.sharedpreferences_key_markt_id), -1);
+
+        // keep the queue up to date when sollicitaties are fetched or another markt is selected
+        settings.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    /**
+     * Run the task
+     * @return true if we are waiting for the sollicitaties of the stale markten to be loaded
+     */
+    @Override
+    public boolean run() {
+
+        Log.i(LOG_TAG, "=========> Get sollicitaties");
+
+        if (!Utility.isNetworkAvailable(mContext)) {
+            return false;
+        }
+
+        long timeout = mContext.getResources().getInteger(R.integer.makkelijkemarkt_api_sollicitaties_fetch_interval_hours) * 60 * 60 * 1000L;
+        long staleBefore = new Date().getTime() - timeout;
+        int batchSize = mContext.getResources().getInteger(R.integer.makkelijkemarkt_api_service_getsollicitaties_batch_size);
+
+        // the logged in user can change between runs, so find their markten again
+        Set<Integer> registeredMarktIds = getRegisteredMarktIds();
+
+        synchronized (mQueue) {
+            mRegisteredMarktIds.clear();
+            mRegisteredMarktIds.addAll(registeredMarktIds);
+            mBatch.clear();
+
+            // the queue is ordered by last fetched time, so the stale markten are at the head
+            for (MarktEntry entry : mQueue) {
+                if (entry.mLastFetched >= staleBefore) {
+                    break;
+                }
+                mBatch.add(entry);
+            }
+
+            // download the markten most relevant to the user first, and the oldest first
+            Collections.sort(mBatch, new Comparator<MarktEntry>() {
+                @Override
+                public int compare(MarktEntry entry, MarktEntry other) {
+                    int relevance = getRelevance(other) - getRelevance(entry);
+                    if (relevance != 0) {
+                        return relevance;
+                    }
+                    return entry.mLastFetched < other.mLastFetched ? -1 : (entry.mLastFetched > other.mLastFetched ? 1 : 0);
+                }
+            });
+            if (mBatch.size() > batchSize) {
+                mBatch.subList(batchSize, mBatch.size()).clear();
+            }
+        }
+
+        // listen for the completion, so we do not start another markt before it is loaded
+        if (!EventBus.getDefault().isRegistered(this)) {
+            EventBus.getDefault().register(this);
+        }
+        if (enqueueNext()) {
+            return true;
+        }
+        EventBus.getDefault().unregister(this);
+
+        return false;
+    }
+
+    /**
+     * Start downloading the sollicitaties of the next markt in the batch
+     * @return true if a download was started
+     */
+    private boolean enqueueNext() {
+        synchronized (mQueue) {
+            while (!mBatch.isEmpty()) {
+                mCurrent = mBatch.remove(0);
+
+                ApiGetSollicitaties getSollicitaties = new ApiGetSollicitaties(mContext);
+                getSollicitaties.setMarktId(mCurrent.mMarktId);
+                if (getSollicitaties.enqueue()) {
+                    return true;
+                }
+            }
+            mCurrent = null;
+        }
+
+        return false;
+    }
+
+    /**
+     * When all sollicitaties of a markt are loaded, continue with the next stale markt, or inform
+     * the scheduler that we are done
+     * @param event the received event
+     */
+    @Subscribe
+    public void onGetSollicitatiesCompletedEvent(ApiGetSollicitaties.OnCompletedEvent event) {
+        synchronized (mQueue) {
+
+            // ignore the sollicitaties of other markten, loaded by a screen of the app
+            if (mCurrent == null || event.mMarktId != mCurrent.mMarktId) {
+                return;
+            }
+
+            // on failure we stop this run, the markt stays stale and will be tried again next run
+            if (event.mSollicitatiesCount == -1) {
+                mBatch.clear();
+            }
+        }
+
+        if (!enqueueNext()) {
+            EventBus.getDefault().unregister(this);
+            done();
+        }
+    }
+
+    /**
+     * Update the queue when the sollicitaties of a markt were fetched, or another markt was selected
+     * @param sharedPreferences the changed shared preferences
+     * @param key the key of the changed value
+     */
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key == null) {
+            return;
+        }
+        if (key.equals(mContext.getString(R.string.sharedpreferences_key_markt_id))) {
+            synchronized (mQueue) {
+                mSelectedMarktId = sharedPreferences.getInt(key, -1);
+            }
+        } else if (key.startsWith(mLastFetchedKey) && sharedPreferences.contains(key)) {
+            updateLastFetched(key, sharedPreferences.getLong(key, 0));
+        }
+    }
+
+    /**
+     * Add a markt to the queue, or move it to its new place, if the key is a last fetched key
+     * @param key the shared preferences key
+     * @param value the last fetched time in milliseconds
+     */
+    private void updateLastFetched(String key, Object value) {
+        if (!key.startsWith(mLastFetchedKey) || !(value instanceof Long)) {
+            return;
+        }
+
+        int marktId;
+        try {
+            marktId = Integer.parseInt(key.substring(mLastFetchedKey.length()));
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        synchronized (mQueue) {
+            MarktEntry entry = mEntries.get(marktId);
+            if (entry == null) {
+                entry = new MarktEntry(marktId);
+                mEntries.put(marktId, entry);
+            } else {
+                mQueue.remove(entry);
+            }
+            entry.mLastFetched = (Long) value;
+            mQueue.add(entry);
+        }
+    }
+
+    /**
+     * Find the markten where the logged in user registered dagvergunningen
+     * @return set of the markt ids
+     */
+    private Set<Integer> getRegisteredMarktIds() {
+        Set<Integer> registeredMarktIds = new HashSet<>();
+
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        int accountId = settings.getInt(mContext.getString(R.string.sharedpreferences_key_account_id), -1);
+        Cursor dagvergunningen = mContext.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriDagvergunning,
+                new String[] { MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID },
+                MakkelijkeMarktProvider.Dagvergunning.COL_REGISTRATIE_ACCOUNT_ID + " = ?",
+                new String[] { String.valueOf(accountId) },
+                null);
+        if (dagvergunningen != null) {
+            int marktIdIndex = dagvergunningen.getColumnIndex(MakkelijkeMarktProvider.Dagvergunning.COL_MARKT_ID);
+            while (dagvergunningen.moveToNext()) {
+                registeredMarktIds.add(dagvergunningen.getInt(marktIdIndex));
+            }
+            dagvergunningen.close();
+        }
+
+        return registeredMarktIds;
+    }
+
+    /**
+     * Get the relevance of a markt to the logged in user
+     * @param entry the queue entry of the markt
+     * @return one of the RELEVANCE_ constants
+     */
+    private int getRelevance(MarktEntry entry) {
+        if (entry.mMarktId == mSelectedMarktId) {
+            return RELEVANCE_SELECTED;
+        }
+        if (mRegisteredMarktIds.contains(entry.mMarktId)) {
+            return RELEVANCE_REGISTERED;
+        }
+        return RELEVANCE_NONE;
+    }
+
+    /**
+     * A markt in the queue, and when its sollicitaties were last fetched
+     */
+    private static class MarktEntry {
+        private final int mMarktId;
+        private long mLastFetched;
+
+        private MarktEntry(int marktId) {
+            mMarktId = marktId;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2016 X Gemeente
+ *                    X Amsterdam
+ *                    X Onderzoek, Informatie en Statistiek
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/
+ */
+package com.amsterdam.marktbureau.makkelijkemarkt.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.amsterdam.marktbureau.makkelijkemarkt.R;
+import com.amsterdam.marktbureau.makkelijkemarkt.Utility;
+import com.amsterdam.marktbureau.makkelijkemarkt.data.MakkelijkeMarktProvider;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A sync task that will prefetch the photo thumbnails of the koopmannen with a sollicitatie on the
+ * selected markt into the glide disk cache, so the lists show them without downloading the full
+ * size photos, also when the coverage drops. To spare the mobile data and the ui, a batch is only
+ * prefetched when we are on wifi or the user has been idle for a while
+ * @author marcolangebeeke
+ */
+public class SyncTaskPrefetchKoopmanFotos extends SyncTask {
+
+    // use classname when logging
+    private static final String LOG_TAG = SyncTaskPrefetchKoopmanFotos.class.getSimpleName();
+
+    // the urls of the thumbnails we already prefetched
+    private final Set<String> mPrefetched = new HashSet<>();
+
+    // glide requests have to be started on the main thread
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructor
+     * @param context from where we're called
+     */
+    public SyncTaskPrefetchKoopmanFotos(Context context) {
+        super(context);
+    }
+
+    /**
+     * Run the task
+     * @return false, glide loads the thumbnails on its own threads
+     */
+    @Override
+    public boolean run() {
+
+        Log.i(LOG_TAG, "=========> Prefetch koopman fotos");
+
+        if (!Utility.isNetworkAvailable(mContext)) {
+            return false;
+        }
+
+        // only prefetch on wifi, or when the user is not using the app
+        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(mContext);
+        long appActivityTimestamp = settings.getLong(mContext.getString(R.string.sharedpreferences_key_app_activity_timestamp), 0);
+        long idleMs = mContext.getResources().getInteger(R.integer.makkelijkemarkt_api_service_prefetchfotos_idle_seconds) * 1000L;
+        if (!Utility.isWifiConnected(mContext) && new Date().getTime() - appActivityTimestamp < idleMs) {
+            return false;
+        }
+
+        int marktId = settings.getInt(mContext.getString(R.string.sharedpreferences_key_markt_id), 0);
+        int batchSize = mContext.getResources().getInteger(R.integer.makkelijkemarkt_api_service_prefetchfotos_batch_size);
+
+        // get the photos of the koopmannen with a sollicitatie on the markt we did not prefetch yet
+        final List<String> fotoUrls = new ArrayList<>();
+        Cursor koopmannen = mContext.getContentResolver().query(
+                MakkelijkeMarktProvider.mUriKoopmanJoined,
+                new String[] { MakkelijkeMarktProvider.Koopman.COL_FOTO_URL },
+                MakkelijkeMarktProvider.mTableSollicitatie + "." + MakkelijkeMarktProvider.Sollicitatie.COL_MARKT_ID + " = ?",
+                new String[] { String.valueOf(marktId) },
+                null);
+        if (koopmannen != null) {
+            int fotoUrlIndex = koopmannen.getColumnIndex(MakkelijkeMarktProvider.Koopman.COL_FOTO_URL);
+            while (koopmannen.moveToNext() && fotoUrls.size() < batchSize) {
+                String fotoUrl = koopmannen.getString(fotoUrlIndex);
+                if (fotoUrl != null && !fotoUrl.isEmpty() && mPrefetched.add(fotoUrl)) {
+                    fotoUrls.add(fotoUrl);
+                }
+            }
+            koopmannen.close();
+        }
+
+        if (fotoUrls.size() > 0) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (String fotoUrl : fotoUrls) {
+                        Utility.loadKoopmanThumbnail(mContext, fotoUrl).preload();
+                    }
+                }
+            });
+        }
+
+        return false;
+    }
+}